@@ -360,37 +360,29 @@ document.addEventListener('DOMContentLoaded', () => {
     chrome.storage.sync.get(['apiUrl'], (result) => {
       const apiUrl = result.apiUrl || 'http://localhost:8080';
       
-      // Call backend API
-      fetch(`${apiUrl}/api/generate-reply`, {
-        method: 'POST',
-        headers: {
-          'Content-Type': 'application/json'
-        },
-        body: JSON.stringify({
-          emailContent: emailBody || 'No email content found',
-          tone: tone
-        })
-      })
-      .then(response => {
-        if (!response.ok) {
-          throw new Error(`HTTP error! Status: ${response.status}`);
+      // Call backend streaming API and render the reply as it is generated
+      streamReply(`${apiUrl}/api/generate-reply/stream`, {
+        content: emailBody || 'No email content found',
+        tone: tone
+      }, (text) => {
+        const composeArea = findComposeArea(composeWindow);
+        if (!composeArea) {
+          throw new Error('Could not find compose area to insert reply');
         }
-        return response.json();
+        // First chunk arrived, so the spinner is no longer needed
+        if (loadingOverlay.parentElement) {
+          loadingOverlay.parentElement.removeChild(loadingOverlay);
+        }
+        composeArea.innerText = text;
       })
-      .then(data => {
-        // Insert generated reply into compose area
+      .then(() => {
         const composeArea = findComposeArea(composeWindow);
         if (composeArea) {
-          // Insert the reply
-          composeArea.innerHTML = data.generatedReply;
-          
           // Trigger input event to ensure Gmail registers the change
           composeArea.dispatchEvent(new Event('input', { bubbles: true }));
           
           // Focus on the compose area
           composeArea.focus();
-        } else {
-          throw new Error('Could not find compose area to insert reply');
         }
       })
       .catch(error => {
@@ -409,6 +401,24 @@ document.addEventListener('DOMContentLoaded', () => {
     });
   }
   
+  // Function to request a streamed reply, calling onText with the reply
+  // accumulated so far after every delta (see reply-stream.js)
+  async function streamReply(url, body, onText) {
+    const response = await fetch(url, {
+      method: 'POST',
+      headers: {
+        'Content-Type': 'application/json',
+        'Accept': 'text/event-stream'
+      },
+      body: JSON.stringify(body)
+    });
+    if (!response.ok) {
+      throw new Error(`HTTP error! Status: ${response.status}`);
+    }
+    
+    return readReplyStream(response, onText);
+  }
+  
   // Function to show Gmail-style notification
   function showNotification(composeWindow, message, type = 'info') {
     const notification = document.createElement('div');
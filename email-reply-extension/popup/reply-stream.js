@@ -0,0 +1,45 @@
+// Reads the Server-Sent Events stream of /api/generate-reply/stream from a fetch
+// response, calling onText with the reply accumulated so far after every delta.
+// Resolves with the whole reply; an error event rejects with its message.
+// Comment lines, such as the server's heartbeats, are skipped.
+//
+// Same function as frontend/ai-email-frontend/src/replyStream.js, which has the
+// tests; they run against this copy too, so a change to one must be made to the other.
+async function readReplyStream(response, onText) {
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffer = '';
+  let text = '';
+
+  while (true) {
+    const { value, done } = await reader.read();
+    if (done) break;
+    buffer += decoder.decode(value, { stream: true });
+
+    let boundary;
+    while ((boundary = buffer.search(/\r?\n\r?\n/)) >= 0) {
+      const rawEvent = buffer.slice(0, boundary);
+      buffer = buffer.slice(boundary).replace(/^\r?\n\r?\n/, '');
+
+      let event = 'message';
+      const data = [];
+      rawEvent.split(/\r?\n/).forEach((line) => {
+        if (line.startsWith('event:')) event = line.slice(6).trim();
+        else if (line.startsWith('data:')) data.push(line.slice(5));
+      });
+      if (data.length === 0) continue;
+      const payload = JSON.parse(data.join('\n'));
+
+      if (event === 'delta') {
+        text += payload.text;
+        onText(text);
+      } else if (event === 'done') {
+        onText(payload.reply);
+        return payload.reply;
+      } else if (event === 'error') {
+        throw new Error(payload.reply);
+      }
+    }
+  }
+  return text;
+}
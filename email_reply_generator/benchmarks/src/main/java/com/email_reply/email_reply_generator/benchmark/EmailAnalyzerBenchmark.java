@@ -0,0 +1,42 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.email_reply.email_reply_generator.service.EmailAnalyzerService;
+
+/**
+ * Analysis of an incoming email: feature extraction, sender and recipient names and the email type.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailAnalyzerBenchmark {
+
+    private final EmailAnalyzerService analyzer = new EmailAnalyzerService();
+
+    @Benchmark
+    public EmailAnalyzerService.EmailContext analyzeEmail(EmailInput input) {
+        return analyzer.analyzeEmail(input.content, input.subject);
+    }
+
+    /**
+     * Without a subject, which is then extracted from the content
+     */
+    @Benchmark
+    public EmailAnalyzerService.EmailContext analyzeEmailWithoutSubject(EmailInput input) {
+        return analyzer.analyzeEmail(input.content, null);
+    }
+}
@@ -0,0 +1,61 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.email_reply.email_reply_generator.config.ExampleStoreConfig;
+import com.email_reply.email_reply_generator.service.ExampleStore;
+import com.email_reply.email_reply_generator.util.EmailExamples;
+import com.email_reply.email_reply_generator.util.EmailExamples.EmailExchange;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Lookups of example exchanges: the static {@link EmailExamples} accessors, and the retrieval of
+ * the examples most similar to an email from the built-in corpus that the prompt uses.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailExamplesBenchmark {
+
+    private final ExampleStore exampleStore = new ExampleStore(new ExampleStoreConfig(), new ObjectMapper());
+
+    @Benchmark
+    public EmailExchange getExampleByScenario() {
+        return EmailExamples.getExampleByScenario("Vendor Communication");
+    }
+
+    @Benchmark
+    public Map<String, List<EmailExchange>> getExamplesByScenario() {
+        return EmailExamples.getExamplesByScenario();
+    }
+
+    @Benchmark
+    public Map<String, List<EmailExchange>> getExamplesByTone() {
+        return EmailExamples.getExamplesByTone();
+    }
+
+    @Benchmark
+    public List<EmailExchange> getExampleExchanges() {
+        return EmailExamples.getExampleExchanges();
+    }
+
+    @Benchmark
+    public List<EmailExchange> findSimilar(EmailInput input) {
+        return exampleStore.findSimilar(input.content, input.subject, 2);
+    }
+}
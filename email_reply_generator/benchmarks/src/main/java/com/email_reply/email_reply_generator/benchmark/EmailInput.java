@@ -0,0 +1,115 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * An email to benchmark with, by size and shape. Benchmarks that take it as an argument are run
+ * for every combination of the parameters.
+ */
+@State(Scope.Benchmark)
+public class EmailInput {
+
+    /**
+     * What the email looks like
+     */
+    public enum Shape {
+        /**
+         * A single message of plain text paragraphs
+         */
+        PLAIN,
+
+        /**
+         * A reply thread in which every earlier message is quoted one level deeper
+         */
+        QUOTED,
+
+        /**
+         * A message as pasted from an HTML mail client, markup included
+         */
+        HTML
+    }
+
+    /**
+     * Approximate size of the email in KB
+     */
+    @Param({"1", "32", "1024"})
+    public int sizeKb;
+
+    @Param({"PLAIN", "QUOTED", "HTML"})
+    public Shape shape;
+
+    public String subject;
+    public String content;
+
+    private static final String[] PARAGRAPHS = {
+            "Thanks for sending over the draft agenda. I went through it with the team this morning and we "
+                    + "would like to add a short item on the delivery timeline for the second phase.",
+            "Could we schedule a call next week to go over the open questions? Tuesday or Thursday afternoon "
+                    + "would work best for us, but let me know what suits your availability.",
+            "On the pricing side, the package we discussed still looks like the right fit. I have asked "
+                    + "finance for the details of the service levels so we can compare the offerings.",
+            "One issue came up during testing: the export fails for accounts with more than a thousand "
+                    + "contacts. The team is looking into it and I will send an update on our progress.",
+    };
+
+    @Setup
+    public void setUp() {
+        subject = "Re: Project kickoff and next steps";
+        int size = sizeKb * 1024;
+        content = switch (shape) {
+            case PLAIN -> plain(size);
+            case QUOTED -> quoted(size);
+            case HTML -> html(size);
+        };
+    }
+
+    private static String plain(int size) {
+        StringBuilder email = new StringBuilder(size + 512)
+                .append("Subject: Project kickoff and next steps\n")
+                .append("From: Jane Smith <jane.smith@example.com>\n\n")
+                .append("Hi John,\n\n");
+        for (int i = 0; email.length() < size; i++) {
+            email.append(PARAGRAPHS[i % PARAGRAPHS.length]).append("\n\n");
+        }
+        return email.append("Best regards,\nJane Smith\n").toString();
+    }
+
+    /**
+     * Newest message first; each earlier one is quoted one level deeper than the one after it,
+     * until the thread has the size.
+     */
+    private static String quoted(int size) {
+        StringBuilder email = new StringBuilder(size + 4096)
+                .append("Hi John,\n\n")
+                .append(PARAGRAPHS[1]).append("\n\n")
+                .append("Best regards,\nJane\n\n");
+        for (int depth = 1; email.length() < size; depth++) {
+            String quote = "> ".repeat(depth);
+            String author = depth % 2 == 1 ? "John Doe <john.doe@example.com>" : "Jane Smith <jane.smith@example.com>";
+            email.append(quote.substring(2)).append("On Mon, 3 Jun 2024 at 09:").append(10 + depth % 50)
+                    .append(", ").append(author).append(" wrote:\n");
+            for (int i = 0; i < 3; i++) {
+                email.append(quote).append(PARAGRAPHS[(depth + i) % PARAGRAPHS.length]).append('\n')
+                        .append(quote).append('\n');
+            }
+            email.append(quote).append(depth % 2 == 1 ? "Thanks,\n" : "Best regards,\n")
+                    .append(quote).append(depth % 2 == 1 ? "John" : "Jane").append("\n\n");
+        }
+        return email.toString();
+    }
+
+    private static String html(int size) {
+        StringBuilder email = new StringBuilder(size + 512)
+                .append("<html><head><style>p { margin: 0; }</style></head><body>")
+                .append("<div dir=\"ltr\"><p>Hi John,</p><br>");
+        for (int i = 0; email.length() < size; i++) {
+            email.append("<p style=\"font-family: Arial, sans-serif; font-size: 14px\">")
+                    .append(PARAGRAPHS[i % PARAGRAPHS.length].replace("the team", "<b>the team</b>"))
+                    .append("</p>\n<div><br></div>\n");
+        }
+        return email.append("<p>Best regards,<br>Jane Smith</p></div></body></html>\n").toString();
+    }
+}
@@ -0,0 +1,63 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.email_reply.email_reply_generator.util.EmailUtils;
+
+/**
+ * Every method of {@link EmailUtils}. The greeting and closing do not depend on the email,
+ * so they are not run per email size and shape.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class EmailUtilsBenchmark {
+
+    @Benchmark
+    public String extractSubject(EmailInput input) {
+        return EmailUtils.extractSubject(input.content);
+    }
+
+    @Benchmark
+    public String extractSenderName(EmailInput input) {
+        return EmailUtils.extractSenderName(input.content);
+    }
+
+    @Benchmark
+    public boolean isJobApplication(EmailInput input) {
+        return EmailUtils.isJobApplication(input.content);
+    }
+
+    @Benchmark
+    public boolean isComplaint(EmailInput input) {
+        return EmailUtils.isComplaint(input.content);
+    }
+
+    @Benchmark
+    public String cleanEmailContent(EmailInput input) {
+        return EmailUtils.cleanEmailContent(input.content);
+    }
+
+    @Benchmark
+    public String generateGreeting() {
+        return EmailUtils.generateGreeting("Jane Smith", "professional");
+    }
+
+    @Benchmark
+    public String generateClosing() {
+        return EmailUtils.generateClosing("John Doe", "friendly");
+    }
+}
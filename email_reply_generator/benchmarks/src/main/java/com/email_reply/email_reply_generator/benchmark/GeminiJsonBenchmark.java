@@ -0,0 +1,115 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.StringWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+
+import com.email_reply.email_reply_generator.model.GeminiResponse;
+import com.email_reply.email_reply_generator.util.GeminiJson;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writing a generateContent request for a prompt of the email's size, and reading a response and a
+ * streamed chunk whose text is the email, with a JSON factory set up like the application's.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GeminiJsonBenchmark {
+
+    private final JsonFactory factory = JsonFactory.builder()
+            .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+            .build();
+    private final DefaultDataBufferFactory bufferFactory = DefaultDataBufferFactory.sharedInstance;
+
+    private String prompt;
+    private String responseJson;
+    private byte[] responseBytes;
+
+    @Setup
+    public void setUp(EmailInput input) throws IOException {
+        prompt = input.content;
+        DataBuffer request = writeRequest();
+        if (request.readableByteCount() < prompt.length()) {
+            throw new IllegalStateException("Request body is shorter than its prompt");
+        }
+
+        StringWriter response = new StringWriter();
+        try (JsonGenerator generator = factory.createGenerator(response)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("candidates");
+            generator.writeStartObject();
+            generator.writeObjectFieldStart("content");
+            generator.writeArrayFieldStart("parts");
+            generator.writeStartObject();
+            generator.writeStringField("text", input.content);
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeStringField("role", "model");
+            generator.writeEndObject();
+            generator.writeStringField("finishReason", "STOP");
+            generator.writeEndObject();
+            generator.writeEndArray();
+            generator.writeObjectFieldStart("usageMetadata");
+            generator.writeNumberField("promptTokenCount", 1200);
+            generator.writeNumberField("candidatesTokenCount", input.content.length() / 4);
+            generator.writeNumberField("totalTokenCount", 1200 + input.content.length() / 4);
+            generator.writeEndObject();
+            generator.writeStringField("modelVersion", "gemini-1.5-pro-002");
+            generator.writeEndObject();
+        }
+        responseJson = response.toString();
+        responseBytes = responseJson.getBytes(StandardCharsets.UTF_8);
+        if (!input.content.equals(readResponse().getText())) {
+            throw new IllegalStateException("Response text did not survive parsing");
+        }
+    }
+
+    /**
+     * The request body as GeminiJson.body generates it into the outbound buffer
+     */
+    @Benchmark
+    public DataBuffer writeRequest() throws IOException {
+        DataBuffer buffer = bufferFactory.allocateBuffer(prompt.length() + 256);
+        try (OutputStream out = buffer.asOutputStream();
+                JsonGenerator generator = factory.createGenerator(out)) {
+            GeminiJson.writeGenerateRequest(generator, prompt, null, 8192);
+        }
+        return buffer;
+    }
+
+    /**
+     * A complete response body as it arrives in a buffer
+     */
+    @Benchmark
+    public GeminiResponse readResponse() throws IOException {
+        return GeminiJson.readResponse(factory, bufferFactory.wrap(responseBytes));
+    }
+
+    /**
+     * The data of one Server-Sent Event of a streamed response
+     */
+    @Benchmark
+    public GeminiResponse readChunk() throws IOException {
+        return GeminiJson.readResponse(factory, responseJson);
+    }
+}
@@ -0,0 +1,142 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.email_reply.email_reply_generator.util.EmailExamples;
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+
+/**
+ * Compares email classification with the single-pass keyword automaton against the previous
+ * chain of {@code String.contains} calls on a lower-cased copy of the text.
+ * <p>
+ * Run {@link #main} from the IDE, or {@code java -jar target/benchmarks.jar KeywordClassification}
+ * (see {@link BenchmarkMain}).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeywordClassificationBenchmark {
+
+    /**
+     * Size of the email thread in KB
+     */
+    @Param({"1", "100"})
+    public int threadKb;
+
+    /**
+     * Whether the thread matches an early rule (meeting request) or falls through to the default
+     */
+    @Param({"MEETING_REQUEST", "GENERAL_CORRESPONDENCE"})
+    public String expectedType;
+
+    private String content;
+    private String subject;
+
+    @Setup
+    public void setUp() {
+        StringBuilder thread = new StringBuilder();
+        String filler = "> Quoted text of an earlier message in this thread, kept for reference only.\n";
+        String body = expectedType.equals("MEETING_REQUEST")
+                ? EmailExamples.getExampleByScenario("Meeting Request").getOriginalEmail() + "\n"
+                : "Hello,\n\nPlease see the notes below.\n\nThanks,\nJohn\n";
+        thread.append(body);
+        while (thread.length() < threadKb * 1024) {
+            thread.append(filler);
+        }
+        content = thread.toString();
+        subject = "Re: notes";
+
+        String automaton = EmailKeywordRules.classify(content, subject);
+        String legacy = legacyClassify(content, subject);
+        if (!automaton.equals(expectedType) || !legacy.equals(expectedType)) {
+            throw new IllegalStateException("Classifiers disagree: automaton=" + automaton + ", legacy=" + legacy);
+        }
+    }
+
+    @Benchmark
+    public String automaton() {
+        return EmailKeywordRules.classify(content, subject);
+    }
+
+    @Benchmark
+    public String containsChain() {
+        return legacyClassify(content, subject);
+    }
+
+    /**
+     * The classification as it was implemented before the keyword automaton.
+     */
+    private static String legacyClassify(String content, String subject) {
+        String combinedText = (content + " " + (subject != null ? subject : "")).toLowerCase();
+
+        if ((combinedText.contains("schedule") || combinedText.contains("meeting") ||
+             combinedText.contains("discuss") || combinedText.contains("availability")) &&
+            (combinedText.contains("time") || combinedText.contains("when") ||
+             combinedText.contains("week") || combinedText.contains("day"))) {
+            return "MEETING_REQUEST";
+        }
+        if ((combinedText.contains("status") || combinedText.contains("update") ||
+             combinedText.contains("progress") || combinedText.contains("timeline")) &&
+            (combinedText.contains("project") || combinedText.contains("task") ||
+             combinedText.contains("initiative"))) {
+            return "PROJECT_UPDATE";
+        }
+        if ((combinedText.contains("interested in") || combinedText.contains("inquiry") ||
+             combinedText.contains("information") || combinedText.contains("details") ||
+             combinedText.contains("pricing")) &&
+            (combinedText.contains("product") || combinedText.contains("service") ||
+             combinedText.contains("package") || combinedText.contains("offering"))) {
+            return "CUSTOMER_INQUIRY";
+        }
+        if (combinedText.contains("complaint") || combinedText.contains("issue") ||
+            combinedText.contains("problem") || combinedText.contains("disappointed") ||
+            combinedText.contains("unacceptable") || combinedText.contains("outage")) {
+            return "CUSTOMER_COMPLAINT";
+        }
+        if ((combinedText.contains("application") || combinedText.contains("apply") ||
+             combinedText.contains("resume") || combinedText.contains("cv")) &&
+            (combinedText.contains("position") || combinedText.contains("job") ||
+             combinedText.contains("role") || combinedText.contains("vacancy"))) {
+            return "JOB_APPLICATION";
+        }
+        if (combinedText.contains("follow") && combinedText.contains("up") ||
+            combinedText.contains("following up") ||
+            (combinedText.contains("discuss") && combinedText.contains("from") &&
+             (combinedText.contains("meeting") || combinedText.contains("call")))) {
+            return "FOLLOW_UP";
+        }
+        if ((combinedText.contains("order") || combinedText.contains("delivery") ||
+             combinedText.contains("shipment")) &&
+            (combinedText.contains("status") || combinedText.contains("update") ||
+             combinedText.contains("delay") || combinedText.contains("due"))) {
+            return "VENDOR_COMMUNICATION";
+        }
+        return "GENERAL_CORRESPONDENCE";
+    }
+
+    public static void main(String[] args) throws RunnerException {
+        new Runner(new OptionsBuilder()
+                .include(KeywordClassificationBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build()).run();
+    }
+}
@@ -0,0 +1,52 @@
+package com.email_reply.email_reply_generator.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.email_reply.email_reply_generator.config.ExampleStoreConfig;
+import com.email_reply.email_reply_generator.config.PromptConfig;
+import com.email_reply.email_reply_generator.service.EmailReplyService;
+import com.email_reply.email_reply_generator.service.ExampleStore;
+import com.email_reply.email_reply_generator.service.PromptService;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/**
+ * Building the prompt for an email with the default settings: picking the few-shot examples,
+ * compacting the thread to the input token budget and assembling the text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PromptBenchmark {
+
+    private PromptService promptService;
+    private EmailReplyService.EmailContext context;
+
+    @Setup
+    public void setUp(EmailInput input) {
+        ExampleStoreConfig exampleConfig = new ExampleStoreConfig();
+        promptService = new PromptService(new PromptConfig(), exampleConfig,
+                new ExampleStore(exampleConfig, new ObjectMapper()), new SimpleMeterRegistry());
+        context = EmailReplyService.EmailContext.createBasic(input.subject, input.content, "Jane Smith");
+    }
+
+    @Benchmark
+    public PromptService.Prompt buildEmailReplyPrompt() {
+        return promptService.buildEmailReplyPrompt(context, "professional");
+    }
+}
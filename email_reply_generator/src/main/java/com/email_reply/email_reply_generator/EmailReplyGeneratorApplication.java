@@ -2,8 +2,10 @@ package com.email_reply.email_reply_generator;
 
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.context.properties.ConfigurationPropertiesScan;
 
 @SpringBootApplication
+@ConfigurationPropertiesScan
 public class EmailReplyGeneratorApplication {
 
     public static void main(String[] args) {
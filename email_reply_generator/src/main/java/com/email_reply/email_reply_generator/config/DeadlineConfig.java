@@ -0,0 +1,39 @@
+package com.email_reply.email_reply_generator.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for request deadlines. A client sets the deadline of a request with the
+ * X-Request-Timeout header, in milliseconds; requests without it get the default of their endpoint.
+ */
+@ConfigurationProperties(prefix = "reply.deadline")
+@Data
+@Validated
+public class DeadlineConfig {
+
+    /**
+     * Default deadline of POST /api/generate-reply
+     */
+    private Duration replyTimeout = Duration.ofSeconds(30);
+
+    /**
+     * Default deadline of POST /api/generate-reply/stream, until the last chunk
+     */
+    private Duration streamTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Longest deadline a client may ask for; longer ones are cut to this
+     */
+    private Duration maxTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Interval of keep-alive comments on reply streams; a write to a closed connection is how the
+     * disconnect of a client is detected and its model call cancelled
+     */
+    private Duration heartbeat = Duration.ofSeconds(1);
+}
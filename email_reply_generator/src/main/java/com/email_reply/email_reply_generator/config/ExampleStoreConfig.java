@@ -0,0 +1,35 @@
+package com.email_reply.email_reply_generator.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for the few-shot example store.
+ */
+@ConfigurationProperties(prefix = "reply.examples")
+@Data
+@Validated
+public class ExampleStoreConfig {
+
+    /**
+     * Whether prompts include example exchanges similar to the email
+     */
+    private boolean enabled = true;
+
+    /**
+     * JSON Lines file of example exchanges; the built-in examples are used when it is not set
+     */
+    private String corpusPath;
+
+    /**
+     * Maximum number of examples included in a prompt
+     */
+    private int topK = 2;
+
+    /**
+     * Estimated tokens all examples of a prompt may take together
+     */
+    private int maxTokens = 1500;
+}
@@ -1,10 +1,15 @@
 package com.email_reply.email_reply_generator.config;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
 import org.springframework.boot.context.properties.ConfigurationProperties;
 import org.springframework.context.annotation.Primary;
 import org.springframework.validation.annotation.Validated;
 
 import lombok.Data;
+import lombok.NoArgsConstructor;
 
 /**
  * Configuration class for Gemini API properties.
@@ -15,19 +20,390 @@ import lombok.Data;
 @Data
 @Validated
 public class GeminiApiConfig {
-    
+
     /**
      * API key for Gemini AI service
      */
     private String key;
-    
+
     /**
      * Base URL for the Gemini API
      */
     private String url;
-    
+
     /**
      * Model name to use for generation
      */
     private String model;
+
+    /**
+     * Maximum time allowed to establish a TCP connection to the API
+     */
+    private Duration connectTimeout = Duration.ofSeconds(5);
+
+    /**
+     * Maximum time without any data being read from an open connection
+     */
+    private Duration readTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Maximum time between sending the request and receiving the response headers
+     */
+    private Duration responseTimeout = Duration.ofSeconds(60);
+
+    /**
+     * Connection pool settings for the shared Gemini client
+     */
+    private Pool pool = new Pool();
+
+    /**
+     * Limits on concurrent calls to the API
+     */
+    private Concurrency concurrency = new Concurrency();
+
+    /**
+     * Retries of transient upstream failures
+     */
+    private RetryPolicy retry = new RetryPolicy();
+
+    /**
+     * Hedged (duplicate) requests for slow upstream responses
+     */
+    private Hedging hedge = new Hedging();
+
+    /**
+     * Circuit breaker that stops calling the API while it keeps failing
+     */
+    private CircuitBreaker circuitBreaker = new CircuitBreaker();
+
+    /**
+     * Context caching of the fixed instruction prefix of prompts
+     */
+    private ContextCache contextCache = new ContextCache();
+
+    /**
+     * API keys (and optionally endpoints) that calls are spread over; without any,
+     * the single key and url above are used
+     */
+    private List<Credential> credentials = new ArrayList<>();
+
+    /**
+     * Local rate limits and ejection of API keys
+     */
+    private KeyPool keyPool = new KeyPool();
+
+    /**
+     * How interactive, background and bulk calls share the upstream capacity
+     */
+    private Scheduling scheduling = new Scheduling();
+
+    /**
+     * Length limit of generated replies
+     */
+    private OutputLimit outputLimit = new OutputLimit();
+
+    @Data
+    public static class OutputLimit {
+
+        /**
+         * maxOutputTokens of every request
+         */
+        private int maxTokens = 8192;
+    }
+
+    @Data
+    public static class Pool {
+
+        /**
+         * Maximum number of open connections to the API
+         */
+        private int maxConnections = 100;
+
+        /**
+         * Maximum number of requests waiting for a free connection
+         */
+        private int pendingAcquireMaxCount = 500;
+
+        /**
+         * Maximum time a request may wait for a free connection
+         */
+        private Duration pendingAcquireTimeout = Duration.ofSeconds(10);
+
+        /**
+         * Idle keep-alive connections are closed after this time
+         */
+        private Duration maxIdleTime = Duration.ofSeconds(30);
+
+        /**
+         * Connections are recycled after this time, even when busy
+         */
+        private Duration maxLifeTime = Duration.ofMinutes(5);
+    }
+
+    @Data
+    public static class Concurrency {
+
+        /**
+         * Maximum number of model calls in flight at once
+         */
+        private int maxInFlight = 64;
+
+        /**
+         * Whether the in-flight limit adapts to observed upstream latency and overload responses.
+         * When disabled the limit is fixed at maxInFlight.
+         */
+        private boolean adaptive = true;
+
+        /**
+         * Starting limit for the adaptive limiter
+         */
+        private int initialInFlight = 16;
+
+        /**
+         * Lowest limit the adaptive limiter may shrink to
+         */
+        private int minInFlight = 2;
+
+        /**
+         * Factor the limit is multiplied by on overload (429/503/timeout) or a latency spike
+         */
+        private double backoffRatio = 0.9;
+
+        /**
+         * A call slower than this multiple of the long-term average latency of comparable calls (same
+         * model, per generated token or to the first streamed chunk) counts as a latency spike
+         */
+        private double latencyTolerance = 2.0;
+
+        /**
+         * Maximum number of calls waiting for a free slot; further calls are rejected
+         */
+        private int maxQueueDepth = 1000;
+
+        /**
+         * Maximum time a call may wait for a free slot
+         */
+        private Duration maxQueueWait = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class RetryPolicy {
+
+        /**
+         * Total attempts per call, including the first one; 1 disables retries
+         */
+        private int maxAttempts = 3;
+
+        /**
+         * Backoff cap for the first retry; it doubles for each further retry
+         */
+        private Duration initialBackoff = Duration.ofMillis(500);
+
+        /**
+         * Upper bound for a single backoff
+         */
+        private Duration maxBackoff = Duration.ofSeconds(10);
+
+        /**
+         * Maximum time from the first attempt after which no further retry is started
+         */
+        private Duration budget = Duration.ofSeconds(30);
+    }
+
+    @Data
+    public static class Hedging {
+
+        /**
+         * Whether a second request is sent when the first one is slow
+         */
+        private boolean enabled = false;
+
+        /**
+         * Latency percentile of recent calls after which the hedge is sent
+         */
+        private double percentile = 0.95;
+
+        /**
+         * The hedge is never sent earlier than this
+         */
+        private Duration minDelay = Duration.ofMillis(500);
+
+        /**
+         * Calls to observe before hedging starts
+         */
+        private int minSamples = 20;
+    }
+
+    @Data
+    public static class CircuitBreaker {
+
+        /**
+         * Whether failing calls can open the circuit
+         */
+        private boolean enabled = true;
+
+        /**
+         * Length of the rolling window the failure rate is computed over
+         */
+        private Duration window = Duration.ofSeconds(30);
+
+        /**
+         * Calls the window must contain before the failure rate is considered
+         */
+        private int minimumCalls = 10;
+
+        /**
+         * Failure rate (0-1) at or above which the circuit opens
+         */
+        private double failureRateThreshold = 0.5;
+
+        /**
+         * Time the circuit stays open before trial calls are let through
+         */
+        private Duration openDuration = Duration.ofSeconds(30);
+
+        /**
+         * Trial calls allowed while half-open; the circuit closes once they all succeed
+         */
+        private int halfOpenCalls = 3;
+    }
+
+    @Data
+    public static class ContextCache {
+
+        /**
+         * Whether prompt prefixes are registered as cached contents and referenced by requests;
+         * only useful with prompt prefixes of at least minPrefixTokens
+         */
+        private boolean enabled = false;
+
+        /**
+         * Lifetime requested for a cached content; it is extended while the prefix is in use
+         */
+        private Duration ttl = Duration.ofHours(1);
+
+        /**
+         * How long before expiry a cached content in use has its lifetime extended
+         */
+        private Duration refreshAhead = Duration.ofMinutes(5);
+
+        /**
+         * How long to send full prompts for a prefix after registering it failed
+         */
+        private Duration retryAfterFailure = Duration.ofMinutes(10);
+
+        /**
+         * Estimated tokens a prefix must have to be registered; the API rejects smaller cached contents
+         */
+        private int minPrefixTokens = 4096;
+    }
+
+    @Data
+    public static class Credential {
+
+        /**
+         * Name of the key in logs and metrics; defaults to its position, e.g. "key-0"
+         */
+        private String name;
+
+        /**
+         * API key
+         */
+        private String key;
+
+        /**
+         * Base URL of the models collection for this key; defaults to gemini.api.url
+         */
+        private String url;
+
+        /**
+         * Requests per minute the key's quota allows; defaults to key-pool.requests-per-minute
+         */
+        private Integer requestsPerMinute;
+
+        /**
+         * Input and output tokens per minute the key's quota allows; defaults to key-pool.tokens-per-minute
+         */
+        private Integer tokensPerMinute;
+    }
+
+    @Data
+    public static class KeyPool {
+
+        /**
+         * Default requests per minute of a key; 0 for no local limit
+         */
+        private int requestsPerMinute = 360;
+
+        /**
+         * Default tokens per minute of a key; 0 for no local limit
+         */
+        private int tokensPerMinute = 4_000_000;
+
+        /**
+         * Consecutive 429 responses after which a key is ejected
+         */
+        private int ejectAfter429s = 3;
+
+        /**
+         * How long an ejected key receives no calls
+         */
+        private Duration ejectionDuration = Duration.ofMinutes(1);
+
+        /**
+         * Longest a call waits for a key with headroom; calls that would wait longer are shed
+         */
+        private Duration maxWait = Duration.ofSeconds(10);
+    }
+
+    @Data
+    public static class Scheduling {
+
+        /**
+         * Calls a user is waiting for, such as a single reply
+         */
+        private PriorityClass interactive = new PriorityClass(8, 1.0, null);
+
+        /**
+         * Calls nobody is watching as they happen, such as asynchronous jobs
+         */
+        private PriorityClass background = new PriorityClass(3, 1.0, Duration.ofMinutes(2));
+
+        /**
+         * Calls of large batches, which get the capacity the other classes leave
+         */
+        private PriorityClass bulk = new PriorityClass(1, 0.75, Duration.ofMinutes(2));
+    }
+
+    @Data
+    @NoArgsConstructor
+    public static class PriorityClass {
+
+        /**
+         * Relative share of the free slots the class gets while several classes are waiting
+         */
+        private int weight = 1;
+
+        /**
+         * Fraction (0-1] of the concurrency limit and of each key's quota the class may use,
+         * leaving the rest to other classes
+         */
+        private double maxShare = 1.0;
+
+        /**
+         * Maximum number of calls of the class waiting for a free slot; null for concurrency.max-queue-depth
+         */
+        private Integer maxQueueDepth;
+
+        /**
+         * Maximum time a call of the class may wait for a free slot; null for concurrency.max-queue-wait
+         */
+        private Duration maxQueueWait;
+
+        PriorityClass(int weight, double maxShare, Duration maxQueueWait) {
+            this.weight = weight;
+            this.maxShare = maxShare;
+            this.maxQueueWait = maxQueueWait;
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.email_reply.email_reply_generator.config;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.boot.autoconfigure.condition.ConditionalOnThreading;
+import org.springframework.boot.autoconfigure.thread.Threading;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.MediaType;
+import org.springframework.http.client.reactive.ReactorClientHttpConnector;
+import org.springframework.web.reactive.function.client.WebClient;
+
+import io.netty.channel.ChannelOption;
+import io.netty.handler.timeout.ReadTimeoutHandler;
+import lombok.extern.slf4j.Slf4j;
+import reactor.netty.http.client.HttpClient;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import reactor.netty.resources.ConnectionProvider;
+
+/**
+ * Builds the single, shared non-blocking HTTP client used for every call to the Gemini API.
+ */
+@Configuration
+@Slf4j
+public class GeminiClientConfig {
+
+    /**
+     * Upper bound for a buffered (non-streaming) Gemini response body.
+     */
+    private static final int MAX_IN_MEMORY_SIZE = 2 * 1024 * 1024;
+
+    @Bean(destroyMethod = "dispose")
+    public ConnectionProvider geminiConnectionProvider(GeminiApiConfig config) {
+        GeminiApiConfig.Pool pool = config.getPool();
+        log.info("Configuring Gemini connection pool with {} max connections", pool.getMaxConnections());
+        return ConnectionProvider.builder("gemini")
+                .maxConnections(pool.getMaxConnections())
+                .pendingAcquireMaxCount(pool.getPendingAcquireMaxCount())
+                .pendingAcquireTimeout(pool.getPendingAcquireTimeout())
+                .maxIdleTime(pool.getMaxIdleTime())
+                .maxLifeTime(pool.getMaxLifeTime())
+                .evictInBackground(pool.getMaxIdleTime())
+                .build();
+    }
+
+    @Bean
+    public WebClient geminiWebClient(WebClient.Builder builder, ConnectionProvider geminiConnectionProvider,
+                                     GeminiApiConfig config) {
+        HttpClient httpClient = HttpClient.create(geminiConnectionProvider)
+                .keepAlive(true)
+                .compress(true)
+                .option(ChannelOption.CONNECT_TIMEOUT_MILLIS, (int) config.getConnectTimeout().toMillis())
+                .responseTimeout(config.getResponseTimeout())
+                .doOnConnected(connection -> connection.addHandlerLast(
+                        new ReadTimeoutHandler(config.getReadTimeout().toMillis(), TimeUnit.MILLISECONDS)));
+
+        return builder
+                .baseUrl(config.getUrl())
+                .clientConnector(new ReactorClientHttpConnector(httpClient))
+                .defaultHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON_VALUE)
+                .codecs(codecs -> codecs.defaultCodecs().maxInMemorySize(MAX_IN_MEMORY_SIZE))
+                .build();
+    }
+
+    /**
+     * With virtual threads enabled (spring.threads.virtual.enabled=true), Gemini responses are
+     * handed on to the rest of the reply pipeline on virtual threads instead of the Netty event loop.
+     * Responses are read into their text and usage as they arrive, which is a single pass over
+     * the received bytes.
+     */
+    @Bean(name = "geminiScheduler", destroyMethod = "dispose")
+    @ConditionalOnThreading(Threading.VIRTUAL)
+    public Scheduler virtualThreadGeminiScheduler() {
+        log.info("Gemini responses are processed on virtual threads");
+        return Schedulers.fromExecutorService(Executors.newVirtualThreadPerTaskExecutor(), "gemini-virtual");
+    }
+
+    /**
+     * On platform threads, responses are processed where they arrive, without an extra thread hop.
+     */
+    @Bean(name = "geminiScheduler")
+    @ConditionalOnThreading(Threading.PLATFORM)
+    public Scheduler platformThreadGeminiScheduler() {
+        return Schedulers.immediate();
+    }
+}
@@ -0,0 +1,29 @@
+package com.email_reply.email_reply_generator.config;
+
+import org.springframework.boot.autoconfigure.jackson.Jackson2ObjectMapperBuilderCustomizer;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+
+/**
+ * Tunes the application's single {@link com.fasterxml.jackson.databind.ObjectMapper}, which Spring Boot
+ * builds once and shares between the MVC controllers, the WebClient codecs and the services that
+ * read or write JSON themselves.
+ */
+@Configuration
+public class JacksonConfig {
+
+    @Bean
+    public Jackson2ObjectMapperBuilderCustomizer objectMapperTuning() {
+        return builder -> builder
+                // Field names are already canonicalized per parser; interning them as well only adds
+                // contention on the JVM string table
+                .factory(JsonFactory.builder()
+                        .disable(JsonFactory.Feature.INTERN_FIELD_NAMES)
+                        .build())
+                // Gemini adds response fields over time
+                .featuresToDisable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    }
+}
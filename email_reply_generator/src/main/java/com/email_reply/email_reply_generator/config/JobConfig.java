@@ -0,0 +1,53 @@
+package com.email_reply.email_reply_generator.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for asynchronous reply jobs.
+ */
+@ConfigurationProperties(prefix = "reply.jobs")
+@Data
+@Validated
+public class JobConfig {
+
+    /**
+     * Directory of the job log; created if missing
+     */
+    private String directory = "data/jobs";
+
+    /**
+     * Number of jobs generated at the same time
+     */
+    private int workers = 4;
+
+    /**
+     * Maximum number of jobs waiting for a worker; further submissions are rejected
+     */
+    private int maxQueued = 10_000;
+
+    /**
+     * How long the result of a finished job can be fetched
+     */
+    private Duration retention = Duration.ofHours(1);
+
+    /**
+     * Longest a request for a job waits for it to finish
+     */
+    private Duration maxPollWait = Duration.ofSeconds(30);
+
+    /**
+     * Longest a job keeps retrying while the model API is saturated or unavailable; the job then fails
+     */
+    private Duration maxRetryTime = Duration.ofMinutes(30);
+
+    /**
+     * Log size above which it is rewritten with only the jobs still needed
+     */
+    private DataSize compactThreshold = DataSize.ofMegabytes(16);
+}
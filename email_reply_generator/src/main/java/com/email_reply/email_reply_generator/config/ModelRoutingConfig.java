@@ -0,0 +1,87 @@
+package com.email_reply.email_reply_generator.config;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for routing emails between models.
+ * <p>
+ * Each route names a model of a model provider. Short emails of a simple type in a light tone go
+ * to the fast route; everything else, and everything while routing is disabled, goes to the
+ * default route.
+ */
+@ConfigurationProperties(prefix = "reply.routing")
+@Data
+@Validated
+public class ModelRoutingConfig {
+
+    /**
+     * Whether emails are routed to the fast route at all
+     */
+    private boolean enabled = true;
+
+    /**
+     * Route for long, sensitive or otherwise demanding emails; without a route of this name,
+     * the default route uses gemini.api.model
+     */
+    private String defaultRoute = "pro";
+
+    /**
+     * Route for short, simple emails; routing is off without a route of this name
+     */
+    private String fastRoute = "fast";
+
+    /**
+     * Routes by name
+     */
+    private Map<String, Route> routes = new LinkedHashMap<>();
+
+    /**
+     * Longest email, in estimated tokens of its cleaned content, that may go to the fast route
+     */
+    private int fastMaxTokens = 400;
+
+    /**
+     * Email types (as classified by EmailKeywordRules) simple enough for the fast route
+     */
+    private Set<String> fastTypes = new LinkedHashSet<>(List.of(
+            EmailKeywordRules.MEETING_REQUEST,
+            EmailKeywordRules.FOLLOW_UP,
+            EmailKeywordRules.GENERAL_CORRESPONDENCE));
+
+    /**
+     * Tones the fast route writes well enough; other tones go to the default route
+     */
+    private Set<String> fastTones = new LinkedHashSet<>(List.of("friendly", "casual"));
+
+    /**
+     * Requests with less time than this left before their deadline go to the fast route,
+     * whatever the email; zero turns this off
+     */
+    private Duration fastBelowBudget = Duration.ofSeconds(10);
+
+    @Data
+    public static class Route {
+
+        /**
+         * Name of the model provider serving the route
+         */
+        private String provider = "gemini";
+
+        /**
+         * Model name as the provider knows it
+         */
+        private String model;
+    }
+}
@@ -0,0 +1,25 @@
+package com.email_reply.email_reply_generator.config;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for assembling the prompt sent to the model.
+ */
+@ConfigurationProperties(prefix = "reply.prompt")
+@Data
+@Validated
+public class PromptConfig {
+
+    /**
+     * Whether long email threads are compacted to fit the input token budget
+     */
+    private boolean compactionEnabled = true;
+
+    /**
+     * Estimated input tokens a prompt may take; older quoted messages are compacted to stay within it
+     */
+    private int maxInputTokens = 8000;
+}
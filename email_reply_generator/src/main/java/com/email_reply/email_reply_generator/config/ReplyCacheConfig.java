@@ -0,0 +1,87 @@
+package com.email_reply.email_reply_generator.config;
+
+import java.time.Duration;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.util.unit.DataSize;
+import org.springframework.validation.annotation.Validated;
+
+import lombok.Data;
+
+/**
+ * Configuration properties for the cache of generated replies.
+ */
+@ConfigurationProperties(prefix = "reply.cache")
+@Data
+@Validated
+public class ReplyCacheConfig {
+
+    /**
+     * Whether generated replies are cached at all
+     */
+    private boolean enabled = true;
+
+    /**
+     * Upper bound for the total size of cached entries, in bytes
+     */
+    private long maxSizeBytes = 64L * 1024 * 1024;
+
+    /**
+     * How long a reply stays cached after it was generated
+     */
+    private Duration ttl = Duration.ofHours(6);
+
+    /**
+     * Reuse of replies across emails that are nearly, but not exactly, the same
+     */
+    private NearDuplicate nearDuplicate = new NearDuplicate();
+
+    /**
+     * Copy of the cached replies on disk, from which the cache is warmed after a restart
+     */
+    private Persistence persistence = new Persistence();
+
+    @Data
+    public static class NearDuplicate {
+
+        /**
+         * Whether the reply to a recently answered email is reused for a near-duplicate of it
+         */
+        private boolean enabled = true;
+
+        /**
+         * Minimum similarity of two emails' SimHash fingerprints, as the fraction of equal bits,
+         * for one to count as a near-duplicate of the other
+         */
+        private double minSimilarity = 0.9;
+
+        /**
+         * Number of recently answered emails kept for matching; the oldest is dropped first
+         */
+        private int maxEntries = 10000;
+
+        /**
+         * How long the reply to an answered email may be reused
+         */
+        private Duration ttl = Duration.ofHours(6);
+    }
+
+    @Data
+    public static class Persistence {
+
+        /**
+         * Whether cached replies are written to disk and loaded again on startup
+         */
+        private boolean enabled = true;
+
+        /**
+         * Directory of the reply log; created if missing
+         */
+        private String directory = "data/replies";
+
+        /**
+         * Log size above which it is rewritten with only the replies currently cached
+         */
+        private DataSize compactThreshold = DataSize.ofMegabytes(128);
+    }
+}
@@ -0,0 +1,116 @@
+package com.email_reply.email_reply_generator.controller;
+
+import com.email_reply.email_reply_generator.dto.CacheStatsResponse;
+import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
+import com.email_reply.email_reply_generator.dto.NearDuplicateStatsResponse;
+import com.email_reply.email_reply_generator.dto.UpstreamStatsResponse;
+import com.email_reply.email_reply_generator.service.ModelRouter;
+import com.email_reply.email_reply_generator.service.NearDuplicateReplyIndex;
+import com.email_reply.email_reply_generator.service.ReplyCacheService;
+import com.email_reply.email_reply_generator.service.RequestPriority;
+import com.email_reply.email_reply_generator.service.UpstreamCircuitBreaker;
+import com.email_reply.email_reply_generator.service.UpstreamConcurrencyGate;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Operational endpoints for inspecting and managing the reply pipeline.
+ * They share the path and CORS mapping of the public API and have no authentication of their own,
+ * so they only exist when reply.admin.enabled is set, for deployments that keep /api/admin private.
+ */
+@RestController
+@RequestMapping("/api/admin")
+@ConditionalOnProperty(name = "reply.admin.enabled", havingValue = "true")
+@Slf4j
+public class AdminController {
+
+    @Autowired
+    private ReplyCacheService replyCacheService;
+
+    @Autowired
+    private NearDuplicateReplyIndex nearDuplicateReplyIndex;
+
+    @Autowired
+    private UpstreamConcurrencyGate upstreamGate;
+
+    @Autowired
+    private UpstreamCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private ModelRouter modelRouter;
+
+    @GetMapping("/cache")
+    public ResponseEntity<CacheStatsResponse> cacheStats() {
+        CacheStats stats = replyCacheService.stats();
+        return ResponseEntity.ok(new CacheStatsResponse(
+                stats.hitCount(),
+                stats.missCount(),
+                stats.hitRate(),
+                stats.evictionCount(),
+                stats.evictionWeight(),
+                replyCacheService.estimatedSize(),
+                replyCacheService.weightedSizeBytes()));
+    }
+
+    /**
+     * Removes every cached reply.
+     */
+    @DeleteMapping("/cache")
+    public ResponseEntity<Void> invalidateCache() {
+        replyCacheService.invalidateAll();
+        return ResponseEntity.noContent().build();
+    }
+
+    /**
+     * Removes the cached replies for one email and tone, whichever model they were generated with.
+     */
+    @PostMapping("/cache/invalidate")
+    public ResponseEntity<Void> invalidateCacheEntry(@RequestBody EmailReplyRequest request) {
+        log.info("Invalidating cached replies for tone: {}", request.getTone());
+        for (ModelRouter.Route route : modelRouter.routes()) {
+            replyCacheService.invalidate(replyCacheService.keyFor(request.getContent(), request.getTone(), route.getModel()));
+        }
+        return ResponseEntity.noContent().build();
+    }
+
+    @GetMapping("/near-duplicates")
+    public ResponseEntity<NearDuplicateStatsResponse> nearDuplicateStats() {
+        long hits = nearDuplicateReplyIndex.hitCount();
+        long misses = nearDuplicateReplyIndex.missCount();
+        return ResponseEntity.ok(new NearDuplicateStatsResponse(
+                hits,
+                misses,
+                hits + misses == 0 ? 0 : (double) hits / (hits + misses),
+                nearDuplicateReplyIndex.size(),
+                nearDuplicateReplyIndex.sizeBytes(),
+                nearDuplicateReplyIndex.maxDistance()));
+    }
+
+    @GetMapping("/upstream")
+    public ResponseEntity<UpstreamStatsResponse> upstreamStats() {
+        return ResponseEntity.ok(new UpstreamStatsResponse(
+                upstreamGate.permits(),
+                upstreamGate.inFlight(),
+                upstreamGate.queued(),
+                queuedByPriority(),
+                upstreamGate.maxQueueDepth(),
+                upstreamGate.rejectedCount(),
+                circuitBreaker.state().name(),
+                circuitBreaker.rejectedCount()));
+    }
+
+    private Map<String, Integer> queuedByPriority() {
+        Map<String, Integer> queued = new LinkedHashMap<>();
+        for (RequestPriority priority : RequestPriority.values()) {
+            queued.put(priority.tag(), upstreamGate.queued(priority));
+        }
+        return queued;
+    }
+}
@@ -1,12 +1,34 @@
 package com.email_reply.email_reply_generator.controller;
 
+import com.email_reply.email_reply_generator.config.DeadlineConfig;
+import com.email_reply.email_reply_generator.dto.BatchOrder;
+import com.email_reply.email_reply_generator.dto.BatchReplyItem;
+import com.email_reply.email_reply_generator.dto.EmailReplyDelta;
 import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
 import com.email_reply.email_reply_generator.dto.EmailReplyResponse;
+import com.email_reply.email_reply_generator.dto.JobResponse;
+import com.email_reply.email_reply_generator.service.BatchReplyService;
+import com.email_reply.email_reply_generator.service.Deadline;
+import com.email_reply.email_reply_generator.service.DeadlineExceededException;
 import com.email_reply.email_reply_generator.service.EmailReplyService;
+import com.email_reply.email_reply_generator.service.InvalidRequestException;
+import com.email_reply.email_reply_generator.service.JobService;
+import com.email_reply.email_reply_generator.service.UpstreamSaturatedException;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.web.bind.annotation.*;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+import java.net.URI;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 @RestController
 @RequestMapping("/api")
@@ -14,17 +36,41 @@ import org.springframework.web.bind.annotation.*;
 @Slf4j
 public class EmailReplyController {
 
+    private static final String ERROR_REPLY =
+            "An error occurred while generating the email reply. Please try again later.";
+
+    /**
+     * Header with which a client sets the deadline of its request, in milliseconds
+     */
+    public static final String REQUEST_TIMEOUT_HEADER = "X-Request-Timeout";
+
     @Autowired
     private EmailReplyService emailReplyService;
 
+    @Autowired
+    private BatchReplyService batchReplyService;
+
+    @Autowired
+    private JobService jobService;
+
+    @Autowired
+    private DeadlineConfig deadlineConfig;
+
     @GetMapping
     public ResponseEntity<String> healthCheck() {
         return ResponseEntity.ok("API is running");
     }
 
+    /**
+     * Generates a reply. The model call is cancelled once the deadline (X-Request-Timeout, or
+     * reply.deadline.reply-timeout) passes, which is reported as 504. Nothing is written before the
+     * reply, so a client that disconnects earlier is only noticed by its deadline.
+     */
     @PostMapping("/generate-reply")
-    public ResponseEntity<EmailReplyResponse> generateReply(@RequestBody EmailReplyRequest request) {
+    public Mono<ResponseEntity<EmailReplyResponse>> generateReply(@RequestBody EmailReplyRequest request,
+            @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) String timeout) {
         log.info("Received request to generate reply with tone: {}", request.getTone());
+        Deadline deadline = deadline(timeout, deadlineConfig.getReplyTimeout());
         
         // Create a basic email context from the request
         EmailReplyService.EmailContext context = EmailReplyService.EmailContext.createBasic(
@@ -33,8 +79,157 @@ public class EmailReplyController {
                 "Unknown Sender" // Sender would ideally be parsed from the content
         );
         
-        String generatedReply = emailReplyService.generateEmailReply(context, request.getTone());
-        
-        return ResponseEntity.ok(new EmailReplyResponse(generatedReply));
+        // The servlet thread is released while the reply is generated
+        return emailReplyService.generateEmailReply(context, request.getTone())
+                .map(generatedReply -> ResponseEntity.ok(
+                        new EmailReplyResponse(generatedReply.getText(), generatedReply.isDegraded())))
+                // Overload and missed deadlines are reported by the exception handlers below,
+                // anything else as a fallback reply
+                .onErrorResume(e -> !(e instanceof UpstreamSaturatedException || e instanceof DeadlineExceededException),
+                        e -> Mono.just(ResponseEntity.ok(new EmailReplyResponse(ERROR_REPLY))))
+                .contextWrite(deadline.asContext());
+    }
+
+    /**
+     * Streams the reply as Server-Sent Events while the model generates it.
+     * Each "delta" event carries a chunk of text, and the final "done" event carries
+     * the complete reply, flagged as degraded if it is a local draft.
+     * If generation fails, or the deadline (X-Request-Timeout, or reply.deadline.stream-timeout)
+     * passes before the last chunk, an "error" event is sent instead.
+     * Until the stream ends, a keep-alive comment is sent every reply.deadline.heartbeat, so a client
+     * that has gone away is noticed (and the model call cancelled) even before the first chunk.
+     */
+    @PostMapping(value = "/generate-reply/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public Flux<ServerSentEvent<Object>> streamReply(@RequestBody EmailReplyRequest request,
+            @RequestHeader(value = REQUEST_TIMEOUT_HEADER, required = false) String timeout) {
+        log.info("Received request to stream reply with tone: {}", request.getTone());
+        Deadline deadline = deadline(timeout, deadlineConfig.getStreamTimeout());
+
+        EmailReplyService.EmailContext context = EmailReplyService.EmailContext.createBasic(
+                "Email Subject",
+                request.getContent(),
+                "Unknown Sender"
+        );
+
+        return Flux.defer(() -> {
+            StringBuilder fullReply = new StringBuilder();
+            AtomicBoolean degraded = new AtomicBoolean();
+
+            Flux<ServerSentEvent<Object>> deltas = emailReplyService.streamEmailReply(context, request.getTone())
+                    .doOnNext(delta -> {
+                        fullReply.append(delta.getText());
+                        if (delta.isDegraded()) {
+                            degraded.set(true);
+                        }
+                    })
+                    .map(delta -> ServerSentEvent.<Object>builder(new EmailReplyDelta(delta.getText()))
+                            .event("delta")
+                            .build());
+
+            Mono<ServerSentEvent<Object>> done = Mono.fromSupplier(() -> ServerSentEvent.<Object>builder(
+                            new EmailReplyResponse(fullReply.toString(), degraded.get()))
+                    .event("done")
+                    .build());
+
+            Flux<ServerSentEvent<Object>> events = deltas.concatWith(done)
+                    .onErrorResume(e -> Mono.just(ServerSentEvent.<Object>builder(new EmailReplyResponse(ERROR_REPLY))
+                            .event("error")
+                            .build()));
+
+            // Writing is the only way the servlet container notices a closed connection
+            Flux<ServerSentEvent<Object>> heartbeats = Flux.interval(deadlineConfig.getHeartbeat())
+                    .map(tick -> ServerSentEvent.<Object>builder().comment("keep-alive").build());
+            return events.publish(shared -> Flux.merge(shared, heartbeats.takeUntilOther(shared.then())));
+        }).contextWrite(deadline.asContext());
+    }
+
+    /**
+     * Generates replies for a batch of emails, streaming one JSON line per email as results become
+     * available. Failed emails are reported in their own line without failing the batch.
+     */
+    @PostMapping(value = "/generate-replies", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public Flux<BatchReplyItem> generateReplies(@RequestBody List<EmailReplyRequest> requests,
+                                                @RequestParam(required = false) Integer concurrency,
+                                                @RequestParam(defaultValue = "COMPLETION") BatchOrder order) {
+        log.info("Received batch request for {} replies", requests.size());
+        return batchReplyService.generateReplies(requests, concurrency, order);
+    }
+
+    /**
+     * Submits an email for asynchronous reply generation. Responds with 202 and the job as soon as
+     * the job is recorded on disk; it survives a restart of the service.
+     */
+    @PostMapping("/jobs")
+    public Mono<ResponseEntity<JobResponse>> submitJob(@RequestBody EmailReplyRequest request) {
+        log.info("Received job with tone: {}", request.getTone());
+        return jobService.submit(request)
+                .map(job -> ResponseEntity.accepted()
+                        .location(URI.create("/api/jobs/" + job.getId()))
+                        .body(toResponse(job)));
+    }
+
+    /**
+     * Returns the state of a job, and its reply once it has finished. With wait (in seconds) the
+     * response is held until the job finishes or the time is up (long polling).
+     */
+    @GetMapping("/jobs/{id}")
+    public Mono<ResponseEntity<JobResponse>> getJob(@PathVariable String id,
+                                                    @RequestParam(defaultValue = "0") long wait) {
+        return jobService.await(id, Duration.ofSeconds(wait))
+                .map(job -> ResponseEntity.ok(toResponse(job)))
+                .defaultIfEmpty(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * The deadline of a request, from its X-Request-Timeout header or the endpoint's default,
+     * at most reply.deadline.max-timeout from now.
+     */
+    private Deadline deadline(String header, Duration defaultTimeout) {
+        Duration timeout = defaultTimeout;
+        if (header != null) {
+            long millis;
+            try {
+                millis = Long.parseLong(header.trim());
+            } catch (NumberFormatException e) {
+                throw new InvalidRequestException(REQUEST_TIMEOUT_HEADER + " must be a number of milliseconds");
+            }
+            if (millis <= 0) {
+                throw new InvalidRequestException(REQUEST_TIMEOUT_HEADER + " must be positive");
+            }
+            timeout = Duration.ofMillis(millis);
+        }
+        if (timeout.compareTo(deadlineConfig.getMaxTimeout()) > 0) {
+            timeout = deadlineConfig.getMaxTimeout();
+        }
+        return Deadline.after(timeout);
+    }
+
+    private static JobResponse toResponse(JobService.Job job) {
+        return new JobResponse(job.getId(), job.getStatus(), job.getClientId(), job.getReply(), job.getError(),
+                job.isDegraded(), job.getSubmittedAt(), job.getFinishedAt());
+    }
+
+    /**
+     * Load shedding: tells the client the service is saturated and when to retry,
+     * instead of letting the request queue until it times out.
+     */
+    @ExceptionHandler(UpstreamSaturatedException.class)
+    public ResponseEntity<String> handleSaturated(UpstreamSaturatedException e) {
+        long retryAfterSeconds = Math.max(1, (long) Math.ceil(e.getRetryAfter().toMillis() / 1000.0));
+        log.warn("Shedding request: {}, retry after {}s", e.getMessage(), retryAfterSeconds);
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(retryAfterSeconds))
+                .body(e.getMessage());
+    }
+
+    @ExceptionHandler(DeadlineExceededException.class)
+    public ResponseEntity<String> handleDeadlineExceeded(DeadlineExceededException e) {
+        log.warn("Request missed its deadline: {}", e.getMessage());
+        return ResponseEntity.status(HttpStatus.GATEWAY_TIMEOUT).body(e.getMessage());
+    }
+
+    @ExceptionHandler(InvalidRequestException.class)
+    public ResponseEntity<String> handleBadRequest(InvalidRequestException e) {
+        return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(e.getMessage());
     }
 }
@@ -0,0 +1,16 @@
+package com.email_reply.email_reply_generator.dto;
+
+/**
+ * Order in which batch results are streamed back.
+ */
+public enum BatchOrder {
+    /**
+     * Each result is sent as soon as it is ready
+     */
+    COMPLETION,
+
+    /**
+     * Results are sent in the order the emails were submitted
+     */
+    INPUT
+}
@@ -0,0 +1,34 @@
+package com.email_reply.email_reply_generator.dto;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Result for one email of a batch request. Exactly one of reply and error is set.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class BatchReplyItem {
+    /**
+     * Position of the email in the submitted batch
+     */
+    private int index;
+    private String clientId;
+    private String reply;
+    private String error;
+
+    /**
+     * True if the reply is a local draft because the model API was unavailable
+     */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean degraded;
+
+    public BatchReplyItem(int index, String clientId, String reply, String error) {
+        this(index, clientId, reply, error, false);
+    }
+}
@@ -0,0 +1,21 @@
+package com.email_reply.email_reply_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Hit, miss and eviction counters of the reply cache.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class CacheStatsResponse {
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long evictionCount;
+    private long evictionWeightBytes;
+    private long entryCount;
+    private long weightedSizeBytes;
+}
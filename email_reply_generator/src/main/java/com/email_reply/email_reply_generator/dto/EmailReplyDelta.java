@@ -0,0 +1,15 @@
+package com.email_reply.email_reply_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * A chunk of reply text sent while the reply is still being generated.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class EmailReplyDelta {
+    private String text;
+}
@@ -10,4 +10,9 @@ import lombok.NoArgsConstructor;
 public class EmailReplyRequest {
     private String content;
     private String tone;
+
+    /**
+     * Caller-supplied identifier, echoed back in batch results
+     */
+    private String clientId;
 }
@@ -9,4 +9,13 @@ import lombok.NoArgsConstructor;
 @AllArgsConstructor
 public class EmailReplyResponse {
     private String reply;
+
+    /**
+     * True if the reply is a local template-based draft because the model API was unavailable
+     */
+    private boolean degraded;
+
+    public EmailReplyResponse(String reply) {
+        this.reply = reply;
+    }
 }
@@ -0,0 +1,33 @@
+package com.email_reply.email_reply_generator.dto;
+
+import java.time.Instant;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * State of an asynchronous reply job. The reply is set once the job has succeeded, the error once it has failed.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class JobResponse {
+    private String id;
+    private JobStatus status;
+    private String clientId;
+    private String reply;
+    private String error;
+
+    /**
+     * True if the reply is a local draft because the model API was unavailable
+     */
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    private boolean degraded;
+
+    private Instant submittedAt;
+    private Instant finishedAt;
+}
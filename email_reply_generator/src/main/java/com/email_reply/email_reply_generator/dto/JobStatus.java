@@ -0,0 +1,30 @@
+package com.email_reply.email_reply_generator.dto;
+
+/**
+ * State of an asynchronous reply job.
+ */
+public enum JobStatus {
+    /**
+     * Waiting for a worker
+     */
+    QUEUED,
+
+    /**
+     * The reply is being generated
+     */
+    RUNNING,
+
+    /**
+     * The reply is available
+     */
+    SUCCEEDED,
+
+    /**
+     * No reply could be generated; the error says why
+     */
+    FAILED;
+
+    public boolean isFinished() {
+        return this == SUCCEEDED || this == FAILED;
+    }
+}
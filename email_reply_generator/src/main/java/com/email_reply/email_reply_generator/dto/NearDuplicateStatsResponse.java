@@ -0,0 +1,20 @@
+package com.email_reply.email_reply_generator.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Hit and miss counters and footprint of the near-duplicate reply index.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class NearDuplicateStatsResponse {
+    private long hitCount;
+    private long missCount;
+    private double hitRate;
+    private long entryCount;
+    private long sizeBytes;
+    private int maxDistanceBits;
+}
@@ -0,0 +1,24 @@
+package com.email_reply.email_reply_generator.dto;
+
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * Current state of the upstream concurrency gate and circuit breaker.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class UpstreamStatsResponse {
+    private int permits;
+    private int inFlight;
+    private int queued;
+    private Map<String, Integer> queuedByPriority;
+    private int maxQueueDepth;
+    private long rejectedCount;
+    private String circuitState;
+    private long circuitRejectedCount;
+}
@@ -0,0 +1,40 @@
+package com.email_reply.email_reply_generator.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+/**
+ * The parts of a Gemini generateContent response the application uses.
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class GeminiResponse {
+    /**
+     * Text of the first part of the first candidate, or null if there is none
+     */
+    private String text;
+
+    /**
+     * Why the first candidate stopped, e.g. STOP or MAX_TOKENS; only set on the last chunk of a stream
+     */
+    private String finishReason;
+
+    /**
+     * Tokens of the prompt, including cached content
+     */
+    private int promptTokenCount;
+
+    /**
+     * Tokens of the prompt that were read from cached content
+     */
+    private int cachedContentTokenCount;
+
+    /**
+     * Tokens generated across all candidates
+     */
+    private int candidatesTokenCount;
+
+    private int totalTokenCount;
+}
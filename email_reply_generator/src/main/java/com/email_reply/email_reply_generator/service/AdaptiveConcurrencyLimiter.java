@@ -0,0 +1,115 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * AIMD limit on concurrent upstream calls, driven by observed latency and overload responses.
+ * While at least half of the limit is in use, each successful call grows it by 1/limit, so it
+ * rises by about one per round trip of a full window, and it shrinks multiplicatively when the upstream answers 429/503, times out, or gets
+ * noticeably slower than its long-term average.
+ * <p>
+ * Latency spikes are judged within a series of comparable samples, such as the time to the first
+ * chunk of streams to one model, so a slower model or a longer reply is not read as overload.
+ */
+@Service
+@Slf4j
+public class AdaptiveConcurrencyLimiter {
+
+    /**
+     * Weight of the newest sample in the long-term latency average
+     */
+    private static final double LATENCY_SMOOTHING = 0.05;
+
+    private final boolean adaptive;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double backoffRatio;
+    private final double latencyTolerance;
+
+    private final Map<String, Double> seriesAverages = new HashMap<>();
+
+    private double limit;
+    private double averageLatencyNanos;
+
+    public AdaptiveConcurrencyLimiter(GeminiApiConfig config) {
+        GeminiApiConfig.Concurrency concurrency = config.getConcurrency();
+        this.adaptive = concurrency.isAdaptive();
+        this.maxLimit = concurrency.getMaxInFlight();
+        this.minLimit = Math.min(concurrency.getMinInFlight(), maxLimit);
+        this.backoffRatio = concurrency.getBackoffRatio();
+        this.latencyTolerance = concurrency.getLatencyTolerance();
+        this.limit = adaptive
+                ? Math.max(minLimit, Math.min(concurrency.getInitialInFlight(), maxLimit))
+                : maxLimit;
+    }
+
+    /**
+     * Current number of calls allowed in flight.
+     */
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    /**
+     * Long-term average time an upstream call takes, across all series, or zero before the first sample.
+     */
+    public synchronized Duration getAverageLatency() {
+        return Duration.ofNanos((long) averageLatencyNanos);
+    }
+
+    /**
+     * Records a successful upstream call.
+     *
+     * @param series The kind of sample, e.g. per-token latency of buffered calls to one model;
+     *               the sample is only compared with earlier samples of the same series
+     * @param sampleNanos The sample, normalised as the series requires
+     * @param latencyNanos Time from admission to the response, for the overall average
+     * @param inFlight Calls in flight when the call was admitted
+     */
+    public synchronized void onSample(String series, long sampleNanos, long latencyNanos, int inFlight) {
+        averageLatencyNanos = smooth(averageLatencyNanos, latencyNanos);
+        Double seriesAverage = seriesAverages.get(series);
+        boolean latencySpike = seriesAverage != null && sampleNanos > seriesAverage * latencyTolerance;
+        seriesAverages.put(series, seriesAverage == null ? sampleNanos : smooth(seriesAverage, sampleNanos));
+        adjust(inFlight, false, latencySpike);
+    }
+
+    /**
+     * Records an upstream call that failed with an overload signal (429/503/timeout).
+     *
+     * @param inFlight Calls in flight when the call was admitted
+     */
+    public synchronized void onOverload(int inFlight) {
+        adjust(inFlight, true, false);
+    }
+
+    private void adjust(int inFlight, boolean overloaded, boolean latencySpike) {
+        if (!adaptive) {
+            return;
+        }
+
+        double previous = limit;
+        if (overloaded || latencySpike) {
+            limit = Math.max(minLimit, limit * backoffRatio);
+        } else if (inFlight * 2 >= limit) {
+            limit = Math.min(maxLimit, limit + 1 / limit);
+        }
+
+        if ((int) previous != (int) limit) {
+            log.debug("Upstream concurrency limit {} -> {} (overloaded: {}, latency spike: {})",
+                    (int) previous, (int) limit, overloaded, latencySpike);
+        }
+    }
+
+    private static double smooth(double average, long sample) {
+        return average == 0 ? sample : average + LATENCY_SMOOTHING * (sample - average);
+    }
+}
@@ -0,0 +1,83 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.dto.BatchOrder;
+import com.email_reply.email_reply_generator.dto.BatchReplyItem;
+import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
+
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Generates replies for many emails at once, with a bounded number running in parallel.
+ * Model calls of a batch are made with {@link RequestPriority#BULK} priority.
+ */
+@Service
+@Slf4j
+public class BatchReplyService {
+
+    @Autowired
+    private EmailReplyService emailReplyService;
+
+    @Value("${reply.batch.max-concurrency:8}")
+    private int maxConcurrency;
+
+    @Value("${reply.batch.max-items:500}")
+    private int maxItems;
+
+    /**
+     * Fans the emails out to {@link EmailReplyService} and emits one result per email as it completes.
+     * A failing email produces an item with an error and does not affect the rest of the batch.
+     *
+     * @param requests The emails to reply to
+     * @param concurrency Requested parallelism, capped at the configured maximum; null for the maximum
+     * @param order Whether results are emitted in completion or input order
+     * @return One result per email
+     */
+    public Flux<BatchReplyItem> generateReplies(List<EmailReplyRequest> requests, Integer concurrency,
+                                                BatchOrder order) {
+        if (requests.size() > maxItems) {
+            throw new InvalidRequestException("Batch contains " + requests.size()
+                    + " emails, the maximum is " + maxItems);
+        }
+
+        int parallelism = concurrency != null ? Math.max(1, Math.min(concurrency, maxConcurrency)) : maxConcurrency;
+        log.info("Generating {} replies with concurrency {} in {} order", requests.size(), parallelism, order);
+
+        Flux<Integer> indexes = Flux.range(0, requests.size());
+        Flux<BatchReplyItem> items = order == BatchOrder.INPUT
+                ? indexes.flatMapSequential(i -> generateItem(i, requests.get(i)), parallelism)
+                : indexes.flatMap(i -> generateItem(i, requests.get(i)), parallelism);
+        // Batches only get the upstream capacity interactive replies leave
+        return items.contextWrite(RequestPriority.BULK.asContext());
+    }
+
+    private Mono<BatchReplyItem> generateItem(int index, EmailReplyRequest request) {
+        if (request == null || request.getContent() == null || request.getContent().isBlank()) {
+            String clientId = request != null ? request.getClientId() : null;
+            return Mono.just(new BatchReplyItem(index, clientId, null, "Email content is empty"));
+        }
+        if (request.getTone() == null) {
+            return Mono.just(new BatchReplyItem(index, request.getClientId(), null, "Tone is missing"));
+        }
+
+        EmailReplyService.EmailContext context = EmailReplyService.EmailContext.createBasic(
+                "Email Subject",
+                request.getContent(),
+                "Unknown Sender"
+        );
+
+        return emailReplyService.generateEmailReply(context, request.getTone())
+                .map(reply -> new BatchReplyItem(index, request.getClientId(), reply.getText(), null, reply.isDegraded()))
+                .onErrorResume(e -> {
+                    log.warn("Batch item {} failed: {}", index, e.getMessage());
+                    return Mono.just(new BatchReplyItem(index, request.getClientId(), null, e.getMessage()));
+                });
+    }
+}
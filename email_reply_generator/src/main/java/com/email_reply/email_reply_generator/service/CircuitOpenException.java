@@ -0,0 +1,14 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown instead of calling the model API while the circuit breaker is open,
+ * or while half-open and all trial calls are already taken.
+ */
+public class CircuitOpenException extends UpstreamSaturatedException {
+
+    public CircuitOpenException(String message, Duration retryAfter) {
+        super(message, retryAfter);
+    }
+}
@@ -0,0 +1,88 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * The point in time by which the caller of a reply needs it. A deadline travels in the Reactor
+ * context of the call like the {@link RequestPriority}; calls without one are only bounded by the
+ * upstream timeouts. Policies can read the remaining budget to pick a faster route or a shorter reply.
+ */
+public final class Deadline {
+
+    private static final String CONTEXT_KEY = Deadline.class.getName();
+
+    private final long expiresAt;
+
+    private Deadline(long expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    /**
+     * A deadline the timeout from now
+     */
+    public static Deadline after(Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * The deadline of the call the context belongs to, or null if it has none
+     */
+    public static Deadline of(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, null);
+    }
+
+    /**
+     * A context that gives the calls made under it this deadline, for {@code contextWrite}
+     */
+    public Context asContext() {
+        return Context.of(CONTEXT_KEY, this);
+    }
+
+    /**
+     * The context without any deadline, for calls that are shared by callers with different deadlines
+     */
+    public static Context clear(Context context) {
+        return context.delete(CONTEXT_KEY);
+    }
+
+    /**
+     * Time left until the deadline; zero once it has passed
+     */
+    public Duration remaining() {
+        return Duration.ofNanos(Math.max(0, expiresAt - System.nanoTime()));
+    }
+
+    public boolean isExpired() {
+        return expiresAt - System.nanoTime() <= 0;
+    }
+
+    /**
+     * Fails the call with {@link DeadlineExceededException} if it has not produced its value by the
+     * deadline, cancelling it. A call whose deadline has already passed is not subscribed to at all.
+     */
+    public <T> Mono<T> bound(Mono<T> call) {
+        return Mono.defer(() -> isExpired()
+                ? Mono.error(this::exceeded)
+                : call.timeout(remaining(), Mono.error(this::exceeded)));
+    }
+
+    /**
+     * Fails the stream with {@link DeadlineExceededException} if it has not completed by the
+     * deadline, cancelling it. Unlike {@link Flux#timeout(Duration)} this bounds the whole stream,
+     * not the time between items.
+     */
+    public <T> Flux<T> bound(Flux<T> call) {
+        return Flux.defer(() -> isExpired()
+                ? Flux.error(this::exceeded)
+                : call.timeout(Mono.delay(remaining()), chunk -> Mono.delay(remaining()), Flux.error(this::exceeded)));
+    }
+
+    private DeadlineExceededException exceeded() {
+        return new DeadlineExceededException("Deadline exceeded before the model replied");
+    }
+}
@@ -0,0 +1,11 @@
+package com.email_reply.email_reply_generator.service;
+
+/**
+ * Thrown when a model call is cancelled because the {@link Deadline} of its request has passed.
+ */
+public class DeadlineExceededException extends RuntimeException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
@@ -1,9 +1,13 @@
 package com.email_reply.email_reply_generator.service;
 
 import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.util.EmailContentCleaner;
+import com.email_reply.email_reply_generator.util.EmailFeatureExtractor;
+import com.email_reply.email_reply_generator.util.EmailFeatures;
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+
 import lombok.extern.slf4j.Slf4j;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Service for analyzing email content and extracting relevant information.
@@ -17,16 +21,17 @@ public class EmailAnalyzerService {
      */
     public EmailContext analyzeEmail(String content, String subject) {
         EmailContext context = new EmailContext();
+        EmailFeatures features = EmailFeatureExtractor.extract(content);
         
         // Set raw content and subject
         context.setRawContent(content);
-        context.setSubject(subject != null ? subject : extractSubject(content));
+        context.setSubject(subject != null ? subject : features.getSubject());
         
         // Extract sender information
-        extractSenderInfo(content, context);
+        extractSenderInfo(features, context);
         
         // Extract recipient information
-        extractRecipientInfo(content, context);
+        extractRecipientInfo(features, context);
         
         // Determine email category/type
         determineEmailType(content, subject, context);
@@ -38,147 +43,36 @@ public class EmailAnalyzerService {
     }
     
     /**
-     * Extracts the subject from email content if it contains a subject line.
+     * Picks the sender's name: the name under the sign-off, else the "From:" header,
+     * else a self-introduction such as "My name is ...".
      */
-    private String extractSubject(String content) {
-        if (content == null || content.isEmpty()) {
-            return null;
-        }
-        
-        Pattern subjectPattern = Pattern.compile("Subject:\\s*([^\\r\\n]+)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = subjectPattern.matcher(content);
-        
-        if (matcher.find()) {
-            return matcher.group(1).trim();
+    private void extractSenderInfo(EmailFeatures features, EmailContext context) {
+        if (features.getSignatureName() != null) {
+            context.setSenderName(features.getSignatureName().trim());
+        } else if (features.getFromName() != null) {
+            context.setSenderName(features.getFromName());
+        } else if (features.getIntroName() != null) {
+            context.setSenderName(features.getIntroName());
         }
-        return null;
     }
     
     /**
-     * Extracts sender information from email content.
+     * Picks the recipient's name: the name in the salutation ("Dear [Name],"), else the "To:" header.
      */
-    private void extractSenderInfo(String content, EmailContext context) {
-        // First check for signature at the end (most common pattern)
-        Pattern signaturePattern = Pattern.compile("(?:[\\r\\n]|^)(?:(?:Regards|Sincerely|Thanks|Thank you|Yours|Cheers|Best|Warm regards|Kind regards|Respectfully),?[\\r\\n]+\\s*)([A-Za-z]+(?:\\s+[A-Za-z]+){0,3})\\s*$", Pattern.CASE_INSENSITIVE);
-        Matcher signatureMatcher = signaturePattern.matcher(content);
-        
-        if (signatureMatcher.find()) {
-            context.setSenderName(signatureMatcher.group(1).trim());
-            return;
-        }
-        
-        // Try to find "From:" header
-        Pattern fromPattern = Pattern.compile("From:\\s*\"?([^\"<]+)\"?\\s*(?:<[^>]+>)?", Pattern.CASE_INSENSITIVE);
-        Matcher fromMatcher = fromPattern.matcher(content);
-        
-        if (fromMatcher.find()) {
-            context.setSenderName(fromMatcher.group(1).trim());
-            return;
-        }
-        
-        // Check for explicit introduction patterns
-        Pattern introPattern = Pattern.compile("(?:My name is|I am|This is)\\s+([A-Za-z]+(?:\\s+[A-Za-z]+){0,2})", Pattern.CASE_INSENSITIVE);
-        Matcher introMatcher = introPattern.matcher(content);
-        
-        if (introMatcher.find()) {
-            context.setSenderName(introMatcher.group(1).trim());
-        }
-    }
-    
-    /**
-     * Extracts recipient information from email content.
-     */
-    private void extractRecipientInfo(String content, EmailContext context) {
-        // Check for "Dear [Name]" or "Hi [Name]" format
-        Pattern recipientPattern = Pattern.compile("(?:Dear|Hi|Hello|Hey)\\s+([A-Za-z]+(?:\\s+[A-Za-z]+)?)[,:]", Pattern.CASE_INSENSITIVE);
-        Matcher recipientMatcher = recipientPattern.matcher(content);
-        
-        if (recipientMatcher.find()) {
-            context.setRecipientName(recipientMatcher.group(1).trim());
-            return;
-        }
-        
-        // Check for "To:" header
-        Pattern toPattern = Pattern.compile("To:\\s*\"?([^\"<]+)\"?\\s*(?:<[^>]+>)?", Pattern.CASE_INSENSITIVE);
-        Matcher toMatcher = toPattern.matcher(content);
-        
-        if (toMatcher.find()) {
-            context.setRecipientName(toMatcher.group(1).trim());
+    private void extractRecipientInfo(EmailFeatures features, EmailContext context) {
+        if (features.getSalutationName() != null) {
+            context.setRecipientName(features.getSalutationName());
+        } else if (features.getToName() != null) {
+            context.setRecipientName(features.getToName());
         }
     }
     
     /**
      * Determines the type/category of email based on content and subject.
+     * The text is scanned once for all keywords of {@link EmailKeywordRules}.
      */
     private void determineEmailType(String content, String subject, EmailContext context) {
-        String combinedText = (content + " " + (subject != null ? subject : "")).toLowerCase();
-        
-        // Check for meeting request
-        if ((combinedText.contains("schedule") || combinedText.contains("meeting") || 
-             combinedText.contains("discuss") || combinedText.contains("availability")) && 
-            (combinedText.contains("time") || combinedText.contains("when") || 
-             combinedText.contains("week") || combinedText.contains("day"))) {
-            context.setEmailType("MEETING_REQUEST");
-            return;
-        }
-        
-        // Check for project update request
-        if ((combinedText.contains("status") || combinedText.contains("update") || 
-             combinedText.contains("progress") || combinedText.contains("timeline")) && 
-            (combinedText.contains("project") || combinedText.contains("task") || 
-             combinedText.contains("initiative"))) {
-            context.setEmailType("PROJECT_UPDATE");
-            return;
-        }
-        
-        // Check for customer inquiry
-        if ((combinedText.contains("interested in") || combinedText.contains("inquiry") || 
-             combinedText.contains("information") || combinedText.contains("details") || 
-             combinedText.contains("pricing")) && 
-            (combinedText.contains("product") || combinedText.contains("service") || 
-             combinedText.contains("package") || combinedText.contains("offering"))) {
-            context.setEmailType("CUSTOMER_INQUIRY");
-            return;
-        }
-        
-        // Check for customer complaint
-        if ((combinedText.contains("complaint") || combinedText.contains("issue") || 
-             combinedText.contains("problem") || combinedText.contains("disappointed") || 
-             combinedText.contains("unacceptable") || combinedText.contains("outage") || 
-             combinedText.contains("disappointed"))) {
-            context.setEmailType("CUSTOMER_COMPLAINT");
-            return;
-        }
-        
-        // Check for job application
-        if ((combinedText.contains("application") || combinedText.contains("apply") || 
-             combinedText.contains("resume") || combinedText.contains("cv")) && 
-            (combinedText.contains("position") || combinedText.contains("job") || 
-             combinedText.contains("role") || combinedText.contains("vacancy"))) {
-            context.setEmailType("JOB_APPLICATION");
-            return;
-        }
-        
-        // Check for follow-up
-        if (combinedText.contains("follow") && combinedText.contains("up") || 
-            combinedText.contains("following up") || 
-            (combinedText.contains("discuss") && combinedText.contains("from") && 
-             (combinedText.contains("meeting") || combinedText.contains("call")))) {
-            context.setEmailType("FOLLOW_UP");
-            return;
-        }
-        
-        // Check for vendor/order communication
-        if ((combinedText.contains("order") || combinedText.contains("delivery") || 
-             combinedText.contains("shipment")) && 
-            (combinedText.contains("status") || combinedText.contains("update") || 
-             combinedText.contains("delay") || combinedText.contains("due"))) {
-            context.setEmailType("VENDOR_COMMUNICATION");
-            return;
-        }
-        
-        // Default to general correspondence
-        context.setEmailType("GENERAL_CORRESPONDENCE");
+        context.setEmailType(EmailKeywordRules.classify(content, subject));
     }
     
     /**
@@ -186,6 +80,7 @@ public class EmailAnalyzerService {
      */
     public static class EmailContext {
         private String rawContent;
+        private String cleanedContent;
         private String subject;
         private String senderName;
         private String recipientName;
@@ -198,6 +93,18 @@ public class EmailAnalyzerService {
         
         public void setRawContent(String rawContent) {
             this.rawContent = rawContent;
+            this.cleanedContent = null;
+        }
+        
+        /**
+         * The content without headers, quoted text and signature (see {@link EmailContentCleaner}),
+         * cleaned once on first use.
+         */
+        public String getCleanedContent() {
+            if (cleanedContent == null) {
+                cleanedContent = EmailContentCleaner.clean(getRawContent());
+            }
+            return cleanedContent;
         }
         
         public String getSubject() {
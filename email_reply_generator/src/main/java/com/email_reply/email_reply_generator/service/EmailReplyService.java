@@ -1,13 +1,14 @@
 package com.email_reply.email_reply_generator.service;
 
+import lombok.AllArgsConstructor;
 import lombok.Data;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 
 import org.springframework.stereotype.Service;
-
-
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
 
 
 @Service
@@ -18,36 +19,213 @@ public class EmailReplyService {
     private PromptService promptService;
 
     @Autowired
-    private GeminiAiService geminiAiService;
+    private ModelRouter modelRouter;
+
+    @Autowired
+    private EmailAnalyzerService emailAnalyzerService;
+
+    @Autowired
+    private ReplyCacheService replyCacheService;
+
+    @Autowired
+    private NearDuplicateReplyIndex nearDuplicateReplyIndex;
+
+    @Autowired
+    private InFlightRequestRegistry inFlightRequestRegistry;
+
+    @Autowired
+    private LocalDraftService localDraftService;
+
+    @Autowired
+    private ReplyMetrics replyMetrics;
 
-    @Value("${gemini.api.model}")
-    private String modelName;
+    @Value("${reply.degraded-mode.enabled:true}")
+    private boolean degradedModeEnabled;
 
     /**
-     * Generates an email reply based on the provided email context and desired tone.
+     * Generates an email reply based on the provided email context and desired tone,
+     * with the model {@link ModelRouter} picks for the email.
+     * A cached reply to the same email, or the adapted reply to a recently answered near-duplicate
+     * of it, is returned without calling the model. A reply the model cut off at its output limit is
+     * returned but neither cached nor indexed.
+     * The upstream model call is non-blocking, so no request thread is held while it runs.
+     * While the model API's circuit breaker is open, a local draft flagged as degraded is
+     * returned at once instead (unless degraded mode is disabled).
+     * Other failures are signalled as errors so callers can report them in their own way.
+     * <p>
+     * The {@link Deadline} in the subscriber's context, if any, bounds the model call and is taken
+     * into account when routing the email.
      *
      * @param context The parsed email context
      * @param tone The desired tone for the reply (professional, friendly, casual)
-     * @return Generated email reply text
+     * @return Generated email reply
      */
-    public String generateEmailReply(EmailContext context, String tone) {
+    public Mono<GeneratedReply> generateEmailReply(EmailContext context, String tone) {
+        return Mono.deferContextual(view -> generateEmailReply(context, tone, Deadline.of(view), true));
+    }
+
+    /**
+     * Like {@link #generateEmailReply(EmailContext, String)}, but never returns a local draft:
+     * while the circuit breaker is open it fails with {@link CircuitOpenException}. For callers
+     * that can wait for the model to come back, such as asynchronous jobs.
+     *
+     * @param context The parsed email context
+     * @param tone The desired tone for the reply (professional, friendly, casual)
+     * @return Generated email reply
+     */
+    public Mono<GeneratedReply> generateModelReply(EmailContext context, String tone) {
+        return Mono.deferContextual(view -> generateEmailReply(context, tone, Deadline.of(view), false));
+    }
+
+    private Mono<GeneratedReply> generateEmailReply(EmailContext context, String tone, Deadline deadline,
+            boolean draftAllowed) {
         log.debug("Generating email reply with tone: {}", tone);
 
-        // Build the prompt for the AI model
-        String prompt = promptService.buildEmailReplyPrompt(context, tone);
-
-        try {
-            // Call the Gemini API via our service
-            String result = geminiAiService.generateContent(prompt);
-
-            if (result != null) {
-                return result;
-            } else {
-                return "Sorry, I couldn't generate a reply at this time. Please try again later.";
-            }
-        } catch (Exception e) {
-            log.error("Error generating email reply", e);
-            return "An error occurred while generating the email reply. Please try again later.";
+        EmailAnalyzerService.EmailContext analysis = replyMetrics.time(ReplyMetrics.STAGE_ANALYZE,
+                () -> emailAnalyzerService.analyzeEmail(context.getEmailContent(), context.getSubject()));
+        String emailType = analysis.getEmailType();
+        ModelRouter.Decision route = replyMetrics.time(ReplyMetrics.STAGE_ROUTE,
+                () -> modelRouter.route(analysis, tone, deadline));
+        String cacheKey = replyCacheService.keyFor(context.getEmailContent(), tone, route.getModel());
+        String cachedReply = replyMetrics.time(ReplyMetrics.STAGE_CACHE, () -> replyCacheService.get(cacheKey));
+        if (cachedReply != null) {
+            log.debug("Serving cached reply for key: {}", cacheKey);
+            replyMetrics.recordReply(tone, emailType, ReplyMetrics.SOURCE_CACHE);
+            return Mono.just(GeneratedReply.of(cachedReply));
+        }
+
+        NearDuplicateReplyIndex.Probe probe = nearDuplicateReplyIndex.probe(analysis, context.getEmailContent(), tone);
+        String similarReply = replyMetrics.time(ReplyMetrics.STAGE_CACHE, () -> nearDuplicateReplyIndex.find(probe));
+        if (similarReply != null) {
+            replyCacheService.put(cacheKey, similarReply);
+            replyMetrics.recordReply(tone, emailType, ReplyMetrics.SOURCE_NEAR_DUPLICATE);
+            return Mono.just(GeneratedReply.of(similarReply));
+        }
+
+        // Build the prompt for the AI model, then call the model the email is routed to,
+        // sharing the call with any identical request that is already in flight
+        return Mono.fromCallable(() -> replyMetrics.time(ReplyMetrics.STAGE_PROMPT,
+                        () -> promptService.buildEmailReplyPrompt(context, tone)))
+                .flatMap(prompt -> inFlightRequestRegistry.join(route.getModel(), prompt.getText(),
+                        () -> route.generateContent(prompt)))
+                // A reply cut off at the output limit is served, but not reused for later requests
+                .doOnNext(output -> {
+                    if (!output.isTruncated()) {
+                        replyCacheService.put(cacheKey, output.getText());
+                        nearDuplicateReplyIndex.add(probe, output.getText());
+                    }
+                })
+                .map(ModelOutput::getText)
+                .defaultIfEmpty("Sorry, I couldn't generate a reply at this time. Please try again later.")
+                .map(GeneratedReply::of)
+                .onErrorResume(CircuitOpenException.class, e -> draftAllowed ? localDraft(analysis, tone, e) : Mono.error(e))
+                .doOnNext(reply -> replyMetrics.recordReply(tone, emailType,
+                        reply.isDegraded() ? ReplyMetrics.SOURCE_DRAFT : ReplyMetrics.SOURCE_MODEL))
+                .doOnError(e -> {
+                    replyMetrics.recordError(tone, emailType, e);
+                    log.error("Error generating email reply", e);
+                });
+    }
+
+    /**
+     * Streams an email reply as text deltas while the model generates it.
+     * A cached or reused near-duplicate reply is emitted as a single chunk; a freshly streamed reply
+     * is cached once complete, unless the model cut it off at its output limit.
+     * While the model API's circuit breaker is open, a local draft is emitted as a single degraded chunk.
+     * A {@link Deadline} in the subscriber's context is handled as in {@link #generateEmailReply}.
+     *
+     * @param context The parsed email context
+     * @param tone The desired tone for the reply (professional, friendly, casual)
+     * @return Reply text chunks in generation order
+     */
+    public Flux<GeneratedReply> streamEmailReply(EmailContext context, String tone) {
+        return Flux.deferContextual(view -> streamEmailReply(context, tone, Deadline.of(view)));
+    }
+
+    private Flux<GeneratedReply> streamEmailReply(EmailContext context, String tone, Deadline deadline) {
+        log.debug("Streaming email reply with tone: {}", tone);
+
+        EmailAnalyzerService.EmailContext analysis = replyMetrics.time(ReplyMetrics.STAGE_ANALYZE,
+                () -> emailAnalyzerService.analyzeEmail(context.getEmailContent(), context.getSubject()));
+        String emailType = analysis.getEmailType();
+        ModelRouter.Decision route = replyMetrics.time(ReplyMetrics.STAGE_ROUTE,
+                () -> modelRouter.route(analysis, tone, deadline));
+        String cacheKey = replyCacheService.keyFor(context.getEmailContent(), tone, route.getModel());
+        String cachedReply = replyMetrics.time(ReplyMetrics.STAGE_CACHE, () -> replyCacheService.get(cacheKey));
+        if (cachedReply != null) {
+            log.debug("Serving cached reply for key: {}", cacheKey);
+            replyMetrics.recordReply(tone, emailType, ReplyMetrics.SOURCE_CACHE);
+            return Flux.just(GeneratedReply.of(cachedReply));
+        }
+
+        NearDuplicateReplyIndex.Probe probe = nearDuplicateReplyIndex.probe(analysis, context.getEmailContent(), tone);
+        String similarReply = replyMetrics.time(ReplyMetrics.STAGE_CACHE, () -> nearDuplicateReplyIndex.find(probe));
+        if (similarReply != null) {
+            replyCacheService.put(cacheKey, similarReply);
+            replyMetrics.recordReply(tone, emailType, ReplyMetrics.SOURCE_NEAR_DUPLICATE);
+            return Flux.just(GeneratedReply.of(similarReply));
+        }
+
+        return Flux.defer(() -> {
+            StringBuilder fullReply = new StringBuilder();
+            boolean[] degraded = new boolean[1];
+            boolean[] truncated = new boolean[1];
+            return Mono.fromCallable(() -> replyMetrics.time(ReplyMetrics.STAGE_PROMPT,
+                            () -> promptService.buildEmailReplyPrompt(context, tone)))
+                    .flatMapMany(prompt -> inFlightRequestRegistry.joinStream(route.getModel(), prompt.getText(),
+                            () -> route.streamContent(prompt)))
+                    .doOnNext(output -> {
+                        fullReply.append(output.getText());
+                        truncated[0] |= output.isTruncated();
+                    })
+                    .doOnComplete(() -> {
+                        if (!truncated[0]) {
+                            replyCacheService.put(cacheKey, fullReply.toString());
+                            nearDuplicateReplyIndex.add(probe, fullReply.toString());
+                        }
+                    })
+                    .filter(output -> !output.getText().isEmpty())
+                    .map(output -> GeneratedReply.of(output.getText()))
+                    // The circuit rejects the call before anything is streamed
+                    .onErrorResume(CircuitOpenException.class, e -> localDraft(analysis, tone, e)
+                            .doOnNext(draft -> degraded[0] = true))
+                    .doOnComplete(() -> replyMetrics.recordReply(tone, emailType,
+                            degraded[0] ? ReplyMetrics.SOURCE_DRAFT : ReplyMetrics.SOURCE_MODEL))
+                    .doOnError(e -> replyMetrics.recordError(tone, emailType, e));
+        });
+    }
+
+    /**
+     * Drafts the reply locally; drafts are not cached, so the model's reply replaces them once it is back.
+     */
+    private Mono<GeneratedReply> localDraft(EmailAnalyzerService.EmailContext analysis, String tone,
+            CircuitOpenException cause) {
+        if (!degradedModeEnabled) {
+            return Mono.error(cause);
+        }
+        log.warn("Model API unavailable ({}), returning a local draft", cause.getMessage());
+        return Mono.fromCallable(() -> GeneratedReply.degraded(localDraftService.draftReply(analysis, tone)));
+    }
+
+    /**
+     * A generated reply, or one chunk of a streamed reply.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class GeneratedReply {
+        private String text;
+
+        /**
+         * True if the text is a local draft because the model API was unavailable
+         */
+        private boolean degraded;
+
+        public static GeneratedReply of(String text) {
+            return new GeneratedReply(text, false);
+        }
+
+        public static GeneratedReply degraded(String text) {
+            return new GeneratedReply(text, true);
         }
     }
 
@@ -0,0 +1,200 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntFunction;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.ExampleStoreConfig;
+import com.email_reply.email_reply_generator.util.Bm25Index;
+import com.email_reply.email_reply_generator.util.EmailContentCleaner;
+import com.email_reply.email_reply_generator.util.EmailExamples;
+import com.email_reply.email_reply_generator.util.EmailExamples.EmailExchange;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Immutable store of example email exchanges, indexed for retrieval of the examples most similar
+ * to an email (BM25 over the example's subject and email).
+ * <p>
+ * The examples are loaded once at startup. With {@code reply.examples.corpus-path} set they come
+ * from a JSON Lines file, one exchange per line:
+ * <pre>
+ * {"scenario": "Meeting Request", "subject": "...", "email": "...", "reply": "...", "tone": "professional"}
+ * </pre>
+ * The file is memory-mapped; only the index and the position of each line are kept on the heap,
+ * and an exchange is decoded from the mapping when it is retrieved. Lines without an email or a
+ * reply are skipped. Without a corpus, or if it cannot be read, the built-in {@link EmailExamples}
+ * are indexed instead.
+ */
+@Service
+@Slf4j
+public class ExampleStore {
+
+    /**
+     * Characters of the cleaned email used as the query; enough to capture what it is about
+     */
+    private static final int MAX_QUERY_CHARS = 8192;
+
+    private final ObjectMapper objectMapper;
+    private final Bm25Index index;
+    private final IntFunction<EmailExchange> exchanges;
+
+    public ExampleStore(ExampleStoreConfig config, ObjectMapper objectMapper) {
+        this.objectMapper = objectMapper;
+        Corpus corpus = null;
+        String corpusPath = config.getCorpusPath();
+        if (corpusPath != null && !corpusPath.isBlank()) {
+            try {
+                corpus = loadCorpus(Path.of(corpusPath));
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not load example corpus {}, using the built-in examples: {}", corpusPath, e.toString());
+            }
+        }
+        if (corpus == null) {
+            corpus = builtInCorpus();
+        }
+        this.index = corpus.index;
+        this.exchanges = corpus.exchanges;
+    }
+
+    /**
+     * Number of examples in the store
+     */
+    public int size() {
+        return index.size();
+    }
+
+    /**
+     * Returns the examples most similar to an email, best first.
+     * Quoted history and signatures of the email are ignored.
+     *
+     * @param email The email content
+     * @param subject The email subject, or null
+     * @param k Maximum number of examples to return
+     * @return Up to k examples sharing at least one term with the email
+     */
+    public List<EmailExchange> findSimilar(String email, String subject, int k) {
+        String query = EmailContentCleaner.clean(email);
+        if (query.length() > MAX_QUERY_CHARS) {
+            query = query.substring(0, MAX_QUERY_CHARS);
+        }
+        if (subject != null) {
+            query = subject + "\n" + query;
+        }
+        int[] docs = index.topK(query, k);
+        List<EmailExchange> similar = new ArrayList<>(docs.length);
+        for (int doc : docs) {
+            similar.add(exchanges.apply(doc));
+        }
+        return similar;
+    }
+
+    private Corpus builtInCorpus() {
+        List<EmailExchange> examples = EmailExamples.getExampleExchanges();
+        Bm25Index.Builder builder = Bm25Index.builder();
+        for (EmailExchange example : examples) {
+            builder.add(example.getSubject(), "\n", example.getOriginalEmail());
+        }
+        log.info("Indexed {} built-in example exchanges", examples.size());
+        return new Corpus(builder.build(), examples::get);
+    }
+
+    private Corpus loadCorpus(Path path) throws IOException {
+        long started = System.nanoTime();
+        ByteBuffer corpus;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("Corpus is larger than 2 GB");
+            }
+            // The mapping stays valid once the channel is closed
+            corpus = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        Bm25Index.Builder builder = Bm25Index.builder();
+        int[] offsets = new int[1024];
+        int[] lengths = new int[1024];
+        int count = 0;
+        int skipped = 0;
+        byte[] line = new byte[4096];
+        int size = corpus.limit();
+        int lineStart = 0;
+        for (int i = 0; i <= size; i++) {
+            if (i < size && corpus.get(i) != '\n') {
+                continue;
+            }
+            int length = i - lineStart;
+            if (length > 0 && corpus.get(lineStart + length - 1) == '\r') {
+                length--;
+            }
+            if (length > 0) {
+                if (length > line.length) {
+                    line = new byte[Math.max(length, line.length * 2)];
+                }
+                corpus.get(lineStart, line, 0, length);
+                EmailExchange exchange = parse(line, length);
+                if (exchange == null) {
+                    skipped++;
+                } else {
+                    if (count == offsets.length) {
+                        offsets = Arrays.copyOf(offsets, count * 2);
+                        lengths = Arrays.copyOf(lengths, count * 2);
+                    }
+                    offsets[count] = lineStart;
+                    lengths[count] = length;
+                    count++;
+                    builder.add(exchange.getSubject(), "\n", exchange.getOriginalEmail());
+                }
+            }
+            lineStart = i + 1;
+        }
+
+        Bm25Index index = builder.build();
+        int[] recordOffsets = Arrays.copyOf(offsets, count);
+        int[] recordLengths = Arrays.copyOf(lengths, count);
+        log.info("Indexed {} example exchanges ({} terms) from {} in {} ms{}", count, index.terms(), path,
+                (System.nanoTime() - started) / 1_000_000, skipped > 0 ? ", skipped " + skipped + " invalid lines" : "");
+        return new Corpus(index, doc -> {
+            byte[] record = new byte[recordLengths[doc]];
+            corpus.get(recordOffsets[doc], record, 0, record.length);
+            return parse(record, record.length);
+        });
+    }
+
+    /**
+     * Decodes one corpus line, or returns null if it is not a usable exchange.
+     */
+    private EmailExchange parse(byte[] line, int length) {
+        try {
+            JsonNode json = objectMapper.readTree(line, 0, length);
+            String email = json.path("email").asText("");
+            String reply = json.path("reply").asText("");
+            if (email.isBlank() || reply.isBlank()) {
+                return null;
+            }
+            return new EmailExchange(json.path("scenario").asText(""), json.path("subject").asText(""),
+                    email, reply, json.path("tone").asText(""));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static final class Corpus {
+        private final Bm25Index index;
+        private final IntFunction<EmailExchange> exchanges;
+
+        private Corpus(Bm25Index index, IntFunction<EmailExchange> exchanges) {
+            this.index = index;
+            this.exchanges = exchanges;
+        }
+    }
+}
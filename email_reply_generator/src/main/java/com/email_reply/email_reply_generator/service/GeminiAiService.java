@@ -1,93 +1,331 @@
 package com.email_reply.email_reply_generator.service;
 
-import com.fasterxml.jackson.databind.JsonNode;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongConsumer;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.model.GeminiResponse;
+import com.email_reply.email_reply_generator.util.GeminiJson;
+import com.email_reply.email_reply_generator.util.TokenEstimator;
 import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
 
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.http.HttpEntity;
-import org.springframework.http.HttpHeaders;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.ParameterizedTypeReference;
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.http.ReactiveHttpOutputMessage;
 import org.springframework.http.MediaType;
+import org.springframework.http.codec.ServerSentEvent;
 import org.springframework.stereotype.Service;
-import org.springframework.web.client.RestTemplate;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.WebClient;
 
+import io.micrometer.core.instrument.MeterRegistry;
 import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
 
+/**
+ * The Gemini model provider.
+ */
 @Service
 @Slf4j
-public class GeminiAiService {
-
-    @Value("${gemini.api.key}")
-    private String apiKey;
-    
-    @Value("${gemini.api.url}")
-    private String baseUrl;
-    
-    @Value("${gemini.api.model}")
-    private String modelName;
-    
-    private final RestTemplate restTemplate = new RestTemplate();
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    
+public class GeminiAiService implements ModelProvider {
+
+    public static final String PROVIDER_NAME = "gemini";
+
     /**
-     * Calls the Gemini API to generate content based on a prompt
+     * finishReason of a candidate that stopped at maxOutputTokens
+     */
+    private static final String MAX_TOKENS = "MAX_TOKENS";
+
+    @Autowired
+    private WebClient geminiWebClient;
+
+    @Autowired
+    private UpstreamConcurrencyGate upstreamGate;
+
+    @Autowired
+    private UpstreamResilience upstreamResilience;
+
+    @Autowired
+    private UpstreamCircuitBreaker circuitBreaker;
+
+    @Autowired
+    private GeminiContextCache contextCache;
+
+    @Autowired
+    private GeminiKeyPool keyPool;
+
+    @Autowired
+    private Scheduler geminiScheduler;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    private ReplyMetrics replyMetrics;
+
+    @Autowired
+    private GeminiApiConfig geminiApiConfig;
+
+    private static final ParameterizedTypeReference<ServerSentEvent<String>> SSE_TYPE =
+            new ParameterizedTypeReference<>() {};
+
+    @Override
+    public String name() {
+        return PROVIDER_NAME;
+    }
+
+    /**
+     * Calls the Gemini API to generate content based on a prompt.
+     * The call is non-blocking, runs on the shared, pooled Gemini client, is sent with the API key
+     * that has the most quota headroom (see {@link GeminiKeyPool}) and counts against the upstream
+     * concurrency gate. Transient failures are retried, and a slow call may be hedged
+     * (see {@link UpstreamResilience}); each attempt picks its key anew. While the API keeps failing
+     * the circuit breaker fails the call at once with {@link CircuitOpenException}.
+     * Failures are signalled as errors rather than returned as reply text.
+     * <p>
+     * Only the email-specific suffix of the prompt is sent when its instruction prefix is held in
+     * the API's context cache for the key (see {@link GeminiContextCache}). If the API rejects the
+     * cached content, the call is repeated once with the full prompt.
+     * <p>
+     * The whole call, including waiting for a key and an upstream slot and any retries, is cancelled
+     * when the subscriber cancels or the {@link Deadline} in its context passes, failing it with
+     * {@link DeadlineExceededException}. The output limit does not depend on the deadline, as the
+     * reply may be shared with and cached for callers that have more time.
+     * @param model The Gemini model, e.g. "gemini-1.5-pro"
+     * @param prompt The prompt to send to the model
+     * @return The generated text response, flagged if it stopped at the output limit
+     */
+    @Override
+    public Mono<ModelOutput> generateContent(String model, PromptService.Prompt prompt) {
+        int estimatedTokens = TokenEstimator.estimate(prompt.getText());
+
+        log.debug("Sending request to Gemini API for model: {}", model);
+        return withDeadline(circuitBreaker.execute(() -> upstreamResilience.execute(latency -> Mono.defer(() -> {
+                    long queuedAt = System.nanoTime();
+                    return keyPool.execute(estimatedTokens,
+                            credential -> upstreamGate.execute(model, () -> {
+                                replyMetrics.record(ReplyMetrics.STAGE_QUEUE, System.nanoTime() - queuedAt);
+                                return generate(credential, model, prompt, latency);
+                            }, GeminiResponse::getCandidatesTokenCount),
+                            GeminiResponse::getTotalTokenCount);
+                }))))
+                .publishOn(geminiScheduler)
+                .doOnNext(response -> recordUsage(model, response))
+                .map(response -> new ModelOutput(extractText(response), isTruncated(model, response)))
+                .doOnError(e -> log.error("Error calling Gemini API", e));
+    }
+
+    private Mono<GeminiResponse> generate(GeminiKeyPool.Credential credential, String model,
+            PromptService.Prompt prompt, LongConsumer latency) {
+        String cachedContent = contextCache.cachedContentFor(credential, model, prompt.getPrefix());
+        if (cachedContent == null) {
+            return post(credential, model, prompt.getText(), null, latency);
+        }
+        return post(credential, model, prompt.getSuffix(), cachedContent, latency)
+                .onErrorResume(GeminiContextCache::isCacheRejection, e -> {
+                    contextCache.invalidate(credential, model, prompt.getPrefix(), cachedContent);
+                    return post(credential, model, prompt.getText(), null, latency);
+                });
+    }
+
+    /**
+     * Sends one request to the API.
+     * @param latency Receives the time from sending the request to the arrival of the response
+     */
+    private Mono<GeminiResponse> post(GeminiKeyPool.Credential credential, String model, String text,
+            String cachedContent, LongConsumer latency) {
+        return Mono.defer(() -> {
+            long sentAt = System.nanoTime();
+            return geminiWebClient.post()
+                    .uri(credential.getUrl() + "/{model}:generateContent", model)
+                    .header("x-goog-api-key", credential.getKey())
+                    .body(buildRequestBody(text, cachedContent, geminiApiConfig.getOutputLimit().getMaxTokens()))
+                    .retrieve()
+                    .bodyToMono(DataBuffer.class)
+                    .doOnNext(body -> {
+                        long elapsed = System.nanoTime() - sentAt;
+                        replyMetrics.record(ReplyMetrics.STAGE_UPSTREAM, elapsed);
+                        latency.accept(elapsed);
+                    })
+                    // Parsed where it arrives, so no pooled buffer is held across retries or thread hops
+                    .map(body -> replyMetrics.time(ReplyMetrics.STAGE_PARSE, () -> readResponse(body)));
+        });
+    }
+
+    /**
+     * Calls the streaming variant of the Gemini API and emits text deltas as the model produces them,
+     * with the same key selection, limits and use of the context cache as
+     * {@link #generateContent(String, PromptService.Prompt)}. A rejected cached content fails the call
+     * before anything is streamed, so it is then repeated with the full prompt. The stream is cancelled
+     * like the call there, if the deadline passes before its last chunk.
+     * Errors are propagated to the subscriber, since partial output may already have been sent.
+     * @param model The Gemini model, e.g. "gemini-1.5-pro"
      * @param prompt The prompt to send to the model
-     * @return The generated text response
+     * @return The generated text, chunk by chunk; the last chunk is flagged if it stopped at the output limit
      */
-    public String generateContent(String prompt) {
+    @Override
+    public Flux<ModelOutput> streamContent(String model, PromptService.Prompt prompt) {
+        int estimatedTokens = TokenEstimator.estimate(prompt.getText());
+
+        log.debug("Sending streaming request to Gemini API for model: {}", model);
+        return Flux.defer(() -> {
+            // Chunks carry the usage so far; the last one that has any carries the totals
+            AtomicReference<GeminiResponse> usage = new AtomicReference<>();
+            return withDeadline(circuitBreaker.executeMany(() -> upstreamResilience.executeMany(() -> Flux.defer(() -> {
+                        long queuedAt = System.nanoTime();
+                        return keyPool.executeMany(estimatedTokens,
+                                credential -> upstreamGate.executeMany(model, () -> {
+                                    replyMetrics.record(ReplyMetrics.STAGE_QUEUE, System.nanoTime() - queuedAt);
+                                    return stream(credential, model, prompt);
+                                }),
+                                GeminiResponse::getTotalTokenCount);
+                    }))))
+                    .publishOn(geminiScheduler)
+                    .doOnNext(chunk -> {
+                        if (chunk.getTotalTokenCount() > 0) {
+                            usage.set(chunk);
+                        }
+                    })
+                    .doOnComplete(() -> {
+                        if (usage.get() != null) {
+                            recordUsage(model, usage.get());
+                        }
+                    })
+                    .map(chunk -> new ModelOutput(chunk.getText() != null ? chunk.getText() : "",
+                            isTruncated(model, chunk)))
+                    // The chunk with the finish reason may carry no text, but the flag must get through
+                    .filter(delta -> !delta.getText().isEmpty() || delta.isTruncated())
+                    .doOnError(e -> log.error("Error streaming from Gemini API", e));
+        });
+    }
+
+    private Flux<GeminiResponse> stream(GeminiKeyPool.Credential credential, String model,
+            PromptService.Prompt prompt) {
+        String cachedContent = contextCache.cachedContentFor(credential, model, prompt.getPrefix());
+        if (cachedContent == null) {
+            return postStreaming(credential, model, prompt.getText(), null);
+        }
+        return postStreaming(credential, model, prompt.getSuffix(), cachedContent)
+                .onErrorResume(GeminiContextCache::isCacheRejection, e -> {
+                    contextCache.invalidate(credential, model, prompt.getPrefix(), cachedContent);
+                    return postStreaming(credential, model, prompt.getText(), null);
+                });
+    }
+
+    private Flux<GeminiResponse> postStreaming(GeminiKeyPool.Credential credential, String model, String text,
+            String cachedContent) {
+        return Flux.defer(() -> {
+            long sentAt = System.nanoTime();
+            return geminiWebClient.post()
+                    .uri(credential.getUrl() + "/{model}:streamGenerateContent?alt=sse", model)
+                    .header("x-goog-api-key", credential.getKey())
+                    .accept(MediaType.TEXT_EVENT_STREAM)
+                    .body(buildRequestBody(text, cachedContent, geminiApiConfig.getOutputLimit().getMaxTokens()))
+                    .retrieve()
+                    .bodyToFlux(SSE_TYPE)
+                    .mapNotNull(ServerSentEvent::data)
+                    .map(chunk -> replyMetrics.time(ReplyMetrics.STAGE_PARSE, () -> readChunk(chunk)))
+                    // The whole stream, until the last chunk has arrived
+                    .doOnComplete(() -> replyMetrics.record(ReplyMetrics.STAGE_UPSTREAM, System.nanoTime() - sentAt));
+        });
+    }
+
+    /**
+     * Bounds a call by the deadline in the subscriber's context, if there is one.
+     */
+    private <T> Mono<T> withDeadline(Mono<T> call) {
+        return Mono.deferContextual(view -> {
+            Deadline deadline = Deadline.of(view);
+            return deadline != null ? deadline.bound(call) : call;
+        }).doOnCancel(() -> log.debug("Gemini API call cancelled"));
+    }
+
+    private <T> Flux<T> withDeadline(Flux<T> call) {
+        return Flux.deferContextual(view -> {
+            Deadline deadline = Deadline.of(view);
+            return deadline != null ? deadline.bound(call) : call;
+        }).doOnCancel(() -> log.debug("Gemini API stream cancelled"));
+    }
+
+    /**
+     * Creates request body according to Gemini API format.
+     * The JSON is generated straight into the outbound request buffer when the request is sent.
+     * @param cachedContent Name of the cached content the prompt continues, or null
+     */
+    private BodyInserter<Object, ReactiveHttpOutputMessage> buildRequestBody(String prompt, String cachedContent,
+            int maxOutputTokens) {
+        return GeminiJson.body(objectMapper.getFactory(), prompt.length() + 256,
+                generator -> GeminiJson.writeGenerateRequest(generator, prompt, cachedContent, maxOutputTokens));
+    }
+
+    /**
+     * Reads a single streamed chunk. Chunks without text
+     * (for example the final one carrying only finishReason) have a null text.
+     */
+    private GeminiResponse readChunk(String chunk) {
+        try {
+            return GeminiJson.readResponse(objectMapper.getFactory(), chunk);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse streamed chunk from Gemini API", e);
+        }
+    }
+
+    /**
+     * Counts the tokens of a response in reply.model.tokens by model and type (input, cached input
+     * and output), from which the cost of each route follows.
+     */
+    private void recordUsage(String modelName, GeminiResponse response) {
+        log.debug("Received response from Gemini API: {} prompt tokens ({} cached), {} output tokens",
+                response.getPromptTokenCount(), response.getCachedContentTokenCount(),
+                response.getCandidatesTokenCount());
+        int cached = response.getCachedContentTokenCount();
+        meterRegistry.counter("reply.model.tokens", "model", modelName, "type", "input")
+                .increment(Math.max(0, response.getPromptTokenCount() - cached));
+        meterRegistry.counter("reply.model.tokens", "model", modelName, "type", "cached")
+                .increment(cached);
+        meterRegistry.counter("reply.model.tokens", "model", modelName, "type", "output")
+                .increment(response.getCandidatesTokenCount());
+    }
+
+    /**
+     * Whether the model stopped at maxOutputTokens; such replies are counted in
+     * {@code reply.model.truncated} by model.
+     */
+    private boolean isTruncated(String modelName, GeminiResponse response) {
+        if (!MAX_TOKENS.equals(response.getFinishReason())) {
+            return false;
+        }
+        log.warn("Reply from {} was cut off at the output limit after {} tokens", modelName,
+                response.getCandidatesTokenCount());
+        meterRegistry.counter("reply.model.truncated", "model", modelName).increment();
+        return true;
+    }
+
+    /**
+     * Reads the text and token usage of a Gemini API response, releasing the buffer
+     */
+    private GeminiResponse readResponse(DataBuffer body) {
         try {
-            String url = baseUrl + "/" + modelName + ":generateContent?key=" + apiKey;
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_JSON);
-            
-            // Create request body according to Gemini API format
-            ObjectNode rootNode = objectMapper.createObjectNode();
-            ObjectNode contentsNode = objectMapper.createObjectNode();
-            contentsNode.put("role", "user");
-            
-            // Create parts array with text object
-            ArrayNode partsArray = objectMapper.createArrayNode();
-            ObjectNode partNode = objectMapper.createObjectNode();
-            partNode.put("text", prompt);
-            partsArray.add(partNode);
-            
-            contentsNode.set("parts", partsArray);
-            
-            ArrayNode contentsArray = objectMapper.createArrayNode();
-            contentsArray.add(contentsNode);
-            
-            rootNode.set("contents", contentsArray);
-            rootNode.put("generationConfig", objectMapper.createObjectNode()
-                .put("temperature", 0.7)
-                .put("topK", 40)
-                .put("topP", 0.95)
-                .put("maxOutputTokens", 8192));
-            
-            HttpEntity<String> request = new HttpEntity<>(objectMapper.writeValueAsString(rootNode), headers);
-            
-            log.debug("Sending request to Gemini API: {}", url);
-            String response = restTemplate.postForObject(url, request, String.class);
-            log.debug("Received response from Gemini API: {}", response);
-            
-            // Parse the response
-            JsonNode responseJson = objectMapper.readTree(response);
-            JsonNode candidates = responseJson.path("candidates");
-            
-            if (candidates.isArray() && candidates.size() > 0) {
-                JsonNode content = candidates.get(0).path("content");
-                JsonNode parts = content.path("parts");
-                
-                if (parts.isArray() && parts.size() > 0) {
-                    return parts.get(0).path("text").asText();
-                }
-            }
-            
+            return GeminiJson.readResponse(objectMapper.getFactory(), body);
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to parse response from Gemini API", e);
+        }
+    }
+
+    /**
+     * Extracts the generated text from a Gemini API response
+     */
+    private String extractText(GeminiResponse response) {
+        if (response.getText() == null) {
             throw new RuntimeException("Failed to parse response from Gemini API");
-        } catch (Exception e) {
-            log.error("Error calling Gemini API", e);
-            return "Error generating content: " + e.getMessage();
         }
+        return response.getText();
     }
 }
@@ -0,0 +1,269 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.net.URI;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.BodyInserter;
+import org.springframework.web.reactive.function.client.WebClient;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.util.GeminiJson;
+import com.email_reply.email_reply_generator.util.TokenEstimator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registers the fixed instruction prefixes of prompts as Gemini cached contents, so requests
+ * can reference a prefix by name and send only the part specific to the email.
+ * <p>
+ * Nothing here blocks a request: a prefix is registered in the background the first time it is
+ * used, and requests send the full prompt until the cached content exists. A cached content that
+ * is in use has its lifetime extended shortly before it expires; one that is no longer used simply
+ * expires. Prefixes below the API's minimum size are never registered, and after a failed
+ * registration (or a request the API rejected because of its cached content) the prefix is sent
+ * in full for a while before registration is tried again.
+ * <p>
+ * The cachedContents endpoint is derived from the url of the API key (see {@link GeminiKeyPool}),
+ * so a local stub server standing in for the API receives these calls as well.
+ */
+@Service
+@Slf4j
+public class GeminiContextCache {
+
+    /**
+     * A cached content is no longer referenced this long before it expires, so requests in flight
+     * do not arrive after its expiry
+     */
+    private static final Duration EXPIRY_MARGIN = Duration.ofSeconds(30);
+
+    private static final Duration CALL_TIMEOUT = Duration.ofSeconds(30);
+
+    private final GeminiApiConfig config;
+    private final WebClient webClient;
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final ObjectMapper objectMapper;
+    private final Counter hits;
+    private final Counter misses;
+
+    public GeminiContextCache(GeminiApiConfig config, WebClient geminiWebClient, ObjectMapper objectMapper,
+            MeterRegistry meterRegistry) {
+        this.config = config;
+        this.webClient = geminiWebClient;
+        this.objectMapper = objectMapper;
+        this.hits = meterRegistry.counter("gemini.context.cache", "result", "hit");
+        this.misses = meterRegistry.counter("gemini.context.cache", "result", "miss");
+    }
+
+    /**
+     * Returns the name of the cached content holding the prefix, or null if the full prompt has to
+     * be sent. Starts registering or refreshing the prefix in the background where needed.
+     *
+     * Cached contents belong to a model and to the project of an API key, so each model and key
+     * has its own.
+     *
+     * @param credential The API key the request is sent with
+     * @param model The model the prompt is sent to
+     * @param prefix The fixed instructions at the start of the prompt
+     * @return The cached content name, e.g. "cachedContents/abc123", or null
+     */
+    public String cachedContentFor(GeminiKeyPool.Credential credential, String model, String prefix) {
+        if (!config.getContextCache().isEnabled()) {
+            return null;
+        }
+        String name = entries.computeIfAbsent(entryKey(credential, model, prefix),
+                key -> new Entry(credential, model, prefix)).use(Instant.now());
+        (name != null ? hits : misses).increment();
+        return name;
+    }
+
+    /**
+     * Stops referencing a cached content after the API rejected a request because of it, e.g. because
+     * it expired early or was deleted. The prefix is sent in full until registration is retried.
+     */
+    public void invalidate(GeminiKeyPool.Credential credential, String model, String prefix, String name) {
+        Entry entry = entries.get(entryKey(credential, model, prefix));
+        if (entry != null) {
+            entry.invalidate(name, Instant.now());
+        }
+    }
+
+    /**
+     * Whether an error of a request that referenced a cached content may be caused by that cached
+     * content, so the request is worth repeating with the full prompt.
+     */
+    public static boolean isCacheRejection(Throwable error) {
+        if (!(error instanceof WebClientResponseException response)) {
+            return false;
+        }
+        HttpStatus status = HttpStatus.resolve(response.getStatusCode().value());
+        if (status == HttpStatus.FORBIDDEN || status == HttpStatus.NOT_FOUND) {
+            return true;
+        }
+        // Other bad requests would fail with the full prompt just the same
+        return status == HttpStatus.BAD_REQUEST
+                && response.getResponseBodyAsString().toLowerCase(Locale.ROOT).contains("cache");
+    }
+
+    private static String entryKey(GeminiKeyPool.Credential credential, String model, String prefix) {
+        return credential.getName() + '\u0000' + model + '\u0000' + prefix;
+    }
+
+    /**
+     * The API url ends in the models collection; cachedContents is a sibling of it
+     */
+    private static String apiBaseUrl(GeminiKeyPool.Credential credential) {
+        String url = credential.getUrl();
+        return url.endsWith("/models") ? url.substring(0, url.length() - "/models".length()) : url;
+    }
+
+    private BodyInserter<Object, ReactiveHttpOutputMessage> createBody(String model, String prefix) {
+        return GeminiJson.body(objectMapper.getFactory(), prefix.length() + 256,
+                generator -> GeminiJson.writeCachedContentRequest(generator, "models/" + model, prefix, ttl()));
+    }
+
+    private String ttl() {
+        return config.getContextCache().getTtl().toSeconds() + "s";
+    }
+
+    /**
+     * Expiry reported by the API, or the requested lifetime from now if there is none.
+     */
+    private Instant expireTime(JsonNode response) {
+        String expireTime = response.path("expireTime").asText("");
+        return expireTime.isEmpty()
+                ? Instant.now().plus(config.getContextCache().getTtl())
+                : Instant.parse(expireTime);
+    }
+
+    /**
+     * Registration state of one prefix for one model and key.
+     */
+    private final class Entry {
+        private final GeminiKeyPool.Credential credential;
+        private final String model;
+        private final String prefix;
+        private final boolean tooSmall;
+        private String name;
+        private Instant expireTime = Instant.MIN;
+        private Instant retryAt = Instant.MIN;
+        private boolean creating;
+        private boolean refreshing;
+
+        private Entry(GeminiKeyPool.Credential credential, String model, String prefix) {
+            this.credential = credential;
+            this.model = model;
+            this.prefix = prefix;
+            int tokens = TokenEstimator.estimate(prefix);
+            this.tooSmall = tokens < config.getContextCache().getMinPrefixTokens();
+            if (tooSmall) {
+                log.debug("Prompt prefix of ~{} tokens is below the context cache minimum of {}; sending it in full",
+                        tokens, config.getContextCache().getMinPrefixTokens());
+            }
+        }
+
+        private synchronized String use(Instant now) {
+            if (name != null && now.isBefore(expireTime.minus(EXPIRY_MARGIN))) {
+                if (!refreshing && !now.isBefore(expireTime.minus(config.getContextCache().getRefreshAhead()))) {
+                    refresh(name);
+                }
+                return name;
+            }
+            if (!tooSmall && !creating && !now.isBefore(retryAt)) {
+                create();
+            }
+            return null;
+        }
+
+        private synchronized void invalidate(String rejected, Instant now) {
+            if (rejected.equals(name)) {
+                log.warn("Cached content {} was rejected; sending full prompts for {}",
+                        rejected, config.getContextCache().getRetryAfterFailure());
+                name = null;
+                retryAt = now.plus(config.getContextCache().getRetryAfterFailure());
+            }
+        }
+
+        private void create() {
+            creating = true;
+            webClient.post()
+                    .uri(URI.create(apiBaseUrl(credential) + "/cachedContents"))
+                    .header("x-goog-api-key", credential.getKey())
+                    .body(createBody(model, prefix))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .timeout(CALL_TIMEOUT)
+                    .subscribe(this::created, this::createFailed);
+        }
+
+        private synchronized void created(String response) {
+            creating = false;
+            try {
+                JsonNode json = objectMapper.readTree(response);
+                String created = json.path("name").asText("");
+                if (created.isEmpty()) {
+                    throw new IllegalStateException("no name in response");
+                }
+                name = created;
+                expireTime = expireTime(json);
+                refreshing = false;
+                log.info("Registered prompt prefix for {} with key {} as cached content {}, expiring at {}",
+                        model, credential.getName(), name, expireTime);
+            } catch (Exception e) {
+                failed(e);
+            }
+        }
+
+        private synchronized void createFailed(Throwable error) {
+            creating = false;
+            failed(error);
+        }
+
+        private void failed(Throwable error) {
+            retryAt = Instant.now().plus(config.getContextCache().getRetryAfterFailure());
+            log.warn("Could not register prompt prefix for {} as cached content, sending full prompts until {}: {}",
+                    model, retryAt, error.toString());
+        }
+
+        private void refresh(String refreshed) {
+            refreshing = true;
+            webClient.patch()
+                    .uri(URI.create(apiBaseUrl(credential) + "/" + refreshed + "?updateMask=ttl"))
+                    .header("x-goog-api-key", credential.getKey())
+                    .bodyValue(Map.of("ttl", ttl()))
+                    .retrieve()
+                    .bodyToMono(String.class)
+                    .timeout(CALL_TIMEOUT)
+                    .subscribe(response -> refreshed(refreshed, response), error -> refreshFailed(refreshed, error));
+        }
+
+        private synchronized void refreshed(String refreshed, String response) {
+            refreshing = false;
+            if (!refreshed.equals(name)) {
+                return;
+            }
+            try {
+                expireTime = expireTime(objectMapper.readTree(response));
+                log.debug("Extended cached content {} to {}", name, expireTime);
+            } catch (Exception e) {
+                log.warn("Could not read refreshed cached content {}: {}", refreshed, e.toString());
+            }
+        }
+
+        private synchronized void refreshFailed(String refreshed, Throwable error) {
+            // Not retried: the cached content stays in use until it expires, then the prefix is registered anew
+            log.warn("Could not extend cached content {}: {}", refreshed, error.toString());
+        }
+    }
+}
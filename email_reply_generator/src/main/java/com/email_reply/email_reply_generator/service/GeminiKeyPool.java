@@ -0,0 +1,284 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.util.TokenBucket;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Spreads model calls over a pool of API keys (and their endpoints), keeping each key within its
+ * quota locally instead of learning about the limit from 429 responses.
+ * <p>
+ * Every key has two token buckets, for requests per minute and for tokens per minute. A call
+ * reserves one request and its estimated prompt tokens on the key with the most headroom, and the
+ * reservation is corrected by the actual token usage once the response arrives. When no key has
+ * room, the call waits for the first one that will, up to {@code key-pool.max-wait}; calls that
+ * would wait longer are shed with {@link UpstreamSaturatedException}.
+ * <p>
+ * A 429 empties the key's request bucket, and after {@code key-pool.eject-after-429s} consecutive
+ * 429s the key is ejected for {@code key-pool.ejection-duration}. Per-key utilisation, ejection
+ * and call outcomes are exposed as the gemini.key.* metrics.
+ * <p>
+ * Calls of a {@link RequestPriority} with a maximum share below one only take a key while more
+ * than the rest of its quota is left, so bulk calls cannot use up the quota interactive calls need.
+ */
+@Service
+@Slf4j
+public class GeminiKeyPool {
+
+    private static final Duration MINUTE = Duration.ofMinutes(1);
+
+    private final GeminiApiConfig.KeyPool settings;
+    private final List<Credential> credentials = new ArrayList<>();
+    private final Map<RequestPriority, Double> reserves = new EnumMap<>(RequestPriority.class);
+    private final Counter shedCounter;
+
+    public GeminiKeyPool(GeminiApiConfig config, MeterRegistry meterRegistry) {
+        this.settings = config.getKeyPool();
+        List<GeminiApiConfig.Credential> configured = config.getCredentials();
+        if (configured.isEmpty()) {
+            GeminiApiConfig.Credential single = new GeminiApiConfig.Credential();
+            single.setKey(config.getKey());
+            configured = List.of(single);
+        }
+        long now = System.nanoTime();
+        for (int i = 0; i < configured.size(); i++) {
+            GeminiApiConfig.Credential credential = configured.get(i);
+            if (credential.getKey() == null || credential.getKey().isBlank()) {
+                throw new IllegalStateException("gemini.api.credentials[" + i + "] has no key");
+            }
+            String name = credential.getName() != null ? credential.getName() : "key-" + i;
+            String url = credential.getUrl() != null ? credential.getUrl() : config.getUrl();
+            int requests = credential.getRequestsPerMinute() != null
+                    ? credential.getRequestsPerMinute() : settings.getRequestsPerMinute();
+            int tokens = credential.getTokensPerMinute() != null
+                    ? credential.getTokensPerMinute() : settings.getTokensPerMinute();
+            credentials.add(new Credential(name, credential.getKey(), url,
+                    new TokenBucket(requests, MINUTE, now), new TokenBucket(tokens, MINUTE, now), meterRegistry));
+            log.info("Gemini API key {} at {}: {} requests/min, {} tokens/min", name, url,
+                    requests > 0 ? requests : "unlimited", tokens > 0 ? tokens : "unlimited");
+        }
+        GeminiApiConfig.Scheduling scheduling = config.getScheduling();
+        reserves.put(RequestPriority.INTERACTIVE, 1 - scheduling.getInteractive().getMaxShare());
+        reserves.put(RequestPriority.BACKGROUND, 1 - scheduling.getBackground().getMaxShare());
+        reserves.put(RequestPriority.BULK, 1 - scheduling.getBulk().getMaxShare());
+        this.shedCounter = meterRegistry.counter("gemini.key.shed");
+    }
+
+    /**
+     * Runs a call with the key that has the most headroom, leaving the quota reserved for other
+     * priority classes than the one in the subscriber context.
+     *
+     * @param estimatedTokens Tokens the call is expected to use, reserved up front
+     * @param call The call, given the key to use
+     * @param usedTokens Actual tokens used according to the result, or 0 if unknown
+     */
+    public <T> Mono<T> execute(int estimatedTokens, Function<Credential, Mono<T>> call, ToIntFunction<T> usedTokens) {
+        return acquire(estimatedTokens)
+                .flatMap(credential -> call.apply(credential)
+                        .doOnSuccess(result -> succeeded(credential, estimatedTokens,
+                                result != null ? usedTokens.applyAsInt(result) : 0))
+                        .doOnError(error -> failed(credential, error)));
+    }
+
+    /**
+     * Like {@link #execute}, for a streamed call. The usage is taken from the last element that reports any.
+     */
+    public <T> Flux<T> executeMany(int estimatedTokens, Function<Credential, Flux<T>> call, ToIntFunction<T> usedTokens) {
+        return acquire(estimatedTokens)
+                .flatMapMany(credential -> {
+                    int[] used = new int[1];
+                    return call.apply(credential)
+                            .doOnNext(element -> {
+                                int tokens = usedTokens.applyAsInt(element);
+                                if (tokens > 0) {
+                                    used[0] = tokens;
+                                }
+                            })
+                            .doOnComplete(() -> succeeded(credential, estimatedTokens, used[0]))
+                            .doOnError(error -> failed(credential, error));
+                });
+    }
+
+    public List<Credential> credentials() {
+        return List.copyOf(credentials);
+    }
+
+    private Mono<Credential> acquire(int estimatedTokens) {
+        return Mono.deferContextual(context -> acquire(estimatedTokens, reserves.get(RequestPriority.of(context)),
+                System.nanoTime() + settings.getMaxWait().toNanos()));
+    }
+
+    /**
+     * @param reserve Fraction of each key's quota that must remain after the call
+     */
+    private Mono<Credential> acquire(int estimatedTokens, double reserve, long deadline) {
+        return Mono.defer(() -> {
+            long now = System.nanoTime();
+            long wait = Long.MAX_VALUE;
+            synchronized (this) {
+                Credential best = null;
+                double bestHeadroom = -1;
+                for (Credential credential : credentials) {
+                    long readyIn = credential.readyIn(estimatedTokens, reserve, now);
+                    if (readyIn > 0) {
+                        wait = Math.min(wait, readyIn);
+                    } else if (credential.headroom(now) > bestHeadroom) {
+                        best = credential;
+                        bestHeadroom = credential.headroom(now);
+                    }
+                }
+                if (best != null) {
+                    best.requests.take(1, now);
+                    best.tokens.take(estimatedTokens, now);
+                    return Mono.just(best);
+                }
+            }
+            if (now + wait > deadline) {
+                shedCounter.increment();
+                return Mono.error(new UpstreamSaturatedException("All API keys are at their rate limits",
+                        Duration.ofNanos(wait)));
+            }
+            return Mono.delay(Duration.ofNanos(wait)).then(acquire(estimatedTokens, reserve, deadline));
+        });
+    }
+
+    private void succeeded(Credential credential, int estimatedTokens, int usedTokens) {
+        credential.successCounter.increment();
+        synchronized (this) {
+            credential.consecutive429s = 0;
+            if (usedTokens > 0) {
+                credential.tokens.take(usedTokens - estimatedTokens, System.nanoTime());
+            }
+        }
+    }
+
+    private void failed(Credential credential, Throwable error) {
+        if (!(error instanceof WebClientResponseException response)
+                || response.getStatusCode().value() != HttpStatus.TOO_MANY_REQUESTS.value()) {
+            credential.errorCounter.increment();
+            return;
+        }
+        credential.rateLimitedCounter.increment();
+        synchronized (this) {
+            long now = System.nanoTime();
+            credential.requests.drain(now);
+            credential.consecutive429s++;
+            if (credential.consecutive429s >= settings.getEjectAfter429s() && credential.ejectedUntil - now <= 0) {
+                credential.ejectedUntil = now + settings.getEjectionDuration().toNanos();
+                credential.consecutive429s = 0;
+                log.warn("Ejecting Gemini API key {} for {} after {} consecutive 429 responses",
+                        credential.name, settings.getEjectionDuration(), settings.getEjectAfter429s());
+            }
+        }
+    }
+
+    /**
+     * An API key with its endpoint, limits and state. Mutable state is guarded by the pool.
+     */
+    public final class Credential {
+        private final String name;
+        private final String key;
+        private final String url;
+        private final TokenBucket requests;
+        private final TokenBucket tokens;
+        private final Counter successCounter;
+        private final Counter rateLimitedCounter;
+        private final Counter errorCounter;
+        private int consecutive429s;
+        private long ejectedUntil;
+
+        private Credential(String name, String key, String url, TokenBucket requests, TokenBucket tokens,
+                MeterRegistry meterRegistry) {
+            this.name = name;
+            this.key = key;
+            this.url = url.replaceAll("/+$", "");
+            this.requests = requests;
+            this.tokens = tokens;
+            this.ejectedUntil = System.nanoTime();
+            this.successCounter = meterRegistry.counter("gemini.key.calls", "key", name, "outcome", "success");
+            this.rateLimitedCounter = meterRegistry.counter("gemini.key.calls", "key", name, "outcome", "rate_limited");
+            this.errorCounter = meterRegistry.counter("gemini.key.calls", "key", name, "outcome", "error");
+            if (!requests.isUnlimited()) {
+                Gauge.builder("gemini.key.utilization", this, credential -> credential.utilization(credential.requests))
+                        .tags("key", name, "limit", "requests")
+                        .description("Fraction of the key's requests per minute in use")
+                        .register(meterRegistry);
+            }
+            if (!tokens.isUnlimited()) {
+                Gauge.builder("gemini.key.utilization", this, credential -> credential.utilization(credential.tokens))
+                        .tags("key", name, "limit", "tokens")
+                        .description("Fraction of the key's tokens per minute in use")
+                        .register(meterRegistry);
+            }
+            Gauge.builder("gemini.key.ejected", this, credential -> credential.isEjected() ? 1 : 0)
+                    .tags("key", name)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Name of the key in logs and metrics
+         */
+        public String getName() {
+            return name;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * Base URL of the models collection, without a trailing slash
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        public boolean isEjected() {
+            synchronized (GeminiKeyPool.this) {
+                return ejectedUntil - System.nanoTime() > 0;
+            }
+        }
+
+        private double utilization(TokenBucket bucket) {
+            synchronized (GeminiKeyPool.this) {
+                return bucket.utilization(System.nanoTime());
+            }
+        }
+
+        /**
+         * Nanoseconds until the key can take the call and keep the reserve; zero if it can now
+         */
+        private long readyIn(int estimatedTokens, double reserve, long now) {
+            long ejected = Math.max(0, ejectedUntil - now);
+            return Math.max(ejected, Math.max(requests.nanosUntil(1 + reserve * requests.capacity(), now),
+                    tokens.nanosUntil(estimatedTokens + reserve * tokens.capacity(), now)));
+        }
+
+        /**
+         * Fraction of the tighter of the two limits still available
+         */
+        private double headroom(long now) {
+            double requestHeadroom = requests.isUnlimited() ? 1 : requests.available(now) / requests.capacity();
+            double tokenHeadroom = tokens.isUnlimited() ? 1 : tokens.available(now) / tokens.capacity();
+            return Math.min(requestHeadroom, tokenHeadroom);
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.util.HashUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Coalesces identical in-flight model calls ("single flight").
+ * The first caller for a prompt becomes the leader and starts the upstream call; callers that
+ * arrive while it is still running attach to the same call and receive the same result,
+ * including chunks that were streamed before they joined.
+ * <p>
+ * The shared call is reference counted: a caller that cancels only detaches itself. The upstream
+ * call is cancelled once every caller is gone and no new one has attached within the grace period.
+ * <p>
+ * Calls are only coalesced within a {@link RequestPriority}, so a caller is never queued at the
+ * priority of another. The shared call runs without a {@link Deadline}; each caller bounds its own
+ * wait by its own deadline instead of inheriting the leader's.
+ */
+@Service
+@Slf4j
+public class InFlightRequestRegistry {
+
+    private final Map<String, Flux<ModelOutput>> inFlight = new ConcurrentHashMap<>();
+
+    private final boolean enabled;
+    private final Duration gracePeriod;
+    private final Counter leaderCounter;
+    private final Counter followerCounter;
+
+    public InFlightRequestRegistry(@Value("${reply.single-flight.enabled:true}") boolean enabled,
+                                   @Value("${reply.single-flight.grace-period:5s}") Duration gracePeriod,
+                                   MeterRegistry meterRegistry) {
+        this.enabled = enabled;
+        this.gracePeriod = gracePeriod;
+        this.leaderCounter = meterRegistry.counter("reply.singleflight.calls", "role", "leader");
+        this.followerCounter = meterRegistry.counter("reply.singleflight.calls", "role", "follower");
+        meterRegistry.gaugeMapSize("reply.singleflight.inflight", Tags.empty(), inFlight);
+    }
+
+    /**
+     * Runs a buffered model call, or joins the identical call that is already in flight.
+     * If the call in flight is a streaming one, its chunks are concatenated.
+     *
+     * @param modelName The model the prompt is sent to
+     * @param prompt The prompt, used as the coalescing key
+     * @param call Starts the upstream call when this caller becomes the leader
+     * @return The generated text
+     */
+    public Mono<ModelOutput> join(String modelName, String prompt, Supplier<Mono<ModelOutput>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return attach(modelName, prompt, () -> call.get().flux())
+                .reduce(ModelOutput::concat);
+    }
+
+    /**
+     * Runs a streaming model call, or joins the identical call that is already in flight.
+     * If the call in flight is a buffered one, its result arrives as a single chunk.
+     *
+     * @param modelName The model the prompt is sent to
+     * @param prompt The prompt, used as the coalescing key
+     * @param call Starts the upstream call when this caller becomes the leader
+     * @return The generated text, chunk by chunk
+     */
+    public Flux<ModelOutput> joinStream(String modelName, String prompt, Supplier<Flux<ModelOutput>> call) {
+        if (!enabled) {
+            return call.get();
+        }
+        return attach(modelName, prompt, call);
+    }
+
+    private Flux<ModelOutput> attach(String modelName, String prompt, Supplier<Flux<ModelOutput>> call) {
+        return Flux.deferContextual(view -> {
+            String key = keyFor(modelName, RequestPriority.of(view), prompt);
+            boolean[] leader = new boolean[1];
+            Flux<ModelOutput> shared = inFlight.computeIfAbsent(key, k -> {
+                leader[0] = true;
+                return share(k, call.get());
+            });
+
+            if (leader[0]) {
+                leaderCounter.increment();
+            } else {
+                followerCounter.increment();
+                log.debug("Joining in-flight model call for key: {}", key);
+            }
+            Deadline deadline = Deadline.of(view);
+            return deadline != null ? deadline.bound(shared) : shared;
+        });
+    }
+
+    private Flux<ModelOutput> share(String key, Flux<ModelOutput> upstream) {
+        AtomicReference<Flux<ModelOutput>> self = new AtomicReference<>();
+        Flux<ModelOutput> shared = upstream
+                // The leader's deadline must not cut the call short for the followers
+                .contextWrite(Deadline::clear)
+                // Only remove our own entry; a newer flight may already own the key
+                .doFinally(signal -> inFlight.remove(key, self.get()))
+                .replay()
+                .refCount(1, gracePeriod);
+        self.set(shared);
+        return shared;
+    }
+
+    private static String keyFor(String modelName, RequestPriority priority, String prompt) {
+        return HashUtils.sha256Hex(modelName + '\u0000' + priority + '\u0000' + prompt);
+    }
+}
@@ -0,0 +1,12 @@
+package com.email_reply.email_reply_generator.service;
+
+/**
+ * Thrown when a client request is rejected as invalid, e.g. a batch above the size limit.
+ * The message is meant for the client and is returned with a 400.
+ */
+public class InvalidRequestException extends RuntimeException {
+
+    public InvalidRequestException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,432 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.JobConfig;
+import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
+import com.email_reply.email_reply_generator.dto.JobStatus;
+import com.email_reply.email_reply_generator.util.WriteAheadLog;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PreDestroy;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+import reactor.util.retry.Retry;
+
+/**
+ * Generates replies asynchronously: a submitted job is recorded in a write-ahead log on disk before
+ * it is acknowledged, and a bounded number of workers generate the replies in the background with
+ * {@link RequestPriority#BACKGROUND} priority. Clients fetch the result by job id.
+ * A job never settles for a local draft: while the model API is saturated or its circuit is open,
+ * the job retries until it gets the model's reply, and fails once the configured retry time is exceeded.
+ * <p>
+ * The log records submissions and results. On startup it is replayed, jobs that had not finished
+ * are queued again, and the log is compacted to the jobs still needed: unfinished ones, and
+ * finished ones whose result is within the retention period. It is compacted again whenever it
+ * outgrows the configured threshold.
+ */
+@Service
+@Slf4j
+public class JobService {
+
+    private static final String LOG_FILE = "jobs.log";
+    private static final Duration SWEEP_INTERVAL = Duration.ofMinutes(1);
+    private static final Duration MIN_RETRY_DELAY = Duration.ofSeconds(1);
+
+    private final JobConfig config;
+    private final EmailReplyService emailReplyService;
+    private final ObjectMapper objectMapper;
+    private final Map<String, Job> jobs = new ConcurrentHashMap<>();
+    private final Deque<Job> queued = new ArrayDeque<>();
+    private final WriteAheadLog writeAheadLog;
+    private final Disposable sweeper;
+    private final MeterRegistry meterRegistry;
+    private int running;
+    private boolean started;
+
+    public JobService(JobConfig config, EmailReplyService emailReplyService, ObjectMapper objectMapper,
+                      MeterRegistry meterRegistry) throws IOException {
+        this.config = config;
+        this.emailReplyService = emailReplyService;
+        this.objectMapper = objectMapper;
+        this.meterRegistry = meterRegistry;
+
+        Path file = Path.of(config.getDirectory(), LOG_FILE);
+        List<byte[]> records = WriteAheadLog.read(file);
+        for (byte[] record : records) {
+            replay(objectMapper.readValue(record, JobRecord.class));
+        }
+        jobs.values().stream()
+                .filter(job -> !job.getStatus().isFinished())
+                .sorted(Comparator.comparing(Job::getSubmittedAt))
+                .forEach(queued::addLast);
+        this.writeAheadLog = new WriteAheadLog(file, config.getCompactThreshold().toBytes(), this::snapshot);
+        log.info("Job log {}: {} records replayed, {} jobs to resume, {} results kept",
+                file.toAbsolutePath(), records.size(), queued.size(), jobs.size() - queued.size());
+
+        meterRegistry.gauge("reply.jobs.queued", this, JobService::queuedCount);
+        meterRegistry.gauge("reply.jobs.running", this, JobService::runningCount);
+        this.sweeper = Flux.interval(SWEEP_INTERVAL).subscribe(tick -> sweep());
+    }
+
+    /**
+     * Starts the workers on the jobs replayed from the log once the application is ready.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        synchronized (queued) {
+            started = true;
+        }
+        dispatch();
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        sweeper.dispose();
+        writeAheadLog.close();
+    }
+
+    /**
+     * Records a job and queues it for generation.
+     *
+     * @return The job, once its submission is on disk
+     */
+    public Mono<Job> submit(EmailReplyRequest request) {
+        if (request.getContent() == null || request.getContent().isBlank()) {
+            throw new InvalidRequestException("Email content is empty");
+        }
+        if (request.getTone() == null) {
+            throw new InvalidRequestException("Tone is missing");
+        }
+        if (queuedCount() >= config.getMaxQueued()) {
+            throw new UpstreamSaturatedException("Job queue is full", SWEEP_INTERVAL);
+        }
+
+        Job job = new Job(UUID.randomUUID().toString(), request.getClientId(), request.getContent(),
+                request.getTone(), Instant.now());
+        // Known before it is logged, so a compaction in between keeps it
+        jobs.put(job.getId(), job);
+        return Mono.fromFuture(() -> writeAheadLog.append(serialize(JobRecord.submitted(job))))
+                .doOnError(e -> jobs.remove(job.getId()))
+                .then(Mono.fromSupplier(() -> {
+                    meterRegistry.counter("reply.jobs.submitted").increment();
+                    synchronized (queued) {
+                        queued.addLast(job);
+                    }
+                    dispatch();
+                    return job;
+                }));
+    }
+
+    /**
+     * The job with the given id, or null if there is none or its result has expired
+     */
+    public Job get(String id) {
+        Job job = jobs.get(id);
+        return job != null && !isExpired(job, Instant.now()) ? job : null;
+    }
+
+    /**
+     * Waits until the job has finished, but no longer than the given time or the configured maximum.
+     *
+     * @return The job as it is then, or empty if there is no such job
+     */
+    public Mono<Job> await(String id, Duration wait) {
+        Job job = get(id);
+        if (job == null) {
+            return Mono.empty();
+        }
+        Duration limit = wait.compareTo(config.getMaxPollWait()) < 0 ? wait : config.getMaxPollWait();
+        if (job.getStatus().isFinished() || limit.isZero() || limit.isNegative()) {
+            return Mono.just(job);
+        }
+        return job.finished.asMono().timeout(limit, Mono.fromSupplier(() -> job));
+    }
+
+    public int queuedCount() {
+        synchronized (queued) {
+            return queued.size();
+        }
+    }
+
+    public int runningCount() {
+        synchronized (queued) {
+            return running;
+        }
+    }
+
+    /**
+     * Starts queued jobs while fewer than the configured number are running.
+     */
+    private void dispatch() {
+        List<Job> next = new ArrayList<>();
+        synchronized (queued) {
+            while (started && running < config.getWorkers() && !queued.isEmpty()) {
+                running++;
+                next.add(queued.pollFirst());
+            }
+        }
+        for (Job job : next) {
+            // Started on another thread, so jobs that finish at once do not recurse into dispatch
+            run(job).subscribeOn(Schedulers.parallel()).doFinally(signal -> {
+                synchronized (queued) {
+                    running--;
+                }
+                dispatch();
+            }).subscribe();
+        }
+    }
+
+    private Mono<Void> run(Job job) {
+        return Mono.defer(() -> {
+            job.status = JobStatus.RUNNING;
+            return generate(job);
+        });
+    }
+
+    private Mono<Void> generate(Job job) {
+        EmailReplyService.EmailContext context = EmailReplyService.EmailContext.createBasic(
+                "Email Subject",
+                job.getContent(),
+                "Unknown Sender"
+        );
+        long startedAt = System.nanoTime();
+        return emailReplyService.generateModelReply(context, job.getTone())
+                // A shed call, one the open circuit rejected or a transient upstream failure is retried once
+                // the upstream has room; the job is not lost to a busy period or an outage, but it does not
+                // wait forever. Retries in between are mostly rejected by the circuit without a call.
+                .retryWhen(Retry.from(signals -> signals.concatMap(signal -> {
+                    Throwable failure = signal.failure();
+                    Duration delay;
+                    if (failure instanceof UpstreamSaturatedException saturated) {
+                        delay = saturated.getRetryAfter().compareTo(MIN_RETRY_DELAY) > 0
+                                ? saturated.getRetryAfter() : MIN_RETRY_DELAY;
+                    } else if (UpstreamResilience.isTransient(failure)) {
+                        delay = MIN_RETRY_DELAY;
+                    } else {
+                        return Mono.error(failure);
+                    }
+                    Duration elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+                    if (elapsed.plus(delay).compareTo(config.getMaxRetryTime()) > 0) {
+                        return Mono.error(new UpstreamSaturatedException("Model API unavailable for longer than "
+                                + config.getMaxRetryTime().toSeconds() + "s: " + failure.getMessage(), delay));
+                    }
+                    return Mono.delay(delay);
+                })))
+                .contextWrite(RequestPriority.BACKGROUND.asContext())
+                .doOnNext(reply -> finish(job, JobStatus.SUCCEEDED, reply.getText(), reply.isDegraded(), null))
+                .doOnError(e -> {
+                    log.warn("Job {} failed: {}", job.getId(), e.getMessage());
+                    finish(job, JobStatus.FAILED, null, false, e.getMessage());
+                })
+                .onErrorResume(e -> Mono.empty())
+                .then();
+    }
+
+    /**
+     * Logs the result of a job and publishes it. The record is queued before the finished status
+     * is set, so a shutdown after anyone has seen the result is sure to write it; a result that does
+     * not make it to disk only means the job is generated again after a restart.
+     */
+    private void finish(Job job, JobStatus status, String reply, boolean degraded, String error) {
+        job.reply = reply;
+        job.degraded = degraded;
+        job.error = error;
+        job.finishedAt = Instant.now();
+        writeAheadLog.append(serialize(JobRecord.finished(job, status)))
+                .exceptionally(e -> {
+                    log.warn("Could not log the result of job {}: {}", job.getId(), e.toString());
+                    return null;
+                });
+        job.status = status;
+        meterRegistry.counter("reply.jobs.completed", "status", status.name().toLowerCase(Locale.ROOT)).increment();
+        job.finished.tryEmitValue(job);
+    }
+
+    private void replay(JobRecord record) {
+        Job job = jobs.get(record.getId());
+        if (record.getStatus() == JobStatus.QUEUED) {
+            if (job == null) {
+                jobs.put(record.getId(), new Job(record.getId(), record.getClientId(), record.getContent(),
+                        record.getTone(), record.getSubmittedAt()));
+            }
+        } else if (job == null || !job.getStatus().isFinished()) {
+            Job finished = new Job(record.getId(), record.getClientId(), null, null, record.getSubmittedAt());
+            finished.reply = record.getReply();
+            finished.degraded = record.isDegraded();
+            finished.error = record.getError();
+            finished.finishedAt = record.getFinishedAt();
+            finished.status = record.getStatus();
+            if (!isExpired(finished, Instant.now())) {
+                jobs.put(record.getId(), finished);
+            } else {
+                jobs.remove(record.getId());
+            }
+        }
+    }
+
+    /**
+     * The records the log needs to restore the current jobs, dropping expired results
+     */
+    private List<byte[]> snapshot() {
+        sweep();
+        List<byte[]> records = new ArrayList<>();
+        jobs.values().stream()
+                .sorted(Comparator.comparing(Job::getSubmittedAt))
+                .forEach(job -> records.add(serialize(job.getStatus().isFinished()
+                        ? JobRecord.finished(job) : JobRecord.submitted(job))));
+        return records;
+    }
+
+    private void sweep() {
+        Instant now = Instant.now();
+        jobs.values().removeIf(job -> isExpired(job, now));
+    }
+
+    private boolean isExpired(Job job, Instant now) {
+        return job.getStatus().isFinished() && job.getFinishedAt().plus(config.getRetention()).isBefore(now);
+    }
+
+    private byte[] serialize(JobRecord record) {
+        try {
+            return objectMapper.writeValueAsBytes(record);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * An asynchronous reply job. The status is written last, so a finished status implies the result is set.
+     */
+    public static final class Job {
+        private final String id;
+        private final String clientId;
+        private final String content;
+        private final String tone;
+        private final Instant submittedAt;
+        private final Sinks.One<Job> finished = Sinks.one();
+        private volatile JobStatus status = JobStatus.QUEUED;
+        private String reply;
+        private boolean degraded;
+        private String error;
+        private Instant finishedAt;
+
+        private Job(String id, String clientId, String content, String tone, Instant submittedAt) {
+            this.id = id;
+            this.clientId = clientId;
+            this.content = content;
+            this.tone = tone;
+            this.submittedAt = submittedAt;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        public String getClientId() {
+            return clientId;
+        }
+
+        public String getContent() {
+            return content;
+        }
+
+        public String getTone() {
+            return tone;
+        }
+
+        public Instant getSubmittedAt() {
+            return submittedAt;
+        }
+
+        public JobStatus getStatus() {
+            return status;
+        }
+
+        public String getReply() {
+            return reply;
+        }
+
+        public boolean isDegraded() {
+            return degraded;
+        }
+
+        public String getError() {
+            return error;
+        }
+
+        public Instant getFinishedAt() {
+            return finishedAt;
+        }
+    }
+
+    /**
+     * A log record: a submission (status QUEUED, with the email) or a result (without it).
+     */
+    @Data
+    @JsonInclude(JsonInclude.Include.NON_DEFAULT)
+    static class JobRecord {
+        private String id;
+        private JobStatus status;
+        private String clientId;
+        private String content;
+        private String tone;
+        private Instant submittedAt;
+        private String reply;
+        private boolean degraded;
+        private String error;
+        private Instant finishedAt;
+
+        static JobRecord submitted(Job job) {
+            JobRecord record = new JobRecord();
+            record.id = job.getId();
+            record.status = JobStatus.QUEUED;
+            record.clientId = job.getClientId();
+            record.content = job.getContent();
+            record.tone = job.getTone();
+            record.submittedAt = job.getSubmittedAt();
+            return record;
+        }
+
+        static JobRecord finished(Job job) {
+            return finished(job, job.getStatus());
+        }
+
+        static JobRecord finished(Job job, JobStatus status) {
+            JobRecord record = new JobRecord();
+            record.id = job.getId();
+            record.status = status;
+            record.clientId = job.getClientId();
+            record.submittedAt = job.getSubmittedAt();
+            record.reply = job.getReply();
+            record.degraded = job.isDegraded();
+            record.error = job.getError();
+            record.finishedAt = job.getFinishedAt();
+            return record;
+        }
+    }
+}
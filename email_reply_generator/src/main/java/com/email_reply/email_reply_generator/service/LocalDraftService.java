@@ -0,0 +1,81 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.util.EmailExamples;
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+import com.email_reply.email_reply_generator.util.EmailUtils;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Builds a reply draft locally, without the model, for when the model API is unavailable.
+ * Using the {@link EmailAnalyzerService} analysis already made for the model call, the body of the matching
+ * example exchange from {@link EmailExamples} is framed by a greeting and closing for the tone.
+ * The draft is generic and meant to be reviewed and edited before it is sent.
+ */
+@Service
+@Slf4j
+public class LocalDraftService {
+
+    private static final String DEFAULT_TONE = "professional";
+
+    private static final String GENERIC_BODY =
+            "Thank you for your email. I have received your message and will get back to you with a full reply shortly.";
+
+    /**
+     * Email types from {@link EmailAnalyzerService} mapped to the scenario names of {@link EmailExamples}
+     */
+    private static final Map<String, String> SCENARIOS = Map.of(
+            EmailKeywordRules.MEETING_REQUEST, "Meeting Request",
+            EmailKeywordRules.PROJECT_UPDATE, "Project Update",
+            EmailKeywordRules.CUSTOMER_INQUIRY, "Customer Inquiry",
+            EmailKeywordRules.CUSTOMER_COMPLAINT, "Formal Apology",
+            EmailKeywordRules.JOB_APPLICATION, "Job Application Response",
+            EmailKeywordRules.FOLLOW_UP, "Follow-up Email",
+            EmailKeywordRules.VENDOR_COMMUNICATION, "Vendor Communication");
+
+    private final Counter draftCounter;
+
+    public LocalDraftService(MeterRegistry meterRegistry) {
+        this.draftCounter = meterRegistry.counter("reply.degraded");
+    }
+
+    /**
+     * Drafts a reply to the email from local templates.
+     *
+     * @param analysis The analysis of the email, as made for the model call
+     * @param tone The desired tone for the reply (professional, friendly, casual); null for professional
+     * @return The draft reply text
+     */
+    public String draftReply(EmailAnalyzerService.EmailContext analysis, String tone) {
+        String effectiveTone = tone != null ? tone : DEFAULT_TONE;
+        String scenario = SCENARIOS.get(analysis.getEmailType());
+        EmailExamples.EmailExchange example = scenario != null ? EmailExamples.getExampleByScenario(scenario) : null;
+        String body = example != null ? stripGreetingAndClosing(example.getAppropriateReply()) : GENERIC_BODY;
+
+        draftCounter.increment();
+        log.debug("Drafted local reply for email type: {}", analysis.getEmailType());
+
+        // The sender of the email is the one being replied to; the reply is left for the user to sign
+        return EmailUtils.generateGreeting(analysis.getSenderName(), effectiveTone)
+                + "\n\n" + body
+                + "\n\n" + EmailUtils.generateClosing(null, effectiveTone);
+    }
+
+    /**
+     * Keeps the paragraphs between the greeting and the closing of an example reply.
+     */
+    private static String stripGreetingAndClosing(String reply) {
+        String[] paragraphs = reply.split("\n\n");
+        if (paragraphs.length < 3) {
+            return GENERIC_BODY;
+        }
+        return String.join("\n\n", Arrays.copyOfRange(paragraphs, 1, paragraphs.length - 1));
+    }
+}
@@ -0,0 +1,30 @@
+package com.email_reply.email_reply_generator.service;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+
+/**
+ * Text generated by a model: a complete reply, or one chunk of a streamed reply.
+ */
+@Data
+@AllArgsConstructor
+public class ModelOutput {
+    private String text;
+
+    /**
+     * True if the model stopped at the output token limit, so the reply is cut off. On a stream,
+     * only the last chunk is flagged.
+     */
+    private boolean truncated;
+
+    public static ModelOutput of(String text) {
+        return new ModelOutput(text, false);
+    }
+
+    /**
+     * Joins two consecutive parts of the same reply.
+     */
+    public ModelOutput concat(ModelOutput next) {
+        return new ModelOutput(text + next.text, truncated || next.truncated);
+    }
+}
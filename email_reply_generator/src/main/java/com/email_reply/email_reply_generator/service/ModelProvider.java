@@ -0,0 +1,35 @@
+package com.email_reply.email_reply_generator.service;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * A service that generates text with a hosted model. Implementations are Spring beans, and
+ * {@link ModelRouter} picks one per email by the provider name of the route it chose.
+ */
+public interface ModelProvider {
+
+    /**
+     * Name the provider is referred to by in reply.routing.routes.*.provider
+     */
+    String name();
+
+    /**
+     * Generates the complete reply to a prompt.
+     * Failures are signalled as errors; {@link CircuitOpenException} if the provider is known to be unavailable.
+     *
+     * @param model The model to use, as the provider names it
+     * @param prompt The prompt to send to the model
+     * @return The generated text, flagged if it was cut off at the output limit
+     */
+    Mono<ModelOutput> generateContent(String model, PromptService.Prompt prompt);
+
+    /**
+     * Streams the reply to a prompt as text deltas while the model generates it.
+     *
+     * @param model The model to use, as the provider names it
+     * @param prompt The prompt to send to the model
+     * @return The generated text, chunk by chunk; the last chunk is flagged if the reply was cut off
+     */
+    Flux<ModelOutput> streamContent(String model, PromptService.Prompt prompt);
+}
@@ -0,0 +1,236 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.config.ModelRoutingConfig;
+import com.email_reply.email_reply_generator.util.TokenEstimator;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Picks the model an email is answered with: a fast, cheap model for short emails of a simple type
+ * in a light tone, and the default (pro) model for everything else.
+ * <p>
+ * Every decision is logged. Decisions that lead to a model call are counted in {@code reply.model.routes}
+ * by route and reason, so replies served from a cache do not skew the split, and every model call is
+ * timed in {@code reply.model.latency} by route, so the split can be tuned against the latency and
+ * token cost (see {@code reply.model.tokens}) of each route.
+ */
+@Service
+@Slf4j
+public class ModelRouter {
+
+    public static final String REASON_DISABLED = "disabled";
+    public static final String REASON_SIMPLE = "simple";
+    public static final String REASON_LONG = "long";
+    public static final String REASON_TYPE = "type";
+    public static final String REASON_TONE = "tone";
+    public static final String REASON_DEADLINE = "deadline";
+
+    private final ModelRoutingConfig config;
+    private final MeterRegistry meterRegistry;
+    private final Route defaultRoute;
+    private final Route fastRoute;
+
+    public ModelRouter(ModelRoutingConfig config, GeminiApiConfig geminiConfig, List<ModelProvider> providers,
+            MeterRegistry meterRegistry) {
+        this.config = config;
+        this.meterRegistry = meterRegistry;
+        Map<String, ModelProvider> providersByName = new LinkedHashMap<>();
+        for (ModelProvider provider : providers) {
+            providersByName.put(provider.name(), provider);
+        }
+
+        ModelRoutingConfig.Route defaultSettings = config.getRoutes().get(config.getDefaultRoute());
+        if (defaultSettings == null) {
+            defaultSettings = new ModelRoutingConfig.Route();
+            defaultSettings.setModel(geminiConfig.getModel());
+        }
+        this.defaultRoute = route(config.getDefaultRoute(), defaultSettings, providersByName);
+        ModelRoutingConfig.Route fastSettings = config.getRoutes().get(config.getFastRoute());
+        this.fastRoute = fastSettings != null ? route(config.getFastRoute(), fastSettings, providersByName) : null;
+
+        log.info("Model routing enabled: {}, default route: {} ({}), fast route: {}",
+                config.isEnabled() && fastRoute != null, defaultRoute.getName(), defaultRoute.getModel(),
+                fastRoute != null ? fastRoute.getName() + " (" + fastRoute.getModel() + ")" : "none");
+    }
+
+    /**
+     * The routes emails can be sent to: the default route, then the fast route if one is configured.
+     * Listing them does not count as a routing decision.
+     */
+    public List<Route> routes() {
+        return fastRoute != null ? List.of(defaultRoute, fastRoute) : List.of(defaultRoute);
+    }
+
+    /**
+     * Picks the route for an email that has already been analyzed.
+     */
+    public Decision route(EmailAnalyzerService.EmailContext analysis, String tone) {
+        return route(analysis, tone, null);
+    }
+
+    /**
+     * Picks the route for an email that has already been analyzed. A request with less time left
+     * than reply.routing.fast-below-budget goes to the fast route whatever the email, since a reply
+     * from the fast model beats none.
+     *
+     * @param deadline The deadline of the request, or null
+     */
+    public Decision route(EmailAnalyzerService.EmailContext analysis, String tone, Deadline deadline) {
+        Route route = defaultRoute;
+        String reason;
+        int tokens = 0;
+        if (!config.isEnabled() || fastRoute == null) {
+            reason = REASON_DISABLED;
+        } else if (deadline != null && deadline.remaining().compareTo(config.getFastBelowBudget()) < 0) {
+            route = fastRoute;
+            reason = REASON_DEADLINE;
+        } else if (!config.getFastTypes().contains(analysis.getEmailType())) {
+            reason = REASON_TYPE;
+        } else if (tone == null || !config.getFastTones().contains(tone.toLowerCase(Locale.ROOT))) {
+            reason = REASON_TONE;
+        } else if ((tokens = TokenEstimator.estimate(analysis.getCleanedContent())) > config.getFastMaxTokens()) {
+            reason = REASON_LONG;
+        } else {
+            route = fastRoute;
+            reason = REASON_SIMPLE;
+        }
+        log.debug("Routing {} email in {} tone{} to {} ({}): {}", analysis.getEmailType(), tone,
+                tokens > 0 ? " of ~" + tokens + " tokens" : "", route.getName(), route.getModel(), reason);
+        return new Decision(route, reason, meterRegistry);
+    }
+
+    private Route route(String name, ModelRoutingConfig.Route settings, Map<String, ModelProvider> providers) {
+        ModelProvider provider = providers.get(settings.getProvider());
+        if (provider == null) {
+            throw new IllegalStateException("Route " + name + " uses unknown model provider " + settings.getProvider()
+                    + "; available: " + providers.keySet());
+        }
+        if (settings.getModel() == null || settings.getModel().isBlank()) {
+            throw new IllegalStateException("Route " + name + " has no model");
+        }
+        Timer success = Timer.builder("reply.model.latency")
+                .tags("route", name, "model", settings.getModel(), "outcome", "success")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        Timer error = Timer.builder("reply.model.latency")
+                .tags("route", name, "model", settings.getModel(), "outcome", "error")
+                .publishPercentiles(0.5, 0.95)
+                .register(meterRegistry);
+        return new Route(name, settings.getModel(), provider, success, error);
+    }
+
+    /**
+     * The route picked for an email. It is counted when its model is called, not when it is picked.
+     */
+    public static final class Decision {
+        private final Route route;
+        private final String reason;
+        private final MeterRegistry meterRegistry;
+
+        private Decision(Route route, String reason, MeterRegistry meterRegistry) {
+            this.route = route;
+            this.reason = reason;
+            this.meterRegistry = meterRegistry;
+        }
+
+        public Route getRoute() {
+            return route;
+        }
+
+        public String getModel() {
+            return route.getModel();
+        }
+
+        public String getReason() {
+            return reason;
+        }
+
+        /**
+         * Generates the reply with the route's model; see {@link Route#generateContent}.
+         */
+        public Mono<ModelOutput> generateContent(PromptService.Prompt prompt) {
+            return Mono.defer(() -> {
+                count();
+                return route.generateContent(prompt);
+            });
+        }
+
+        /**
+         * Streams the reply from the route's model; see {@link Route#streamContent}.
+         */
+        public Flux<ModelOutput> streamContent(PromptService.Prompt prompt) {
+            return Flux.defer(() -> {
+                count();
+                return route.streamContent(prompt);
+            });
+        }
+
+        private void count() {
+            meterRegistry.counter("reply.model.routes", "route", route.getName(), "reason", reason).increment();
+        }
+    }
+
+    /**
+     * A model of a provider that emails are routed to.
+     */
+    public static final class Route {
+        private final String name;
+        private final String model;
+        private final ModelProvider provider;
+        private final Timer successTimer;
+        private final Timer errorTimer;
+
+        private Route(String name, String model, ModelProvider provider, Timer successTimer, Timer errorTimer) {
+            this.name = name;
+            this.model = model;
+            this.provider = provider;
+            this.successTimer = successTimer;
+            this.errorTimer = errorTimer;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getModel() {
+            return model;
+        }
+
+        /**
+         * Generates the reply with the route's model, timing the call.
+         */
+        public Mono<ModelOutput> generateContent(PromptService.Prompt prompt) {
+            return Mono.defer(() -> {
+                long started = System.nanoTime();
+                return provider.generateContent(model, prompt)
+                        .doOnSuccess(reply -> successTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS))
+                        .doOnError(e -> errorTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+            });
+        }
+
+        /**
+         * Streams the reply from the route's model, timing the call until the last chunk.
+         */
+        public Flux<ModelOutput> streamContent(PromptService.Prompt prompt) {
+            return Flux.defer(() -> {
+                long started = System.nanoTime();
+                return provider.streamContent(model, prompt)
+                        .doOnComplete(() -> successTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS))
+                        .doOnError(e -> errorTimer.record(System.nanoTime() - started, TimeUnit.NANOSECONDS));
+            });
+        }
+    }
+}
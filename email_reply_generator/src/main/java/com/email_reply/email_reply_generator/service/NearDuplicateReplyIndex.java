@@ -0,0 +1,385 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.ReplyCacheConfig;
+import com.email_reply.email_reply_generator.util.Bm25Index;
+import com.email_reply.email_reply_generator.util.EmailUtils;
+import com.email_reply.email_reply_generator.util.SimHash;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Index of recently answered emails by SimHash fingerprint, so the reply to an email can be reused
+ * for a near-duplicate of it: the same templated notification, order question or support request
+ * sent by someone else, or with a different order number.
+ * <p>
+ * Fingerprints are taken over the cleaned email (see {@link EmailUtils#cleanEmailContent}) without
+ * the sender's and recipient's names, and all numbers count as the same term. Candidates are found
+ * with locality-sensitive hashing: the 64 fingerprint bits are split into one more band than the
+ * number of bits allowed to differ, so a near-duplicate shares at least one whole band with the
+ * email and is found by exact lookups alone.
+ * <p>
+ * A match is only reused if it has the same tone and email type, and if the reply stays correct
+ * for the new email: every term the old reply repeated from the old email (an order number, a
+ * date, a product) must occur in the new email too, and the names of the old sender and recipient
+ * in the reply are replaced by the new ones. Otherwise the reply is generated as usual.
+ */
+@Service
+@Slf4j
+public class NearDuplicateReplyIndex {
+
+    /**
+     * Emails with fewer terms than this are too short for their fingerprints to tell them apart
+     */
+    private static final int MIN_FEATURES = 8;
+
+    /**
+     * Rough overhead of an entry object, its arrays and strings, in bytes
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 128;
+
+    /**
+     * Rough overhead of one band bucket: map node, key and list, in bytes
+     */
+    private static final int BUCKET_OVERHEAD_BYTES = 96;
+
+    private final ReplyCacheConfig.NearDuplicate config;
+    private final int maxDistance;
+    private final long ttlNanos;
+
+    /**
+     * First bit of each band, plus the end of the last band
+     */
+    private final int[] bandStarts;
+
+    /**
+     * Ring of entries in insertion order; the oldest is replaced once it is full
+     */
+    private final Entry[] entries;
+    private final Map<Long, List<Entry>> buckets = new HashMap<>();
+    private int next;
+    private int size;
+    private long sizeBytes;
+
+    private final Counter hits;
+    private final Counter misses;
+
+    public NearDuplicateReplyIndex(ReplyCacheConfig config, MeterRegistry meterRegistry) {
+        this.config = config.getNearDuplicate();
+        int distance = (int) Math.floor((1 - this.config.getMinSimilarity()) * Long.SIZE + 1e-9);
+        this.maxDistance = Math.max(0, Math.min(distance, Long.SIZE - 1));
+        this.ttlNanos = this.config.getTtl().toNanos();
+        int bands = maxDistance + 1;
+        this.bandStarts = new int[bands + 1];
+        for (int band = 0; band <= bands; band++) {
+            bandStarts[band] = band * Long.SIZE / bands;
+        }
+        this.entries = new Entry[Math.max(1, this.config.getMaxEntries())];
+
+        this.hits = meterRegistry.counter("reply.near_duplicate.lookups", "result", "hit");
+        this.misses = meterRegistry.counter("reply.near_duplicate.lookups", "result", "miss");
+        Gauge.builder("reply.near_duplicate.entries", this, NearDuplicateReplyIndex::size)
+                .description("Answered emails in the near-duplicate index")
+                .register(meterRegistry);
+        Gauge.builder("reply.near_duplicate.size", this, NearDuplicateReplyIndex::sizeBytes)
+                .description("Approximate heap size of the near-duplicate index")
+                .baseUnit("bytes")
+                .register(meterRegistry);
+        log.info("Near-duplicate reply reuse enabled: {}, max distance: {} bits, max entries: {}, ttl: {}",
+                this.config.isEnabled(), maxDistance, entries.length, this.config.getTtl());
+    }
+
+    /**
+     * Prepares an email once for both {@link #find} and {@link #add}.
+     *
+     * @param analysis The email as analyzed by {@link EmailAnalyzerService}
+     * @param emailContent The raw email content
+     * @param tone The desired tone of the reply
+     * @return The probe, or null if near-duplicate reuse is disabled
+     */
+    public Probe probe(EmailAnalyzerService.EmailContext analysis, String emailContent, String tone) {
+        if (!config.isEnabled()) {
+            return null;
+        }
+        String cleaned = EmailUtils.cleanEmailContent(emailContent);
+        Set<String> nameTerms = new HashSet<>();
+        Bm25Index.forEachTerm(analysis.getSenderName(), nameTerms::add);
+        Bm25Index.forEachTerm(analysis.getRecipientName(), nameTerms::add);
+        Set<String> terms = new HashSet<>();
+        Bm25Index.forEachTerm(cleaned, terms::add);
+        String scope = (tone != null ? tone.toLowerCase(Locale.ROOT) : "") + '\u0000' + analysis.getEmailType();
+        return new Probe(scope, SimHash.of(cleaned, nameTerms), terms, nameTerms,
+                analysis.getSenderName(), analysis.getRecipientName());
+    }
+
+    /**
+     * Returns the reply to a recently answered near-duplicate of the email, adapted to it,
+     * or null if there is none that can be reused.
+     */
+    public String find(Probe probe) {
+        if (probe == null) {
+            return null;
+        }
+        Entry match = null;
+        String reply = null;
+        if (probe.fingerprint.features() >= MIN_FEATURES) {
+            for (Entry candidate : candidates(probe)) {
+                reply = adapt(candidate, probe);
+                if (reply != null) {
+                    match = candidate;
+                    break;
+                }
+            }
+        }
+        if (reply != null) {
+            hits.increment();
+            log.debug("Reusing the reply to a near-duplicate email ({} bits apart)",
+                    SimHash.distance(match.fingerprint, probe.fingerprint.value()));
+        } else {
+            misses.increment();
+        }
+        return reply;
+    }
+
+    /**
+     * Records the reply generated for an email.
+     */
+    public void add(Probe probe, String reply) {
+        if (probe == null || reply == null || reply.isEmpty() || probe.fingerprint.features() < MIN_FEATURES) {
+            return;
+        }
+        // Terms of the email the reply repeats, other than names, which are substituted instead
+        Set<String> echoed = new LinkedHashSet<>();
+        Bm25Index.forEachTerm(reply, term -> {
+            if (probe.terms.contains(term) && !probe.nameTerms.contains(term)) {
+                echoed.add(term);
+            }
+        });
+        Entry entry = new Entry(probe.scope, probe.fingerprint.value(), reply, echoed.toArray(new String[0]),
+                probe.senderName, probe.recipientName, System.nanoTime());
+        synchronized (this) {
+            Entry oldest = entries[next];
+            if (oldest != null) {
+                remove(oldest);
+            } else {
+                size++;
+            }
+            entries[next] = entry;
+            next = (next + 1) % entries.length;
+            for (int band = 0; band < bandStarts.length - 1; band++) {
+                buckets.computeIfAbsent(bucketKey(band, entry.fingerprint), key -> {
+                    sizeBytes += BUCKET_OVERHEAD_BYTES;
+                    return new ArrayList<>(2);
+                }).add(entry);
+            }
+            sizeBytes += entry.bytes;
+        }
+    }
+
+    public long hitCount() {
+        return (long) hits.count();
+    }
+
+    public long missCount() {
+        return (long) misses.count();
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * Approximate heap size of the entries and buckets, in bytes
+     */
+    public synchronized long sizeBytes() {
+        return sizeBytes;
+    }
+
+    /**
+     * Maximum number of differing fingerprint bits of a near-duplicate
+     */
+    public int maxDistance() {
+        return maxDistance;
+    }
+
+    /**
+     * Entries of the same scope within the maximum distance, nearest first
+     */
+    private synchronized List<Entry> candidates(Probe probe) {
+        long fingerprint = probe.fingerprint.value();
+        long now = System.nanoTime();
+        List<Entry> candidates = new ArrayList<>();
+        for (int band = 0; band < bandStarts.length - 1; band++) {
+            List<Entry> bucket = buckets.get(bucketKey(band, fingerprint));
+            if (bucket == null) {
+                continue;
+            }
+            for (Entry entry : bucket) {
+                if (now - entry.createdAt <= ttlNanos && entry.scope.equals(probe.scope)
+                        && SimHash.distance(entry.fingerprint, fingerprint) <= maxDistance
+                        // An entry shares several bands with a close email
+                        && !candidates.contains(entry)) {
+                    candidates.add(entry);
+                }
+            }
+        }
+        candidates.sort(Comparator.comparingInt(entry -> SimHash.distance(entry.fingerprint, fingerprint)));
+        return candidates;
+    }
+
+    private void remove(Entry entry) {
+        for (int band = 0; band < bandStarts.length - 1; band++) {
+            long key = bucketKey(band, entry.fingerprint);
+            List<Entry> bucket = buckets.get(key);
+            if (bucket != null && bucket.remove(entry) && bucket.isEmpty()) {
+                buckets.remove(key);
+                sizeBytes -= BUCKET_OVERHEAD_BYTES;
+            }
+        }
+        sizeBytes -= entry.bytes;
+    }
+
+    /**
+     * Key of the bucket holding the fingerprints with the same bits in a band.
+     * Keys of different bands may collide; that only adds candidates, which are compared in full.
+     */
+    private long bucketKey(int band, long fingerprint) {
+        int width = bandStarts[band + 1] - bandStarts[band];
+        long bits = (fingerprint >>> bandStarts[band]) & (width == Long.SIZE ? -1L : (1L << width) - 1);
+        return bits * 0x9e3779b97f4a7c15L + band;
+    }
+
+    /**
+     * Adapts the reply of a match to the new email, or returns null if it cannot be reused safely.
+     */
+    private static String adapt(Entry match, Probe probe) {
+        for (String term : match.echoedTerms) {
+            if (!probe.terms.contains(term)) {
+                return null;
+            }
+        }
+        String reply = replaceName(match.reply, match.senderName, probe.senderName);
+        return reply != null ? replaceName(reply, match.recipientName, probe.recipientName) : null;
+    }
+
+    /**
+     * Replaces a person's name in a reply: the full name, then the first and last names on their own.
+     * Returns null if the reply still mentions the old name afterwards, e.g. because the new name is unknown.
+     */
+    private static String replaceName(String reply, String oldName, String newName) {
+        if (oldName == null || oldName.isBlank() || oldName.equals(newName)) {
+            return reply;
+        }
+        String[] oldParts = oldName.trim().split("\\s+");
+        List<String> newParts = List.of();
+        if (newName != null && !newName.isBlank()) {
+            newParts = List.of(newName.trim().split("\\s+"));
+            reply = replaceWord(reply, oldName.trim(), newName.trim());
+            reply = replaceWord(reply, oldParts[0], newParts.get(0));
+            if (oldParts.length > 1 && newParts.size() > 1) {
+                reply = replaceWord(reply, oldParts[oldParts.length - 1], newParts.get(newParts.size() - 1));
+            }
+        }
+        for (String part : oldParts) {
+            if (!newParts.contains(part) && indexOfWord(reply, part, 0) >= 0) {
+                return null;
+            }
+        }
+        return reply;
+    }
+
+    private static String replaceWord(String text, String word, String replacement) {
+        int at = indexOfWord(text, word, 0);
+        if (at < 0) {
+            return text;
+        }
+        StringBuilder replaced = new StringBuilder(text.length() + 16);
+        int copied = 0;
+        while (at >= 0) {
+            replaced.append(text, copied, at).append(replacement);
+            copied = at + word.length();
+            at = indexOfWord(text, word, copied);
+        }
+        return replaced.append(text, copied, text.length()).toString();
+    }
+
+    /**
+     * Index of the next occurrence of the word that is not part of a longer word, or -1
+     */
+    private static int indexOfWord(String text, String word, int from) {
+        for (int at = text.indexOf(word, from); at >= 0; at = text.indexOf(word, at + 1)) {
+            int end = at + word.length();
+            if ((at == 0 || !Character.isLetterOrDigit(text.charAt(at - 1)))
+                    && (end == text.length() || !Character.isLetterOrDigit(text.charAt(end)))) {
+                return at;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * An analyzed email to look up or record.
+     */
+    public static final class Probe {
+        private final String scope;
+        private final SimHash fingerprint;
+        private final Set<String> terms;
+        private final Set<String> nameTerms;
+        private final String senderName;
+        private final String recipientName;
+
+        private Probe(String scope, SimHash fingerprint, Set<String> terms, Set<String> nameTerms,
+                String senderName, String recipientName) {
+            this.scope = scope;
+            this.fingerprint = fingerprint;
+            this.terms = terms;
+            this.nameTerms = nameTerms;
+            this.senderName = senderName;
+            this.recipientName = recipientName;
+        }
+    }
+
+    private static final class Entry {
+        private final String scope;
+        private final long fingerprint;
+        private final String reply;
+        private final String[] echoedTerms;
+        private final String senderName;
+        private final String recipientName;
+        private final long createdAt;
+        private final long bytes;
+
+        private Entry(String scope, long fingerprint, String reply, String[] echoedTerms,
+                String senderName, String recipientName, long createdAt) {
+            this.scope = scope;
+            this.fingerprint = fingerprint;
+            this.reply = reply;
+            this.echoedTerms = echoedTerms;
+            this.senderName = senderName;
+            this.recipientName = recipientName;
+            this.createdAt = createdAt;
+            // Strings hold at most two bytes per char, plus their own header
+            long bytes = ENTRY_OVERHEAD_BYTES + 2L * (scope.length() + reply.length());
+            for (String term : echoedTerms) {
+                bytes += 40 + 2L * term.length();
+            }
+            bytes += senderName != null ? 40 + 2L * senderName.length() : 0;
+            bytes += recipientName != null ? 40 + 2L * recipientName.length() : 0;
+            this.bytes = bytes;
+        }
+    }
+}
@@ -2,17 +2,110 @@ package com.email_reply.email_reply_generator.service;
 
 import org.springframework.stereotype.Service;
 
+import com.email_reply.email_reply_generator.config.ExampleStoreConfig;
+import com.email_reply.email_reply_generator.config.PromptConfig;
+import com.email_reply.email_reply_generator.util.EmailExamples.EmailExchange;
+import com.email_reply.email_reply_generator.util.EmailThreadCompactor;
+import com.email_reply.email_reply_generator.util.TokenEstimator;
+
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.extern.slf4j.Slf4j;
+
 @Service
+@Slf4j
 public class PromptService {
 
+    /**
+     * Version of the prompt template. Bump it whenever the wording below changes,
+     * so replies cached for the old template are no longer served.
+     */
+    public static final String TEMPLATE_VERSION = "2";
+
+    private static final String PREFIX_SEPARATOR = "\n\n";
+
+    private static final String EXAMPLES_HEADING = "Here are replies to similar emails. Use them as a guide "
+            + "for structure and content only, and keep to the tone requested above.\n\n";
+
+    private static final String EMAIL_HEADING = "Here is the email to respond to:\n\n";
+
+    private static final String CLOSING_INSTRUCTIONS = "\n\nPlease format your response as a complete email reply "
+            + "with appropriate greeting and closing. Do not include any explanations "
+            + "outside of the email reply itself.";
+
+    private static final int CLOSING_INSTRUCTIONS_TOKENS = TokenEstimator.estimate(CLOSING_INSTRUCTIONS);
+
+    private final PromptConfig config;
+    private final ExampleStoreConfig exampleConfig;
+    private final ExampleStore exampleStore;
+    private final DistributionSummary originalTokens;
+    private final DistributionSummary promptTokens;
+
+    public PromptService(PromptConfig config, ExampleStoreConfig exampleConfig, ExampleStore exampleStore,
+                         MeterRegistry meterRegistry) {
+        this.config = config;
+        this.exampleConfig = exampleConfig;
+        this.exampleStore = exampleStore;
+        this.originalTokens = DistributionSummary.builder("reply.prompt.tokens")
+                .description("Estimated input tokens of a prompt")
+                .baseUnit("tokens")
+                .tag("stage", "original")
+                .register(meterRegistry);
+        this.promptTokens = DistributionSummary.builder("reply.prompt.tokens")
+                .description("Estimated input tokens of a prompt")
+                .baseUnit("tokens")
+                .tag("stage", "compacted")
+                .register(meterRegistry);
+    }
+
     /**
      * Builds a prompt for generating an email reply based on the context and desired tone.
+     * The prompt is split into the fixed instructions for the tone, which the model API can keep
+     * in its context cache, and the part specific to the email. The latter starts with the example
+     * exchanges from {@link ExampleStore} most similar to the email, as few-shot context.
+     * Long threads are compacted to the configured input token budget by {@link EmailThreadCompactor},
+     * which keeps the newest message intact; the estimated token counts before and after are logged
+     * and recorded as the {@code reply.prompt.tokens} summary.
      *
      * @param context The email context
      * @param tone The desired tone for the reply
      * @return A formatted prompt for the AI model
      */
-    public String buildEmailReplyPrompt(EmailReplyService.EmailContext context, String tone) {
+    public Prompt buildEmailReplyPrompt(EmailReplyService.EmailContext context, String tone) {
+        String prefix = buildInstructions(tone);
+        String examples = buildExamples(context);
+        
+        // Add email context, compacting older quoted messages to what is left of the budget
+        int instructionTokens = TokenEstimator.estimate(prefix) + TokenEstimator.estimate(examples)
+                + TokenEstimator.estimate(EMAIL_HEADING) + CLOSING_INSTRUCTIONS_TOKENS;
+        int emailBudget = config.isCompactionEnabled()
+                ? config.getMaxInputTokens() - instructionTokens
+                : Integer.MAX_VALUE;
+        EmailThreadCompactor.Result email = EmailThreadCompactor.compact(context.getEmailContent(), emailBudget);
+        
+        // Additional instructions
+        String suffix = examples + EMAIL_HEADING + email.getText() + CLOSING_INSTRUCTIONS;
+        
+        int tokensBefore = instructionTokens + email.getOriginalTokens();
+        int tokensAfter = instructionTokens + email.getTokens();
+        originalTokens.record(tokensBefore);
+        promptTokens.record(tokensAfter);
+        if (email.isCompacted()) {
+            log.info("Compacted email thread: {} -> {} estimated prompt tokens (budget {})",
+                    tokensBefore, tokensAfter, config.getMaxInputTokens());
+        } else {
+            log.debug("Prompt takes {} estimated tokens", tokensAfter);
+        }
+        
+        return new Prompt(prefix, suffix);
+    }
+
+    /**
+     * The instructions at the start of every prompt for the tone.
+     */
+    private String buildInstructions(String tone) {
         StringBuilder promptBuilder = new StringBuilder();
         
         promptBuilder.append("You are an AI assistant that helps people write professional email replies. ");
@@ -36,15 +129,55 @@ public class PromptService {
                 promptBuilder.append("in a balanced, professional tone. ");
         }
         
-        // Add email context
-        promptBuilder.append("\n\nHere is the email to respond to:\n\n");
-        promptBuilder.append(context.getEmailContent());
-        
-        // Additional instructions
-        promptBuilder.append("\n\nPlease format your response as a complete email reply ");
-        promptBuilder.append("with appropriate greeting and closing. Do not include any explanations ");
-        promptBuilder.append("outside of the email reply itself.");
-        
         return promptBuilder.toString();
     }
-}
\ No newline at end of file
+
+    /**
+     * The most similar example exchanges that fit the examples' token budget, with their heading;
+     * empty if there are none.
+     */
+    private String buildExamples(EmailReplyService.EmailContext context) {
+        if (!exampleConfig.isEnabled()) {
+            return "";
+        }
+        StringBuilder examplesBuilder = new StringBuilder();
+        int tokens = 0;
+        for (EmailExchange example : exampleStore.findSimilar(
+                context.getEmailContent(), context.getSubject(), exampleConfig.getTopK())) {
+            String exchange = "Email:\n" + example.getOriginalEmail().trim()
+                    + "\n\nReply:\n" + example.getAppropriateReply().trim() + "\n\n";
+            int exchangeTokens = TokenEstimator.estimate(exchange);
+            if (tokens + exchangeTokens > exampleConfig.getMaxTokens()) {
+                continue;
+            }
+            examplesBuilder.append(exchange);
+            tokens += exchangeTokens;
+        }
+        return examplesBuilder.length() == 0 ? "" : EXAMPLES_HEADING + examplesBuilder;
+    }
+
+    /**
+     * A prompt: fixed instructions followed by the part specific to the email.
+     */
+    @Data
+    @AllArgsConstructor
+    public static class Prompt {
+
+        /**
+         * Instructions that are the same for every email with the tone
+         */
+        private String prefix;
+
+        /**
+         * The email and the instructions that follow it
+         */
+        private String suffix;
+
+        /**
+         * The whole prompt as one text
+         */
+        public String getText() {
+            return prefix + PREFIX_SEPARATOR + suffix;
+        }
+    }
+}
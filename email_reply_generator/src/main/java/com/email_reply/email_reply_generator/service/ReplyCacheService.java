@@ -0,0 +1,327 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.ReplyCacheConfig;
+import com.email_reply.email_reply_generator.util.EmailContentCleaner;
+import com.email_reply.email_reply_generator.util.HashUtils;
+import com.email_reply.email_reply_generator.util.WriteAheadLog;
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Policy;
+import com.github.benmanes.caffeine.cache.stats.CacheStats;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+
+/**
+ * Size- and TTL-bounded cache of generated replies.
+ * Eviction uses Caffeine's W-TinyLFU policy, and entries are weighted by their approximate size in bytes.
+ * <p>
+ * With persistence enabled, every change is also appended to a checksummed log on disk (see
+ * {@link WriteAheadLog}), which is compacted to the cached entries, coldest first, when it outgrows its
+ * threshold. On startup the log is read in the background and the cache is warmed with the most
+ * recently written and hottest replies, with their remaining time to live, until it is full; requests
+ * are served from the start and hit the warmed entries as soon as they are loaded. Changes made
+ * during warm-up are logged once the log has been opened.
+ */
+@Service
+@Slf4j
+public class ReplyCacheService {
+
+    /**
+     * Rough per-entry overhead of the cache node, key and value objects, in bytes
+     */
+    private static final int ENTRY_OVERHEAD_BYTES = 96;
+
+    private static final String LOG_FILE = "replies.log";
+    private static final byte RECORD_PUT = 1;
+    private static final byte RECORD_REMOVE = 2;
+    private static final byte RECORD_CLEAR = 3;
+
+    private final ReplyCacheConfig config;
+    private final Cache<String, String> cache;
+    private final Policy.VarExpiration<String, String> expiration;
+    private final Policy.Eviction<String, String> eviction;
+    private final Set<String> invalidatedWhileWarming = ConcurrentHashMap.newKeySet();
+    private final List<byte[]> writtenWhileWarming = new ArrayList<>();
+    private volatile boolean warming;
+    private volatile boolean clearedWhileWarming;
+    private volatile WriteAheadLog replyLog;
+
+    public ReplyCacheService(ReplyCacheConfig config, MeterRegistry meterRegistry) {
+        this.config = config;
+        long ttlNanos = config.getTtl().toNanos();
+        this.cache = Caffeine.newBuilder()
+                .maximumWeight(config.getMaxSizeBytes())
+                .weigher((String key, String reply) -> weigh(key, reply))
+                // Expire after write, but variable so that warmed entries keep their remaining time
+                .expireAfter(new Expiry<String, String>() {
+                    @Override
+                    public long expireAfterCreate(String key, String reply, long currentTime) {
+                        return ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterUpdate(String key, String reply, long currentTime, long currentDuration) {
+                        return ttlNanos;
+                    }
+
+                    @Override
+                    public long expireAfterRead(String key, String reply, long currentTime, long currentDuration) {
+                        return currentDuration;
+                    }
+                })
+                .recordStats()
+                .build();
+        this.expiration = cache.policy().expireVariably().orElseThrow();
+        this.eviction = cache.policy().eviction().orElseThrow();
+        CaffeineCacheMetrics.monitor(meterRegistry, cache, "replyCache");
+        log.info("Reply cache enabled: {}, max size: {} bytes, ttl: {}, persistent: {}",
+                config.isEnabled(), config.getMaxSizeBytes(), config.getTtl(), isPersistent());
+
+        if (isPersistent()) {
+            warming = true;
+            Mono.fromRunnable(this::warmUp)
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .subscribe(null, e -> {
+                        stopWarming();
+                        log.error("Could not load cached replies from disk; replies are not persisted", e);
+                    });
+        }
+    }
+
+    @PreDestroy
+    public void close() throws IOException {
+        if (replyLog != null) {
+            replyLog.close();
+        }
+    }
+
+    /**
+     * Builds the cache key for an email: a SHA-256 hash of the cleaned content,
+     * the tone, the model name and the prompt template version.
+     */
+    public String keyFor(String emailContent, String tone, String modelName) {
+        StringBuilder material = new StringBuilder(emailContent != null ? emailContent.length() + 64 : 64);
+        EmailContentCleaner.clean(emailContent, material);
+        material.append('\u0000').append(tone != null ? tone.toLowerCase(Locale.ROOT) : "")
+                .append('\u0000').append(modelName)
+                .append('\u0000').append(PromptService.TEMPLATE_VERSION);
+        return HashUtils.sha256Hex(material.toString());
+    }
+
+    /**
+     * Returns the cached reply for the key, or null if there is none.
+     */
+    public String get(String key) {
+        return config.isEnabled() ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, String reply) {
+        if (config.isEnabled() && reply != null && !reply.isEmpty()) {
+            cache.put(key, reply);
+            append(RECORD_PUT, key, reply, System.currentTimeMillis() + config.getTtl().toMillis());
+        }
+    }
+
+    public void invalidate(String key) {
+        if (warming) {
+            invalidatedWhileWarming.add(key);
+        }
+        cache.invalidate(key);
+        append(RECORD_REMOVE, key, null, 0);
+    }
+
+    public void invalidateAll() {
+        log.info("Invalidating all {} cached replies", cache.estimatedSize());
+        clearedWhileWarming = warming;
+        cache.invalidateAll();
+        append(RECORD_CLEAR, "", null, 0);
+    }
+
+    public CacheStats stats() {
+        return cache.stats();
+    }
+
+    public long estimatedSize() {
+        return cache.estimatedSize();
+    }
+
+    public long weightedSizeBytes() {
+        return cache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(0L))
+                .orElse(0L);
+    }
+
+    private boolean isPersistent() {
+        return config.isEnabled() && config.getPersistence().isEnabled();
+    }
+
+    /**
+     * Loads the replies logged before the restart into the cache, newest and hottest first, then
+     * compacts the log to the cache contents and starts logging changes.
+     */
+    private void warmUp() {
+        long started = System.nanoTime();
+        Path file = Path.of(config.getPersistence().getDirectory(), LOG_FILE);
+        Map<String, StoredReply> stored = new LinkedHashMap<>();
+        int records;
+        try {
+            records = WriteAheadLog.read(file, record -> replay(ByteBuffer.wrap(record), stored));
+        } catch (IOException | RuntimeException e) {
+            log.warn("Could not read cached replies from {}, starting empty: {}", file, e.toString());
+            stored.clear();
+            records = 0;
+        }
+
+        List<Map.Entry<String, StoredReply>> entries = new ArrayList<>(stored.entrySet());
+        long now = System.currentTimeMillis();
+        int loaded = 0;
+        for (int i = entries.size() - 1; i >= 0 && !clearedWhileWarming; i--) {
+            if (eviction.weightedSize().orElse(0) >= config.getMaxSizeBytes()) {
+                break;
+            }
+            Map.Entry<String, StoredReply> entry = entries.get(i);
+            long remaining = entry.getValue().expiresAt - now;
+            if (remaining > 0 && !invalidatedWhileWarming.contains(entry.getKey())
+                    && expiration.putIfAbsent(entry.getKey(), entry.getValue().reply, Duration.ofMillis(remaining)) == null) {
+                loaded++;
+            }
+        }
+        if (clearedWhileWarming) {
+            cache.invalidateAll();
+        }
+
+        try {
+            WriteAheadLog opened = new WriteAheadLog(file, config.getPersistence().getCompactThreshold().toBytes(),
+                    this::snapshot);
+            // Changes made while warming follow the snapshot the log was just compacted to
+            synchronized (writtenWhileWarming) {
+                writtenWhileWarming.forEach(opened::append);
+                writtenWhileWarming.clear();
+                replyLog = opened;
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } finally {
+            stopWarming();
+        }
+        log.info("Warmed the reply cache with {} of {} stored replies ({} records) from {} in {} ms",
+                loaded, stored.size(), records, file, TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started));
+    }
+
+    private static void replay(ByteBuffer record, Map<String, StoredReply> stored) {
+        byte type = record.get();
+        long expiresAt = record.getLong();
+        byte[] key = new byte[record.getInt()];
+        record.get(key);
+        String keyText = new String(key, StandardCharsets.UTF_8);
+        switch (type) {
+            case RECORD_PUT -> {
+                byte[] reply = new byte[record.remaining()];
+                record.get(reply);
+                // Re-inserted so the order of the map stays the order of the last write
+                stored.remove(keyText);
+                stored.put(keyText, new StoredReply(new String(reply, StandardCharsets.UTF_8), expiresAt));
+            }
+            case RECORD_REMOVE -> stored.remove(keyText);
+            case RECORD_CLEAR -> stored.clear();
+            default -> throw new IllegalStateException("Unknown reply record type " + type);
+        }
+    }
+
+    /**
+     * The cached replies as log records, coldest first, so that the hottest are warmed first after a restart
+     */
+    private List<byte[]> snapshot() {
+        long now = System.currentTimeMillis();
+        return eviction.coldest(entries -> entries
+                .map(entry -> encode(RECORD_PUT, entry.getKey(), entry.getValue(),
+                        now + entry.expiresAfter().toMillis()))
+                .toList());
+    }
+
+    /**
+     * Logs a change; while the cache is warming, before the log is open, the change is held back and
+     * logged once it is.
+     */
+    private void append(byte type, String key, String reply, long expiresAt) {
+        WriteAheadLog current = replyLog;
+        if (current == null) {
+            synchronized (writtenWhileWarming) {
+                current = replyLog;
+                if (current == null) {
+                    if (warming) {
+                        writtenWhileWarming.add(encode(type, key, reply, expiresAt));
+                    }
+                    return;
+                }
+            }
+        }
+        current.append(encode(type, key, reply, expiresAt));
+    }
+
+    private void stopWarming() {
+        synchronized (writtenWhileWarming) {
+            warming = false;
+            writtenWhileWarming.clear();
+        }
+        invalidatedWhileWarming.clear();
+    }
+
+    /**
+     * Whether the cache is still being warmed from disk
+     */
+    boolean isWarming() {
+        return warming;
+    }
+
+    private static byte[] encode(byte type, String key, String reply, long expiresAt) {
+        byte[] keyBytes = key.getBytes(StandardCharsets.UTF_8);
+        byte[] replyBytes = reply != null ? reply.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        return ByteBuffer.allocate(1 + Long.BYTES + Integer.BYTES + keyBytes.length + replyBytes.length)
+                .put(type)
+                .putLong(expiresAt)
+                .putInt(keyBytes.length)
+                .put(keyBytes)
+                .put(replyBytes)
+                .array();
+    }
+
+    private static int weigh(String key, String reply) {
+        // Strings hold at most two bytes per char
+        long bytes = ENTRY_OVERHEAD_BYTES + 2L * key.length() + 2L * reply.length();
+        return (int) Math.min(bytes, Integer.MAX_VALUE);
+    }
+
+    private static final class StoredReply {
+        private final String reply;
+        private final long expiresAt;
+
+        private StoredReply(String reply, long expiresAt) {
+            this.reply = reply;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
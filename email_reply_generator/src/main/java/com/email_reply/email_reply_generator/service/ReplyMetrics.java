@@ -0,0 +1,96 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+import org.springframework.stereotype.Service;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * Metrics of the reply pipeline.
+ * <p>
+ * {@code reply.stage.duration} times each stage of generating a reply, tagged by stage: analysing
+ * the email, routing it, the cache lookups, building the prompt, waiting for an API key and an
+ * upstream slot, the upstream call and parsing its response. Replies are counted in
+ * {@code reply.replies} by tone, email type and where the reply came from, and failures in
+ * {@code reply.errors} by tone, email type and exception class. Percentile histograms of the
+ * timers are enabled in application.properties for the Prometheus endpoint.
+ */
+@Service
+public class ReplyMetrics {
+
+    public static final String STAGE_ANALYZE = "analyze";
+    public static final String STAGE_ROUTE = "route";
+    public static final String STAGE_CACHE = "cache";
+    public static final String STAGE_PROMPT = "prompt";
+    public static final String STAGE_QUEUE = "queue";
+    public static final String STAGE_UPSTREAM = "upstream";
+    public static final String STAGE_PARSE = "parse";
+
+    public static final String SOURCE_CACHE = "cache";
+    public static final String SOURCE_NEAR_DUPLICATE = "near_duplicate";
+    public static final String SOURCE_MODEL = "model";
+    public static final String SOURCE_DRAFT = "draft";
+
+    /**
+     * Tones the prompt knows; any other tone is tagged "other" to keep the number of series bounded
+     */
+    private static final Set<String> TONES = Set.of("professional", "friendly", "casual");
+
+    private final MeterRegistry meterRegistry;
+    private final Map<String, Timer> stageTimers = new ConcurrentHashMap<>();
+
+    public ReplyMetrics(MeterRegistry meterRegistry) {
+        this.meterRegistry = meterRegistry;
+    }
+
+    /**
+     * Runs a stage and records its duration, also if it fails.
+     */
+    public <T> T time(String stage, Supplier<T> work) {
+        long started = System.nanoTime();
+        try {
+            return work.get();
+        } finally {
+            record(stage, System.nanoTime() - started);
+        }
+    }
+
+    public void record(String stage, long nanos) {
+        stageTimers.computeIfAbsent(stage, name -> Timer.builder("reply.stage.duration")
+                        .description("Time spent in a stage of generating a reply")
+                        .tags("stage", name)
+                        .register(meterRegistry))
+                .record(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Counts a reply.
+     *
+     * @param source Where the reply came from, one of the SOURCE_ constants
+     */
+    public void recordReply(String tone, String emailType, String source) {
+        meterRegistry.counter("reply.replies", "tone", toneTag(tone), "type", typeTag(emailType),
+                "source", source).increment();
+    }
+
+    public void recordError(String tone, String emailType, Throwable error) {
+        meterRegistry.counter("reply.errors", "tone", toneTag(tone), "type", typeTag(emailType),
+                "error", error.getClass().getSimpleName()).increment();
+    }
+
+    private static String toneTag(String tone) {
+        String normalized = tone != null ? tone.toLowerCase(Locale.ROOT) : "";
+        return TONES.contains(normalized) ? normalized : "other";
+    }
+
+    private static String typeTag(String emailType) {
+        return emailType != null && !emailType.isEmpty() ? emailType : "unknown";
+    }
+}
@@ -0,0 +1,52 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.util.Locale;
+
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+/**
+ * Priority class of a model call, which decides how the {@link UpstreamConcurrencyGate} and the
+ * {@link GeminiKeyPool} share the upstream capacity between calls.
+ * The priority travels in the Reactor context of the call; calls without one are interactive.
+ */
+public enum RequestPriority {
+
+    /**
+     * A user is waiting for the reply
+     */
+    INTERACTIVE,
+
+    /**
+     * Nobody is watching the call as it happens, e.g. an asynchronous job
+     */
+    BACKGROUND,
+
+    /**
+     * Part of a large batch
+     */
+    BULK;
+
+    private static final String CONTEXT_KEY = RequestPriority.class.getName();
+
+    /**
+     * The priority of the call the context belongs to
+     */
+    public static RequestPriority of(ContextView context) {
+        return context.getOrDefault(CONTEXT_KEY, INTERACTIVE);
+    }
+
+    /**
+     * A context that gives the calls made under it this priority, for {@code contextWrite}
+     */
+    public Context asContext() {
+        return Context.of(CONTEXT_KEY, this);
+    }
+
+    /**
+     * The name used in metric tags and logs
+     */
+    public String tag() {
+        return name().toLowerCase(Locale.ROOT);
+    }
+}
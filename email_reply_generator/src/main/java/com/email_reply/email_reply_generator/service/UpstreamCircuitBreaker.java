@@ -0,0 +1,226 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+
+import org.reactivestreams.Publisher;
+import org.springframework.stereotype.Service;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+/**
+ * Circuit breaker around model calls, so an API that keeps failing is not called at all.
+ * <p>
+ * While CLOSED, call outcomes are counted in a rolling time window. Once the window holds enough
+ * calls and their failure rate reaches the threshold the circuit OPENS, and calls fail at once
+ * with {@link CircuitOpenException}. After the open duration it becomes HALF_OPEN and lets a few
+ * trial calls through: if they all succeed it closes again, and any failure re-opens it.
+ * <p>
+ * Only failures that suggest the API is unhealthy count (see {@link UpstreamResilience#isTransient});
+ * a call that gets any other answer from the API counts as a success, and rejections by the
+ * concurrency gate and cancelled calls are not counted at all.
+ */
+@Service
+@Slf4j
+public class UpstreamCircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private static final int BUCKETS = 10;
+
+    private final GeminiApiConfig.CircuitBreaker settings;
+    private final long bucketNanos;
+    private final long[] bucketEpochs = new long[BUCKETS];
+    private final int[] bucketCalls = new int[BUCKETS];
+    private final int[] bucketFailures = new int[BUCKETS];
+
+    private State state = State.CLOSED;
+    /**
+     * Incremented on every state change, so outcomes of calls started in an earlier state are ignored
+     */
+    private long generation;
+    private long openedAt;
+    private int trialsStarted;
+    private int trialsSucceeded;
+
+    private final Counter rejectedCounter;
+
+    public UpstreamCircuitBreaker(GeminiApiConfig config, MeterRegistry meterRegistry) {
+        this.settings = config.getCircuitBreaker();
+        this.bucketNanos = Math.max(1, settings.getWindow().toNanos() / BUCKETS);
+        this.rejectedCounter = meterRegistry.counter("gemini.circuit.rejected");
+        Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+        meterRegistry.gauge("gemini.circuit.state", this, breaker -> breaker.state().ordinal());
+    }
+
+    /**
+     * Runs a buffered call if the circuit lets it through, and records its outcome.
+     */
+    public <T> Mono<T> execute(Supplier<Mono<T>> call) {
+        return Mono.defer(() -> {
+            Permit permit = acquire();
+            return call.get()
+                    .doOnSuccess(value -> permit.complete(false))
+                    .doOnError(permit::fail)
+                    .doOnCancel(permit::abandon);
+        });
+    }
+
+    /**
+     * Streaming variant of {@link #execute(Supplier)}; the outcome is recorded when the stream terminates.
+     */
+    public <T> Flux<T> executeMany(Supplier<? extends Publisher<T>> call) {
+        return Flux.defer(() -> {
+            Permit permit = acquire();
+            return Flux.from(call.get())
+                    .doOnComplete(() -> permit.complete(false))
+                    .doOnError(permit::fail)
+                    .doOnCancel(permit::abandon);
+        });
+    }
+
+    public synchronized State state() {
+        if (state == State.OPEN && openTimeLeft() <= 0) {
+            return State.HALF_OPEN;
+        }
+        return state;
+    }
+
+    public long rejectedCount() {
+        return (long) rejectedCounter.count();
+    }
+
+    private Permit acquire() {
+        if (!settings.isEnabled()) {
+            return new Permit(-1, false);
+        }
+        synchronized (this) {
+            if (state == State.OPEN && openTimeLeft() <= 0) {
+                transitionTo(State.HALF_OPEN);
+            }
+            if (state == State.CLOSED) {
+                return new Permit(generation, false);
+            }
+            if (state == State.HALF_OPEN && trialsStarted < settings.getHalfOpenCalls()) {
+                trialsStarted++;
+                return new Permit(generation, true);
+            }
+            rejectedCounter.increment();
+            Duration retryAfter = Duration.ofNanos(Math.max(0, openTimeLeft()));
+            throw new CircuitOpenException(state == State.OPEN
+                    ? "Upstream circuit is open" : "Upstream circuit is half-open, trial calls in progress", retryAfter);
+        }
+    }
+
+    private synchronized void record(Permit permit, boolean failed) {
+        if (permit.generation != generation) {
+            return;
+        }
+        long now = System.nanoTime();
+        if (permit.trial) {
+            if (failed) {
+                log.warn("Upstream trial call failed, re-opening circuit for {}", settings.getOpenDuration());
+                open(now);
+            } else if (++trialsSucceeded >= settings.getHalfOpenCalls()) {
+                log.info("Upstream trial calls succeeded, closing circuit");
+                transitionTo(State.CLOSED);
+            }
+            return;
+        }
+
+        long epoch = now / bucketNanos;
+        int index = (int) Math.floorMod(epoch, BUCKETS);
+        if (bucketEpochs[index] != epoch) {
+            bucketEpochs[index] = epoch;
+            bucketCalls[index] = 0;
+            bucketFailures[index] = 0;
+        }
+        bucketCalls[index]++;
+        if (failed) {
+            bucketFailures[index]++;
+        }
+
+        int calls = 0;
+        int failures = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (bucketEpochs[i] > epoch - BUCKETS) {
+                calls += bucketCalls[i];
+                failures += bucketFailures[i];
+            }
+        }
+        if (failed && calls >= settings.getMinimumCalls()
+                && failures >= settings.getFailureRateThreshold() * calls) {
+            log.warn("Upstream failure rate {}/{} in the last {}, opening circuit for {}",
+                    failures, calls, settings.getWindow(), settings.getOpenDuration());
+            open(now);
+        }
+    }
+
+    private synchronized void releaseTrial(Permit permit) {
+        if (permit.trial && permit.generation == generation) {
+            trialsStarted--;
+        }
+    }
+
+    private void open(long now) {
+        transitionTo(State.OPEN);
+        openedAt = now;
+    }
+
+    private void transitionTo(State next) {
+        state = next;
+        generation++;
+        trialsStarted = 0;
+        trialsSucceeded = 0;
+        if (next == State.CLOSED) {
+            Arrays.fill(bucketEpochs, Long.MIN_VALUE);
+        }
+    }
+
+    private long openTimeLeft() {
+        return settings.getOpenDuration().toNanos() - (System.nanoTime() - openedAt);
+    }
+
+    /**
+     * Admission of one call; its outcome is recorded at most once.
+     */
+    private final class Permit {
+        private final long generation;
+        private final boolean trial;
+        private final AtomicBoolean done = new AtomicBoolean();
+
+        private Permit(long generation, boolean trial) {
+            this.generation = generation;
+            this.trial = trial;
+        }
+
+        private void complete(boolean failed) {
+            if (generation >= 0 && done.compareAndSet(false, true)) {
+                record(this, failed);
+            }
+        }
+
+        private void fail(Throwable error) {
+            if (error instanceof UpstreamSaturatedException) {
+                // Rejected locally; the API was never asked
+                abandon();
+            } else {
+                complete(UpstreamResilience.isTransient(error));
+            }
+        }
+
+        private void abandon() {
+            if (generation >= 0 && done.compareAndSet(false, true)) {
+                releaseTrial(this);
+            }
+        }
+    }
+}
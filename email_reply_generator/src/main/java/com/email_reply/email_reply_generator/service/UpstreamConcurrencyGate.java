@@ -0,0 +1,436 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+
+import org.reactivestreams.Publisher;
+import org.springframework.http.HttpStatus;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.netty.handler.timeout.ReadTimeoutException;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+
+/**
+ * Semaphore-style gate on concurrent calls to the model API.
+ * The number of permits comes from the {@link AdaptiveConcurrencyLimiter}, which is fed the
+ * latency and outcome of every call that passes through the gate.
+ * Calls beyond the limit wait without holding a thread, in a bounded FIFO queue per
+ * {@link RequestPriority}. Free slots are handed out weighted-fair between the queues: each class
+ * gets slots in proportion to its weight while several are waiting, and a class may hold at most
+ * its maximum share of the limit, so bulk calls cannot take the slots interactive calls need.
+ * A call is shed immediately, with {@link UpstreamSaturatedException}, when its queue is full or
+ * its expected wait exceeds the class maximum; it is also rejected if it waits longer than that anyway.
+ */
+@Service
+@Slf4j
+public class UpstreamConcurrencyGate {
+
+    private static final int WAITING = 0;
+    private static final int GRANTED = 1;
+    private static final int CANCELLED = 2;
+
+    private final Object lock = new Object();
+    private final Map<RequestPriority, ClassQueue> queues = new EnumMap<>(RequestPriority.class);
+    private final AdaptiveConcurrencyLimiter limiter;
+    private final int maxQueueDepth;
+    private int inFlight;
+    private int queued;
+    /**
+     * Pass of the last class served; a class that starts waiting begins here, so time spent idle
+     * does not turn into a burst of slots later
+     */
+    private double virtualTime;
+
+    public UpstreamConcurrencyGate(GeminiApiConfig config, AdaptiveConcurrencyLimiter limiter,
+                                   MeterRegistry meterRegistry) {
+        GeminiApiConfig.Concurrency concurrency = config.getConcurrency();
+        GeminiApiConfig.Scheduling scheduling = config.getScheduling();
+        this.limiter = limiter;
+        this.maxQueueDepth = concurrency.getMaxQueueDepth();
+        queues.put(RequestPriority.INTERACTIVE,
+                new ClassQueue(RequestPriority.INTERACTIVE, scheduling.getInteractive(), concurrency, meterRegistry));
+        queues.put(RequestPriority.BACKGROUND,
+                new ClassQueue(RequestPriority.BACKGROUND, scheduling.getBackground(), concurrency, meterRegistry));
+        queues.put(RequestPriority.BULK,
+                new ClassQueue(RequestPriority.BULK, scheduling.getBulk(), concurrency, meterRegistry));
+
+        meterRegistry.gauge("gemini.upstream.permits", limiter, AdaptiveConcurrencyLimiter::getLimit);
+        log.info("Upstream concurrency gate: adaptive limit {} (max {}), queue depth {}, max wait {}",
+                limiter.getLimit(), concurrency.getMaxInFlight(), maxQueueDepth, concurrency.getMaxQueueWait());
+        for (ClassQueue queue : queues.values()) {
+            log.info("Upstream {} calls: weight {}, max share {}, queue depth {}, max wait {}", queue.priority.tag(),
+                    queue.weight, queue.maxShare, queue.maxQueueDepth, queue.maxQueueWait);
+        }
+    }
+
+    /**
+     * Runs a call once a permit is available and releases the permit when the call
+     * completes, fails or is cancelled. The call is queued by the {@link RequestPriority}
+     * in its subscriber context. The latency fed to the limiter is per generated token.
+     *
+     * @param model The model called, whose calls are compared with each other
+     * @param outputTokens Reads the number of generated tokens from the result
+     */
+    public <T> Mono<T> execute(String model, Supplier<Mono<T>> call, ToIntFunction<T> outputTokens) {
+        return Mono.usingWhen(acquire(),
+                permit -> call.get()
+                        .doOnSuccess(value -> permit.recordGenerated(model, value != null ? outputTokens.applyAsInt(value) : 0))
+                        .doOnError(permit::recordError),
+                Permit::releaseAsync);
+    }
+
+    /**
+     * Streaming variant of {@link #execute(String, Supplier, ToIntFunction)}; the permit is held until
+     * the stream terminates. The latency fed to the limiter is the time to the first chunk.
+     */
+    public <T> Flux<T> executeMany(String model, Supplier<? extends Publisher<T>> call) {
+        return Flux.usingWhen(acquire(),
+                permit -> Flux.from(call.get())
+                        .doOnNext(value -> permit.recordFirstChunk(model))
+                        .doOnComplete(() -> permit.recordFirstChunk(model))
+                        .doOnError(permit::recordError),
+                Permit::releaseAsync);
+    }
+
+    public int permits() {
+        return limiter.getLimit();
+    }
+
+    public int maxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    public int inFlight() {
+        synchronized (lock) {
+            return inFlight;
+        }
+    }
+
+    public int queued() {
+        synchronized (lock) {
+            return queued;
+        }
+    }
+
+    /**
+     * Number of calls of a priority class waiting for a slot
+     */
+    public int queued(RequestPriority priority) {
+        synchronized (lock) {
+            return queues.get(priority).waiters.size();
+        }
+    }
+
+    public long rejectedCount() {
+        long rejected = 0;
+        for (ClassQueue queue : queues.values()) {
+            rejected += (long) (queue.queueFullCounter.count() + queue.shedCounter.count()
+                    + queue.queueTimeoutCounter.count());
+        }
+        return rejected;
+    }
+
+    private Mono<Permit> acquire() {
+        return Mono.deferContextual(context -> {
+            ClassQueue queue = queues.get(RequestPriority.of(context));
+            return Mono.<Permit>create(sink -> enqueue(queue, sink))
+                    .timeout(queue.maxQueueWait)
+                    .onErrorMap(TimeoutException.class, e -> {
+                        queue.queueTimeoutCounter.increment();
+                        Duration retryAfter;
+                        synchronized (lock) {
+                            retryAfter = expectedWait(queue, queue.waiters.size() + 1, limiter.getLimit());
+                        }
+                        return new UpstreamSaturatedException("Timed out waiting for an upstream slot", retryAfter);
+                    });
+        });
+    }
+
+    private void enqueue(ClassQueue queue, MonoSink<Permit> sink) {
+        Waiter waiter = new Waiter(queue, sink, System.nanoTime());
+        List<Waiter> admitted = List.of();
+        UpstreamSaturatedException rejection = null;
+
+        synchronized (lock) {
+            int limit = limiter.getLimit();
+            boolean mustWait = inFlight >= limit || queue.inFlight >= queue.slots(limit) || !queue.waiters.isEmpty();
+            Duration expectedWait = mustWait ? expectedWait(queue, queue.waiters.size() + 1, limit) : Duration.ZERO;
+            if (mustWait && (queued >= maxQueueDepth || queue.waiters.size() >= queue.maxQueueDepth)) {
+                queue.queueFullCounter.increment();
+                rejection = new UpstreamSaturatedException("Upstream queue is full", expectedWait);
+            } else if (mustWait && expectedWait.compareTo(queue.maxQueueWait) > 0) {
+                queue.shedCounter.increment();
+                rejection = new UpstreamSaturatedException("Upstream is overloaded", expectedWait);
+            } else {
+                if (queue.waiters.isEmpty()) {
+                    queue.pass = Math.max(queue.pass, virtualTime);
+                }
+                queue.waiters.addLast(waiter);
+                queued++;
+                admitted = dispatch();
+            }
+        }
+
+        if (rejection != null) {
+            sink.error(rejection);
+            return;
+        }
+        sink.onCancel(() -> cancel(waiter));
+        grant(admitted);
+    }
+
+    /**
+     * Estimates how long a call at the given position of its class queue will wait, assuming
+     * slots free up at the limit divided by the average call latency and the class gets its
+     * weighted share of them among the classes that are waiting.
+     * Before any latency has been observed the estimate is zero.
+     */
+    private Duration expectedWait(ClassQueue queue, int queuePosition, int limit) {
+        int weights = queue.weight;
+        for (ClassQueue other : queues.values()) {
+            if (other != queue && !other.waiters.isEmpty()) {
+                weights += other.weight;
+            }
+        }
+        double slots = Math.min((double) limit * queue.weight / weights, queue.slots(limit));
+        double nanos = limiter.getAverageLatency().toNanos() * (double) queuePosition / Math.max(1, slots);
+        return Duration.ofNanos((long) nanos);
+    }
+
+    private void cancel(Waiter waiter) {
+        boolean releaseGranted = false;
+        synchronized (lock) {
+            if (waiter.state == WAITING) {
+                waiter.state = CANCELLED;
+                if (waiter.queue.waiters.remove(waiter)) {
+                    queued--;
+                }
+            } else if (waiter.state == GRANTED) {
+                // The permit was handed over but the caller left before using it
+                releaseGranted = true;
+            }
+        }
+        if (releaseGranted) {
+            waiter.permit.release();
+        }
+    }
+
+    /**
+     * Frees a slot of the class, then hands free slots to waiting calls.
+     */
+    private void release(ClassQueue queue) {
+        List<Waiter> admitted;
+        synchronized (lock) {
+            inFlight--;
+            queue.inFlight--;
+            admitted = dispatch();
+        }
+        grant(admitted);
+    }
+
+    /**
+     * Admits waiting calls up to the current limit. Each slot goes to the head of the class queue
+     * with the lowest pass among those below their share, and serving a class advances its pass by
+     * the inverse of its weight (stride scheduling); within a class calls are served in FIFO order.
+     * Must be called holding the lock; the admitted calls are granted after it is released.
+     */
+    private List<Waiter> dispatch() {
+        List<Waiter> admitted = new ArrayList<>();
+        int limit = limiter.getLimit();
+        while (inFlight < limit) {
+            ClassQueue next = null;
+            for (ClassQueue queue : queues.values()) {
+                if (!queue.waiters.isEmpty() && queue.inFlight < queue.slots(limit)
+                        && (next == null || queue.pass < next.pass)) {
+                    next = queue;
+                }
+            }
+            if (next == null) {
+                break;
+            }
+            Waiter candidate = next.waiters.pollFirst();
+            queued--;
+            if (candidate.state == WAITING) {
+                virtualTime = next.pass;
+                next.pass += 1.0 / next.weight;
+                candidate.state = GRANTED;
+                inFlight++;
+                next.inFlight++;
+                candidate.permit = new Permit(next, inFlight);
+                admitted.add(candidate);
+            }
+        }
+        return admitted;
+    }
+
+    private static void grant(List<Waiter> admitted) {
+        for (Waiter next : admitted) {
+            next.queue.waitTimer.record(System.nanoTime() - next.queuedAt, TimeUnit.NANOSECONDS);
+            next.sink.success(next.permit);
+        }
+    }
+
+    private static boolean isOverload(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == HttpStatus.TOO_MANY_REQUESTS.value()
+                    || status == HttpStatus.SERVICE_UNAVAILABLE.value()
+                    || status == HttpStatus.GATEWAY_TIMEOUT.value();
+        }
+        return error instanceof TimeoutException
+                || error instanceof ReadTimeoutException
+                || error.getCause() instanceof ReadTimeoutException;
+    }
+
+    /**
+     * The waiting calls, limits and metrics of a priority class. Mutable state is guarded by the gate's lock.
+     */
+    private final class ClassQueue {
+        private final RequestPriority priority;
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private final int weight;
+        private final double maxShare;
+        private final int maxQueueDepth;
+        private final Duration maxQueueWait;
+        private final Counter queueFullCounter;
+        private final Counter shedCounter;
+        private final Counter queueTimeoutCounter;
+        private final Timer waitTimer;
+        private int inFlight;
+        private double pass;
+
+        private ClassQueue(RequestPriority priority, GeminiApiConfig.PriorityClass settings,
+                GeminiApiConfig.Concurrency concurrency, MeterRegistry meterRegistry) {
+            if (settings.getWeight() < 1) {
+                throw new IllegalStateException("Weight of " + priority.tag() + " calls must be at least 1");
+            }
+            if (settings.getMaxShare() <= 0 || settings.getMaxShare() > 1) {
+                throw new IllegalStateException("Max share of " + priority.tag() + " calls must be in (0, 1]");
+            }
+            this.priority = priority;
+            this.weight = settings.getWeight();
+            this.maxShare = settings.getMaxShare();
+            this.maxQueueDepth = settings.getMaxQueueDepth() != null
+                    ? settings.getMaxQueueDepth() : concurrency.getMaxQueueDepth();
+            this.maxQueueWait = settings.getMaxQueueWait() != null
+                    ? settings.getMaxQueueWait() : concurrency.getMaxQueueWait();
+
+            String tag = priority.tag();
+            Gauge.builder("gemini.upstream.inflight", this, queue -> queue.count(() -> queue.inFlight))
+                    .tags("priority", tag)
+                    .register(meterRegistry);
+            Gauge.builder("gemini.upstream.queued", this, queue -> queue.count(queue.waiters::size))
+                    .tags("priority", tag)
+                    .register(meterRegistry);
+            this.queueFullCounter = meterRegistry.counter("gemini.upstream.rejected",
+                    "reason", "queue_full", "priority", tag);
+            this.shedCounter = meterRegistry.counter("gemini.upstream.rejected",
+                    "reason", "shed", "priority", tag);
+            this.queueTimeoutCounter = meterRegistry.counter("gemini.upstream.rejected",
+                    "reason", "queue_timeout", "priority", tag);
+            this.waitTimer = Timer.builder("gemini.upstream.queue.wait")
+                    .tags("priority", tag)
+                    .publishPercentiles(0.5, 0.95)
+                    .register(meterRegistry);
+        }
+
+        /**
+         * Slots the class may hold at the given limit; at least one, so no class is starved
+         */
+        private int slots(int limit) {
+            return Math.max(1, (int) Math.ceil(limit * maxShare));
+        }
+
+        private int count(IntSupplier value) {
+            synchronized (lock) {
+                return value.getAsInt();
+            }
+        }
+    }
+
+    private static final class Waiter {
+        private final ClassQueue queue;
+        private final MonoSink<Permit> sink;
+        private final long queuedAt;
+        private int state = WAITING;
+        private Permit permit;
+
+        private Waiter(ClassQueue queue, MonoSink<Permit> sink, long queuedAt) {
+            this.queue = queue;
+            this.sink = sink;
+            this.queuedAt = queuedAt;
+        }
+    }
+
+    /**
+     * A slot in the gate. It reports at most one latency sample to the limiter, and releasing
+     * is idempotent, so racing cleanup paths cannot free a slot twice.
+     */
+    private final class Permit {
+        private final long admittedAt = System.nanoTime();
+        private final ClassQueue queue;
+        private final int inFlightAtAdmission;
+        private final AtomicBoolean sampled = new AtomicBoolean();
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Permit(ClassQueue queue, int inFlightAtAdmission) {
+            this.queue = queue;
+            this.inFlightAtAdmission = inFlightAtAdmission;
+        }
+
+        /**
+         * Samples a buffered call per generated token, so a long reply does not read as a slow upstream
+         */
+        private void recordGenerated(String model, int outputTokens) {
+            if (sampled.compareAndSet(false, true)) {
+                long latency = System.nanoTime() - admittedAt;
+                limiter.onSample(model + ":per-token", latency / Math.max(1, outputTokens), latency, inFlightAtAdmission);
+            }
+        }
+
+        private void recordFirstChunk(String model) {
+            if (sampled.compareAndSet(false, true)) {
+                long latency = System.nanoTime() - admittedAt;
+                limiter.onSample(model + ":first-chunk", latency, latency, inFlightAtAdmission);
+            }
+        }
+
+        private void recordError(Throwable error) {
+            // Errors that say nothing about upstream capacity (e.g. a 400) are not sampled
+            if (isOverload(error) && sampled.compareAndSet(false, true)) {
+                limiter.onOverload(inFlightAtAdmission);
+            }
+        }
+
+        private void release() {
+            if (released.compareAndSet(false, true)) {
+                UpstreamConcurrencyGate.this.release(queue);
+            }
+        }
+
+        private Mono<Void> releaseAsync() {
+            return Mono.fromRunnable(this::release);
+        }
+    }
+}
@@ -0,0 +1,272 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.LongConsumer;
+import java.util.function.Supplier;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.stereotype.Service;
+import org.springframework.web.reactive.function.client.WebClientRequestException;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.util.LatencyWindow;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import lombok.extern.slf4j.Slf4j;
+import reactor.core.Disposable;
+import reactor.core.Disposables;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.util.retry.Retry;
+
+/**
+ * Retry and hedging around upstream model calls.
+ * <p>
+ * Transient failures (429, 5xx, connection errors and timeouts) are retried with exponential
+ * backoff and full jitter. A Retry-After from the upstream is honoured as a lower bound, and no
+ * retry starts once the total retry budget would be exceeded.
+ * <p>
+ * With hedging enabled, a buffered call that has not answered by the configured latency
+ * percentile of recent calls gets a second, identical request; whichever answers first wins
+ * and the other is cancelled. The percentile is taken over the upstream requests alone, as
+ * reported by each attempt, so time spent waiting for a key or a slot and backing off between
+ * retries does not stretch the hedge delay.
+ */
+@Service
+@Slf4j
+public class UpstreamResilience {
+
+    private static final Pattern RETRY_DELAY_PATTERN = Pattern.compile("\"retryDelay\"\\s*:\\s*\"(\\d+(?:\\.\\d+)?)s\"");
+    private static final int LATENCY_WINDOW_SIZE = 512;
+
+    private final GeminiApiConfig.RetryPolicy retryPolicy;
+    private final GeminiApiConfig.Hedging hedging;
+    private final LatencyWindow latencyWindow = new LatencyWindow(LATENCY_WINDOW_SIZE);
+
+    private final Counter retryCounter;
+    private final Counter hedgeCounter;
+    private final Counter hedgeWinCounter;
+
+    public UpstreamResilience(GeminiApiConfig config, MeterRegistry meterRegistry) {
+        this.retryPolicy = config.getRetry();
+        this.hedging = config.getHedge();
+        this.retryCounter = meterRegistry.counter("gemini.upstream.retries");
+        this.hedgeCounter = meterRegistry.counter("gemini.upstream.hedges", "result", "sent");
+        this.hedgeWinCounter = meterRegistry.counter("gemini.upstream.hedges", "result", "won");
+    }
+
+    /**
+     * Runs a buffered call with retries and, if enabled, a hedged second request.
+     *
+     * @param attempt Starts one attempt of the call; invoked again for every retry and hedge. It is
+     *                given a consumer to report the latency of its upstream request to, in nanoseconds
+     */
+    public <T> Mono<T> execute(Function<LongConsumer, Mono<T>> attempt) {
+        Mono<T> primary = withRetry(attempt, false);
+        Duration hedgeDelay = hedgeDelay();
+        if (hedgeDelay == null) {
+            return primary;
+        }
+        return hedged(primary, withRetry(attempt, true), hedgeDelay);
+    }
+
+    /**
+     * Runs a streaming call with retries. Once the first chunk has been emitted the call is no
+     * longer retried, since the chunks already sent cannot be taken back. Streams are not hedged.
+     *
+     * @param attempt Starts one attempt of the call; invoked again for every retry
+     */
+    public <T> Flux<T> executeMany(Supplier<Flux<T>> attempt) {
+        return Flux.defer(() -> {
+            AtomicBoolean started = new AtomicBoolean();
+            long startedAt = System.nanoTime();
+            // Time to the first chunk is not recorded: the hedge delay is derived from whole buffered calls
+            return Flux.defer(attempt)
+                    .doOnNext(chunk -> started.set(true))
+                    .retryWhen(retrySpec(startedAt, () -> !started.get()));
+        });
+    }
+
+    private <T> Mono<T> withRetry(Function<LongConsumer, Mono<T>> attempt, boolean hedge) {
+        // Hedges answer only the slowest calls, so their latency would skew the percentile
+        LongConsumer latency = hedge ? latencyNanos -> { } : latencyWindow::record;
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            return Mono.defer(() -> attempt.apply(latency))
+                    .retryWhen(retrySpec(startedAt, () -> true));
+        });
+    }
+
+    private Retry retrySpec(long startedAt, BooleanSupplier retryAllowed) {
+        return Retry.from(signals -> signals.concatMap(signal -> {
+            Throwable failure = signal.failure();
+            long retriesSoFar = signal.totalRetries();
+
+            if (!retryAllowed.getAsBoolean() || !isTransient(failure) || retriesSoFar + 1 >= retryPolicy.getMaxAttempts()) {
+                return Mono.error(failure);
+            }
+
+            Duration delay = backoff(retriesSoFar);
+            Duration retryAfter = retryAfter(failure);
+            if (retryAfter != null && retryAfter.compareTo(delay) > 0) {
+                delay = retryAfter;
+            }
+
+            Duration elapsed = Duration.ofNanos(System.nanoTime() - startedAt);
+            if (elapsed.plus(delay).compareTo(retryPolicy.getBudget()) > 0) {
+                log.debug("Retry budget exhausted after {} attempts", retriesSoFar + 1);
+                return Mono.error(failure);
+            }
+
+            retryCounter.increment();
+            log.debug("Retrying upstream call in {} ms after: {}", delay.toMillis(), failure.toString());
+            return Mono.delay(delay);
+        }));
+    }
+
+    /**
+     * Full jitter: a uniformly random delay between zero and the exponential backoff cap.
+     */
+    private Duration backoff(long retriesSoFar) {
+        long capMillis = retryPolicy.getInitialBackoff().toMillis() << Math.min(retriesSoFar, 20);
+        capMillis = Math.min(capMillis, retryPolicy.getMaxBackoff().toMillis());
+        return Duration.ofMillis(ThreadLocalRandom.current().nextLong(capMillis + 1));
+    }
+
+    private Duration hedgeDelay() {
+        if (!hedging.isEnabled() || latencyWindow.count() < hedging.getMinSamples()) {
+            return null;
+        }
+        Duration percentile = latencyWindow.percentile(hedging.getPercentile());
+        return percentile.compareTo(hedging.getMinDelay()) > 0 ? percentile : hedging.getMinDelay();
+    }
+
+    /**
+     * Subscribes to the primary call and, if it has not produced a value after the delay, to
+     * the hedge as well. The first value wins and cancels the other call. An error is only
+     * reported once no call that could still succeed is left.
+     */
+    private <T> Mono<T> hedged(Mono<T> primary, Mono<T> hedge, Duration delay) {
+        return Mono.create(sink -> {
+            HedgedCall<T> call = new HedgedCall<>(sink);
+            sink.onCancel(call.running);
+            call.subscribe(primary, false);
+            call.running.add(Mono.delay(delay).subscribe(tick -> {
+                if (call.startHedge()) {
+                    hedgeCounter.increment();
+                    log.debug("Upstream call slower than {} ms, sending hedged request", delay.toMillis());
+                    call.subscribe(hedge, true);
+                }
+            }));
+        });
+    }
+
+    /**
+     * Shared state of a primary call and its hedge.
+     */
+    private final class HedgedCall<T> {
+        private final MonoSink<T> sink;
+        private final Disposable.Composite running = Disposables.composite();
+        private boolean finished;
+        private int pending = 1;
+
+        private HedgedCall(MonoSink<T> sink) {
+            this.sink = sink;
+        }
+
+        private void subscribe(Mono<T> attempt, boolean isHedge) {
+            running.add(attempt.contextWrite(sink.contextView()).subscribe(
+                    value -> onValue(value, isHedge),
+                    this::onError,
+                    () -> onError(new IllegalStateException("Upstream call completed without a value"))));
+        }
+
+        private synchronized boolean startHedge() {
+            if (finished) {
+                return false;
+            }
+            pending++;
+            return true;
+        }
+
+        private void onValue(T value, boolean isHedge) {
+            synchronized (this) {
+                if (finished) {
+                    return;
+                }
+                finished = true;
+            }
+            if (isHedge) {
+                hedgeWinCounter.increment();
+            }
+            running.dispose();
+            sink.success(value);
+        }
+
+        private void onError(Throwable error) {
+            synchronized (this) {
+                pending--;
+                // Without a hedge in flight, a failed primary fails the call straight away
+                if (finished || pending > 0) {
+                    return;
+                }
+                finished = true;
+            }
+            running.dispose();
+            sink.error(error);
+        }
+    }
+
+    /**
+     * Whether the failure is one a later attempt may not see: 429, 5xx, connection errors and timeouts.
+     */
+    static boolean isTransient(Throwable error) {
+        if (error instanceof WebClientResponseException responseException) {
+            int status = responseException.getStatusCode().value();
+            return status == 429 || status == 500 || status == 502 || status == 503 || status == 504;
+        }
+        // Connection refused/reset, premature close and read/response timeouts
+        return error instanceof WebClientRequestException;
+    }
+
+    /**
+     * Reads the upstream's requested delay from a Retry-After header (seconds or HTTP date),
+     * or from the retryDelay of a Google RetryInfo error detail.
+     */
+    private static Duration retryAfter(Throwable error) {
+        if (!(error instanceof WebClientResponseException responseException)) {
+            return null;
+        }
+        String header = responseException.getHeaders().getFirst(HttpHeaders.RETRY_AFTER);
+        if (header != null) {
+            try {
+                return Duration.ofSeconds(Long.parseLong(header.trim()));
+            } catch (NumberFormatException e) {
+                try {
+                    Duration untilDate = Duration.between(ZonedDateTime.now(),
+                            ZonedDateTime.parse(header.trim(), DateTimeFormatter.RFC_1123_DATE_TIME));
+                    return untilDate.isNegative() ? Duration.ZERO : untilDate;
+                } catch (DateTimeParseException ignored) {
+                    return null;
+                }
+            }
+        }
+        Matcher matcher = RETRY_DELAY_PATTERN.matcher(responseException.getResponseBodyAsString());
+        if (matcher.find()) {
+            return Duration.ofMillis((long) (Double.parseDouble(matcher.group(1)) * 1000));
+        }
+        return null;
+    }
+}
@@ -0,0 +1,25 @@
+package com.email_reply.email_reply_generator.service;
+
+import java.time.Duration;
+
+/**
+ * Thrown when a model call cannot be admitted because the upstream concurrency limit
+ * is reached and its wait queue is full, or the expected or actual wait is too long.
+ * Also the base of {@link CircuitOpenException}, so both are reported as 503 with Retry-After.
+ */
+public class UpstreamSaturatedException extends RuntimeException {
+
+    private final Duration retryAfter;
+
+    public UpstreamSaturatedException(String message, Duration retryAfter) {
+        super(message);
+        this.retryAfter = retryAfter;
+    }
+
+    /**
+     * Suggested delay before the client tries again.
+     */
+    public Duration getRetryAfter() {
+        return retryAfter;
+    }
+}
@@ -0,0 +1,233 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+
+/**
+ * An immutable inverted index that ranks documents against a query with Okapi BM25.
+ * <p>
+ * Text is split into lower-cased runs of ASCII letters and digits; single characters and common
+ * English and email stop words are skipped. Each term keeps its postings as parallel arrays of
+ * document ids and term frequencies, so a query only touches the documents that share a term with it.
+ */
+public final class Bm25Index {
+
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+
+    private static final Set<String> STOP_WORDS = Set.of(
+            "a", "an", "and", "are", "as", "at", "be", "been", "but", "by", "can", "could", "do", "for",
+            "from", "has", "have", "he", "her", "his", "i", "if", "in", "is", "it", "its", "me", "my",
+            "no", "not", "of", "on", "or", "our", "she", "so", "that", "the", "their", "them", "there",
+            "they", "this", "to", "us", "was", "we", "were", "will", "with", "would", "you", "your",
+            "hi", "hello", "hey", "dear", "thanks", "thank", "regards", "best", "sincerely", "please");
+
+    private final Map<String, Integer> termIds;
+    private final int[][] postingDocs;
+    private final int[][] postingFreqs;
+    private final float[] idf;
+
+    /**
+     * Per-document part of the BM25 denominator: k1 * (1 - b + b * length / average length)
+     */
+    private final float[] lengthNorms;
+
+    private Bm25Index(Map<String, Integer> termIds, int[][] postingDocs, int[][] postingFreqs, int[] docLengths) {
+        this.termIds = termIds;
+        this.postingDocs = postingDocs;
+        this.postingFreqs = postingFreqs;
+        int documents = docLengths.length;
+        this.idf = new float[postingDocs.length];
+        for (int term = 0; term < postingDocs.length; term++) {
+            int df = postingDocs[term].length;
+            idf[term] = (float) Math.log(1 + (documents - df + 0.5) / (df + 0.5));
+        }
+        double averageLength = documents == 0 ? 0 : Arrays.stream(docLengths).average().orElse(0);
+        this.lengthNorms = new float[documents];
+        for (int doc = 0; doc < documents; doc++) {
+            double relativeLength = averageLength > 0 ? docLengths[doc] / averageLength : 1;
+            lengthNorms[doc] = (float) (K1 * (1 - B + B * relativeLength));
+        }
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Number of indexed documents
+     */
+    public int size() {
+        return lengthNorms.length;
+    }
+
+    /**
+     * Number of distinct indexed terms
+     */
+    public int terms() {
+        return postingDocs.length;
+    }
+
+    /**
+     * Returns the ids of the documents most similar to the query, best first.
+     * Documents that share no term with the query are never returned.
+     *
+     * @param query The query text
+     * @param k Maximum number of documents to return
+     * @return Document ids in the order they were added to the builder
+     */
+    public int[] topK(CharSequence query, int k) {
+        if (k <= 0 || size() == 0) {
+            return new int[0];
+        }
+        Set<Integer> queryTerms = new LinkedHashSet<>();
+        forEachTerm(query, term -> {
+            Integer id = termIds.get(term);
+            if (id != null) {
+                queryTerms.add(id);
+            }
+        });
+
+        float[] scores = new float[size()];
+        int[] touched = new int[16];
+        int touchedCount = 0;
+        for (int term : queryTerms) {
+            int[] docs = postingDocs[term];
+            int[] freqs = postingFreqs[term];
+            float termIdf = idf[term];
+            for (int i = 0; i < docs.length; i++) {
+                int doc = docs[i];
+                if (scores[doc] == 0) {
+                    if (touchedCount == touched.length) {
+                        touched = Arrays.copyOf(touched, touchedCount * 2);
+                    }
+                    touched[touchedCount++] = doc;
+                }
+                float tf = freqs[i];
+                scores[doc] += termIdf * tf * (float) (K1 + 1) / (tf + lengthNorms[doc]);
+            }
+        }
+
+        // Insertion into a short sorted array; k is small
+        int[] best = new int[Math.min(k, touchedCount)];
+        int found = 0;
+        for (int t = 0; t < touchedCount; t++) {
+            int doc = touched[t];
+            float score = scores[doc];
+            if (score <= 0 || (found == best.length && score <= scores[best[found - 1]])) {
+                continue;
+            }
+            int at = found < best.length ? found++ : found - 1;
+            while (at > 0 && (scores[best[at - 1]] < score || (scores[best[at - 1]] == score && best[at - 1] > doc))) {
+                best[at] = best[at - 1];
+                at--;
+            }
+            best[at] = doc;
+        }
+        return found == best.length ? best : Arrays.copyOf(best, found);
+    }
+
+    /**
+     * Passes each indexable term of the text to the consumer, in order and with repetitions.
+     */
+    public static void forEachTerm(CharSequence text, Consumer<String> consumer) {
+        if (text == null) {
+            return;
+        }
+        int length = text.length();
+        StringBuilder term = new StringBuilder(16);
+        for (int i = 0; i <= length; i++) {
+            char c = i < length ? text.charAt(i) : ' ';
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                term.append(Character.toLowerCase(c));
+                continue;
+            }
+            if (term.length() > 1) {
+                String value = term.toString();
+                if (!STOP_WORDS.contains(value)) {
+                    consumer.accept(value);
+                }
+            }
+            term.setLength(0);
+        }
+    }
+
+    public static final class Builder {
+        private final Map<String, Integer> termIds = new HashMap<>();
+        private int[][] docs = new int[64][];
+        private int[][] freqs = new int[64][];
+        private int[] postingCounts = new int[64];
+        private int[] docLengths = new int[64];
+        private int documents;
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a document made of the given text segments.
+         *
+         * @return The id of the document: the number of documents added before it
+         */
+        public int add(CharSequence... segments) {
+            Map<Integer, int[]> counts = new HashMap<>();
+            int[] length = new int[1];
+            for (CharSequence segment : segments) {
+                forEachTerm(segment, term -> {
+                    length[0]++;
+                    counts.computeIfAbsent(termId(term), id -> new int[1])[0]++;
+                });
+            }
+            int doc = documents++;
+            if (doc == docLengths.length) {
+                docLengths = Arrays.copyOf(docLengths, doc * 2);
+            }
+            docLengths[doc] = length[0];
+            counts.forEach((term, count) -> addPosting(term, doc, count[0]));
+            return doc;
+        }
+
+        public Bm25Index build() {
+            int terms = termIds.size();
+            int[][] postingDocs = new int[terms][];
+            int[][] postingFreqs = new int[terms][];
+            for (int term = 0; term < terms; term++) {
+                // Postings were added in document order, so they are already sorted
+                postingDocs[term] = Arrays.copyOf(docs[term], postingCounts[term]);
+                postingFreqs[term] = Arrays.copyOf(freqs[term], postingCounts[term]);
+            }
+            return new Bm25Index(Map.copyOf(termIds), postingDocs, postingFreqs, Arrays.copyOf(docLengths, documents));
+        }
+
+        private int termId(String term) {
+            Integer id = termIds.get(term);
+            if (id != null) {
+                return id;
+            }
+            int newId = termIds.size();
+            termIds.put(term, newId);
+            if (newId == docs.length) {
+                docs = Arrays.copyOf(docs, newId * 2);
+                freqs = Arrays.copyOf(freqs, newId * 2);
+                postingCounts = Arrays.copyOf(postingCounts, newId * 2);
+            }
+            docs[newId] = new int[4];
+            freqs[newId] = new int[4];
+            return newId;
+        }
+
+        private void addPosting(int term, int doc, int count) {
+            int size = postingCounts[term];
+            if (size == docs[term].length) {
+                docs[term] = Arrays.copyOf(docs[term], size * 2);
+                freqs[term] = Arrays.copyOf(freqs[term], size * 2);
+            }
+            docs[term][size] = doc;
+            freqs[term][size] = count;
+            postingCounts[term] = size + 1;
+        }
+    }
+}
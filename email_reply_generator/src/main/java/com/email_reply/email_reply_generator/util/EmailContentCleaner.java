@@ -0,0 +1,270 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * Removes headers, quoted text, forwarded-message markers and signatures from an email in a single
+ * forward pass over its lines.
+ * <p>
+ * Line rules, in order:
+ * <ul>
+ *   <li>a header line ("From:", "To:", "Subject:", "Date:", "Sent:", "Cc:" or "Bcc:" at the start of
+ *       the line, case-insensitive) is dropped with its line break</li>
+ *   <li>a quoted line (starting with '&gt;') is dropped with its line break</li>
+ *   <li>a forwarded-message marker such as "---------- Forwarded message ---------" is dropped
+ *       with the rest of its line and the line break</li>
+ *   <li>a line ending in four or more dashes starts the signature: the dashes and everything after
+ *       them are dropped, and the scan stops</li>
+ * </ul>
+ * The result is trimmed of leading and trailing whitespace. The cleaner writes into a caller-supplied
+ * builder, so apart from the output it only holds the current line (and, for a {@link Reader}, a
+ * fixed-size read buffer). At most {@link #MAX_INPUT_CHARS} are read from a {@link Reader}, which
+ * bounds that line as well.
+ */
+public final class EmailContentCleaner {
+
+    /**
+     * Characters read from a {@link Reader}; the rest of the input is ignored
+     */
+    public static final int MAX_INPUT_CHARS = 1 << 20;
+
+    private static final String[] HEADERS = {"from:", "to:", "subject:", "date:", "sent:", "cc:", "bcc:"};
+    private static final String FORWARDED = "forwarded message";
+    private static final int MIN_DASHES = 4;
+    private static final int READ_BUFFER = 8192;
+
+    private EmailContentCleaner() {
+    }
+
+    /**
+     * Cleans an email into a new string.
+     *
+     * @param email The full email content; null yields an empty string
+     * @return The cleaned email body
+     */
+    public static String clean(CharSequence email) {
+        if (email == null) {
+            return "";
+        }
+        StringBuilder out = new StringBuilder(email.length());
+        clean(email, out);
+        return out.toString();
+    }
+
+    /**
+     * Appends the cleaned email to a builder, e.g. a prompt or cache-key buffer.
+     *
+     * @param email The full email content; null appends nothing
+     * @param out The builder to append to
+     */
+    public static void clean(CharSequence email, StringBuilder out) {
+        if (email == null) {
+            return;
+        }
+        Sink sink = new Sink(out);
+        int length = email.length();
+        int lineStart = 0;
+        while (lineStart < length) {
+            int lineEnd = lineStart;
+            while (lineEnd < length && !isLineBreak(email.charAt(lineEnd))) {
+                lineEnd++;
+            }
+            int next = lineEnd;
+            if (next < length) {
+                // \r\n, \r and \n all end a line
+                next += email.charAt(next) == '\r' && next + 1 < length && email.charAt(next + 1) == '\n' ? 2 : 1;
+            }
+            if (!sink.line(email, lineStart, lineEnd, next)) {
+                break;
+            }
+            lineStart = next;
+        }
+        sink.finish();
+    }
+
+    /**
+     * Appends the cleaned email read from a reader to a builder. The reader is read up to the
+     * signature, its end or {@link #MAX_INPUT_CHARS}, whichever comes first, and is not closed.
+     *
+     * @param email The email content
+     * @param out The builder to append to
+     */
+    public static void clean(Reader email, StringBuilder out) throws IOException {
+        Sink sink = new Sink(out);
+        StringBuilder line = new StringBuilder();
+        char[] buffer = new char[READ_BUFFER];
+        boolean pendingCarriageReturn = false;
+        boolean more = true;
+        int remaining = MAX_INPUT_CHARS;
+        int read;
+        while (more && remaining > 0 && (read = email.read(buffer, 0, Math.min(buffer.length, remaining))) != -1) {
+            remaining -= read;
+            for (int i = 0; i < read && more; i++) {
+                char c = buffer[i];
+                if (pendingCarriageReturn) {
+                    pendingCarriageReturn = false;
+                    if (c == '\n') {
+                        line.append(c);
+                        more = emit(sink, line, 2);
+                        continue;
+                    }
+                    more = emit(sink, line, 1);
+                    if (!more) {
+                        break;
+                    }
+                }
+                line.append(c);
+                if (c == '\r') {
+                    // Wait for the next character to tell \r from \r\n
+                    pendingCarriageReturn = true;
+                } else if (c == '\n') {
+                    more = emit(sink, line, 1);
+                }
+            }
+        }
+        if (more && line.length() > 0) {
+            emit(sink, line, pendingCarriageReturn ? 1 : 0);
+        }
+        sink.finish();
+    }
+
+    private static boolean emit(Sink sink, StringBuilder line, int lineBreakLength) {
+        boolean more = sink.line(line, 0, line.length() - lineBreakLength, line.length());
+        line.setLength(0);
+        return more;
+    }
+
+    /**
+     * Applies the line rules and writes the kept text, trimming leading and trailing whitespace.
+     */
+    private static final class Sink {
+        private final StringBuilder out;
+        private final int start;
+
+        private Sink(StringBuilder out) {
+            this.out = out;
+            this.start = out.length();
+        }
+
+        /**
+         * Handles one line; {@code lineEnd} is where its line break starts and {@code next} where the
+         * next line starts.
+         *
+         * @return Whether the scan continues
+         */
+        private boolean line(CharSequence text, int lineStart, int lineEnd, int next) {
+            boolean hasLineBreak = next > lineEnd;
+            if (lineStart < lineEnd && text.charAt(lineStart) == '>') {
+                return true;
+            }
+            if (hasLineBreak) {
+                if (isHeader(text, lineStart, lineEnd)) {
+                    return true;
+                }
+                int marker = forwardedMarker(text, lineStart, lineEnd);
+                if (marker >= 0) {
+                    append(text, lineStart, marker);
+                    return true;
+                }
+                int dashes = lineEnd;
+                while (dashes > lineStart && text.charAt(dashes - 1) == '-') {
+                    dashes--;
+                }
+                if (lineEnd - dashes >= MIN_DASHES) {
+                    append(text, lineStart, dashes);
+                    return false;
+                }
+            }
+            append(text, lineStart, next);
+            return true;
+        }
+
+        private void append(CharSequence text, int from, int to) {
+            if (out.length() == start) {
+                while (from < to && text.charAt(from) <= ' ') {
+                    from++;
+                }
+            }
+            out.append(text, from, to);
+        }
+
+        private void finish() {
+            int end = out.length();
+            while (end > start && out.charAt(end - 1) <= ' ') {
+                end--;
+            }
+            out.setLength(end);
+        }
+    }
+
+    private static boolean isHeader(CharSequence text, int lineStart, int lineEnd) {
+        for (String header : HEADERS) {
+            if (regionMatches(text, lineStart, lineEnd, header)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds a run of four or more dashes, an optional space, "Forwarded message", an optional space
+     * and another run of four or more dashes.
+     *
+     * @return Where the marker starts, or -1 if the line has none
+     */
+    private static int forwardedMarker(CharSequence text, int lineStart, int lineEnd) {
+        int i = lineStart;
+        while (i < lineEnd) {
+            if (text.charAt(i) != '-') {
+                i++;
+                continue;
+            }
+            int runStart = i;
+            while (i < lineEnd && text.charAt(i) == '-') {
+                i++;
+            }
+            if (i - runStart < MIN_DASHES) {
+                continue;
+            }
+            int position = i;
+            if (position < lineEnd && text.charAt(position) == ' ') {
+                position++;
+            }
+            if (!regionMatches(text, position, lineEnd, FORWARDED)) {
+                continue;
+            }
+            position += FORWARDED.length();
+            if (position < lineEnd && text.charAt(position) == ' ') {
+                position++;
+            }
+            int dashes = position;
+            while (dashes < lineEnd && text.charAt(dashes) == '-') {
+                dashes++;
+            }
+            if (dashes - position >= MIN_DASHES) {
+                return runStart;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Whether the text at {@code at} starts with the lower-case prefix, ignoring case.
+     */
+    private static boolean regionMatches(CharSequence text, int at, int limit, String prefix) {
+        if (limit - at < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (Character.toLowerCase(text.charAt(at + i)) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+}
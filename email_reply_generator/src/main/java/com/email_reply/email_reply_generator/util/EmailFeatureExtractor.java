@@ -0,0 +1,361 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+/**
+ * Extracts header, salutation, introduction and signature fields from an email in a single
+ * forward pass over its lines.
+ * <p>
+ * Every check looks ahead a bounded number of characters from a line or word start, so the work is
+ * linear in the input. Input beyond {@link #MAX_INPUT_CHARS} is not scanned for header, salutation
+ * and introduction fields; the signature is then looked for in the last {@link #SIGNATURE_WINDOW}
+ * characters only.
+ * <p>
+ * Recognised fields:
+ * <ul>
+ *   <li>"Subject:", "From:" and "To:" header lines (case-insensitive, at the start of a line)</li>
+ *   <li>a salutation: Dear/Hi/Hello/Hey, then one or two names, then a comma or colon</li>
+ *   <li>an introduction: "My name is", "I am" or "This is", then up to three words</li>
+ *   <li>a signature: a line holding only a sign-off such as "Regards" or "Thank you" (optionally
+ *       followed by a comma), and after it nothing but a name of one to four words up to the end</li>
+ * </ul>
+ */
+public final class EmailFeatureExtractor {
+
+    /**
+     * Characters scanned for header, salutation and introduction fields
+     */
+    public static final int MAX_INPUT_CHARS = 1 << 20;
+
+    /**
+     * Characters at the end of an over-long email that are scanned for the signature
+     */
+    public static final int SIGNATURE_WINDOW = 4096;
+
+    private static final String[] SIGN_OFFS = {
+            "Regards", "Best regards", "Warm regards", "Kind regards", "Sincerely", "Thanks", "Thank you",
+            "Yours", "Cheers", "Best", "Respectfully"};
+    private static final String[] GREETINGS = {"Dear", "Hi", "Hello", "Hey"};
+    private static final String[] INTRODUCTIONS = {"My name is", "I am", "This is"};
+
+    private static final int MAX_SALUTATION_WORDS = 2;
+    private static final int MAX_INTRO_WORDS = 3;
+    private static final int MAX_SIGNATURE_WORDS = 4;
+
+    private EmailFeatureExtractor() {
+    }
+
+    /**
+     * Extracts the fields of an email.
+     *
+     * @param email The full email content; null yields no fields
+     * @return The extracted fields
+     */
+    public static EmailFeatures extract(CharSequence email) {
+        if (email == null || email.length() == 0) {
+            return EmailFeatures.EMPTY;
+        }
+        int length = email.length();
+        Scan scan = new Scan(email);
+        if (length <= MAX_INPUT_CHARS) {
+            scan.scanLines(0, length, true);
+        } else {
+            scan.scanLines(0, MAX_INPUT_CHARS, false);
+            // Start the signature window on a line boundary
+            int windowStart = length - SIGNATURE_WINDOW;
+            while (windowStart < length && !isLineBreak(email.charAt(windowStart - 1))) {
+                windowStart++;
+            }
+            scan.signatureOnly = true;
+            scan.scanLines(windowStart, length, true);
+        }
+        return scan.features();
+    }
+
+    /**
+     * State of one extraction.
+     */
+    private static final class Scan {
+        private final CharSequence text;
+        private boolean signatureOnly;
+
+        private String subject;
+        private String fromName;
+        private String toName;
+        private String salutation;
+        private String salutationName;
+        private String introName;
+
+        /**
+         * Sign-off lines that may still start the signature, oldest first. Only candidates
+         * followed by no more than the maximum number of name words are kept.
+         */
+        private final Deque<SignOff> signOffs = new ArrayDeque<>();
+        private int words;
+        private int lastWordEnd;
+
+        private Scan(CharSequence text) {
+            this.text = text;
+        }
+
+        private void scanLines(int from, int to, boolean trackSignature) {
+            int lineStart = from;
+            while (lineStart < to) {
+                int lineEnd = lineStart;
+                while (lineEnd < to && !isLineBreak(text.charAt(lineEnd))) {
+                    lineEnd++;
+                }
+                if (!signatureOnly) {
+                    scanFields(lineStart, lineEnd);
+                }
+                if (trackSignature) {
+                    trackSignature(lineStart, lineEnd);
+                }
+                // \r\n, \r and \n all end a line
+                lineStart = lineEnd + 1;
+                if (lineEnd + 1 < to && text.charAt(lineEnd) == '\r' && text.charAt(lineEnd + 1) == '\n') {
+                    lineStart++;
+                }
+            }
+        }
+
+        private void scanFields(int lineStart, int lineEnd) {
+            int start = skipBlanks(lineStart, lineEnd);
+            if (subject == null && startsWithIgnoreCase(start, lineEnd, "Subject:")) {
+                subject = emptyToNull(text.subSequence(start + 8, lineEnd).toString().trim());
+                return;
+            }
+            if (fromName == null && startsWithIgnoreCase(start, lineEnd, "From:")) {
+                fromName = displayName(start + 5, lineEnd);
+                return;
+            }
+            if (toName == null && startsWithIgnoreCase(start, lineEnd, "To:")) {
+                toName = displayName(start + 3, lineEnd);
+                return;
+            }
+            if (salutation != null && introName != null) {
+                return;
+            }
+            for (int i = start; i < lineEnd; i++) {
+                if (!isWordStart(i)) {
+                    continue;
+                }
+                if (salutation == null) {
+                    matchSalutation(i, lineEnd);
+                }
+                if (introName == null) {
+                    matchIntroduction(i, lineEnd);
+                }
+                if (salutation != null && introName != null) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Greeting word, whitespace, one or two names and a comma or colon.
+         */
+        private void matchSalutation(int at, int lineEnd) {
+            for (String greeting : GREETINGS) {
+                if (!startsWithIgnoreCase(at, lineEnd, greeting)) {
+                    continue;
+                }
+                int nameStart = skipBlanks(at + greeting.length(), lineEnd);
+                if (nameStart == at + greeting.length()) {
+                    continue;
+                }
+                int nameEnd = -1;
+                int position = nameStart;
+                for (int word = 0; word < MAX_SALUTATION_WORDS; word++) {
+                    int wordEnd = skipLetters(position, lineEnd);
+                    if (wordEnd == position) {
+                        break;
+                    }
+                    if (wordEnd < lineEnd && (text.charAt(wordEnd) == ',' || text.charAt(wordEnd) == ':')) {
+                        nameEnd = wordEnd;
+                        break;
+                    }
+                    position = skipBlanks(wordEnd, lineEnd);
+                    if (position == wordEnd) {
+                        break;
+                    }
+                }
+                if (nameEnd >= 0) {
+                    salutation = text.subSequence(at, at + greeting.length()).toString();
+                    salutationName = text.subSequence(nameStart, nameEnd).toString();
+                    return;
+                }
+            }
+        }
+
+        /**
+         * Introduction phrase, whitespace and up to three words.
+         */
+        private void matchIntroduction(int at, int lineEnd) {
+            for (String introduction : INTRODUCTIONS) {
+                if (!startsWithIgnoreCase(at, lineEnd, introduction)) {
+                    continue;
+                }
+                int nameStart = skipBlanks(at + introduction.length(), lineEnd);
+                if (nameStart == at + introduction.length()) {
+                    continue;
+                }
+                int nameEnd = skipLetters(nameStart, lineEnd);
+                if (nameEnd == nameStart) {
+                    continue;
+                }
+                for (int word = 1; word < MAX_INTRO_WORDS; word++) {
+                    int next = skipBlanks(nameEnd, lineEnd);
+                    int wordEnd = skipLetters(next, lineEnd);
+                    if (next == nameEnd || wordEnd == next) {
+                        break;
+                    }
+                    nameEnd = wordEnd;
+                }
+                introName = text.subSequence(nameStart, nameEnd).toString();
+                return;
+            }
+        }
+
+        /**
+         * Counts name words and keeps the sign-off lines they may belong to. A line with anything
+         * other than letters and whitespace ends every pending signature.
+         */
+        private void trackSignature(int lineStart, int lineEnd) {
+            boolean lettersOnly = true;
+            for (int i = lineStart; i < lineEnd && lettersOnly; i++) {
+                char c = text.charAt(i);
+                lettersOnly = isLetter(c) || Character.isWhitespace(c);
+            }
+            if (lettersOnly) {
+                for (int i = lineStart; i < lineEnd; i++) {
+                    if (isLetter(text.charAt(i)) && (i == lineStart || !isLetter(text.charAt(i - 1)))) {
+                        words++;
+                        // Only the newest sign-offs can still be waiting for their first name word
+                        if (!signOffs.isEmpty() && signOffs.peekLast().nameStart < 0) {
+                            for (SignOff pending : signOffs) {
+                                if (pending.nameStart < 0) {
+                                    pending.nameStart = i;
+                                }
+                            }
+                        }
+                    }
+                    if (isLetter(text.charAt(i))) {
+                        lastWordEnd = i + 1;
+                    }
+                }
+                while (!signOffs.isEmpty() && words - signOffs.peekFirst().wordsBefore > MAX_SIGNATURE_WORDS) {
+                    signOffs.pollFirst();
+                }
+            } else {
+                signOffs.clear();
+            }
+
+            String signOff = signOffLine(lineStart, lineEnd);
+            if (signOff != null) {
+                signOffs.addLast(new SignOff(signOff, words));
+            }
+        }
+
+        private String signOffLine(int lineStart, int lineEnd) {
+            int start = skipBlanks(lineStart, lineEnd);
+            int end = lineEnd;
+            while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            if (end > start && text.charAt(end - 1) == ',') {
+                end--;
+            }
+            for (String signOff : SIGN_OFFS) {
+                if (end - start == signOff.length() && startsWithIgnoreCase(start, end, signOff)) {
+                    return text.subSequence(start, end).toString();
+                }
+            }
+            return null;
+        }
+
+        private EmailFeatures features() {
+            String signOff = null;
+            String signatureName = null;
+            SignOff first = signOffs.peekFirst();
+            if (first != null && first.nameStart >= 0) {
+                signOff = first.text;
+                signatureName = text.subSequence(first.nameStart, lastWordEnd).toString();
+            }
+            return new EmailFeatures(subject, fromName, toName, salutation, salutationName,
+                    signOff, signatureName, introName);
+        }
+
+        /**
+         * The name part of an address header: optional quotes, then everything up to a quote or '&lt;'.
+         */
+        private String displayName(int from, int lineEnd) {
+            int start = skipBlanks(from, lineEnd);
+            if (start < lineEnd && text.charAt(start) == '"') {
+                start++;
+            }
+            int end = start;
+            while (end < lineEnd && text.charAt(end) != '"' && text.charAt(end) != '<') {
+                end++;
+            }
+            return emptyToNull(text.subSequence(start, end).toString().trim());
+        }
+
+        private boolean isWordStart(int i) {
+            return isLetter(text.charAt(i)) && (i == 0 || !isLetter(text.charAt(i - 1)));
+        }
+
+        private boolean startsWithIgnoreCase(int at, int limit, String prefix) {
+            if (limit - at < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (Character.toLowerCase(text.charAt(at + i)) != Character.toLowerCase(prefix.charAt(i))) {
+                    return false;
+                }
+            }
+            // A letter right after the prefix would make it part of a longer word
+            return !isLetter(prefix.charAt(prefix.length() - 1))
+                    || at + prefix.length() >= limit
+                    || !isLetter(text.charAt(at + prefix.length()));
+        }
+
+        private int skipBlanks(int from, int limit) {
+            while (from < limit && Character.isWhitespace(text.charAt(from))) {
+                from++;
+            }
+            return from;
+        }
+
+        private int skipLetters(int from, int limit) {
+            while (from < limit && isLetter(text.charAt(from))) {
+                from++;
+            }
+            return from;
+        }
+    }
+
+    private static final class SignOff {
+        private final String text;
+        private final int wordsBefore;
+        private int nameStart = -1;
+
+        private SignOff(String text, int wordsBefore) {
+            this.text = text;
+            this.wordsBefore = wordsBefore;
+        }
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isLineBreak(char c) {
+        return c == '\n' || c == '\r';
+    }
+
+    private static String emptyToNull(String value) {
+        return value.isEmpty() ? null : value;
+    }
+}
@@ -0,0 +1,56 @@
+package com.email_reply.email_reply_generator.util;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Fields extracted from an email by {@link EmailFeatureExtractor}.
+ * Fields that were not found are null.
+ */
+@Value
+@AllArgsConstructor(access = AccessLevel.PACKAGE)
+public class EmailFeatures {
+
+    static final EmailFeatures EMPTY = new EmailFeatures(null, null, null, null, null, null, null, null);
+
+    /**
+     * Value of the first "Subject:" header line
+     */
+    String subject;
+
+    /**
+     * Display name of the first "From:" header line, without quotes and address
+     */
+    String fromName;
+
+    /**
+     * Display name of the first "To:" header line, without quotes and address
+     */
+    String toName;
+
+    /**
+     * Greeting word of the first salutation, e.g. "Dear" in "Dear John,"
+     */
+    String salutation;
+
+    /**
+     * Name addressed by the first salutation, e.g. "John" in "Dear John,"
+     */
+    String salutationName;
+
+    /**
+     * Sign-off line before the closing name, e.g. "Best regards"
+     */
+    String signOff;
+
+    /**
+     * Name the email is signed with, after the sign-off
+     */
+    String signatureName;
+
+    /**
+     * Name from the first self-introduction, e.g. "Jane Doe" in "My name is Jane Doe"
+     */
+    String introName;
+}
@@ -0,0 +1,78 @@
+package com.email_reply.email_reply_generator.util;
+
+import static com.email_reply.email_reply_generator.util.KeywordRules.anyOf;
+
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Keyword rules used to classify emails.
+ * All rules share one automaton, so an email is scanned once no matter how many rules are evaluated.
+ */
+public final class EmailKeywordRules {
+
+    public static final String MEETING_REQUEST = "MEETING_REQUEST";
+    public static final String PROJECT_UPDATE = "PROJECT_UPDATE";
+    public static final String CUSTOMER_INQUIRY = "CUSTOMER_INQUIRY";
+    public static final String CUSTOMER_COMPLAINT = "CUSTOMER_COMPLAINT";
+    public static final String JOB_APPLICATION = "JOB_APPLICATION";
+    public static final String FOLLOW_UP = "FOLLOW_UP";
+    public static final String VENDOR_COMMUNICATION = "VENDOR_COMMUNICATION";
+    public static final String GENERAL_CORRESPONDENCE = "GENERAL_CORRESPONDENCE";
+
+    /**
+     * Stricter checks behind {@link EmailUtils#isJobApplication} and {@link EmailUtils#isComplaint}
+     */
+    public static final String JOB_APPLICATION_STRICT = "JOB_APPLICATION_STRICT";
+    public static final String COMPLAINT_STRICT = "COMPLAINT_STRICT";
+
+    /**
+     * Email types in the order they are checked; the first match wins
+     */
+    public static final List<String> EMAIL_TYPES = List.of(
+            MEETING_REQUEST, PROJECT_UPDATE, CUSTOMER_INQUIRY, CUSTOMER_COMPLAINT,
+            JOB_APPLICATION, FOLLOW_UP, VENDOR_COMMUNICATION);
+
+    public static final KeywordRules RULES = KeywordRules.builder()
+            .rule(MEETING_REQUEST,
+                    anyOf("schedule", "meeting", "discuss", "availability"),
+                    anyOf("time", "when", "week", "day"))
+            .rule(PROJECT_UPDATE,
+                    anyOf("status", "update", "progress", "timeline"),
+                    anyOf("project", "task", "initiative"))
+            .rule(CUSTOMER_INQUIRY,
+                    anyOf("interested in", "inquiry", "information", "details", "pricing"),
+                    anyOf("product", "service", "package", "offering"))
+            .rule(CUSTOMER_COMPLAINT,
+                    anyOf("complaint", "issue", "problem", "disappointed", "unacceptable", "outage"))
+            .rule(JOB_APPLICATION,
+                    anyOf("application", "apply", "resume", "cv"),
+                    anyOf("position", "job", "role", "vacancy"))
+            .rule(FOLLOW_UP, anyOf("follow"), anyOf("up"))
+            .rule(FOLLOW_UP, anyOf("following up"))
+            .rule(FOLLOW_UP, anyOf("discuss"), anyOf("from"), anyOf("meeting", "call"))
+            .rule(VENDOR_COMMUNICATION,
+                    anyOf("order", "delivery", "shipment"),
+                    anyOf("status", "update", "delay", "due"))
+            .rule(JOB_APPLICATION_STRICT, anyOf("apply", "resume"), anyOf("position"))
+            .rule(JOB_APPLICATION_STRICT, anyOf("application"), anyOf("job", "role"))
+            .rule(JOB_APPLICATION_STRICT, anyOf("cv"), anyOf("vacancy"))
+            .rule(COMPLAINT_STRICT, anyOf("complaint", "disappointed", "unacceptable", "poor service"))
+            .rule(COMPLAINT_STRICT, anyOf("issue"), anyOf("experiencing"))
+            .rule(COMPLAINT_STRICT, anyOf("problem"), anyOf("service"))
+            .build();
+
+    private EmailKeywordRules() {
+    }
+
+    /**
+     * Classifies an email by its content and subject.
+     *
+     * @return One of {@link #EMAIL_TYPES}, or {@link #GENERAL_CORRESPONDENCE} if none matches
+     */
+    public static String classify(String content, String subject) {
+        BitSet hits = RULES.scan(content, " ", subject);
+        String type = RULES.firstMatch(EMAIL_TYPES, hits);
+        return type != null ? type : GENERAL_CORRESPONDENCE;
+    }
+}
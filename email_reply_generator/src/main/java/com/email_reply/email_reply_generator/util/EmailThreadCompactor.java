@@ -0,0 +1,523 @@
+package com.email_reply.email_reply_generator.util;
+
+import static com.email_reply.email_reply_generator.util.KeywordRules.anyOf;
+
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Value;
+
+/**
+ * Shrinks an email thread to a token budget, keeping the newest message intact.
+ * <p>
+ * The thread is split into messages at quote-depth changes, "On ... wrote:" attributions,
+ * "Original/Forwarded message" separators and Outlook-style "From:" header blocks; the text before
+ * the first split is the newest message, and later messages are taken to be older (top-posting).
+ * While the thread is over budget, the older messages are compacted in stages:
+ * <ol>
+ *   <li>paragraphs already present in a newer message are dropped</li>
+ *   <li>signatures, "Sent from my ..." lines and legal disclaimers are dropped</li>
+ *   <li>the oldest messages are truncated, or omitted entirely, until the rest fits</li>
+ * </ol>
+ * A thread within budget is returned unchanged, and so is one in which nothing could be dropped,
+ * such as a single message. Token counts come from {@link TokenEstimator}.
+ */
+public final class EmailThreadCompactor {
+
+    private static final String DISCLAIMER = "DISCLAIMER";
+
+    private static final KeywordRules RULES = KeywordRules.builder()
+            .rule(DISCLAIMER, anyOf("intended recipient", "intended solely for", "received this email in error",
+                    "received this message in error", "unsubscribe"))
+            .rule(DISCLAIMER,
+                    anyOf("confidential", "privileged"),
+                    anyOf("notify the sender", "delete", "unauthorized", "unauthorised", "prohibited", "disclosure"))
+            .build();
+
+    private static final String[] HEADERS = {"from:", "to:", "cc:", "bcc:", "sent:", "date:", "subject:"};
+    private static final String[] SEPARATORS = {"original message", "forwarded message"};
+    private static final String SENT_FROM = "sent from my ";
+    private static final String TRUNCATED_MARKER = "[... message truncated ...]";
+    private static final int MAX_ATTRIBUTION_CHARS = 300;
+    private static final int MIN_SEPARATOR_UNDERSCORES = 10;
+
+    private EmailThreadCompactor() {
+    }
+
+    /**
+     * Compacts an email thread to a token budget.
+     *
+     * @param email The full email thread; null counts as empty
+     * @param tokenBudget Maximum estimated tokens of the result; the newest message is kept even if it alone
+     *                    is over budget
+     * @return The compacted thread with its token counts before and after
+     */
+    public static Result compact(String email, int tokenBudget) {
+        if (email == null) {
+            return new Result("", 0, 0);
+        }
+        int originalTokens = TokenEstimator.estimate(email);
+        if (originalTokens <= tokenBudget) {
+            return new Result(email, originalTokens, originalTokens);
+        }
+        String compacted = new Compaction(email, tokenBudget).run();
+        return new Result(compacted, originalTokens, TokenEstimator.estimate(compacted));
+    }
+
+    /**
+     * A compacted thread.
+     */
+    @Value
+    @AllArgsConstructor(access = AccessLevel.PRIVATE)
+    public static class Result {
+
+        /**
+         * The compacted thread text
+         */
+        String text;
+
+        /**
+         * Estimated tokens of the thread before compaction
+         */
+        int originalTokens;
+
+        /**
+         * Estimated tokens of the compacted thread
+         */
+        int tokens;
+
+        /**
+         * Whether anything was removed
+         */
+        public boolean isCompacted() {
+            return tokens != originalTokens;
+        }
+    }
+
+    /**
+     * State of one compaction.
+     */
+    private static final class Compaction {
+        private final String text;
+        private final int budget;
+        private final List<Line> lines = new ArrayList<>();
+        private final List<Turn> turns = new ArrayList<>();
+        private int keptTokens;
+        private int omittedTurns;
+        private boolean dropped;
+
+        private Compaction(String text, int budget) {
+            this.text = text;
+            this.budget = budget;
+        }
+
+        private String run() {
+            splitLines();
+            splitTurns();
+            if (keptTokens > budget) {
+                dropRepeatedParagraphs();
+            }
+            if (keptTokens > budget) {
+                dropSignaturesAndDisclaimers();
+            }
+            if (keptTokens > budget) {
+                truncateOldest();
+            }
+            // Only gaps left by dropped lines are tidied up
+            return dropped ? assemble() : text;
+        }
+
+        private void splitLines() {
+            int length = text.length();
+            int lineStart = 0;
+            while (lineStart < length) {
+                int lineEnd = lineStart;
+                while (lineEnd < length && text.charAt(lineEnd) != '\n' && text.charAt(lineEnd) != '\r') {
+                    lineEnd++;
+                }
+                int next = lineEnd;
+                if (next < length) {
+                    next += text.charAt(next) == '\r' && next + 1 < length && text.charAt(next + 1) == '\n' ? 2 : 1;
+                }
+                Line line = new Line(lineStart, lineEnd, next);
+                // Quote prefix: '>' characters, optionally separated by single spaces, then one space
+                int i = lineStart;
+                while (i < lineEnd) {
+                    if (text.charAt(i) == '>') {
+                        line.depth++;
+                        i++;
+                    } else if (line.depth > 0 && text.charAt(i) == ' ' && i + 1 < lineEnd && text.charAt(i + 1) == '>') {
+                        i++;
+                    } else {
+                        break;
+                    }
+                }
+                if (line.depth > 0 && i < lineEnd && text.charAt(i) == ' ') {
+                    i++;
+                }
+                line.contentStart = i;
+                line.blank = true;
+                for (int c = i; c < lineEnd && line.blank; c++) {
+                    line.blank = Character.isWhitespace(text.charAt(c));
+                }
+                line.heading = !line.blank && (isHeader(line) || isAttribution(line) || isSeparator(line));
+                line.tokens = TokenEstimator.estimate(text, lineStart, lineEnd);
+                keptTokens += line.tokens;
+                lines.add(line);
+                lineStart = next;
+            }
+        }
+
+        /**
+         * Starts a new message at a heading or quote-depth change, once the current one has body text.
+         */
+        private void splitTurns() {
+            Turn current = new Turn(0);
+            for (int i = 0; i < lines.size(); i++) {
+                Line line = lines.get(i);
+                if (current.hasBody && !line.blank && (line.heading || line.depth != current.depth)) {
+                    current.end = i;
+                    turns.add(current);
+                    current = new Turn(i);
+                }
+                if (!line.blank && !line.heading && !current.hasBody) {
+                    current.hasBody = true;
+                    current.depth = line.depth;
+                }
+            }
+            current.end = lines.size();
+            turns.add(current);
+        }
+
+        /**
+         * Drops paragraphs of older messages that already occur in a newer one.
+         */
+        private void dropRepeatedParagraphs() {
+            Set<Long> seen = new HashSet<>();
+            for (int t = 0; t < turns.size(); t++) {
+                for (int[] paragraph : paragraphs(turns.get(t))) {
+                    if (!seen.add(paragraphHash(paragraph[0], paragraph[1])) && t > 0) {
+                        drop(paragraph[0], paragraph[1]);
+                    }
+                }
+            }
+            dropEmptyTurns();
+        }
+
+        private void dropSignaturesAndDisclaimers() {
+            for (int t = 1; t < turns.size(); t++) {
+                Turn turn = turns.get(t);
+                for (int i = turn.start; i < turn.end; i++) {
+                    Line line = lines.get(i);
+                    if (!line.kept || line.heading) {
+                        continue;
+                    }
+                    if (isSignatureDelimiter(line)) {
+                        drop(i, turn.end);
+                        break;
+                    }
+                    if (startsWithIgnoreCase(line.contentStart, line.end, SENT_FROM)) {
+                        drop(i, i + 1);
+                    }
+                }
+                for (int[] paragraph : paragraphs(turn)) {
+                    if (isDisclaimer(paragraph[0], paragraph[1])) {
+                        drop(paragraph[0], paragraph[1]);
+                    }
+                }
+            }
+            dropEmptyTurns();
+        }
+
+        /**
+         * Drops lines from the end of the thread, older messages first, until it fits the budget
+         * with room for the markers. A message that is only partly dropped keeps its beginning.
+         */
+        private void truncateOldest() {
+            int markerTokens = TokenEstimator.estimate(TRUNCATED_MARKER) + TokenEstimator.estimate(omittedMarker(turns.size()));
+            for (int t = turns.size() - 1; t > 0 && keptTokens + markerTokens > budget; t--) {
+                Turn turn = turns.get(t);
+                int excess = keptTokens + markerTokens - budget;
+                int tokens = turnTokens(turn);
+                if (tokens == 0) {
+                    continue;
+                }
+                if (tokens <= excess) {
+                    drop(turn.start, turn.end);
+                    omittedTurns++;
+                    continue;
+                }
+                int removed = 0;
+                for (int i = turn.end - 1; i >= turn.start && removed < excess; i--) {
+                    Line line = lines.get(i);
+                    if (line.kept) {
+                        removed += line.tokens;
+                        drop(i, i + 1);
+                    }
+                }
+                if (hasBody(turn)) {
+                    turn.truncated = true;
+                } else {
+                    drop(turn.start, turn.end);
+                    omittedTurns++;
+                }
+            }
+        }
+
+        private String assemble() {
+            StringBuilder out = new StringBuilder(Math.min(text.length(), Math.max(budget, 0) * 8 + 256));
+            boolean lastBlank = false;
+            for (Turn turn : turns) {
+                for (int i = turn.start; i < turn.end; i++) {
+                    Line line = lines.get(i);
+                    if (!line.kept || (line.blank && lastBlank)) {
+                        continue;
+                    }
+                    lastBlank = line.blank;
+                    out.append(text, line.start, line.next);
+                }
+                if (turn.truncated) {
+                    appendMarker(out, TRUNCATED_MARKER);
+                    lastBlank = false;
+                }
+            }
+            if (omittedTurns > 0) {
+                appendMarker(out, omittedMarker(omittedTurns));
+            }
+            return out.toString();
+        }
+
+        /**
+         * Line ranges of the kept paragraphs of a message; headings end paragraphs and are never part of one.
+         */
+        private List<int[]> paragraphs(Turn turn) {
+            List<int[]> paragraphs = new ArrayList<>();
+            int from = -1;
+            for (int i = turn.start; i <= turn.end; i++) {
+                boolean inParagraph = i < turn.end && lines.get(i).kept && !lines.get(i).blank && !lines.get(i).heading;
+                if (inParagraph && from < 0) {
+                    from = i;
+                } else if (!inParagraph && from >= 0) {
+                    paragraphs.add(new int[] {from, i});
+                    from = -1;
+                }
+            }
+            return paragraphs;
+        }
+
+        /**
+         * FNV-1a hash of the paragraph content, lower-cased and with whitespace runs collapsed.
+         */
+        private long paragraphHash(int from, int to) {
+            long hash = 0xcbf29ce484222325L;
+            boolean space = false;
+            for (int i = from; i < to; i++) {
+                Line line = lines.get(i);
+                for (int c = line.contentStart; c <= line.end; c++) {
+                    char ch = c < line.end ? text.charAt(c) : ' ';
+                    if (Character.isWhitespace(ch)) {
+                        space = true;
+                        continue;
+                    }
+                    if (space) {
+                        hash = (hash ^ ' ') * 0x100000001b3L;
+                        space = false;
+                    }
+                    hash = (hash ^ Character.toLowerCase(ch)) * 0x100000001b3L;
+                }
+            }
+            return hash;
+        }
+
+        private boolean isDisclaimer(int from, int to) {
+            CharSequence[] segments = new CharSequence[(to - from) * 2];
+            for (int i = from; i < to; i++) {
+                Line line = lines.get(i);
+                segments[(i - from) * 2] = CharBuffer.wrap(text, line.contentStart, line.end);
+                segments[(i - from) * 2 + 1] = " ";
+            }
+            return RULES.matches(DISCLAIMER, RULES.scan(segments));
+        }
+
+        private void dropEmptyTurns() {
+            for (int t = 1; t < turns.size(); t++) {
+                Turn turn = turns.get(t);
+                if (!hasBody(turn)) {
+                    drop(turn.start, turn.end);
+                }
+            }
+        }
+
+        private boolean hasBody(Turn turn) {
+            for (int i = turn.start; i < turn.end; i++) {
+                Line line = lines.get(i);
+                if (line.kept && !line.blank && !line.heading) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private int turnTokens(Turn turn) {
+            int tokens = 0;
+            for (int i = turn.start; i < turn.end; i++) {
+                Line line = lines.get(i);
+                if (line.kept) {
+                    tokens += line.tokens;
+                }
+            }
+            return tokens;
+        }
+
+        private void drop(int from, int to) {
+            for (int i = from; i < to; i++) {
+                Line line = lines.get(i);
+                if (line.kept) {
+                    line.kept = false;
+                    keptTokens -= line.tokens;
+                    dropped = true;
+                }
+            }
+        }
+
+        private boolean isHeader(Line line) {
+            for (String header : HEADERS) {
+                if (startsWithIgnoreCase(line.contentStart, line.end, header)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * "On Mon, Jan 1, 2024 at 10:00 AM Jane Doe &lt;jane@example.com&gt; wrote:" and the like.
+         */
+        private boolean isAttribution(Line line) {
+            int end = trimEnd(line);
+            return end - line.contentStart <= MAX_ATTRIBUTION_CHARS
+                    && end - line.contentStart >= 6
+                    && startsWithIgnoreCase(end - 6, end, "wrote:");
+        }
+
+        /**
+         * "-----Original Message-----", "---------- Forwarded message ---------" or an Outlook underscore rule.
+         */
+        private boolean isSeparator(Line line) {
+            int start = line.contentStart;
+            int end = trimEnd(line);
+            while (start < end && Character.isWhitespace(text.charAt(start))) {
+                start++;
+            }
+            if (end - start >= MIN_SEPARATOR_UNDERSCORES && count(start, end, '_') == end - start) {
+                return true;
+            }
+            int dashes = count(start, end, '-');
+            if (dashes < 4) {
+                return false;
+            }
+            int at = start + dashes;
+            while (at < end && text.charAt(at) == ' ') {
+                at++;
+            }
+            for (String separator : SEPARATORS) {
+                if (startsWithIgnoreCase(at, end, separator)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * "--" (the usual "-- " delimiter) or a rule of four or more dashes on a line of its own.
+         */
+        private boolean isSignatureDelimiter(Line line) {
+            int start = line.contentStart;
+            int end = trimEnd(line);
+            int dashes = count(start, end, '-');
+            return dashes == end - start && (dashes == 2 || dashes >= 4);
+        }
+
+        /**
+         * Length of the run of {@code c} starting at {@code from}.
+         */
+        private int count(int from, int to, char c) {
+            int i = from;
+            while (i < to && text.charAt(i) == c) {
+                i++;
+            }
+            return i - from;
+        }
+
+        private int trimEnd(Line line) {
+            int end = line.end;
+            while (end > line.contentStart && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            return end;
+        }
+
+        /**
+         * Whether the region starts with the lower-case prefix, ignoring case.
+         */
+        private boolean startsWithIgnoreCase(int at, int limit, String prefix) {
+            if (limit - at < prefix.length()) {
+                return false;
+            }
+            for (int i = 0; i < prefix.length(); i++) {
+                if (Character.toLowerCase(text.charAt(at + i)) != prefix.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private static final class Line {
+        private final int start;
+        private final int end;
+        private final int next;
+        private int contentStart;
+        private int depth;
+        private int tokens;
+        private boolean blank;
+        private boolean heading;
+        private boolean kept = true;
+
+        private Line(int start, int end, int next) {
+            this.start = start;
+            this.end = end;
+            this.next = next;
+        }
+    }
+
+    /**
+     * A message of the thread: a range of lines.
+     */
+    private static final class Turn {
+        private final int start;
+        private int end;
+        private int depth;
+        private boolean hasBody;
+        private boolean truncated;
+
+        private Turn(int start) {
+            this.start = start;
+        }
+    }
+
+    private static String omittedMarker(int count) {
+        return "[... " + count + (count == 1 ? " earlier message" : " earlier messages") + " omitted ...]";
+    }
+
+    private static void appendMarker(StringBuilder out, String marker) {
+        if (out.length() > 0 && out.charAt(out.length() - 1) != '\n' && out.charAt(out.length() - 1) != '\r') {
+            out.append('\n');
+        }
+        out.append(marker).append('\n');
+    }
+}
@@ -1,12 +1,19 @@
 package com.email_reply.email_reply_generator.util;
 
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
 /**
  * Utility class providing helper methods for email processing.
  */
 public class EmailUtils {
+
+    /**
+     * Longest name taken from under a sign-off; EmailAnalyzerService accepts up to four words
+     */
+    private static final int MAX_SIGNATURE_WORDS = 3;
+
+    /**
+     * Sign-off that EmailFeatureExtractor recognises but this class never has
+     */
+    private static final String RESPECTFULLY = "Respectfully";
     
     /**
      * Extracts the email subject from the full email content if present.
@@ -15,48 +22,29 @@ public class EmailUtils {
      * @return The subject line or null if not found
      */
     public static String extractSubject(String emailContent) {
-        if (emailContent == null || emailContent.isEmpty()) {
-            return null;
-        }
-        
-        Pattern subjectPattern = Pattern.compile("Subject:\\s*([^\\r\\n]+)", Pattern.CASE_INSENSITIVE);
-        Matcher matcher = subjectPattern.matcher(emailContent);
-        
-        if (matcher.find()) {
-            return matcher.group(1).trim();
-        }
-        return null;
+        return EmailFeatureExtractor.extract(emailContent).getSubject();
     }
     
     /**
-     * Extracts the sender's name from the email content.
+     * Extracts the sender's name from the email content: the "From:" header, else a name of
+     * up to three words under a sign-off such as "Regards" or "Thanks" (but not "Respectfully").
      * 
      * @param emailContent The full email content
      * @return The sender's name or null if not found
      */
     public static String extractSenderName(String emailContent) {
-        if (emailContent == null || emailContent.isEmpty()) {
-            return null;
-        }
-        
-        // Try to find "From:" header
-        Pattern fromPattern = Pattern.compile("From:\\s*\"?([^\"<]+)\"?\\s*(?:<[^>]+>)?", Pattern.CASE_INSENSITIVE);
-        Matcher fromMatcher = fromPattern.matcher(emailContent);
+        EmailFeatures features = EmailFeatureExtractor.extract(emailContent);
         
-        if (fromMatcher.find()) {
-            return fromMatcher.group(1).trim();
+        // Prefer the "From:" header, then the name under the sign-off
+        if (features.getFromName() != null) {
+            return features.getFromName();
         }
-        
-        // Try to find signature at the end
-        Pattern signaturePattern = Pattern.compile("(?:Regards|Sincerely|Thanks|Thank you|Yours|Cheers|Best),?\\s*[\\r\\n]+\\s*([A-Za-z]+(?:\\s+[A-Za-z]+){0,2})\\s*$", 
-                Pattern.CASE_INSENSITIVE);
-        Matcher signatureMatcher = signaturePattern.matcher(emailContent);
-        
-        if (signatureMatcher.find()) {
-            return signatureMatcher.group(1).trim();
+        String signatureName = features.getSignatureName();
+        if (signatureName == null || RESPECTFULLY.equalsIgnoreCase(features.getSignOff())
+                || signatureName.trim().split("\\s+").length > MAX_SIGNATURE_WORDS) {
+            return null;
         }
-        
-        return null;
+        return signatureName.trim();
     }
     
     /**
@@ -70,14 +58,8 @@ public class EmailUtils {
             return false;
         }
         
-        String lowerCaseContent = emailContent.toLowerCase();
-        
-        // Check for common job application phrases
-        return lowerCaseContent.contains("apply") && lowerCaseContent.contains("position") ||
-               lowerCaseContent.contains("application") && lowerCaseContent.contains("job") ||
-               lowerCaseContent.contains("resume") && lowerCaseContent.contains("position") ||
-               lowerCaseContent.contains("cv") && lowerCaseContent.contains("vacancy") ||
-               (lowerCaseContent.contains("application") && lowerCaseContent.contains("role"));
+        return EmailKeywordRules.RULES.matches(EmailKeywordRules.JOB_APPLICATION_STRICT,
+                EmailKeywordRules.RULES.scan(emailContent));
     }
     
     /**
@@ -91,15 +73,8 @@ public class EmailUtils {
             return false;
         }
         
-        String lowerCaseContent = emailContent.toLowerCase();
-        
-        // Check for common complaint phrases
-        return lowerCaseContent.contains("complaint") ||
-               lowerCaseContent.contains("issue") && lowerCaseContent.contains("experiencing") ||
-               lowerCaseContent.contains("problem") && lowerCaseContent.contains("service") ||
-               lowerCaseContent.contains("disappointed") ||
-               lowerCaseContent.contains("unacceptable") ||
-               lowerCaseContent.contains("poor service");
+        return EmailKeywordRules.RULES.matches(EmailKeywordRules.COMPLAINT_STRICT,
+                EmailKeywordRules.RULES.scan(emailContent));
     }
     
     /**
@@ -165,24 +140,9 @@ public class EmailUtils {
      * 
      * @param emailContent The full email content
      * @return Cleaned email body
+     * @see EmailContentCleaner
      */
     public static String cleanEmailContent(String emailContent) {
-        if (emailContent == null) {
-            return "";
-        }
-        
-        // Remove email header lines
-        String cleaned = emailContent.replaceAll("(?i)^(?:From|To|Subject|Date|Sent|Cc|Bcc):.*$\\R", "");
-        
-        // Remove quoted text (lines starting with >)
-        cleaned = cleaned.replaceAll("(?m)^>.*$\\R?", "");
-        
-        // Remove forwarded message markers
-        cleaned = cleaned.replaceAll("(?i)----+ ?Forwarded message ?----+.*?\\R", "");
-        
-        // Remove email signatures
-        cleaned = cleaned.replaceAll("(?i)----+\\R[\\s\\S]*", "");
-        
-        return cleaned.trim();
+        return EmailContentCleaner.clean(emailContent);
     }
 }
@@ -0,0 +1,280 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+import org.springframework.core.io.buffer.DataBuffer;
+import org.springframework.core.io.buffer.DataBufferUtils;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.web.reactive.function.BodyInserter;
+
+import com.email_reply.email_reply_generator.model.GeminiResponse;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import reactor.core.publisher.Mono;
+
+/**
+ * Streaming reading and writing of Gemini API JSON, without building trees or intermediate strings.
+ * <p>
+ * Request bodies are generated straight into the outbound buffer of the HTTP request. Responses are
+ * read token by token, keeping only the generated text and the token usage and skipping everything
+ * else (safety ratings, citations, further candidates).
+ */
+public final class GeminiJson {
+
+    private GeminiJson() {
+    }
+
+    /**
+     * Writes the JSON of a request body.
+     */
+    @FunctionalInterface
+    public interface BodyWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface ValueReader<T> {
+        T read(JsonParser parser) throws IOException;
+    }
+
+    /**
+     * Returns a request body that is generated into a single buffer of the outbound request each
+     * time the request is sent, so retried and hedged attempts each write their own copy.
+     *
+     * @param factory The factory of the shared ObjectMapper
+     * @param sizeHint Expected size of the body in bytes; the buffer grows past it if needed
+     * @param writer Writes the body
+     */
+    public static BodyInserter<Object, ReactiveHttpOutputMessage> body(JsonFactory factory, int sizeHint,
+            BodyWriter writer) {
+        return (message, context) -> message.writeWith(Mono.fromCallable(() -> {
+            DataBuffer buffer = message.bufferFactory().allocateBuffer(sizeHint);
+            try (OutputStream out = buffer.asOutputStream();
+                    JsonGenerator generator = factory.createGenerator(out)) {
+                writer.write(generator);
+            } catch (IOException | RuntimeException e) {
+                DataBufferUtils.release(buffer);
+                throw e;
+            }
+            return buffer;
+        }));
+    }
+
+    /**
+     * Writes a generateContent request for a single user turn.
+     *
+     * @param cachedContent Name of the cached content the prompt continues, or null
+     */
+    public static void writeGenerateRequest(JsonGenerator generator, String prompt, String cachedContent,
+            int maxOutputTokens) throws IOException {
+        generator.writeStartObject();
+        if (cachedContent != null) {
+            generator.writeStringField("cachedContent", cachedContent);
+        }
+        generator.writeArrayFieldStart("contents");
+        generator.writeStartObject();
+        generator.writeStringField("role", "user");
+        generator.writeArrayFieldStart("parts");
+        generator.writeStartObject();
+        generator.writeStringField("text", prompt);
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeObjectFieldStart("generationConfig");
+        generator.writeNumberField("temperature", 0.7);
+        generator.writeNumberField("topK", 40);
+        generator.writeNumberField("topP", 0.95);
+        generator.writeNumberField("maxOutputTokens", maxOutputTokens);
+        generator.writeEndObject();
+        generator.writeEndObject();
+    }
+
+    /**
+     * Writes a cachedContents create request holding the instructions as system instruction.
+     *
+     * @param ttl Lifetime in the API's duration format, e.g. "3600s"
+     */
+    public static void writeCachedContentRequest(JsonGenerator generator, String model, String instructions,
+            String ttl) throws IOException {
+        generator.writeStartObject();
+        generator.writeStringField("model", model);
+        generator.writeObjectFieldStart("systemInstruction");
+        generator.writeArrayFieldStart("parts");
+        generator.writeStartObject();
+        generator.writeStringField("text", instructions);
+        generator.writeEndObject();
+        generator.writeEndArray();
+        generator.writeEndObject();
+        generator.writeStringField("ttl", ttl);
+        generator.writeEndObject();
+    }
+
+    /**
+     * Reads a complete response body and releases the buffer.
+     */
+    public static GeminiResponse readResponse(JsonFactory factory, DataBuffer body) throws IOException {
+        try (JsonParser parser = factory.createParser(body.asInputStream(true))) {
+            return readResponse(parser);
+        }
+    }
+
+    /**
+     * Reads one chunk of a streamed response.
+     */
+    public static GeminiResponse readResponse(JsonFactory factory, String chunk) throws IOException {
+        try (JsonParser parser = factory.createParser(chunk)) {
+            return readResponse(parser);
+        }
+    }
+
+    private static GeminiResponse readResponse(JsonParser parser) throws IOException {
+        if (parser.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(parser, "Expected a JSON object");
+        }
+        GeminiResponse response = new GeminiResponse();
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            if ("candidates".equals(field)) {
+                firstElement(parser, candidate -> readCandidate(candidate, response));
+            } else if ("usageMetadata".equals(field)) {
+                readUsage(parser, response);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Reads the text of candidates[0].content.parts, joined, and candidates[0].finishReason.
+     */
+    private static GeminiResponse readCandidate(JsonParser parser, GeminiResponse response) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return response;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            switch (field) {
+                case "content" -> response.setText(field(parser, "parts", GeminiJson::joinedText));
+                case "finishReason" -> response.setFinishReason(string(parser));
+                default -> parser.skipChildren();
+            }
+        }
+        return response;
+    }
+
+    private static void readUsage(JsonParser parser, GeminiResponse response) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return;
+        }
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String field = parser.currentName();
+            parser.nextToken();
+            int value = parser.currentToken() == JsonToken.VALUE_NUMBER_INT ? parser.getIntValue() : 0;
+            switch (field) {
+                case "promptTokenCount" -> response.setPromptTokenCount(value);
+                case "cachedContentTokenCount" -> response.setCachedContentTokenCount(value);
+                case "candidatesTokenCount" -> response.setCandidatesTokenCount(value);
+                case "totalTokenCount" -> response.setTotalTokenCount(value);
+                default -> parser.skipChildren();
+            }
+        }
+    }
+
+    /**
+     * Reads the named field of the object at the current token, skipping the rest of the object.
+     * Leaves the parser at the end of the object.
+     */
+    private static <T> T field(JsonParser parser, String name, ValueReader<T> reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_OBJECT) {
+            parser.skipChildren();
+            return null;
+        }
+        T value = null;
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            boolean wanted = name.equals(parser.currentName());
+            parser.nextToken();
+            if (wanted) {
+                value = reader.read(parser);
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the first element of the array at the current token, skipping the others.
+     * Leaves the parser at the end of the array.
+     */
+    private static <T> T firstElement(JsonParser parser, ValueReader<T> reader) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        T value = null;
+        boolean first = true;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of input in array");
+            }
+            if (first) {
+                value = reader.read(parser);
+                first = false;
+            } else {
+                parser.skipChildren();
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Reads the text of every part in the array at the current token, joined in order, or null if
+     * no part has text. Leaves the parser at the end of the array.
+     */
+    private static String joinedText(JsonParser parser) throws IOException {
+        if (parser.currentToken() != JsonToken.START_ARRAY) {
+            parser.skipChildren();
+            return null;
+        }
+        String first = null;
+        StringBuilder joined = null;
+        for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+            if (token == null) {
+                throw new JsonParseException(parser, "Unexpected end of input in array");
+            }
+            String text = field(parser, "text", GeminiJson::string);
+            if (text == null) {
+                continue;
+            }
+            // A single part, the usual case, is returned without copying
+            if (first == null) {
+                first = text;
+            } else {
+                if (joined == null) {
+                    joined = new StringBuilder(first);
+                }
+                joined.append(text);
+            }
+        }
+        return joined != null ? joined.toString() : first;
+    }
+
+    private static String string(JsonParser parser) throws IOException {
+        if (parser.currentToken() == JsonToken.VALUE_STRING) {
+            return parser.getText();
+        }
+        parser.skipChildren();
+        return null;
+    }
+}
@@ -0,0 +1,28 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+
+/**
+ * Utility class for hashing request material into compact, stable keys.
+ */
+public class HashUtils {
+
+    /**
+     * Returns the SHA-256 digest of the UTF-8 encoded text as a lowercase hex string.
+     *
+     * @param text The text to hash
+     * @return 64 character hex digest
+     */
+    public static String sha256Hex(String text) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest(text.getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(digest);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+}
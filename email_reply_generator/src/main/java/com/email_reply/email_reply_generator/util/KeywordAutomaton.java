@@ -0,0 +1,216 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Aho-Corasick automaton that finds all occurrences of a fixed set of keywords in one pass.
+ * <p>
+ * Matching is case-insensitive (per-char {@link Character#toLowerCase(char)}) and has substring
+ * semantics, like {@code text.toLowerCase().contains(keyword)}, but without a lowercase copy of
+ * the text. The automaton is compiled into a dense transition table over the characters that
+ * occur in the keywords, plus one class for every other character, which leads back to the root.
+ * Instances are immutable and can be shared between threads.
+ */
+public final class KeywordAutomaton {
+
+    private final List<String> keywords;
+    /**
+     * Character class of every ASCII character; the last class stands for characters in no keyword
+     */
+    private final int[] asciiClasses = new int[128];
+    private final Map<Character, Integer> otherClasses = new HashMap<>();
+    private final int otherClass;
+    /**
+     * Row length of the transition table, a power of two
+     */
+    private final int stride;
+    private final int strideShift;
+    /**
+     * Transition table indexed by (state offset + char class). Entries are state offsets
+     * (state * stride); states where a keyword ends are stored bit-inverted, so the scan
+     * loop only needs a sign check to know when to collect hits.
+     */
+    private final int[] transitions;
+    /**
+     * Keyword ids ending at each state (including via failure links), as 64-bit words per state
+     */
+    private final long[] outputs;
+    private final int outputWords;
+
+    /**
+     * Compiles the automaton. The id of a keyword is its index in the list.
+     */
+    public KeywordAutomaton(List<String> keywords) {
+        this.keywords = List.copyOf(keywords);
+        this.outputWords = Math.max(1, (keywords.size() + 63) / 64);
+
+        // Character classes for every distinct (lowercased) keyword character
+        Arrays.fill(asciiClasses, -1);
+        int classes = 0;
+        for (String keyword : this.keywords) {
+            if (keyword.isEmpty()) {
+                throw new IllegalArgumentException("Keywords must not be empty");
+            }
+            for (int i = 0; i < keyword.length(); i++) {
+                char c = Character.toLowerCase(keyword.charAt(i));
+                boolean known = c < 128 ? asciiClasses[c] >= 0 : otherClasses.containsKey(c);
+                if (!known) {
+                    if (c < 128) {
+                        asciiClasses[c] = classes++;
+                    } else {
+                        otherClasses.put(c, classes++);
+                    }
+                }
+            }
+        }
+        this.otherClass = classes;
+        for (char c = 0; c < 128; c++) {
+            char lower = Character.toLowerCase(c);
+            asciiClasses[c] = asciiClasses[lower] >= 0 ? asciiClasses[lower] : otherClass;
+        }
+        this.strideShift = 32 - Integer.numberOfLeadingZeros(otherClass);
+        this.stride = 1 << strideShift;
+
+        // Trie, with -1 for missing edges
+        List<int[]> trie = new ArrayList<>();
+        List<long[]> trieOutputs = new ArrayList<>();
+        trie.add(newRow());
+        trieOutputs.add(new long[outputWords]);
+        for (int id = 0; id < this.keywords.size(); id++) {
+            String keyword = this.keywords.get(id);
+            int state = 0;
+            for (int i = 0; i < keyword.length(); i++) {
+                int c = classOf(keyword.charAt(i));
+                if (trie.get(state)[c] < 0) {
+                    trie.get(state)[c] = trie.size();
+                    trie.add(newRow());
+                    trieOutputs.add(new long[outputWords]);
+                }
+                state = trie.get(state)[c];
+            }
+            trieOutputs.get(state)[id >>> 6] |= 1L << id;
+        }
+
+        // Breadth-first: fill missing edges from the failure state and merge its outputs
+        int states = trie.size();
+        int[] next = new int[states * stride];
+        this.outputs = new long[states * outputWords];
+        int[] failure = new int[states];
+        Deque<Integer> queue = new ArrayDeque<>();
+        for (int c = 0; c < otherClass; c++) {
+            int child = trie.get(0)[c];
+            next[c] = Math.max(child, 0);
+            if (child > 0) {
+                queue.add(child);
+            }
+        }
+        while (!queue.isEmpty()) {
+            int state = queue.poll();
+            long[] own = trieOutputs.get(state);
+            for (int w = 0; w < outputWords; w++) {
+                outputs[state * outputWords + w] = own[w] | outputs[failure[state] * outputWords + w];
+            }
+            for (int c = 0; c < otherClass; c++) {
+                int child = trie.get(state)[c];
+                int viaFailure = next[failure[state] * stride + c];
+                if (child > 0) {
+                    failure[child] = viaFailure;
+                    next[state * stride + c] = child;
+                    queue.add(child);
+                } else {
+                    next[state * stride + c] = viaFailure;
+                }
+            }
+        }
+
+        // Store targets as offsets and mark the ones with output; the "other" class stays at the root
+        this.transitions = new int[states * stride];
+        for (int state = 0; state < states; state++) {
+            for (int c = 0; c < otherClass; c++) {
+                int target = next[state * stride + c];
+                transitions[state * stride + c] = hasOutput(target) ? ~(target * stride) : target * stride;
+            }
+        }
+    }
+
+    public List<String> keywords() {
+        return keywords;
+    }
+
+    /**
+     * Id of the keyword, or -1 if it is not one of this automaton's keywords.
+     */
+    public int idOf(String keyword) {
+        return keywords.indexOf(keyword);
+    }
+
+    /**
+     * Scans the segments as if they were one concatenated text and returns the ids of
+     * all keywords that occur in it. Null segments are skipped.
+     */
+    public BitSet scan(CharSequence... segments) {
+        long[] hits = new long[outputWords];
+        int state = 0;
+        for (CharSequence segment : segments) {
+            if (segment instanceof String text) {
+                state = scan(text, state, hits);
+            } else if (segment != null) {
+                state = scan(segment.toString(), state, hits);
+            }
+        }
+        return BitSet.valueOf(hits);
+    }
+
+    private int scan(String text, int state, long[] hits) {
+        int[] table = transitions;
+        int[] ascii = asciiClasses;
+        for (int i = 0, length = text.length(); i < length; i++) {
+            char ch = text.charAt(i);
+            int next = table[state + (ch < 128 ? ascii[ch] : classOf(ch))];
+            state = next >= 0 ? next : collect(~next, hits);
+        }
+        return state;
+    }
+
+    /**
+     * Adds the keywords ending in the state to the hits; kept out of the scan loop, since hits are rare.
+     */
+    private int collect(int state, long[] hits) {
+        int base = (state >>> strideShift) * outputWords;
+        for (int w = 0; w < outputWords; w++) {
+            hits[w] |= outputs[base + w];
+        }
+        return state;
+    }
+
+    private boolean hasOutput(int state) {
+        for (int w = 0; w < outputWords; w++) {
+            if (outputs[state * outputWords + w] != 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int classOf(char c) {
+        char lower = Character.toLowerCase(c);
+        if (lower < 128) {
+            return asciiClasses[lower];
+        }
+        Integer folded = otherClasses.get(lower);
+        return folded != null ? folded : otherClass;
+    }
+
+    private int[] newRow() {
+        int[] row = new int[otherClass];
+        Arrays.fill(row, -1);
+        return row;
+    }
+}
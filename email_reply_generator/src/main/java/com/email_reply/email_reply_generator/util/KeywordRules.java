@@ -0,0 +1,126 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A table of keyword rules evaluated against a single scan of the text.
+ * <p>
+ * Each rule has a label and one or more clauses; a clause is a set of keywords, any of which
+ * must occur in the text, and a rule matches when all of its clauses do. Several rules may share
+ * a label, in which case the label matches when any of them does. All keywords of all rules are
+ * compiled into one {@link KeywordAutomaton}, so the text is scanned once into a keyword-hit
+ * bitset, and rules are then evaluated as bitset intersections.
+ */
+public final class KeywordRules {
+
+    private final KeywordAutomaton automaton;
+    private final Map<String, List<BitSet[]>> rulesByLabel;
+
+    private KeywordRules(KeywordAutomaton automaton, Map<String, List<BitSet[]>> rulesByLabel) {
+        this.automaton = automaton;
+        this.rulesByLabel = rulesByLabel;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Shorthand for a clause: matches if any of the keywords occurs.
+     */
+    public static String[] anyOf(String... keywords) {
+        return keywords;
+    }
+
+    /**
+     * Scans the segments, as one concatenated text, for all keywords of the table.
+     */
+    public BitSet scan(CharSequence... segments) {
+        return automaton.scan(segments);
+    }
+
+    /**
+     * Whether any rule with the label matches the keyword hits of a {@link #scan}.
+     */
+    public boolean matches(String label, BitSet hits) {
+        List<BitSet[]> rules = rulesByLabel.get(label);
+        if (rules == null) {
+            throw new IllegalArgumentException("Unknown rule: " + label);
+        }
+        for (BitSet[] clauses : rules) {
+            boolean allClauses = true;
+            for (BitSet clause : clauses) {
+                if (!clause.intersects(hits)) {
+                    allClauses = false;
+                    break;
+                }
+            }
+            if (allClauses) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the first of the labels that matches, or null if none does.
+     */
+    public String firstMatch(List<String> labels, BitSet hits) {
+        for (String label : labels) {
+            if (matches(label, hits)) {
+                return label;
+            }
+        }
+        return null;
+    }
+
+    public static final class Builder {
+        private final List<String> labels = new ArrayList<>();
+        private final List<String[][]> clauses = new ArrayList<>();
+
+        private Builder() {
+        }
+
+        /**
+         * Adds a rule that matches when every clause has at least one keyword in the text.
+         */
+        public Builder rule(String label, String[]... ruleClauses) {
+            if (ruleClauses.length == 0) {
+                throw new IllegalArgumentException("Rule " + label + " has no clauses");
+            }
+            labels.add(label);
+            clauses.add(ruleClauses);
+            return this;
+        }
+
+        public KeywordRules build() {
+            Set<String> keywords = new LinkedHashSet<>();
+            for (String[][] ruleClauses : clauses) {
+                for (String[] clause : ruleClauses) {
+                    keywords.addAll(List.of(clause));
+                }
+            }
+            KeywordAutomaton automaton = new KeywordAutomaton(new ArrayList<>(keywords));
+
+            Map<String, List<BitSet[]>> rulesByLabel = new LinkedHashMap<>();
+            for (int r = 0; r < labels.size(); r++) {
+                String[][] ruleClauses = clauses.get(r);
+                BitSet[] masks = new BitSet[ruleClauses.length];
+                for (int c = 0; c < ruleClauses.length; c++) {
+                    masks[c] = new BitSet();
+                    for (String keyword : ruleClauses[c]) {
+                        masks[c].set(automaton.idOf(keyword));
+                    }
+                }
+                rulesByLabel.computeIfAbsent(labels.get(r), label -> new ArrayList<>()).add(masks);
+            }
+            return new KeywordRules(automaton, rulesByLabel);
+        }
+    }
+}
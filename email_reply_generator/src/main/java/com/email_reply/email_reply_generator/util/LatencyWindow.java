@@ -0,0 +1,47 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+/**
+ * Sliding window over the most recent latency samples, used to estimate percentiles.
+ * Thread-safe; recording is O(1) and a percentile query sorts a copy of the window.
+ */
+public class LatencyWindow {
+
+    private final long[] samples;
+    private int next;
+    private int count;
+
+    public LatencyWindow(int size) {
+        this.samples = new long[size];
+    }
+
+    public synchronized void record(long latencyNanos) {
+        samples[next] = latencyNanos;
+        next = (next + 1) % samples.length;
+        if (count < samples.length) {
+            count++;
+        }
+    }
+
+    public synchronized int count() {
+        return count;
+    }
+
+    /**
+     * Returns the given percentile (0..1) of the samples in the window, or zero if it is empty.
+     */
+    public Duration percentile(double percentile) {
+        long[] sorted;
+        synchronized (this) {
+            if (count == 0) {
+                return Duration.ZERO;
+            }
+            sorted = Arrays.copyOf(samples, count);
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile * sorted.length) - 1;
+        return Duration.ofNanos(sorted[Math.max(0, Math.min(index, sorted.length - 1))]);
+    }
+}
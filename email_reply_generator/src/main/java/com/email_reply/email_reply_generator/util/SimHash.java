@@ -0,0 +1,125 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.util.Set;
+
+/**
+ * A 64-bit SimHash fingerprint of a text: texts that share most of their features get fingerprints
+ * that differ in few bits.
+ * <p>
+ * Features are the terms of the text as split by {@link Bm25Index#forEachTerm} (lower-cased words,
+ * stop words dropped) and each pair of adjacent terms, so both vocabulary and word order count.
+ * All numbers count as the same term.
+ */
+public final class SimHash {
+
+    private static final long NUMBER_HASH = hash("0");
+
+    private final long value;
+    private final int features;
+
+    private SimHash(long value, int features) {
+        this.value = value;
+        this.features = features;
+    }
+
+    /**
+     * Computes the fingerprint of a text.
+     *
+     * @param text The text; null counts as empty
+     * @return The fingerprint
+     */
+    public static SimHash of(CharSequence text) {
+        return of(text, Set.of());
+    }
+
+    /**
+     * Computes the fingerprint of a text, leaving out some terms, e.g. the names of the people
+     * involved, so that otherwise identical texts get identical fingerprints.
+     *
+     * @param text The text; null counts as empty
+     * @param ignoredTerms Lower-case terms that are not features
+     * @return The fingerprint
+     */
+    public static SimHash of(CharSequence text, Set<String> ignoredTerms) {
+        int[] weights = new int[Long.SIZE];
+        int[] features = new int[1];
+        long[] previous = {0};
+        Bm25Index.forEachTerm(text, term -> {
+            if (ignoredTerms.contains(term)) {
+                return;
+            }
+            // Numbers (order ids, dates, amounts) vary between otherwise identical templated emails
+            long hash = isNumber(term) ? NUMBER_HASH : hash(term);
+            add(weights, hash);
+            if (features[0] > 0) {
+                // Order-dependent combination of the pair, mixed again for independent bits
+                add(weights, mix(previous[0] * 31 + hash));
+            }
+            previous[0] = hash;
+            features[0]++;
+        });
+        long value = 0;
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            if (weights[bit] > 0) {
+                value |= 1L << bit;
+            }
+        }
+        return new SimHash(value, features[0]);
+    }
+
+    /**
+     * The fingerprint bits
+     */
+    public long value() {
+        return value;
+    }
+
+    /**
+     * Number of terms the fingerprint was computed from; fingerprints of very short texts are unreliable
+     */
+    public int features() {
+        return features;
+    }
+
+    /**
+     * Number of differing bits between two fingerprints
+     */
+    public static int distance(long a, long b) {
+        return Long.bitCount(a ^ b);
+    }
+
+    private static boolean isNumber(String term) {
+        for (int i = 0; i < term.length(); i++) {
+            if (term.charAt(i) < '0' || term.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void add(int[] weights, long hash) {
+        for (int bit = 0; bit < Long.SIZE; bit++) {
+            weights[bit] += ((hash >>> bit) & 1) != 0 ? 1 : -1;
+        }
+    }
+
+    /**
+     * FNV-1a over the characters, finished with a 64-bit mixer so every input bit affects every output bit.
+     */
+    private static long hash(String term) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < term.length(); i++) {
+            hash = (hash ^ term.charAt(i)) * 0x100000001b3L;
+        }
+        return mix(hash);
+    }
+
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,78 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.time.Duration;
+
+/**
+ * A token bucket that refills continuously at its capacity per period.
+ * Taking more than is available leaves the bucket in debt, which later refills pay off; this is
+ * how a reservation is corrected once the actual cost of a call is known.
+ * A bucket with a capacity of zero or less is unlimited.
+ * Not thread-safe; callers synchronize. Times are {@link System#nanoTime()} values.
+ */
+public final class TokenBucket {
+
+    private final double capacity;
+    private final double refillPerNano;
+    private double available;
+    private long updatedAt;
+
+    public TokenBucket(long capacity, Duration period, long now) {
+        this.capacity = capacity;
+        this.refillPerNano = capacity > 0 ? capacity / (double) period.toNanos() : 0;
+        this.available = capacity;
+        this.updatedAt = now;
+    }
+
+    public boolean isUnlimited() {
+        return capacity <= 0;
+    }
+
+    public double capacity() {
+        return capacity;
+    }
+
+    public double available(long now) {
+        if (isUnlimited()) {
+            return Double.POSITIVE_INFINITY;
+        }
+        available = Math.min(capacity, available + (now - updatedAt) * refillPerNano);
+        updatedAt = now;
+        return available;
+    }
+
+    /**
+     * Nanoseconds until the amount is available, capped at the capacity; zero if it is available now.
+     */
+    public long nanosUntil(double amount, long now) {
+        if (isUnlimited()) {
+            return 0;
+        }
+        double missing = Math.min(amount, capacity) - available(now);
+        return missing <= 0 ? 0 : (long) Math.ceil(missing / refillPerNano);
+    }
+
+    /**
+     * Takes the amount, going into debt if it is not available. A negative amount gives tokens back.
+     */
+    public void take(double amount, long now) {
+        if (!isUnlimited()) {
+            available = Math.min(capacity, available(now) - amount);
+        }
+    }
+
+    /**
+     * Empties the bucket, e.g. when the upstream reports the quota as exhausted.
+     */
+    public void drain(long now) {
+        if (!isUnlimited()) {
+            available = Math.min(0, available(now));
+        }
+    }
+
+    /**
+     * Fraction of the capacity in use, between 0 and 1; 0 for an unlimited bucket.
+     */
+    public double utilization(long now) {
+        return isUnlimited() ? 0 : Math.max(0, Math.min(1, 1 - available(now) / capacity));
+    }
+}
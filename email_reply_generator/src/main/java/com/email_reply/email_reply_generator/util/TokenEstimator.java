@@ -0,0 +1,54 @@
+package com.email_reply.email_reply_generator.util;
+
+/**
+ * Estimates how many model tokens a text takes, without calling the model's tokenizer.
+ * <p>
+ * Runs of ASCII letters and digits count one token per four characters (rounded up), every other
+ * visible character counts as one token, and whitespace is free. For English prose this lands a
+ * little above the model's own count, which is the safe side for budgeting.
+ */
+public final class TokenEstimator {
+
+    private static final int CHARS_PER_WORD_TOKEN = 4;
+
+    private TokenEstimator() {
+    }
+
+    /**
+     * Estimates the tokens of a text.
+     *
+     * @param text The text; null counts as empty
+     * @return The estimated token count
+     */
+    public static int estimate(CharSequence text) {
+        return text == null ? 0 : estimate(text, 0, text.length());
+    }
+
+    /**
+     * Estimates the tokens of a region of a text.
+     *
+     * @param text The text
+     * @param from Start of the region, inclusive
+     * @param to End of the region, exclusive
+     * @return The estimated token count
+     */
+    public static int estimate(CharSequence text, int from, int to) {
+        int tokens = 0;
+        int run = 0;
+        for (int i = from; i < to; i++) {
+            char c = text.charAt(i);
+            if (c < 128 && Character.isLetterOrDigit(c)) {
+                run++;
+                continue;
+            }
+            if (run > 0) {
+                tokens += (run + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+                run = 0;
+            }
+            if (!Character.isWhitespace(c)) {
+                tokens++;
+            }
+        }
+        return tokens + (run + CHARS_PER_WORD_TOKEN - 1) / CHARS_PER_WORD_TOKEN;
+    }
+}
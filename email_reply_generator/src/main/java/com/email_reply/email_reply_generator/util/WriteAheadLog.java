@@ -0,0 +1,260 @@
+package com.email_reply.email_reply_generator.util;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.zip.CRC32C;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * An append-only file of records that survives process restarts.
+ * <p>
+ * Each record is framed by its length and CRC32C, so a record torn by a crash is detected on
+ * {@link #read} and cut off. Reading streams the file record by record, so a log that has grown
+ * to its compaction threshold is never loaded into memory as a whole. Appends are written by a
+ * single thread, which writes everything that has been queued since its last write and then forces
+ * it to disk once (group commit); the future of an append completes after its record is on disk.
+ * <p>
+ * When the file has grown past the compaction threshold, and when the log is opened, it is
+ * rewritten from a snapshot of the records still needed, replacing the old file atomically.
+ */
+@Slf4j
+public final class WriteAheadLog implements Closeable {
+
+    private static final int HEADER_BYTES = Integer.BYTES * 2;
+    private static final int MAX_BATCH = 1024;
+    private static final int READ_BUFFER_BYTES = 64 * 1024;
+    /**
+     * Queued by {@link #close()}; the writer stops when it reaches it. The writer is not
+     * interrupted, since interrupting a thread in file I/O closes the channel.
+     */
+    private static final Append CLOSE = new Append(new byte[0]);
+
+    private final Path file;
+    private final long compactThreshold;
+    private final Supplier<List<byte[]>> snapshot;
+    private final BlockingQueue<Append> pending = new LinkedBlockingQueue<>();
+    private final Thread writer;
+    private FileChannel channel;
+    private long compactedSize;
+    private volatile boolean closed;
+
+    /**
+     * Opens the log for appending, compacting it first, and starts the writer thread.
+     *
+     * @param file The log file; its directory is created if missing
+     * @param compactThreshold Size in bytes above which the log is compacted
+     * @param snapshot The records still needed, in replay order; called on the writer thread
+     */
+    public WriteAheadLog(Path file, long compactThreshold, Supplier<List<byte[]>> snapshot) throws IOException {
+        this.file = file;
+        this.compactThreshold = compactThreshold;
+        this.snapshot = snapshot;
+        Path directory = file.toAbsolutePath().getParent();
+        if (directory != null) {
+            Files.createDirectories(directory);
+        }
+        compact();
+        this.writer = new Thread(this::writeLoop, "wal-" + file.getFileName());
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Reads the valid records of a log file, truncating it after the last one if the rest is damaged.
+     *
+     * @return The records in the order they were appended; empty if the file does not exist
+     */
+    public static List<byte[]> read(Path file) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        read(file, records::add);
+        return records;
+    }
+
+    /**
+     * Reads the valid records of a log file one at a time, so that only the current record is held
+     * in memory, truncating the file after the last one if the rest is damaged.
+     *
+     * @param consumer Called with each record, in the order they were appended
+     * @return The number of records read; 0 if the file does not exist
+     */
+    public static int read(Path file, Consumer<byte[]> consumer) throws IOException {
+        if (!Files.exists(file)) {
+            return 0;
+        }
+        long size = Files.size(file);
+        long valid = 0;
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file), READ_BUFFER_BYTES))) {
+            CRC32C crc = new CRC32C();
+            while (size - valid >= HEADER_BYTES) {
+                int length = in.readInt();
+                int checksum = in.readInt();
+                if (length < 0 || length > size - valid - HEADER_BYTES) {
+                    break;
+                }
+                byte[] record = new byte[length];
+                in.readFully(record);
+                crc.reset();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    break;
+                }
+                valid += HEADER_BYTES + length;
+                count++;
+                consumer.accept(record);
+            }
+        }
+        if (valid < size) {
+            log.warn("Discarding {} damaged bytes at the end of {}", size - valid, file);
+            try (FileChannel truncate = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                truncate.truncate(valid);
+                truncate.force(true);
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Queues a record for appending.
+     *
+     * @return Completes once the record is on disk, or exceptionally if it could not be written
+     */
+    public CompletableFuture<Void> append(byte[] record) {
+        Append append = new Append(record);
+        if (closed) {
+            append.future.completeExceptionally(new IllegalStateException("Log " + file + " is closed"));
+            return append.future;
+        }
+        pending.add(append);
+        return append.future;
+    }
+
+    /**
+     * Stops the writer after the records queued so far are written, and closes the file.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        pending.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        channel.close();
+    }
+
+    private void writeLoop() {
+        List<Append> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            try {
+                batch.add(pending.take());
+            } catch (InterruptedException e) {
+                break;
+            }
+            pending.drainTo(batch, MAX_BATCH - 1);
+            stop = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+            batch.clear();
+            try {
+                if (channel.size() > Math.max(compactThreshold, 2 * compactedSize)) {
+                    compact();
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("Could not compact {}: {}", file, e.toString());
+            }
+        }
+        // Appends that raced with close
+        for (Append append : pending) {
+            append.future.completeExceptionally(new IllegalStateException("Log " + file + " is closed"));
+        }
+    }
+
+    private void write(List<Append> batch) {
+        int size = 0;
+        for (Append append : batch) {
+            size += HEADER_BYTES + append.record.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        for (Append append : batch) {
+            frame(buffer, append.record);
+        }
+        buffer.flip();
+        try {
+            writeFully(channel, buffer);
+            channel.force(false);
+        } catch (IOException e) {
+            log.error("Could not write {} records to {}", batch.size(), file, e);
+            for (Append append : batch) {
+                append.future.completeExceptionally(e);
+            }
+            return;
+        }
+        for (Append append : batch) {
+            append.future.complete(null);
+        }
+    }
+
+    private void compact() throws IOException {
+        List<byte[]> records = snapshot.get();
+        Path temp = file.resolveSibling(file.getFileName() + ".compact");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (byte[] record : records) {
+                ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + record.length);
+                frame(buffer, record);
+                buffer.flip();
+                writeFully(out, buffer);
+            }
+            out.force(true);
+        }
+        if (channel != null) {
+            channel.close();
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        compactedSize = channel.size();
+        log.debug("Compacted {} to {} records ({} bytes)", file, records.size(), compactedSize);
+    }
+
+    private static void frame(ByteBuffer buffer, byte[] record) {
+        CRC32C crc = new CRC32C();
+        crc.update(record);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static final class Append {
+        private final byte[] record;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+
+        private Append(byte[] record) {
+            this.record = record;
+        }
+    }
+}
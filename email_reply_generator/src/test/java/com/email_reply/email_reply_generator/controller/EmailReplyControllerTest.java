@@ -0,0 +1,243 @@
+package com.email_reply.email_reply_generator.controller;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.http.MediaType;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs the reply endpoints against a local stub of the Gemini API.
+ */
+@SpringBootTest
+@AutoConfigureMockMvc
+class EmailReplyControllerTest {
+
+    private static final HttpServer server = startServer();
+    private static final List<StubRequest> requests = new CopyOnWriteArrayList<>();
+    private static volatile int failWithStatus;
+    private static volatile boolean breakStream;
+
+    @Autowired
+    private MockMvc mockMvc;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("gemini.api.url", () -> "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models");
+        registry.add("gemini.api.key", () -> "test-key");
+        registry.add("gemini.api.retry.max-attempts", () -> "1");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    void resetStub() {
+        requests.clear();
+        failWithStatus = 0;
+        breakStream = false;
+    }
+
+    @Test
+    void answersAsynchronouslyWhileTheModelIsCalled() throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/generate-reply")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body("Could you send me the quarterly figures by Friday?", "professional")))
+                // The request thread is released before the model has replied
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reply").value("Stub reply"))
+                .andExpect(jsonPath("$.degraded").value(false));
+        assertEquals(1, requests.size());
+    }
+
+    @Test
+    void sendsTheApiKeyInAHeaderRatherThanTheUrl() throws Exception {
+        generate("Are you free for lunch next Tuesday?", "friendly");
+
+        StubRequest sent = requests.get(0);
+        assertEquals("test-key", sent.apiKey);
+        assertNull(sent.query);
+        assertFalse(sent.path.contains("test-key"));
+    }
+
+    @Test
+    void reusesPooledConnectionsAcrossCalls() throws Exception {
+        generate("Please confirm the delivery address for the new chairs.", "professional");
+        generate("Thanks for the invitation to the product launch in May!", "casual");
+
+        assertEquals(2, requests.size());
+        assertEquals(requests.get(0).clientPort, requests.get(1).clientPort);
+    }
+
+    @Test
+    void answersWithTheFallbackReplyWhenTheModelFails() throws Exception {
+        failWithStatus = 400;
+
+        MvcResult result = mockMvc.perform(post("/api/generate-reply")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body("Our invoice 4471 seems to be missing a line item.", "professional")))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+
+        mockMvc.perform(asyncDispatch(result))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.reply")
+                        .value("An error occurred while generating the email reply. Please try again later."));
+    }
+
+    @Test
+    void streamsDeltasFollowedByTheCompleteReply() throws Exception {
+        String events = stream("When does the workshop on Thursday start?", "professional");
+
+        assertEquals(List.of("delta:{\"text\":\"Stub \"}", "delta:{\"text\":\"reply\"}",
+                "done:{\"reply\":\"Stub reply\",\"degraded\":false}"), events(events));
+        assertTrue(requests.get(0).path.endsWith(":streamGenerateContent"));
+        assertEquals("alt=sse", requests.get(0).query);
+    }
+
+    @Test
+    void endsTheStreamWithAnErrorEventWhenGenerationFails() throws Exception {
+        breakStream = true;
+
+        String events = stream("Could we move the review to a later date?", "professional");
+
+        assertEquals(List.of("delta:{\"text\":\"Stub \"}",
+                "error:{\"reply\":\"An error occurred while generating the email reply. Please try again later.\","
+                        + "\"degraded\":false}"), events(events));
+    }
+
+    /**
+     * Posts to the streaming endpoint and returns the raw event stream once it has ended
+     */
+    private String stream(String content, String tone) throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/generate-reply/stream")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .accept(MediaType.TEXT_EVENT_STREAM)
+                        .content(body(content, tone)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        result.getAsyncResult(10_000);
+        return result.getResponse().getContentAsString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * The events of a stream as "name:data", without keep-alive comments
+     */
+    private static List<String> events(String stream) {
+        List<String> events = new ArrayList<>();
+        for (String frame : stream.split("\n\n")) {
+            String name = null;
+            String data = null;
+            for (String line : frame.split("\n")) {
+                if (line.startsWith("event:")) {
+                    name = line.substring("event:".length());
+                } else if (line.startsWith("data:")) {
+                    data = line.substring("data:".length());
+                }
+            }
+            if (name != null) {
+                events.add(name + ":" + data);
+            }
+        }
+        return events;
+    }
+
+    private void generate(String content, String tone) throws Exception {
+        MvcResult result = mockMvc.perform(post("/api/generate-reply")
+                        .contentType(MediaType.APPLICATION_JSON)
+                        .content(body(content, tone)))
+                .andExpect(request().asyncStarted())
+                .andReturn();
+        mockMvc.perform(asyncDispatch(result)).andExpect(status().isOk());
+    }
+
+    private static String body(String content, String tone) {
+        return "{\"content\":\"" + content + "\",\"tone\":\"" + tone + "\"}";
+    }
+
+    private static HttpServer startServer() {
+        try {
+            HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            stub.createContext("/", EmailReplyControllerTest::handle);
+            stub.setExecutor(Executors.newCachedThreadPool());
+            stub.start();
+            return stub;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        exchange.getRequestBody().readAllBytes();
+        requests.add(new StubRequest(exchange.getRequestURI().getPath(), exchange.getRequestURI().getQuery(),
+                exchange.getRequestHeaders().getFirst("x-goog-api-key"), exchange.getRemoteAddress().getPort()));
+        if (failWithStatus != 0) {
+            respond(exchange, failWithStatus, "application/json", "{\"error\":{\"code\":" + failWithStatus + ",\"message\":\"Stub error\"}}");
+            return;
+        }
+        String candidate = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"%s\"}],\"role\":\"model\"}%s}]}";
+        if (exchange.getRequestURI().getPath().endsWith(":streamGenerateContent")) {
+            // A broken stream ends in a chunk that cannot be parsed
+            String second = breakStream ? "{\"candidates\":[{\"content\""
+                    : String.format(candidate, "reply", ",\"finishReason\":\"STOP\"");
+            respond(exchange, 200, "text/event-stream", "data: " + String.format(candidate, "Stub ", "") + "\r\n\r\n"
+                    + "data: " + second + "\r\n\r\n");
+            return;
+        }
+        try {
+            // Slow enough that the request is still in flight when the endpoint returns
+            Thread.sleep(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        respond(exchange, 200, "application/json", "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Stub reply\"}],\"role\":\"model\"},"
+                + "\"finishReason\":\"STOP\"}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":10,\"candidatesTokenCount\":2,\"totalTokenCount\":12}}");
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private record StubRequest(String path, String query, String apiKey, int clientPort) {
+    }
+}
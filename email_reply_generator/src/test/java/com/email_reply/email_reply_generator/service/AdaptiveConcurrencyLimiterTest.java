@@ -0,0 +1,121 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+class AdaptiveConcurrencyLimiterTest {
+
+    private static final long MILLIS = 1_000_000;
+
+    @Test
+    void growsByAboutOnePerFullWindowOfSuccessfulCalls() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 2, 64);
+
+        // Each call adds 1/limit, so a step takes a little over one window
+        succeed(limiter, 10);
+        assertEquals(10, limiter.getLimit());
+        succeed(limiter, 1);
+        assertEquals(11, limiter.getLimit());
+
+        succeed(limiter, 10);
+        assertEquals(11, limiter.getLimit());
+        succeed(limiter, 1);
+        assertEquals(12, limiter.getLimit());
+    }
+
+    @Test
+    void doesNotGrowWhileLessThanHalfOfTheLimitIsInUse() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 2, 64);
+
+        for (int i = 0; i < 100; i++) {
+            limiter.onSample("model", 100 * MILLIS, 100 * MILLIS, 4);
+        }
+
+        assertEquals(10, limiter.getLimit());
+    }
+
+    @Test
+    void backsOffOnOverload() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 2, 64);
+
+        limiter.onOverload(20);
+        assertEquals(18, limiter.getLimit());
+        limiter.onOverload(18);
+        assertEquals(16, limiter.getLimit());
+    }
+
+    @Test
+    void backsOffOnALatencySpikeWithinTheSameSeries() {
+        AdaptiveConcurrencyLimiter limiter = limiter(20, 2, 64);
+        limiter.onSample("model-a", 100 * MILLIS, 100 * MILLIS, 0);
+
+        // A slower series of its own is not a spike
+        limiter.onSample("model-b", 1000 * MILLIS, 1000 * MILLIS, 0);
+        assertEquals(20, limiter.getLimit());
+
+        limiter.onSample("model-a", 250 * MILLIS, 250 * MILLIS, 0);
+        assertEquals(18, limiter.getLimit());
+    }
+
+    @Test
+    void staysWithinTheMinimumAndMaximum() {
+        AdaptiveConcurrencyLimiter limiter = limiter(4, 3, 5);
+
+        for (int i = 0; i < 20; i++) {
+            limiter.onOverload(4);
+        }
+        assertEquals(3, limiter.getLimit());
+
+        succeed(limiter, 100);
+        assertEquals(5, limiter.getLimit());
+    }
+
+    @Test
+    void keepsTheMaximumWhenNotAdaptive() {
+        GeminiApiConfig config = config(10, 2, 64);
+        config.getConcurrency().setAdaptive(false);
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(config);
+
+        limiter.onOverload(64);
+        succeed(limiter, 100);
+
+        assertEquals(64, limiter.getLimit());
+    }
+
+    @Test
+    void averagesTheLatencyOfAllCalls() {
+        AdaptiveConcurrencyLimiter limiter = limiter(10, 2, 64);
+        assertEquals(Duration.ZERO, limiter.getAverageLatency());
+
+        limiter.onSample("model-a", 1, 100 * MILLIS, 0);
+        assertEquals(Duration.ofMillis(100), limiter.getAverageLatency());
+        limiter.onSample("model-b", 1, 300 * MILLIS, 0);
+        assertEquals(Duration.ofMillis(110), limiter.getAverageLatency());
+    }
+
+    /**
+     * Successful calls with a steady latency, each made with the whole limit in use
+     */
+    private static void succeed(AdaptiveConcurrencyLimiter limiter, int calls) {
+        for (int i = 0; i < calls; i++) {
+            limiter.onSample("model", 100 * MILLIS, 100 * MILLIS, limiter.getLimit());
+        }
+    }
+
+    private static AdaptiveConcurrencyLimiter limiter(int initial, int min, int max) {
+        return new AdaptiveConcurrencyLimiter(config(initial, min, max));
+    }
+
+    private static GeminiApiConfig config(int initial, int min, int max) {
+        GeminiApiConfig config = new GeminiApiConfig();
+        config.getConcurrency().setInitialInFlight(initial);
+        config.getConcurrency().setMinInFlight(min);
+        config.getConcurrency().setMaxInFlight(max);
+        return config;
+    }
+}
@@ -0,0 +1,139 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.email_reply.email_reply_generator.dto.BatchOrder;
+import com.email_reply.email_reply_generator.dto.BatchReplyItem;
+import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
+
+import reactor.core.publisher.Mono;
+
+class BatchReplyServiceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final AtomicInteger running = new AtomicInteger();
+    private final AtomicInteger maxRunning = new AtomicInteger();
+    private final Set<RequestPriority> priorities = ConcurrentHashMap.newKeySet();
+
+    @Test
+    void runsAtMostTheConfiguredNumberOfRepliesInParallel() {
+        BatchReplyService service = service(4, 500);
+
+        List<BatchReplyItem> items = service.generateReplies(requests(20), null, BatchOrder.COMPLETION)
+                .collectList().block(TIMEOUT);
+
+        assertEquals(20, items.size());
+        assertEquals(4, maxRunning.get());
+        assertEquals(Set.of(RequestPriority.BULK), priorities);
+    }
+
+    @Test
+    void onlyLowersTheParallelismOnRequest() {
+        service(4, 500).generateReplies(requests(10), 2, BatchOrder.COMPLETION).blockLast(TIMEOUT);
+        assertEquals(2, maxRunning.getAndSet(0));
+
+        service(4, 500).generateReplies(requests(10), 100, BatchOrder.COMPLETION).blockLast(TIMEOUT);
+        assertEquals(4, maxRunning.getAndSet(0));
+
+        service(4, 500).generateReplies(requests(10), 0, BatchOrder.COMPLETION).blockLast(TIMEOUT);
+        assertEquals(1, maxRunning.get());
+    }
+
+    @Test
+    void emitsResultsAsTheyCompleteByDefault() {
+        // Later emails are answered sooner
+        List<Integer> order = service(8, 500).generateReplies(requests(6), null, BatchOrder.COMPLETION)
+                .map(BatchReplyItem::getIndex)
+                .collectList().block(TIMEOUT);
+
+        assertEquals(List.of(5, 4, 3, 2, 1, 0), order);
+    }
+
+    @Test
+    void keepsTheInputOrderOnRequestWhileStillRunningInParallel() {
+        List<BatchReplyItem> items = service(8, 500).generateReplies(requests(6), null, BatchOrder.INPUT)
+                .collectList().block(TIMEOUT);
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5), items.stream().map(BatchReplyItem::getIndex).toList());
+        assertEquals("Reply to email 0", items.get(0).getReply());
+        assertEquals("client-0", items.get(0).getClientId());
+        assertEquals(6, maxRunning.get());
+    }
+
+    @Test
+    void reportsFailedAndInvalidEmailsWithoutFailingTheBatch() {
+        List<EmailReplyRequest> requests = requests(2);
+        requests.add(new EmailReplyRequest("fail", "professional", "client-2"));
+        requests.add(new EmailReplyRequest(" ", "professional", "client-3"));
+        requests.add(new EmailReplyRequest("No tone", null, "client-4"));
+        requests.add(null);
+
+        List<BatchReplyItem> items = service(8, 500).generateReplies(requests, null, BatchOrder.INPUT)
+                .collectList().block(TIMEOUT);
+
+        assertEquals(6, items.size());
+        assertEquals("Reply to email 1", items.get(1).getReply());
+        assertNull(items.get(2).getReply());
+        assertEquals("Model call failed", items.get(2).getError());
+        assertEquals("Email content is empty", items.get(3).getError());
+        assertEquals("client-3", items.get(3).getClientId());
+        assertEquals("Tone is missing", items.get(4).getError());
+        assertEquals("Email content is empty", items.get(5).getError());
+    }
+
+    @Test
+    void rejectsBatchesOverTheMaximumSize() {
+        BatchReplyService service = service(4, 3);
+
+        InvalidRequestException error = assertThrows(InvalidRequestException.class,
+                () -> service.generateReplies(requests(4), null, BatchOrder.COMPLETION));
+        assertTrue(error.getMessage().contains("maximum is 3"), error.getMessage());
+    }
+
+    private BatchReplyService service(int maxConcurrency, int maxItems) {
+        EmailReplyService emailReplyService = new EmailReplyService() {
+            @Override
+            public Mono<GeneratedReply> generateEmailReply(EmailContext context, String tone) {
+                if (context.getEmailContent().equals("fail")) {
+                    return Mono.error(new IllegalStateException("Model call failed"));
+                }
+                int email = Integer.parseInt(context.getEmailContent().substring("Email ".length()));
+                return Mono.deferContextual(view -> {
+                    priorities.add(RequestPriority.of(view));
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    return Mono.just(GeneratedReply.of("Reply to email " + email))
+                            .delayElement(Duration.ofMillis(50L * Math.max(1, 10 - email)))
+                            // Before the reply is passed on, upon which the next email may start
+                            .doOnNext(reply -> running.decrementAndGet());
+                });
+            }
+        };
+        BatchReplyService service = new BatchReplyService();
+        ReflectionTestUtils.setField(service, "emailReplyService", emailReplyService);
+        ReflectionTestUtils.setField(service, "maxConcurrency", maxConcurrency);
+        ReflectionTestUtils.setField(service, "maxItems", maxItems);
+        return service;
+    }
+
+    private static List<EmailReplyRequest> requests(int count) {
+        List<EmailReplyRequest> requests = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            requests.add(new EmailReplyRequest("Email " + i, "professional", "client-" + i));
+        }
+        return requests;
+    }
+}
@@ -0,0 +1,111 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.util.context.Context;
+
+class DeadlineTest {
+
+    @Test
+    void reportsTheRemainingTime() {
+        Deadline deadline = Deadline.after(Duration.ofMinutes(1));
+        assertFalse(deadline.isExpired());
+        assertTrue(deadline.remaining().compareTo(Duration.ofSeconds(59)) > 0);
+
+        Deadline passed = Deadline.after(Duration.ofMillis(-1));
+        assertTrue(passed.isExpired());
+        assertEquals(Duration.ZERO, passed.remaining());
+    }
+
+    @Test
+    void travelsInTheContext() {
+        Deadline deadline = Deadline.after(Duration.ofSeconds(5));
+        Context context = deadline.asContext().put("other", "value");
+
+        assertSame(deadline, Deadline.of(context));
+        assertNull(Deadline.of(Context.empty()));
+        Context cleared = Deadline.clear(context);
+        assertNull(Deadline.of(cleared));
+        assertEquals("value", cleared.get("other"));
+
+        StepVerifier.create(Mono.deferContextual(view -> Mono.just(Deadline.of(view) == deadline))
+                        .contextWrite(deadline.asContext()))
+                .expectNext(true)
+                .verifyComplete();
+    }
+
+    @Test
+    void passesACallThatFinishesInTime() {
+        Deadline deadline = Deadline.after(Duration.ofSeconds(5));
+
+        StepVerifier.create(deadline.bound(Mono.just("reply").delayElement(Duration.ofMillis(10))))
+                .expectNext("reply")
+                .verifyComplete();
+    }
+
+    @Test
+    void failsAndCancelsACallThatIsTooSlow() throws InterruptedException {
+        // Long enough for the call to be subscribed to before the deadline passes
+        Deadline deadline = Deadline.after(Duration.ofMillis(500));
+        AtomicBoolean subscribed = new AtomicBoolean();
+        CountDownLatch cancelled = new CountDownLatch(1);
+
+        StepVerifier.create(deadline.bound(Mono.never()
+                        .doOnSubscribe(subscription -> subscribed.set(true))
+                        .doOnCancel(cancelled::countDown)))
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+        assertTrue(subscribed.get());
+        // The call is cancelled on the timer thread, right after the error is signalled
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void doesNotSubscribeOnceExpired() {
+        Deadline deadline = Deadline.after(Duration.ZERO);
+        AtomicBoolean subscribed = new AtomicBoolean();
+
+        StepVerifier.create(deadline.bound(Mono.fromCallable(() -> subscribed.getAndSet(true))))
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+        StepVerifier.create(deadline.bound(Flux.defer(() -> Flux.just(subscribed.getAndSet(true)))))
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+        assertFalse(subscribed.get());
+    }
+
+    @Test
+    void boundsTheWholeStreamRatherThanTheGapBetweenChunks() {
+        Deadline deadline = Deadline.after(Duration.ofMillis(300));
+        // Every gap is well within the deadline, but the stream as a whole is not
+        Flux<Long> chunks = Flux.interval(Duration.ofMillis(50)).take(20);
+
+        StepVerifier.create(deadline.bound(chunks))
+                .thenConsumeWhile(chunk -> true)
+                .expectError(DeadlineExceededException.class)
+                .verify(Duration.ofSeconds(5));
+    }
+
+    @Test
+    void passesAStreamThatCompletesInTime() {
+        Deadline deadline = Deadline.after(Duration.ofSeconds(5));
+
+        StepVerifier.create(deadline.bound(Flux.interval(Duration.ofMillis(10)).take(3)))
+                .expectNext(0L, 1L, 2L)
+                .verifyComplete();
+    }
+}
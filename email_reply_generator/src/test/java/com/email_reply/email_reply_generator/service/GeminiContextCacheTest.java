@@ -0,0 +1,202 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.context.DynamicPropertyRegistry;
+import org.springframework.test.context.DynamicPropertySource;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Runs Gemini calls against a local stub of the API with the context cache enabled: the prefix is
+ * registered in the background, later calls send only the suffix, and a call whose cached content
+ * the API rejects is repeated with the full prompt.
+ */
+@SpringBootTest
+class GeminiContextCacheTest {
+
+    private static final String MODEL = "stub-model";
+    private static final String CACHED_CONTENT = "cachedContents/stub1";
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private static final HttpServer server = startServer();
+    private static final List<String> generateRequests = new CopyOnWriteArrayList<>();
+    private static final List<String> createRequests = new CopyOnWriteArrayList<>();
+    private static volatile boolean rejectCachedContent;
+
+    @Autowired
+    private GeminiAiService geminiAiService;
+
+    @DynamicPropertySource
+    static void properties(DynamicPropertyRegistry registry) {
+        registry.add("gemini.api.url", () -> "http://127.0.0.1:" + server.getAddress().getPort() + "/v1beta/models");
+        registry.add("gemini.api.key", () -> "test-key");
+        registry.add("gemini.api.context-cache.enabled", () -> "true");
+        registry.add("gemini.api.context-cache.min-prefix-tokens", () -> "1");
+        registry.add("gemini.api.retry.max-attempts", () -> "1");
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.stop(0);
+    }
+
+    @BeforeEach
+    void resetStub() {
+        generateRequests.clear();
+        createRequests.clear();
+        rejectCachedContent = false;
+    }
+
+    @Test
+    void sendsOnlyTheSuffixOnceThePrefixIsRegistered() {
+        PromptService.Prompt prompt = new PromptService.Prompt("Reply politely to the email.", "Email one");
+
+        assertEquals("Stub reply", generate(prompt));
+        assertFalse(generateRequests.get(0).contains("cachedContent"));
+        assertTrue(generateRequests.get(0).contains("Reply politely to the email."));
+
+        awaitCachedContent(prompt);
+
+        assertEquals(1, createRequests.size());
+        assertTrue(createRequests.get(0).contains("Reply politely to the email."));
+        assertTrue(createRequests.get(0).contains("models/" + MODEL));
+        String cached = last(generateRequests);
+        assertTrue(cached.contains(CACHED_CONTENT));
+        assertTrue(cached.contains("Email one"));
+        assertFalse(cached.contains("Reply politely to the email."));
+    }
+
+    @Test
+    void repeatsARejectedCallWithTheFullPrompt() {
+        PromptService.Prompt prompt = new PromptService.Prompt("Reply briefly to the email.", "Email two");
+        awaitCachedContent(prompt);
+        generateRequests.clear();
+        rejectCachedContent = true;
+
+        assertEquals("Stub reply", generate(prompt));
+
+        assertEquals(2, generateRequests.size());
+        assertTrue(generateRequests.get(0).contains(CACHED_CONTENT));
+        assertFalse(generateRequests.get(1).contains("cachedContent"));
+        assertTrue(generateRequests.get(1).contains("Reply briefly to the email."));
+
+        // The rejected cached content is no longer referenced
+        generateRequests.clear();
+        assertEquals("Stub reply", generate(prompt));
+        assertEquals(1, generateRequests.size());
+        assertFalse(generateRequests.get(0).contains("cachedContent"));
+    }
+
+    @Test
+    void repeatsARejectedStreamWithTheFullPrompt() {
+        PromptService.Prompt prompt = new PromptService.Prompt("Reply warmly to the email.", "Email three");
+        awaitCachedContent(prompt);
+        generateRequests.clear();
+        rejectCachedContent = true;
+
+        String reply = geminiAiService.streamContent(MODEL, prompt)
+                .map(ModelOutput::getText)
+                .collect(Collectors.joining())
+                .block(TIMEOUT);
+
+        assertEquals("Stub reply", reply);
+        assertEquals(2, generateRequests.size());
+        assertTrue(generateRequests.get(0).contains(CACHED_CONTENT));
+        assertFalse(generateRequests.get(1).contains("cachedContent"));
+    }
+
+    private String generate(PromptService.Prompt prompt) {
+        return geminiAiService.generateContent(MODEL, prompt).block(TIMEOUT).getText();
+    }
+
+    /**
+     * Calls the model until a request references the cached content, as registration runs in the background.
+     */
+    private void awaitCachedContent(PromptService.Prompt prompt) {
+        Instant giveUp = Instant.now().plus(TIMEOUT);
+        while (Instant.now().isBefore(giveUp)) {
+            generate(prompt);
+            if (last(generateRequests).contains(CACHED_CONTENT)) {
+                return;
+            }
+            try {
+                Thread.sleep(20);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        fail("The prompt prefix was not registered as cached content");
+    }
+
+    private static String last(List<String> requests) {
+        return requests.get(requests.size() - 1);
+    }
+
+    private static HttpServer startServer() {
+        try {
+            HttpServer stub = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+            stub.createContext("/", GeminiContextCacheTest::handle);
+            stub.setExecutor(Executors.newCachedThreadPool());
+            stub.start();
+            return stub;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        String path = exchange.getRequestURI().getPath();
+        String body = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+        if (path.endsWith("/cachedContents")) {
+            createRequests.add(body);
+            respond(exchange, 200, "application/json", "{\"name\":\"" + CACHED_CONTENT + "\",\"expireTime\":\""
+                    + Instant.now().plus(Duration.ofHours(1)) + "\"}");
+            return;
+        }
+        generateRequests.add(body);
+        if (rejectCachedContent && body.contains("cachedContent")) {
+            respond(exchange, 404, "application/json", "{\"error\":{\"code\":404,\"message\":\"CachedContent not found\"}}");
+            return;
+        }
+        String candidate = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"%s\"}],\"role\":\"model\"}%s}],"
+                + "\"usageMetadata\":{\"promptTokenCount\":10,\"candidatesTokenCount\":2,\"totalTokenCount\":12}}";
+        if (path.endsWith(":streamGenerateContent")) {
+            respond(exchange, 200, "text/event-stream",
+                    "data: " + String.format(candidate, "Stub ", "") + "\r\n\r\n"
+                    + "data: " + String.format(candidate, "reply", ",\"finishReason\":\"STOP\"") + "\r\n\r\n");
+            return;
+        }
+        respond(exchange, 200, "application/json", String.format(candidate, "Stub reply", ",\"finishReason\":\"STOP\""));
+    }
+
+    private static void respond(HttpExchange exchange, int status, String contentType, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", contentType);
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
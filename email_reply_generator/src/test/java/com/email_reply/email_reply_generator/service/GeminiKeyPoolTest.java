@@ -0,0 +1,196 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class GeminiKeyPoolTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void spreadsCallsOverTheKeyWithTheMostHeadroom() {
+        GeminiKeyPool pool = pool(config(2, 10, 0));
+
+        List<String> used = new ArrayList<>();
+        for (int i = 0; i < 4; i++) {
+            used.add(pool.execute(0, credential -> Mono.just(credential.getName()), name -> 0).block());
+        }
+
+        assertEquals(List.of("key-0", "key-1", "key-0", "key-1"), used);
+        assertEquals("http://localhost/models", pool.credentials().get(0).getUrl());
+    }
+
+    @Test
+    void shedsCallsThatWouldWaitLongerThanTheMaximum() {
+        GeminiKeyPool pool = pool(config(1, 2, 0));
+        pool.execute(0, credential -> Mono.just("a"), result -> 0).block();
+        pool.execute(0, credential -> Mono.just("b"), result -> 0).block();
+
+        UpstreamSaturatedException error = assertThrows(UpstreamSaturatedException.class,
+                () -> pool.execute(0, credential -> Mono.just("c"), result -> 0).block());
+
+        // The next request is refilled after half a minute
+        assertTrue(error.getRetryAfter().compareTo(Duration.ofSeconds(29)) > 0);
+        assertEquals(1, meterRegistry.counter("gemini.key.shed").count(), 1e-9);
+    }
+
+    @Test
+    void waitsForTokensThatRefillWithinTheMaximumWait() {
+        GeminiApiConfig config = config(1, 0, 6000);
+        config.getKeyPool().setMaxWait(Duration.ofSeconds(5));
+        GeminiKeyPool pool = pool(config);
+        pool.execute(6000, credential -> Mono.just("a"), result -> 6000).block();
+
+        long start = System.nanoTime();
+        pool.execute(30, credential -> Mono.just("b"), result -> 30).block();
+
+        // 6000 tokens per minute refill 30 tokens in 300 ms
+        assertTrue(System.nanoTime() - start >= Duration.ofMillis(250).toNanos());
+    }
+
+    @Test
+    void correctsTheReservationByTheActualUsage() {
+        GeminiApiConfig config = config(1, 0, 6000);
+        config.getKeyPool().setMaxWait(Duration.ofMillis(10));
+        GeminiKeyPool pool = pool(config);
+
+        pool.execute(6000, credential -> Mono.just("a"), result -> 100).block();
+        pool.execute(5000, credential -> Mono.just("b"), result -> 5000).block();
+
+        assertThrows(UpstreamSaturatedException.class,
+                () -> pool.execute(5000, credential -> Mono.just("c"), result -> 5000).block());
+    }
+
+    @Test
+    void takesTheUsageOfAStreamFromItsLastReport() {
+        GeminiApiConfig config = config(1, 0, 6000);
+        config.getKeyPool().setMaxWait(Duration.ofMillis(10));
+        GeminiKeyPool pool = pool(config);
+
+        pool.executeMany(6000, credential -> Flux.just(10, 50, 0), tokens -> tokens).blockLast();
+        pool.executeMany(5900, credential -> Flux.just(5900), tokens -> tokens).blockLast();
+
+        assertThrows(UpstreamSaturatedException.class,
+                () -> pool.executeMany(100, credential -> Flux.just(100), tokens -> tokens).blockLast());
+    }
+
+    @Test
+    void ejectsAKeyAfterConsecutive429s() {
+        GeminiApiConfig config = config(1, 0, 0);
+        config.getKeyPool().setEjectAfter429s(2);
+        GeminiKeyPool pool = pool(config);
+
+        rateLimited(pool);
+        pool.execute(0, credential -> Mono.just("ok"), result -> 0).block();
+        rateLimited(pool);
+        // A success in between starts the count anew
+        assertFalse(pool.credentials().get(0).isEjected());
+
+        rateLimited(pool);
+        assertTrue(pool.credentials().get(0).isEjected());
+        assertEquals(3, meterRegistry.counter("gemini.key.calls", "key", "key-0", "outcome", "rate_limited").count(), 1e-9);
+        assertThrows(UpstreamSaturatedException.class,
+                () -> pool.execute(0, credential -> Mono.just("ok"), result -> 0).block());
+    }
+
+    @Test
+    void drainsTheRequestsOfARateLimitedKey() {
+        GeminiKeyPool pool = pool(config(2, 100, 0));
+
+        rateLimited(pool);
+        for (int i = 0; i < 5; i++) {
+            assertEquals("key-1", pool.execute(0, credential -> Mono.just(credential.getName()), name -> 0).block());
+        }
+    }
+
+    @Test
+    void doesNotEjectAKeyForOtherErrors() {
+        GeminiApiConfig config = config(1, 100, 0);
+        config.getKeyPool().setEjectAfter429s(1);
+        GeminiKeyPool pool = pool(config);
+
+        for (int i = 0; i < 3; i++) {
+            pool.execute(0, credential -> Mono.error(status(HttpStatus.SERVICE_UNAVAILABLE)), result -> 0)
+                    .onErrorResume(e -> Mono.empty()).block();
+        }
+
+        assertFalse(pool.credentials().get(0).isEjected());
+        assertEquals(3, meterRegistry.counter("gemini.key.calls", "key", "key-0", "outcome", "error").count(), 1e-9);
+    }
+
+    @Test
+    void keepsTheReserveOfOtherClassesFromBulkCalls() {
+        GeminiApiConfig config = config(1, 4, 0);
+        config.getScheduling().getBulk().setMaxShare(0.5);
+        GeminiKeyPool pool = pool(config);
+
+        for (int i = 0; i < 2; i++) {
+            pool.execute(0, credential -> Mono.just("bulk"), result -> 0)
+                    .contextWrite(RequestPriority.BULK.asContext()).block();
+        }
+        assertThrows(UpstreamSaturatedException.class, () -> pool.execute(0, credential -> Mono.just("bulk"), result -> 0)
+                .contextWrite(RequestPriority.BULK.asContext()).block());
+
+        assertEquals("interactive", pool.execute(0, credential -> Mono.just("interactive"), result -> 0).block());
+        assertEquals("interactive", pool.execute(0, credential -> Mono.just("interactive"), result -> 0).block());
+    }
+
+    @Test
+    void rejectsACredentialWithoutAKey() {
+        GeminiApiConfig config = config(1, 10, 0);
+        config.getCredentials().get(0).setKey(" ");
+
+        assertThrows(IllegalStateException.class, () -> pool(config));
+    }
+
+    private GeminiKeyPool pool(GeminiApiConfig config) {
+        return new GeminiKeyPool(config, meterRegistry);
+    }
+
+    /**
+     * @param keys Number of API keys
+     * @param requestsPerMinute Requests per minute of each key; 0 for unlimited
+     * @param tokensPerMinute Tokens per minute of each key; 0 for unlimited
+     */
+    private static GeminiApiConfig config(int keys, int requestsPerMinute, int tokensPerMinute) {
+        GeminiApiConfig config = new GeminiApiConfig();
+        config.setUrl("http://localhost/models/");
+        config.getKeyPool().setRequestsPerMinute(requestsPerMinute);
+        config.getKeyPool().setTokensPerMinute(tokensPerMinute);
+        config.getKeyPool().setMaxWait(Duration.ofMillis(100));
+        List<GeminiApiConfig.Credential> credentials = new ArrayList<>();
+        for (int i = 0; i < keys; i++) {
+            GeminiApiConfig.Credential credential = new GeminiApiConfig.Credential();
+            credential.setKey("test-key-" + i);
+            credentials.add(credential);
+        }
+        config.setCredentials(credentials);
+        return config;
+    }
+
+    private static void rateLimited(GeminiKeyPool pool) {
+        pool.execute(0, credential -> Mono.error(status(HttpStatus.TOO_MANY_REQUESTS)), result -> 0)
+                .onErrorResume(WebClientResponseException.class, e -> Mono.empty())
+                .block();
+    }
+
+    private static WebClientResponseException status(HttpStatus status) {
+        return WebClientResponseException.create(status.value(), status.getReasonPhrase(), null, null, null);
+    }
+}
@@ -0,0 +1,219 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+
+class InFlightRequestRegistryTest {
+
+    private final InFlightRequestRegistry registry =
+            new InFlightRequestRegistry(true, Duration.ofSeconds(5), new SimpleMeterRegistry());
+    private final AtomicInteger calls = new AtomicInteger();
+    private final AtomicBoolean sawDeadline = new AtomicBoolean();
+
+    @Test
+    void coalescesIdenticalCalls() throws Exception {
+        CompletableFuture<ModelOutput> first = registry.join("model", "prompt", upstream()).toFuture();
+        ModelOutput second = registry.join("model", "prompt", upstream()).block(Duration.ofSeconds(5));
+
+        assertEquals("reply", second.getText());
+        assertEquals("reply", first.get(5, TimeUnit.SECONDS).getText());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void givesLateStreamingFollowersTheChunksSentBeforeTheyJoined() {
+        Sinks.Many<ModelOutput> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> leader = new CopyOnWriteArrayList<>();
+        List<String> follower = new CopyOnWriteArrayList<>();
+
+        registry.joinStream("model", "prompt", counted(upstream.asFlux()))
+                .subscribe(chunk -> leader.add(chunk.getText()));
+        upstream.tryEmitNext(ModelOutput.of("Hello "));
+        registry.joinStream("model", "prompt", counted(upstream.asFlux()))
+                .subscribe(chunk -> follower.add(chunk.getText()));
+        upstream.tryEmitNext(ModelOutput.of("there"));
+        upstream.tryEmitComplete();
+
+        assertEquals(List.of("Hello ", "there"), leader);
+        assertEquals(List.of("Hello ", "there"), follower);
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void concatenatesAStreamingCallForABufferedCaller() {
+        Sinks.Many<ModelOutput> upstream = Sinks.many().unicast().onBackpressureBuffer();
+        List<String> chunks = new CopyOnWriteArrayList<>();
+        registry.joinStream("model", "prompt", counted(upstream.asFlux()))
+                .subscribe(chunk -> chunks.add(chunk.getText()));
+        CompletableFuture<ModelOutput> buffered = registry.join("model", "prompt", () -> Mono.error(
+                new AssertionError("The buffered caller should join the stream"))).toFuture();
+
+        upstream.tryEmitNext(ModelOutput.of("Hello "));
+        upstream.tryEmitNext(new ModelOutput("there", true));
+        upstream.tryEmitComplete();
+
+        assertEquals(new ModelOutput("Hello there", true), buffered.join());
+        assertEquals(List.of("Hello ", "there"), chunks);
+    }
+
+    @Test
+    void streamsABufferedCallAsOneChunk() {
+        CompletableFuture<ModelOutput> buffered = registry.join("model", "prompt", upstream()).toFuture();
+        List<ModelOutput> chunks = registry.joinStream("model", "prompt",
+                        () -> Flux.error(new AssertionError("The streaming caller should join the buffered call")))
+                .collectList()
+                .block(Duration.ofSeconds(5));
+
+        assertEquals(List.of(ModelOutput.of("reply")), chunks);
+        assertEquals("reply", buffered.join().getText());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void onlyDetachesACallerThatCancels() {
+        Sinks.One<ModelOutput> upstream = Sinks.one();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        Disposable leader = registry.join("model", "prompt",
+                counted(upstream.asMono().doOnCancel(() -> cancelled.set(true)))).subscribe();
+        CompletableFuture<ModelOutput> follower = registry.join("model", "prompt",
+                counted(upstream.asMono())).toFuture();
+
+        leader.dispose();
+        upstream.tryEmitValue(ModelOutput.of("reply"));
+
+        assertFalse(cancelled.get());
+        assertEquals("reply", follower.join().getText());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void cancelsTheCallOnceEveryCallerIsGoneForTheGracePeriod() throws InterruptedException {
+        InFlightRequestRegistry shortGrace = new InFlightRequestRegistry(true, Duration.ofMillis(200),
+                new SimpleMeterRegistry());
+        CountDownLatch cancelled = new CountDownLatch(1);
+        Supplier<Mono<ModelOutput>> call = counted(Mono.<ModelOutput>never().doOnCancel(cancelled::countDown));
+
+        shortGrace.join("model", "prompt", call).subscribe().dispose();
+        // A caller that comes back within the grace period re-attaches to the same call
+        Thread.sleep(50);
+        assertEquals(1, cancelled.getCount());
+        shortGrace.join("model", "prompt", call).subscribe().dispose();
+
+        assertTrue(cancelled.await(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get());
+
+        // Later callers start a new call
+        shortGrace.join("model", "prompt", call).subscribe().dispose();
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void sharesAFailureAndStartsAfreshAfterwards() {
+        Sinks.One<ModelOutput> upstream = Sinks.one();
+        CompletableFuture<ModelOutput> leader = registry.join("model", "prompt", counted(upstream.asMono())).toFuture();
+        CompletableFuture<ModelOutput> follower = registry.join("model", "prompt", counted(upstream.asMono())).toFuture();
+
+        upstream.tryEmitError(new IllegalStateException("Upstream failed"));
+
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class,
+                () -> leader.get(5, TimeUnit.SECONDS)).getCause());
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class,
+                () -> follower.get(5, TimeUnit.SECONDS)).getCause());
+        assertEquals("reply", registry.join("model", "prompt", upstream()).block(Duration.ofSeconds(5)).getText());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void countsLeadersAndFollowers() {
+        SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+        InFlightRequestRegistry counted = new InFlightRequestRegistry(true, Duration.ofSeconds(5), meterRegistry);
+        CompletableFuture<ModelOutput> first = counted.join("model", "prompt", upstream()).toFuture();
+        counted.join("model", "prompt", upstream()).toFuture();
+        assertEquals(1, meterRegistry.get("reply.singleflight.inflight").gauge().value(), 1e-9);
+        counted.join("model", "other prompt", upstream()).block(Duration.ofSeconds(5));
+        first.join();
+
+        assertEquals(2, meterRegistry.get("reply.singleflight.calls").tag("role", "leader").counter().count(), 1e-9);
+        assertEquals(1, meterRegistry.get("reply.singleflight.calls").tag("role", "follower").counter().count(), 1e-9);
+    }
+
+    @Test
+    void boundsEachCallerByItsOwnDeadline() throws Exception {
+        CompletableFuture<ModelOutput> leader = registry.join("model", "prompt", upstream())
+                .contextWrite(Deadline.after(Duration.ofMillis(100)).asContext())
+                .toFuture();
+        ModelOutput follower = registry.join("model", "prompt", upstream())
+                .contextWrite(Deadline.after(Duration.ofSeconds(5)).asContext())
+                .block(Duration.ofSeconds(5));
+
+        assertEquals("reply", follower.getText());
+        ExecutionException error = assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+        assertInstanceOf(DeadlineExceededException.class, error.getCause());
+        assertEquals(1, calls.get());
+        // The shared call itself runs without the leader's deadline
+        assertFalse(sawDeadline.get());
+    }
+
+    @Test
+    void doesNotCoalesceAcrossPriorities() {
+        CompletableFuture<ModelOutput> bulk = registry.join("model", "prompt", upstream())
+                .contextWrite(RequestPriority.BULK.asContext())
+                .toFuture();
+        registry.join("model", "prompt", upstream()).block(Duration.ofSeconds(5));
+        bulk.join();
+
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void doesNotCoalesceWhenDisabled() {
+        InFlightRequestRegistry disabled = new InFlightRequestRegistry(false, Duration.ofSeconds(5), new SimpleMeterRegistry());
+        CompletableFuture<ModelOutput> first = disabled.join("model", "prompt", upstream()).toFuture();
+        disabled.join("model", "prompt", upstream()).block(Duration.ofSeconds(5));
+        first.join();
+
+        assertEquals(2, calls.get());
+    }
+
+    private <T> Supplier<T> counted(T call) {
+        return () -> {
+            calls.incrementAndGet();
+            return call;
+        };
+    }
+
+    /**
+     * A model call that replies after 300 ms and records whether it ran under a deadline.
+     */
+    private Supplier<Mono<ModelOutput>> upstream() {
+        return () -> Mono.deferContextual(view -> {
+            calls.incrementAndGet();
+            if (Deadline.of(view) != null) {
+                sawDeadline.set(true);
+            }
+            return Mono.just(ModelOutput.of("reply")).delayElement(Duration.ofMillis(300));
+        });
+    }
+}
@@ -0,0 +1,184 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.email_reply.email_reply_generator.config.JobConfig;
+import com.email_reply.email_reply_generator.dto.EmailReplyRequest;
+import com.email_reply.email_reply_generator.dto.JobStatus;
+import com.email_reply.email_reply_generator.util.WriteAheadLog;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Mono;
+
+class JobServiceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    @TempDir
+    Path directory;
+
+    private final ObjectMapper objectMapper = new ObjectMapper().findAndRegisterModules();
+    private final List<JobService> services = new ArrayList<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @AfterEach
+    void close() throws IOException {
+        for (JobService service : services) {
+            service.close();
+        }
+    }
+
+    @Test
+    void resumesQueuedJobsAfterARestart() throws IOException {
+        JobConfig config = config();
+        // Not started, so the job is still queued when the service goes down
+        JobService before = service(config, attempt -> Mono.never(), false);
+        JobService.Job job = before.submit(request("Please send the report.")).block(TIMEOUT);
+        assertEquals(1, before.queuedCount());
+        before.close();
+        services.remove(before);
+
+        JobService after = service(config, attempt -> Mono.just(EmailReplyService.GeneratedReply.of("Sent.")), true);
+
+        JobService.Job resumed = after.await(job.getId(), TIMEOUT).block(TIMEOUT);
+        assertEquals(JobStatus.SUCCEEDED, resumed.getStatus());
+        assertEquals("Sent.", resumed.getReply());
+        assertEquals("client-1", resumed.getClientId());
+    }
+
+    @Test
+    void keepsResultsForTheRetentionPeriodOnly() throws Exception {
+        JobConfig config = config();
+        config.setRetention(Duration.ofSeconds(1));
+        JobService before = service(config, attempt -> Mono.just(EmailReplyService.GeneratedReply.of("Done.")), true);
+        String id = before.submit(request("Can we meet on Monday?")).block(TIMEOUT).getId();
+        assertEquals(JobStatus.SUCCEEDED, before.await(id, TIMEOUT).block(TIMEOUT).getStatus());
+        // The result survives a restart within the retention period
+        before.close();
+        services.remove(before);
+        JobService within = service(config, attempt -> Mono.never(), true);
+        assertEquals("Done.", within.get(id).getReply());
+        assertEquals(0, within.queuedCount());
+
+        Thread.sleep(1200);
+        assertNull(within.get(id));
+        within.close();
+        services.remove(within);
+
+        // Reopening compacts the log to the jobs still needed, which is none
+        JobService after = service(config, attempt -> Mono.never(), true);
+        assertNull(after.get(id));
+        assertTrue(WriteAheadLog.read(directory.resolve("jobs.log")).isEmpty());
+    }
+
+    @Test
+    void retriesThroughAnOutageUntilTheModelReplies() {
+        JobConfig config = config();
+        JobService service = service(config, attempt -> attempt < 2
+                ? Mono.error(new CircuitOpenException("Circuit open", Duration.ofMillis(10)))
+                : Mono.just(EmailReplyService.GeneratedReply.of("Back again.")), true);
+
+        JobService.Job job = service.await(service.submit(request("Any news?")).block(TIMEOUT).getId(), TIMEOUT)
+                .block(TIMEOUT);
+
+        assertEquals(JobStatus.SUCCEEDED, job.getStatus());
+        assertEquals("Back again.", job.getReply());
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void failsOnceTheMaximumRetryTimeIsExceeded() {
+        JobConfig config = config();
+        config.setMaxRetryTime(Duration.ofMillis(2500));
+        JobService service = service(config,
+                attempt -> Mono.error(new UpstreamSaturatedException("Saturated", Duration.ofMillis(10))), true);
+
+        JobService.Job job = service.await(service.submit(request("Any news?")).block(TIMEOUT).getId(), TIMEOUT)
+                .block(TIMEOUT);
+
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertTrue(job.getError().startsWith("Model API unavailable for longer than"), job.getError());
+        // Retried at least a second apart: at 0, 1 and 2 seconds
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    void doesNotRetryOtherFailures() {
+        JobService service = service(config(), attempt -> Mono.error(new IllegalStateException("Bad prompt")), true);
+
+        JobService.Job job = service.await(service.submit(request("Any news?")).block(TIMEOUT).getId(), TIMEOUT)
+                .block(TIMEOUT);
+
+        assertEquals(JobStatus.FAILED, job.getStatus());
+        assertEquals("Bad prompt", job.getError());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void capsTheLongPollAtTheMaximumWait() {
+        JobConfig config = config();
+        config.setMaxPollWait(Duration.ofMillis(200));
+        JobService service = service(config, attempt -> Mono.never(), true);
+        String id = service.submit(request("Any news?")).block(TIMEOUT).getId();
+
+        long start = System.nanoTime();
+        JobService.Job job = service.await(id, Duration.ofMinutes(1)).block(TIMEOUT);
+
+        assertEquals(JobStatus.RUNNING, job.getStatus());
+        assertTrue(System.nanoTime() - start < Duration.ofSeconds(5).toNanos());
+        assertNull(service.await("unknown", Duration.ofSeconds(1)).block(TIMEOUT));
+    }
+
+    private JobConfig config() {
+        JobConfig config = new JobConfig();
+        config.setDirectory(directory.toString());
+        config.setWorkers(2);
+        return config;
+    }
+
+    /**
+     * A job service whose model replies are given by attempt number, starting at 0
+     */
+    private JobService service(JobConfig config, Function<Integer, Mono<EmailReplyService.GeneratedReply>> replies,
+            boolean started) {
+        EmailReplyService emailReplyService = new EmailReplyService() {
+            @Override
+            public Mono<EmailReplyService.GeneratedReply> generateModelReply(EmailContext context, String tone) {
+                return Mono.defer(() -> replies.apply(calls.getAndIncrement()));
+            }
+        };
+        try {
+            JobService service = new JobService(config, emailReplyService, objectMapper, new SimpleMeterRegistry());
+            services.add(service);
+            if (started) {
+                service.start();
+            }
+            return service;
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static EmailReplyRequest request(String content) {
+        EmailReplyRequest request = new EmailReplyRequest();
+        request.setContent(content);
+        request.setTone("professional");
+        request.setClientId("client-1");
+        return request;
+    }
+}
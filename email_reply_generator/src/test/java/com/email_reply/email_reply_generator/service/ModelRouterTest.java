@@ -0,0 +1,163 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+import com.email_reply.email_reply_generator.config.ModelRoutingConfig;
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class ModelRouterTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String SHORT_EMAIL = "Hi Jane,\n\nCould we meet on Thursday at 10?\n\nThanks,\nBob";
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void sendsShortSimpleEmailsInALightToneToTheFastRoute() {
+        ModelRouter.Decision decision = router(config()).route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST), "friendly");
+
+        assertEquals("fast", decision.getRoute().getName());
+        assertEquals("fast-model", decision.getModel());
+        assertEquals(ModelRouter.REASON_SIMPLE, decision.getReason());
+    }
+
+    @Test
+    void sendsOtherEmailsToTheDefaultRoute() {
+        ModelRouter router = router(config());
+
+        assertEquals(ModelRouter.REASON_TYPE,
+                router.route(analysis(SHORT_EMAIL, EmailKeywordRules.CUSTOMER_COMPLAINT), "friendly").getReason());
+        assertEquals(ModelRouter.REASON_TONE,
+                router.route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST), "professional").getReason());
+        assertEquals(ModelRouter.REASON_TONE,
+                router.route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST), null).getReason());
+        assertEquals("pro-model", router.route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST), null).getModel());
+    }
+
+    @Test
+    void judgesTheSizeOfTheCleanedEmail() {
+        ModelRoutingConfig config = config();
+        config.setFastMaxTokens(40);
+        ModelRouter router = router(config);
+        String longEmail = "Hi Jane,\n\n" + "Could we meet on Thursday to go through the plan for the launch? ".repeat(10);
+        // Headers and quoted text do not count towards the size
+        String quotedThread = "From: Bob <bob@example.com>\nSubject: Thursday\n\n" + SHORT_EMAIL + "\n"
+                + "> Earlier text that is quoted from the previous message in the thread.\n".repeat(20);
+
+        assertEquals(ModelRouter.REASON_LONG,
+                router.route(analysis(longEmail, EmailKeywordRules.MEETING_REQUEST), "casual").getReason());
+        assertEquals(ModelRouter.REASON_SIMPLE,
+                router.route(analysis(quotedThread, EmailKeywordRules.MEETING_REQUEST), "casual").getReason());
+    }
+
+    @Test
+    void sendsRequestsShortOfTimeToTheFastRouteWhateverTheEmail() {
+        ModelRouter router = router(config());
+        EmailAnalyzerService.EmailContext complaint = analysis(SHORT_EMAIL.repeat(50), EmailKeywordRules.CUSTOMER_COMPLAINT);
+
+        ModelRouter.Decision hurried = router.route(complaint, "professional", Deadline.after(Duration.ofSeconds(5)));
+        assertEquals("fast", hurried.getRoute().getName());
+        assertEquals(ModelRouter.REASON_DEADLINE, hurried.getReason());
+
+        ModelRouter.Decision relaxed = router.route(complaint, "professional", Deadline.after(Duration.ofSeconds(30)));
+        assertEquals("pro", relaxed.getRoute().getName());
+        assertEquals(ModelRouter.REASON_TYPE, relaxed.getReason());
+    }
+
+    @Test
+    void sendsEverythingToTheDefaultRouteWhenDisabled() {
+        ModelRoutingConfig config = config();
+        config.setEnabled(false);
+
+        ModelRouter.Decision decision = router(config).route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST),
+                "friendly", Deadline.after(Duration.ofSeconds(1)));
+
+        assertEquals("pro", decision.getRoute().getName());
+        assertEquals(ModelRouter.REASON_DISABLED, decision.getReason());
+    }
+
+    @Test
+    void countsADecisionOnlyWhenTheModelIsCalled() {
+        ModelRouter.Decision decision = router(config()).route(analysis(SHORT_EMAIL, EmailKeywordRules.MEETING_REQUEST), "friendly");
+        Counter counter = meterRegistry.find("reply.model.routes").tags("route", "fast", "reason", "simple").counter();
+        assertNull(counter);
+
+        assertEquals("Reply from fast-model", decision.generateContent(prompt()).block(TIMEOUT).getText());
+        assertEquals(List.of("Reply from fast-model"),
+                decision.streamContent(prompt()).map(ModelOutput::getText).collectList().block(TIMEOUT));
+
+        assertEquals(2, meterRegistry.get("reply.model.routes").tags("route", "fast", "reason", "simple").counter().count());
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void rejectsARouteWithAnUnknownProvider() {
+        ModelRoutingConfig config = config();
+        config.getRoutes().get("fast").setProvider("other");
+
+        IllegalStateException error = assertThrows(IllegalStateException.class, () -> router(config));
+        assertEquals("Route fast uses unknown model provider other; available: [stub]", error.getMessage());
+    }
+
+    private ModelRouter router(ModelRoutingConfig config) {
+        ModelProvider provider = new ModelProvider() {
+            @Override
+            public String name() {
+                return "stub";
+            }
+
+            @Override
+            public Mono<ModelOutput> generateContent(String model, PromptService.Prompt prompt) {
+                calls.incrementAndGet();
+                return Mono.just(ModelOutput.of("Reply from " + model));
+            }
+
+            @Override
+            public Flux<ModelOutput> streamContent(String model, PromptService.Prompt prompt) {
+                calls.incrementAndGet();
+                return Flux.just(ModelOutput.of("Reply from " + model));
+            }
+        };
+        return new ModelRouter(config, new GeminiApiConfig(), List.of(provider), meterRegistry);
+    }
+
+    private static ModelRoutingConfig config() {
+        ModelRoutingConfig config = new ModelRoutingConfig();
+        config.getRoutes().put("pro", route("pro-model"));
+        config.getRoutes().put("fast", route("fast-model"));
+        return config;
+    }
+
+    private static ModelRoutingConfig.Route route(String model) {
+        ModelRoutingConfig.Route route = new ModelRoutingConfig.Route();
+        route.setProvider("stub");
+        route.setModel(model);
+        return route;
+    }
+
+    private static EmailAnalyzerService.EmailContext analysis(String content, String emailType) {
+        EmailAnalyzerService.EmailContext analysis = new EmailAnalyzerService.EmailContext();
+        analysis.setRawContent(content);
+        analysis.setEmailType(emailType);
+        return analysis;
+    }
+
+    private static PromptService.Prompt prompt() {
+        return new PromptService.Prompt("Reply to the email.", SHORT_EMAIL);
+    }
+}
@@ -0,0 +1,182 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.config.ReplyCacheConfig;
+import com.email_reply.email_reply_generator.util.EmailUtils;
+import com.email_reply.email_reply_generator.util.SimHash;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class NearDuplicateReplyIndexTest {
+
+    private static final String EMAIL = "Hello, my package with order number 48213 arrived today but the box was "
+            + "damaged and the glass vase inside is broken. Could you send a replacement or refund the payment "
+            + "to my card? I have photos of the damage if needed.";
+
+    private static final String REPLY = "Dear John,\n\nWe are sorry the vase arrived broken. A replacement is on "
+            + "its way for order 48213.\n\nBest regards,\nSupport";
+
+    private static final String[] WORDS = {
+            "order", "shipment", "arrived", "damaged", "refund", "request", "invoice", "account", "billing",
+            "address", "update", "delivery", "tracking", "customer", "support", "product", "warranty",
+            "replacement", "package", "week", "monday", "status", "confirm", "payment", "card", "charged"
+    };
+
+    @Test
+    void reusesTheReplyWithTheNewNames() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        index.add(index.probe(analysis("John Smith", "Support"), EMAIL, "professional"), REPLY);
+
+        String reply = index.find(index.probe(analysis("Maria Lopez", "Support"),
+                EMAIL.replace("Hello,", "Hi,"), "professional"));
+
+        assertEquals(REPLY.replace("John", "Maria"), reply);
+        assertEquals(1, index.hitCount());
+    }
+
+    @Test
+    void doesNotReuseAReplyThatRepeatsATermMissingFromTheNewEmail() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        index.add(index.probe(analysis("John Smith", "Support"), EMAIL, "professional"), REPLY);
+
+        // Same fingerprint, as numbers count as one term, but the reply names the old order
+        assertNull(index.find(index.probe(analysis("John Smith", "Support"),
+                EMAIL.replace("48213", "77120"), "professional")));
+        assertEquals(1, index.missCount());
+    }
+
+    @Test
+    void doesNotReuseAReplyThatStillNamesTheOldSender() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        index.add(index.probe(analysis("John Smith", "Support"), EMAIL, "professional"), REPLY);
+
+        assertNull(index.find(index.probe(analysis("", "Support"), EMAIL, "professional")));
+    }
+
+    @Test
+    void onlyMatchesTheSameToneAndEmailType() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        index.add(index.probe(analysis("John Smith", "Support"), EMAIL, "professional"), REPLY);
+
+        assertNull(index.find(index.probe(analysis("John Smith", "Support"), EMAIL, "friendly")));
+        EmailAnalyzerService.EmailContext complaint = analysis("John Smith", "Support");
+        complaint.setEmailType("Complaint");
+        assertNull(index.find(index.probe(complaint, EMAIL, "professional")));
+        assertEquals(REPLY, index.find(index.probe(analysis("John Smith", "Support"), EMAIL, "Professional")));
+    }
+
+    @Test
+    void ignoresShortEmails() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        NearDuplicateReplyIndex.Probe probe = index.probe(analysis("", ""), "Where is my order?", "professional");
+        index.add(probe, "It ships tomorrow.");
+
+        assertEquals(0, index.size());
+        assertNull(index.find(probe));
+    }
+
+    @Test
+    void dropsTheOldestEntryWhenFull() {
+        ReplyCacheConfig config = new ReplyCacheConfig();
+        config.getNearDuplicate().setMaxEntries(2);
+        NearDuplicateReplyIndex index = index(config);
+        String[] emails = {EMAIL, randomEmail(new Random(1)), randomEmail(new Random(2))};
+        for (String email : emails) {
+            index.add(index.probe(analysis("", ""), email, "professional"), "Noted.");
+        }
+
+        assertEquals(2, index.size());
+        assertNull(index.find(index.probe(analysis("", ""), emails[0], "professional")));
+        assertEquals("Noted.", index.find(index.probe(analysis("", ""), emails[2], "professional")));
+    }
+
+    @Test
+    void expiresEntries() {
+        ReplyCacheConfig config = new ReplyCacheConfig();
+        config.getNearDuplicate().setTtl(Duration.ofNanos(1));
+        NearDuplicateReplyIndex index = index(config);
+        index.add(index.probe(analysis("", ""), EMAIL, "professional"), "Noted.");
+
+        assertNull(index.find(index.probe(analysis("", ""), EMAIL, "professional")));
+    }
+
+    @Test
+    void returnsNothingWhenDisabled() {
+        ReplyCacheConfig config = new ReplyCacheConfig();
+        config.getNearDuplicate().setEnabled(false);
+        NearDuplicateReplyIndex index = index(config);
+
+        assertNull(index.probe(analysis("", ""), EMAIL, "professional"));
+        assertNull(index.find(null));
+    }
+
+    @Test
+    void findsEveryEntryWithinTheMaximumDistance() {
+        NearDuplicateReplyIndex index = index(new ReplyCacheConfig());
+        Random random = new Random(9);
+        List<Long> fingerprints = new ArrayList<>();
+        String base = randomEmail(random);
+        for (int i = 0; i < 300; i++) {
+            String email = mutate(base, random, random.nextInt(6));
+            fingerprints.add(fingerprint(email));
+            index.add(index.probe(analysis("", ""), email, "professional"), "Noted.");
+        }
+
+        int found = 0;
+        for (int i = 0; i < 500; i++) {
+            String email = mutate(base, random, random.nextInt(10));
+            long fingerprint = fingerprint(email);
+            boolean expected = fingerprints.stream()
+                    .anyMatch(other -> SimHash.distance(other, fingerprint) <= index.maxDistance());
+            String reply = index.find(index.probe(analysis("", ""), email, "professional"));
+            assertEquals(expected, reply != null, () -> "Email: " + email);
+            found += expected ? 1 : 0;
+        }
+        // Both outcomes are exercised
+        int hits = found;
+        assertTrue(hits > 50 && hits < 450, () -> "Hits: " + hits);
+    }
+
+    private static NearDuplicateReplyIndex index(ReplyCacheConfig config) {
+        return new NearDuplicateReplyIndex(config, new SimpleMeterRegistry());
+    }
+
+    private static EmailAnalyzerService.EmailContext analysis(String sender, String recipient) {
+        EmailAnalyzerService.EmailContext context = new EmailAnalyzerService.EmailContext();
+        context.setSenderName(sender);
+        context.setRecipientName(recipient);
+        context.setEmailType("General Correspondence");
+        return context;
+    }
+
+    private static long fingerprint(String email) {
+        return SimHash.of(EmailUtils.cleanEmailContent(email), Set.of()).value();
+    }
+
+    private static String randomEmail(Random random) {
+        StringBuilder email = new StringBuilder();
+        for (int i = 0; i < 40; i++) {
+            email.append(i > 0 ? " " : "").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return email.toString();
+    }
+
+    private static String mutate(String email, Random random, int changes) {
+        String[] words = email.split(" ");
+        for (int i = 0; i < changes; i++) {
+            words[random.nextInt(words.length)] = WORDS[random.nextInt(WORDS.length)];
+        }
+        return String.join(" ", words);
+    }
+}
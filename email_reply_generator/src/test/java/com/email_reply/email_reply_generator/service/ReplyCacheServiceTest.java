@@ -0,0 +1,162 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.email_reply.email_reply_generator.config.ReplyCacheConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReplyCacheServiceTest {
+
+    @TempDir
+    Path directory;
+
+    private final List<ReplyCacheService> services = new ArrayList<>();
+
+    @AfterEach
+    void close() throws IOException {
+        for (ReplyCacheService service : services) {
+            service.close();
+        }
+    }
+
+    @Test
+    void restoresCachedRepliesAfterARestart() throws IOException {
+        ReplyCacheConfig config = config();
+        ReplyCacheService before = warmed(config);
+        before.put("kept", "Thanks, see you then.");
+        before.put("removed", "This one is invalidated.");
+        before.put("updated", "First version.");
+        before.put("updated", "Second version.");
+        before.invalidate("removed");
+        restart(before);
+
+        ReplyCacheService after = warmed(config);
+
+        assertEquals("Thanks, see you then.", after.get("kept"));
+        assertEquals("Second version.", after.get("updated"));
+        assertNull(after.get("removed"));
+        assertEquals(2, after.estimatedSize());
+    }
+
+    @Test
+    void logsChangesMadeWhileWarming() throws IOException {
+        ReplyCacheConfig config = config();
+        ReplyCacheService before = warmed(config);
+        for (int i = 0; i < 20_000; i++) {
+            before.put("old-" + i, "Reply number " + i);
+        }
+        restart(before);
+
+        // Warming 20,000 replies takes a while, so these changes are likely made before the log is open
+        ReplyCacheService during = service(config);
+        during.put("new", "Written during warm-up.");
+        during.invalidate("old-0");
+        awaitWarm(during);
+        restart(during);
+
+        ReplyCacheService after = warmed(config);
+        assertEquals("Written during warm-up.", after.get("new"));
+        assertNull(after.get("old-0"));
+        assertEquals("Reply number 1", after.get("old-1"));
+    }
+
+    @Test
+    void staysEmptyAfterInvalidatingEverything() throws IOException {
+        ReplyCacheConfig config = config();
+        ReplyCacheService before = warmed(config);
+        before.put("first", "One.");
+        before.put("second", "Two.");
+        before.invalidateAll();
+        before.put("third", "Three.");
+        restart(before);
+
+        ReplyCacheService after = warmed(config);
+
+        assertNull(after.get("first"));
+        assertNull(after.get("second"));
+        assertEquals("Three.", after.get("third"));
+    }
+
+    @Test
+    void doesNotWarmExpiredReplies() throws Exception {
+        ReplyCacheConfig config = config();
+        config.setTtl(Duration.ofMillis(300));
+        ReplyCacheService before = warmed(config);
+        before.put("short-lived", "Gone soon.");
+        restart(before);
+        Thread.sleep(400);
+
+        ReplyCacheService after = warmed(config);
+
+        assertNull(after.get("short-lived"));
+        assertEquals(0, after.estimatedSize());
+    }
+
+    @Test
+    void writesNothingWithoutPersistence() throws IOException {
+        ReplyCacheConfig config = config();
+        config.getPersistence().setEnabled(false);
+        ReplyCacheService service = service(config);
+
+        assertFalse(service.isWarming());
+        service.put("key", "Reply.");
+        assertEquals("Reply.", service.get("key"));
+        restart(service);
+
+        assertTrue(Files.notExists(directory.resolve("replies.log")));
+    }
+
+    private ReplyCacheConfig config() {
+        ReplyCacheConfig config = new ReplyCacheConfig();
+        config.getPersistence().setDirectory(directory.toString());
+        return config;
+    }
+
+    private ReplyCacheService service(ReplyCacheConfig config) {
+        ReplyCacheService service = new ReplyCacheService(config, new SimpleMeterRegistry());
+        services.add(service);
+        return service;
+    }
+
+    private ReplyCacheService warmed(ReplyCacheConfig config) {
+        ReplyCacheService service = service(config);
+        awaitWarm(service);
+        return service;
+    }
+
+    private void restart(ReplyCacheService service) throws IOException {
+        service.close();
+        services.remove(service);
+    }
+
+    private static void awaitWarm(ReplyCacheService service) {
+        long giveUp = System.nanoTime() + Duration.ofSeconds(10).toNanos();
+        while (service.isWarming()) {
+            if (System.nanoTime() > giveUp) {
+                fail("The reply cache was not warmed in time");
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted while waiting for the reply cache to warm");
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.util.EmailKeywordRules;
+
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class ReplyMetricsTest {
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+    private final ReplyMetrics metrics = new ReplyMetrics(meterRegistry);
+
+    @Test
+    void recordsTheDurationOfAStageUnderItsTag() {
+        metrics.record(ReplyMetrics.STAGE_UPSTREAM, TimeUnit.MILLISECONDS.toNanos(30));
+        metrics.record(ReplyMetrics.STAGE_UPSTREAM, TimeUnit.MILLISECONDS.toNanos(50));
+        metrics.record(ReplyMetrics.STAGE_PARSE, TimeUnit.MILLISECONDS.toNanos(2));
+
+        Timer upstream = stageTimer(ReplyMetrics.STAGE_UPSTREAM);
+        assertEquals(2, upstream.count());
+        assertEquals(80, upstream.totalTime(TimeUnit.MILLISECONDS), 0.001);
+        assertEquals(1, stageTimer(ReplyMetrics.STAGE_PARSE).count());
+        assertEquals(2, meterRegistry.find("reply.stage.duration").timers().size());
+    }
+
+    @Test
+    void timesAStageAndReturnsItsResult() {
+        String result = metrics.time(ReplyMetrics.STAGE_PROMPT, () -> {
+            sleep(20);
+            return "prompt";
+        });
+
+        assertEquals("prompt", result);
+        Timer prompt = stageTimer(ReplyMetrics.STAGE_PROMPT);
+        assertEquals(1, prompt.count());
+        assertTrue(prompt.totalTime(TimeUnit.MILLISECONDS) >= 20, () -> prompt.totalTime(TimeUnit.MILLISECONDS) + "ms");
+    }
+
+    @Test
+    void timesAStageThatFails() {
+        IllegalStateException error = new IllegalStateException("Failed");
+
+        assertSame(error, assertThrows(IllegalStateException.class,
+                () -> metrics.time(ReplyMetrics.STAGE_ANALYZE, () -> {
+                    throw error;
+                })));
+        assertEquals(1, stageTimer(ReplyMetrics.STAGE_ANALYZE).count());
+    }
+
+    @Test
+    void countsRepliesByToneTypeAndSource() {
+        metrics.recordReply("friendly", EmailKeywordRules.MEETING_REQUEST, ReplyMetrics.SOURCE_MODEL);
+        metrics.recordReply("Friendly", EmailKeywordRules.MEETING_REQUEST, ReplyMetrics.SOURCE_MODEL);
+        metrics.recordReply("friendly", EmailKeywordRules.MEETING_REQUEST, ReplyMetrics.SOURCE_CACHE);
+
+        assertEquals(2, meterRegistry.get("reply.replies")
+                .tags("tone", "friendly", "type", EmailKeywordRules.MEETING_REQUEST, "source", ReplyMetrics.SOURCE_MODEL)
+                .counter().count());
+        assertEquals(1, meterRegistry.get("reply.replies").tags("source", ReplyMetrics.SOURCE_CACHE).counter().count());
+    }
+
+    @Test
+    void tagsUnknownTonesAndMissingTypesWithoutNewSeries() {
+        metrics.recordReply("sarcastic", null, ReplyMetrics.SOURCE_DRAFT);
+        metrics.recordReply("pirate", "", ReplyMetrics.SOURCE_DRAFT);
+        metrics.recordReply(null, null, ReplyMetrics.SOURCE_DRAFT);
+
+        assertEquals(3, meterRegistry.get("reply.replies")
+                .tags("tone", "other", "type", "unknown", "source", ReplyMetrics.SOURCE_DRAFT)
+                .counter().count());
+        assertEquals(1, meterRegistry.find("reply.replies").counters().size());
+    }
+
+    @Test
+    void countsErrorsByExceptionClass() {
+        metrics.recordError("casual", EmailKeywordRules.CUSTOMER_INQUIRY,
+                new UpstreamSaturatedException("Upstream is overloaded", null));
+        metrics.recordError("casual", EmailKeywordRules.CUSTOMER_INQUIRY, new IllegalStateException("Failed"));
+
+        assertNotNull(meterRegistry.find("reply.errors")
+                .tags("tone", "casual", "type", EmailKeywordRules.CUSTOMER_INQUIRY, "error", "UpstreamSaturatedException")
+                .counter());
+        assertEquals(1, meterRegistry.get("reply.errors").tags("error", "IllegalStateException").counter().count());
+    }
+
+    private Timer stageTimer(String stage) {
+        return meterRegistry.get("reply.stage.duration").tags("stage", stage).timer();
+    }
+
+    private static void sleep(long millis) {
+        try {
+            TimeUnit.MILLISECONDS.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,167 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+
+class UpstreamCircuitBreakerTest {
+
+    private static final Duration OPEN_DURATION = Duration.ofMillis(100);
+
+    private final UpstreamCircuitBreaker breaker = breaker();
+
+    @Test
+    void opensOnceTheFailureRateReachesTheThreshold() {
+        succeed();
+        succeed();
+        fail(503);
+        assertEquals(UpstreamCircuitBreaker.State.CLOSED, breaker.state());
+
+        fail(503);
+        assertEquals(UpstreamCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void staysClosedBelowTheMinimumNumberOfCalls() {
+        fail(503);
+        fail(503);
+        fail(503);
+
+        assertEquals(UpstreamCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void errorsThatDoNotSuggestAnUnhealthyApiCountAsSuccesses() {
+        for (int i = 0; i < 10; i++) {
+            fail(400);
+        }
+
+        assertEquals(UpstreamCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void localRejectionsAreNotCounted() {
+        for (int i = 0; i < 10; i++) {
+            Mono<String> call = breaker.execute(() -> Mono.error(new UpstreamSaturatedException("busy", Duration.ZERO)));
+            assertThrows(UpstreamSaturatedException.class, call::block);
+        }
+
+        assertEquals(UpstreamCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void rejectsCallsWhileOpenWithoutCallingTheApi() {
+        open();
+
+        AtomicBoolean called = new AtomicBoolean();
+        CircuitOpenException rejection = assertThrows(CircuitOpenException.class,
+                () -> breaker.execute(() -> {
+                    called.set(true);
+                    return Mono.just("reply");
+                }).block());
+
+        assertFalse(called.get());
+        assertFalse(rejection.getRetryAfter().isNegative());
+        assertEquals(1, breaker.rejectedCount());
+    }
+
+    @Test
+    void closesAfterTheTrialCallsSucceed() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+        assertEquals(UpstreamCircuitBreaker.State.HALF_OPEN, breaker.state());
+
+        succeed();
+        assertEquals(UpstreamCircuitBreaker.State.HALF_OPEN, breaker.state());
+        succeed();
+        assertEquals(UpstreamCircuitBreaker.State.CLOSED, breaker.state());
+    }
+
+    @Test
+    void reopensWhenATrialCallFails() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        succeed();
+        fail(503);
+
+        assertEquals(UpstreamCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    @Test
+    void letsOnlyTheConfiguredNumberOfTrialCallsThrough() throws InterruptedException {
+        open();
+        Thread.sleep(OPEN_DURATION.toMillis() + 20);
+
+        Disposable first = breaker.execute(Mono::never).subscribe();
+        Disposable second = breaker.execute(Mono::never).subscribe();
+        assertThrows(CircuitOpenException.class, () -> breaker.execute(() -> Mono.just("reply")).block());
+
+        // A cancelled trial frees its slot for another one
+        first.dispose();
+        succeed();
+        second.dispose();
+        assertEquals(UpstreamCircuitBreaker.State.HALF_OPEN, breaker.state());
+    }
+
+    @Test
+    void neverOpensWhenDisabled() {
+        GeminiApiConfig config = config();
+        config.getCircuitBreaker().setEnabled(false);
+        UpstreamCircuitBreaker disabled = new UpstreamCircuitBreaker(config, new SimpleMeterRegistry());
+
+        for (int i = 0; i < 10; i++) {
+            Mono<String> call = disabled.execute(() -> Mono.error(unavailable(503)));
+            assertThrows(WebClientResponseException.class, call::block);
+        }
+
+        assertEquals("reply", disabled.execute(() -> Mono.just("reply")).block());
+    }
+
+    private void open() {
+        for (int i = 0; i < 4; i++) {
+            fail(503);
+        }
+        assertEquals(UpstreamCircuitBreaker.State.OPEN, breaker.state());
+    }
+
+    private void succeed() {
+        assertEquals("reply", breaker.execute(() -> Mono.just("reply")).block());
+    }
+
+    private void fail(int status) {
+        Mono<String> call = breaker.execute(() -> Mono.error(unavailable(status)));
+        assertThrows(WebClientResponseException.class, call::block);
+    }
+
+    private static WebClientResponseException unavailable(int status) {
+        return WebClientResponseException.create(status, "Error", null, null, null);
+    }
+
+    private static UpstreamCircuitBreaker breaker() {
+        return new UpstreamCircuitBreaker(config(), new SimpleMeterRegistry());
+    }
+
+    private static GeminiApiConfig config() {
+        GeminiApiConfig config = new GeminiApiConfig();
+        GeminiApiConfig.CircuitBreaker settings = config.getCircuitBreaker();
+        settings.setWindow(Duration.ofSeconds(30));
+        settings.setMinimumCalls(4);
+        settings.setFailureRateThreshold(0.5);
+        settings.setOpenDuration(OPEN_DURATION);
+        settings.setHalfOpenCalls(2);
+        return config;
+    }
+}
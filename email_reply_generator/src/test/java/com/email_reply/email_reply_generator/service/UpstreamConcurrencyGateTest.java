@@ -0,0 +1,273 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Schedulers;
+
+class UpstreamConcurrencyGateTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+
+    private final List<Integer> started = new CopyOnWriteArrayList<>();
+
+    @Test
+    void admitsCallsUpToTheLimitAndQueuesTheRestInOrder() {
+        UpstreamConcurrencyGate gate = gate(config(2));
+        List<Sinks.One<String>> replies = replies(4);
+        for (int i = 0; i < 4; i++) {
+            gate.execute("model", call(i, replies.get(i)), reply -> 1).subscribe();
+        }
+
+        assertEquals(List.of(0, 1), started);
+        assertEquals(2, gate.inFlight());
+        assertEquals(2, gate.queued());
+
+        replies.get(1).tryEmitValue("reply");
+        assertEquals(List.of(0, 1, 2), started);
+        replies.get(0).tryEmitError(new IllegalStateException("Failed"));
+        assertEquals(List.of(0, 1, 2, 3), started);
+        assertEquals(0, gate.queued());
+    }
+
+    @Test
+    void holdsTheSlotOfAStreamUntilItEnds() {
+        UpstreamConcurrencyGate gate = gate(config(1));
+        Sinks.Many<String> chunks = Sinks.many().unicast().onBackpressureBuffer();
+        gate.executeMany("model", chunks::asFlux).subscribe();
+        gate.execute("model", call(1, Sinks.one()), reply -> 1).subscribe();
+
+        chunks.tryEmitNext("first chunk");
+        assertEquals(List.of(), started);
+        chunks.tryEmitComplete();
+        assertEquals(List.of(1), started);
+    }
+
+    @Test
+    void rejectsCallsOnceTheQueueIsFull() {
+        GeminiApiConfig config = config(1);
+        config.getConcurrency().setMaxQueueDepth(1);
+        UpstreamConcurrencyGate gate = gate(config);
+        gate.execute("model", call(0, Sinks.one()), reply -> 1).subscribe();
+        gate.execute("model", call(1, Sinks.one()), reply -> 1).subscribe();
+
+        UpstreamSaturatedException error = assertThrows(UpstreamSaturatedException.class,
+                () -> gate.execute("model", call(2, Sinks.one()), reply -> 1).block(TIMEOUT));
+        assertEquals("Upstream queue is full", error.getMessage());
+        assertEquals(1, gate.rejectedCount());
+    }
+
+    @Test
+    void rejectsCallsThatWaitLongerThanTheMaximum() {
+        GeminiApiConfig config = config(1);
+        config.getConcurrency().setMaxQueueWait(Duration.ofMillis(100));
+        UpstreamConcurrencyGate gate = gate(config);
+        gate.execute("model", call(0, Sinks.one()), reply -> 1).subscribe();
+
+        UpstreamSaturatedException error = assertThrows(UpstreamSaturatedException.class,
+                () -> gate.execute("model", call(1, Sinks.one()), reply -> 1).block(TIMEOUT));
+        assertEquals("Timed out waiting for an upstream slot", error.getMessage());
+        assertEquals(0, gate.queued());
+        assertEquals(List.of(0), started);
+    }
+
+    @Test
+    void releasesTheSlotHoweverTheCallEnds() {
+        UpstreamConcurrencyGate gate = gate(config(1));
+
+        gate.execute("model", () -> Mono.just("reply"), reply -> 1).block(TIMEOUT);
+        assertEquals(0, gate.inFlight());
+
+        CompletableFuture<String> failed = gate.execute("model",
+                () -> Mono.<String>error(new IllegalStateException("Failed")), reply -> 1).toFuture();
+        assertInstanceOf(IllegalStateException.class, assertThrows(ExecutionException.class, failed::get).getCause());
+        assertEquals(0, gate.inFlight());
+
+        // Cancelled while running, then while waiting behind it
+        Disposable running = gate.execute("model", call(0, Sinks.one()), reply -> 1).subscribe();
+        Disposable waiting = gate.execute("model", call(1, Sinks.one()), reply -> 1).subscribe();
+        assertEquals(1, gate.queued());
+        waiting.dispose();
+        assertEquals(0, gate.queued());
+        running.dispose();
+        assertEquals(0, gate.inFlight());
+        assertEquals(List.of(0), started);
+    }
+
+    @Test
+    void releasesEachSlotExactlyOnceWhenCallsAreCancelledConcurrently() {
+        UpstreamConcurrencyGate gate = gate(config(4));
+        List<Disposable> calls = new ArrayList<>();
+        AtomicInteger ended = new AtomicInteger();
+        for (int i = 0; i < 2000; i++) {
+            Mono<String> call = gate.execute("model",
+                    () -> Mono.delay(Duration.ofMillis(ThreadLocalRandom.current().nextInt(3))).thenReturn("reply"),
+                    reply -> 1)
+                    .onErrorResume(e -> Mono.empty())
+                    .subscribeOn(Schedulers.parallel())
+                    .doFinally(signal -> ended.incrementAndGet());
+            calls.add(call.subscribe());
+        }
+        for (Disposable call : calls) {
+            if (ThreadLocalRandom.current().nextBoolean()) {
+                Schedulers.parallel().schedule(call::dispose);
+            }
+        }
+        await(() -> ended.get() == 2000 && gate.inFlight() == 0 && gate.queued() == 0);
+
+        // Neither lost nor freed twice: exactly the limit is admitted again
+        for (int i = 0; i < 5; i++) {
+            gate.execute("model", call(i, Sinks.one()), reply -> 1).subscribe();
+        }
+        assertEquals(List.of(0, 1, 2, 3), started);
+        assertEquals(4, gate.inFlight());
+        assertEquals(1, gate.queued());
+    }
+
+    @Test
+    void servesInteractiveCallsAheadOfABulkBacklog() {
+        UpstreamConcurrencyGate gate = gate(config(4));
+        List<Sinks.One<String>> bulkReplies = replies(10);
+        for (int i = 0; i < 10; i++) {
+            gate.execute("model", call(100 + i, bulkReplies.get(i)), reply -> 1)
+                    .contextWrite(RequestPriority.BULK.asContext())
+                    .subscribe();
+        }
+        // The slot bulk calls may not take is free for an interactive call straight away
+        for (int i = 0; i < 3; i++) {
+            gate.execute("model", call(i, Sinks.one()), reply -> 1).subscribe();
+        }
+        assertEquals(List.of(100, 101, 102, 0), started);
+        assertEquals(7, gate.queued(RequestPriority.BULK));
+        assertEquals(2, gate.queued(RequestPriority.INTERACTIVE));
+
+        // Slots freed by bulk calls go to the waiting interactive calls first
+        bulkReplies.get(0).tryEmitValue("reply");
+        bulkReplies.get(1).tryEmitValue("reply");
+        assertEquals(List.of(100, 101, 102, 0, 1, 2), started);
+        bulkReplies.get(2).tryEmitValue("reply");
+        assertEquals(List.of(100, 101, 102, 0, 1, 2, 103), started);
+        assertEquals(6, gate.queued(RequestPriority.BULK));
+    }
+
+    @Test
+    void keepsEachClassWithinItsMaximumShare() {
+        GeminiApiConfig config = config(4);
+        config.getScheduling().getBulk().setMaxShare(0.5);
+        UpstreamConcurrencyGate gate = gate(config);
+        for (int i = 0; i < 5; i++) {
+            gate.execute("model", call(100 + i, Sinks.one()), reply -> 1)
+                    .contextWrite(RequestPriority.BULK.asContext())
+                    .subscribe();
+        }
+        assertEquals(List.of(100, 101), started);
+        assertEquals(2, gate.inFlight());
+        assertEquals(3, gate.queued(RequestPriority.BULK));
+
+        // Other classes use the rest, and freeing their slots does not let bulk calls past their share
+        Sinks.One<String> background = Sinks.one();
+        gate.execute("model", call(0, background), reply -> 1)
+                .contextWrite(RequestPriority.BACKGROUND.asContext())
+                .subscribe();
+        gate.execute("model", call(1, Sinks.one()), reply -> 1).subscribe();
+        assertEquals(List.of(100, 101, 0, 1), started);
+        background.tryEmitValue("reply");
+        assertEquals(List.of(100, 101, 0, 1), started);
+        assertEquals(3, gate.inFlight());
+        assertEquals(3, gate.queued(RequestPriority.BULK));
+    }
+
+    @Test
+    void shedsCallsWhoseExpectedWaitExceedsTheMaximum() {
+        GeminiApiConfig config = config(1);
+        config.getConcurrency().setMaxQueueWait(Duration.ofMillis(1500));
+        AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter(config);
+        long second = Duration.ofSeconds(1).toNanos();
+        limiter.onSample("model:per-token", second, second, 1);
+        UpstreamConcurrencyGate gate = gate(config, limiter);
+        gate.execute("model", call(0, Sinks.one()), reply -> 1).subscribe();
+        // One call ahead of it at a second each: within the maximum
+        gate.execute("model", call(1, Sinks.one()), reply -> 1).subscribe(reply -> { }, error -> { });
+
+        UpstreamSaturatedException error = assertThrows(UpstreamSaturatedException.class,
+                () -> gate.execute("model", call(2, Sinks.one()), reply -> 1).block(TIMEOUT));
+        assertEquals("Upstream is overloaded", error.getMessage());
+        assertEquals(Duration.ofSeconds(2), error.getRetryAfter());
+        assertEquals(1, gate.rejectedCount());
+        assertEquals(1, gate.queued());
+        assertEquals(List.of(0), started);
+    }
+
+    private UpstreamConcurrencyGate gate(GeminiApiConfig config) {
+        return gate(config, new AdaptiveConcurrencyLimiter(config));
+    }
+
+    private UpstreamConcurrencyGate gate(GeminiApiConfig config, AdaptiveConcurrencyLimiter limiter) {
+        return new UpstreamConcurrencyGate(config, limiter, new SimpleMeterRegistry());
+    }
+
+    /**
+     * A call that records its number when it is admitted and replies through the sink
+     */
+    private Supplier<Mono<String>> call(int number, Sinks.One<String> reply) {
+        return () -> {
+            started.add(number);
+            return reply.asMono();
+        };
+    }
+
+    /**
+     * Gate settings with a fixed limit
+     */
+    private static GeminiApiConfig config(int limit) {
+        GeminiApiConfig config = new GeminiApiConfig();
+        config.getConcurrency().setAdaptive(false);
+        config.getConcurrency().setMaxInFlight(limit);
+        return config;
+    }
+
+    private static List<Sinks.One<String>> replies(int count) {
+        List<Sinks.One<String>> replies = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            replies.add(Sinks.one());
+        }
+        return replies;
+    }
+
+    private static void await(BooleanSupplier condition) {
+        long giveUp = System.nanoTime() + TIMEOUT.toNanos();
+        while (!condition.getAsBoolean()) {
+            if (System.nanoTime() > giveUp) {
+                fail("Condition not met in time");
+            }
+            try {
+                TimeUnit.MILLISECONDS.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                fail("Interrupted");
+            }
+        }
+    }
+}
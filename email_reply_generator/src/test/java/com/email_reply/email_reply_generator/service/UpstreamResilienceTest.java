@@ -0,0 +1,188 @@
+package com.email_reply.email_reply_generator.service;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.web.reactive.function.client.WebClientResponseException;
+
+import com.email_reply.email_reply_generator.config.GeminiApiConfig;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+
+class UpstreamResilienceTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final long MILLIS = 1_000_000;
+
+    private final SimpleMeterRegistry meterRegistry = new SimpleMeterRegistry();
+
+    @Test
+    void retriesTransientFailures() {
+        for (int status : List.of(429, 500, 502, 503, 504)) {
+            AtomicInteger attempts = new AtomicInteger();
+
+            String reply = resilience(config()).execute(latency -> attempts.incrementAndGet() == 1
+                    ? Mono.error(failure(status))
+                    : Mono.just("reply")).block(TIMEOUT);
+
+            assertEquals("reply", reply);
+            assertEquals(2, attempts.get(), "Status " + status);
+        }
+    }
+
+    @Test
+    void doesNotRetryOtherFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        WebClientResponseException error = assertThrows(WebClientResponseException.class,
+                () -> resilience(config()).execute(latency -> {
+                    attempts.incrementAndGet();
+                    return Mono.<String>error(failure(400));
+                }).block(TIMEOUT));
+
+        assertEquals(400, error.getStatusCode().value());
+        assertEquals(1, attempts.get());
+    }
+
+    @Test
+    void givesUpAfterTheMaximumAttempts() {
+        AtomicInteger attempts = new AtomicInteger();
+
+        assertThrows(WebClientResponseException.class, () -> resilience(config()).execute(latency -> {
+            attempts.incrementAndGet();
+            return Mono.<String>error(failure(503));
+        }).block(TIMEOUT));
+
+        assertEquals(3, attempts.get());
+        assertEquals(2, meterRegistry.counter("gemini.upstream.retries").count());
+    }
+
+    @Test
+    void retriesAStreamOnlyUntilItsFirstChunk() {
+        UpstreamResilience resilience = resilience(config());
+        AtomicInteger attempts = new AtomicInteger();
+
+        List<String> chunks = resilience.executeMany(() -> attempts.incrementAndGet() == 1
+                ? Flux.<String>error(failure(503))
+                : Flux.just("first", "second")).collectList().block(TIMEOUT);
+        assertEquals(List.of("first", "second"), chunks);
+        assertEquals(2, attempts.get());
+
+        attempts.set(0);
+        List<String> received = new CopyOnWriteArrayList<>();
+        assertThrows(WebClientResponseException.class, () -> resilience.executeMany(() -> {
+            attempts.incrementAndGet();
+            return Flux.concat(Flux.just("first"), Flux.error(failure(503)));
+        }).doOnNext(received::add).blockLast(TIMEOUT));
+        assertEquals(1, attempts.get());
+        assertEquals(List.of("first"), received);
+    }
+
+    @Test
+    void sendsAHedgeAfterTheDelayAndCancelsTheSlowerCall() {
+        GeminiApiConfig config = hedgingConfig();
+        UpstreamResilience resilience = resilience(config);
+        learnLatency(resilience, 100 * MILLIS);
+
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean primaryCancelled = new AtomicBoolean();
+        AtomicLong hedgeSentAfter = new AtomicLong();
+        long startedAt = System.nanoTime();
+        String reply = resilience.execute(latency -> {
+            if (attempts.incrementAndGet() == 1) {
+                return Mono.<String>never().doOnCancel(() -> primaryCancelled.set(true));
+            }
+            hedgeSentAfter.set(System.nanoTime() - startedAt);
+            return Mono.just("hedged reply");
+        }).block(TIMEOUT);
+
+        assertEquals("hedged reply", reply);
+        assertEquals(2, attempts.get());
+        assertTrue(hedgeSentAfter.get() >= 100 * MILLIS, () -> "Sent after " + hedgeSentAfter.get() / MILLIS + " ms");
+        assertTrue(primaryCancelled.get());
+        assertEquals(1, meterRegistry.counter("gemini.upstream.hedges", "result", "sent").count());
+        assertEquals(1, meterRegistry.counter("gemini.upstream.hedges", "result", "won").count());
+    }
+
+    @Test
+    void cancelsTheHedgeWhenThePrimaryAnswersFirst() {
+        UpstreamResilience resilience = resilience(hedgingConfig());
+        learnLatency(resilience, 50 * MILLIS);
+
+        AtomicInteger attempts = new AtomicInteger();
+        AtomicBoolean hedgeCancelled = new AtomicBoolean();
+        String reply = resilience.execute(latency -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(150)).thenReturn("primary reply")
+                : Mono.<String>never().doOnCancel(() -> hedgeCancelled.set(true))).block(TIMEOUT);
+
+        assertEquals("primary reply", reply);
+        assertEquals(2, attempts.get());
+        assertTrue(hedgeCancelled.get());
+        assertEquals(0, meterRegistry.counter("gemini.upstream.hedges", "result", "won").count());
+    }
+
+    @Test
+    void derivesTheHedgeDelayFromTheReportedUpstreamLatencyOnly() {
+        UpstreamResilience resilience = resilience(hedgingConfig());
+        // Each call waits long before its request, which reports a short latency
+        for (int i = 0; i < 5; i++) {
+            resilience.execute(latency -> Mono.delay(Duration.ofMillis(200))
+                    .then(Mono.fromCallable(() -> {
+                        latency.accept(20 * MILLIS);
+                        return "reply";
+                    }))).block(TIMEOUT);
+        }
+
+        AtomicInteger attempts = new AtomicInteger();
+        String reply = resilience.execute(latency -> attempts.incrementAndGet() == 1
+                ? Mono.delay(Duration.ofMillis(150)).thenReturn("primary reply")
+                : Mono.just("hedged reply")).block(TIMEOUT);
+
+        // With the waiting counted, the hedge would not have been sent before 200 ms
+        assertEquals("hedged reply", reply);
+        assertEquals(2, attempts.get());
+    }
+
+    private void learnLatency(UpstreamResilience resilience, long latencyNanos) {
+        for (int i = 0; i < 5; i++) {
+            resilience.execute(latency -> {
+                latency.accept(latencyNanos);
+                return Mono.just("reply");
+            }).block(TIMEOUT);
+        }
+    }
+
+    private UpstreamResilience resilience(GeminiApiConfig config) {
+        return new UpstreamResilience(config, meterRegistry);
+    }
+
+    private static GeminiApiConfig config() {
+        GeminiApiConfig config = new GeminiApiConfig();
+        config.getRetry().setInitialBackoff(Duration.ofMillis(10));
+        return config;
+    }
+
+    private static GeminiApiConfig hedgingConfig() {
+        GeminiApiConfig config = config();
+        config.getHedge().setEnabled(true);
+        config.getHedge().setMinSamples(5);
+        config.getHedge().setMinDelay(Duration.ofMillis(10));
+        return config;
+    }
+
+    private static WebClientResponseException failure(int status) {
+        return WebClientResponseException.create(status, "Status " + status, HttpHeaders.EMPTY, new byte[0], null);
+    }
+}
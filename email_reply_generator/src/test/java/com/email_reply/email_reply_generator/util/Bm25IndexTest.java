@@ -0,0 +1,176 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the index against a direct computation of the BM25 score of every document.
+ */
+class Bm25IndexTest {
+
+    private static final String[] WORDS = {
+            "meeting", "schedule", "invoice", "refund", "order", "delivery", "delay", "project",
+            "status", "budget", "review", "resume", "position", "pricing", "the", "and", "thanks",
+            "Meeting", "ORDER", "q3", "2024"
+    };
+
+    @Test
+    void splitsTextIntoLowerCasedTermsWithoutStopWords() {
+        List<String> terms = new ArrayList<>();
+        Bm25Index.forEachTerm("Hi Jane, the Q3 invoice (#2024-17) is late; a refund?\ncafé x", terms::add);
+
+        assertEquals(List.of("jane", "q3", "invoice", "2024", "17", "late", "refund", "caf"), terms);
+    }
+
+    @Test
+    void ranksLikeADirectBm25Computation() {
+        Random random = new Random(3);
+        for (int run = 0; run < 300; run++) {
+            List<String> documents = new ArrayList<>();
+            int count = 1 + random.nextInt(40);
+            for (int i = 0; i < count; i++) {
+                documents.add(randomText(random, 1 + random.nextInt(30)));
+            }
+            Bm25Index.Builder builder = Bm25Index.builder();
+            for (int i = 0; i < count; i++) {
+                assertEquals(i, builder.add(documents.get(i)));
+            }
+            Bm25Index index = builder.build();
+            assertEquals(count, index.size());
+
+            for (int q = 0; q < 5; q++) {
+                String query = randomText(random, 1 + random.nextInt(5));
+                int k = 1 + random.nextInt(8);
+                assertRanking(referenceScores(documents, query), index.topK(query, k), k);
+            }
+        }
+    }
+
+    @Test
+    void returnsOnlyDocumentsThatShareATerm() {
+        Bm25Index.Builder builder = Bm25Index.builder();
+        builder.add("Refund for the damaged order");
+        builder.add("Schedule a meeting next week");
+        builder.add("Order delivery delayed", "Where is my order?");
+        Bm25Index index = builder.build();
+
+        assertArrayEquals(new int[] {2, 0}, index.topK("order", 5));
+        assertArrayEquals(new int[] {1}, index.topK("meeting", 5));
+        assertArrayEquals(new int[0], index.topK("invoice", 5));
+        assertArrayEquals(new int[0], index.topK("the and thanks", 5));
+    }
+
+    @Test
+    void breaksTiesByDocumentId() {
+        Bm25Index.Builder builder = Bm25Index.builder();
+        builder.add("budget review");
+        builder.add("budget review");
+        builder.add("budget review");
+        builder.add("unrelated text");
+        Bm25Index index = builder.build();
+
+        assertArrayEquals(new int[] {0, 1}, index.topK("budget", 2));
+        assertArrayEquals(new int[] {0, 1, 2}, index.topK("review budget", 3));
+    }
+
+    @Test
+    void handlesEmptyIndexesAndQueries() {
+        Bm25Index empty = Bm25Index.builder().build();
+        assertEquals(0, empty.size());
+        assertEquals(0, empty.terms());
+        assertArrayEquals(new int[0], empty.topK("order", 3));
+
+        Bm25Index.Builder builder = Bm25Index.builder();
+        builder.add("order");
+        builder.add((CharSequence) null);
+        Bm25Index index = builder.build();
+        assertEquals(2, index.size());
+        assertEquals(1, index.terms());
+        assertArrayEquals(new int[0], index.topK("order", 0));
+        assertArrayEquals(new int[0], index.topK(null, 3));
+        assertArrayEquals(new int[] {0}, index.topK("order", 3));
+    }
+
+    /**
+     * Checks that the returned documents are the best k by the reference scores, best first,
+     * allowing for the index computing in float.
+     */
+    private static void assertRanking(double[] scores, int[] ranked, int k) {
+        int positive = 0;
+        for (double score : scores) {
+            if (score > 0) {
+                positive++;
+            }
+        }
+        assertEquals(Math.min(k, positive), ranked.length);
+        Set<Integer> returned = new HashSet<>();
+        for (int i = 0; i < ranked.length; i++) {
+            assertTrue(scores[ranked[i]] > 0);
+            assertTrue(returned.add(ranked[i]));
+            if (i > 0) {
+                assertTrue(scores[ranked[i - 1]] >= scores[ranked[i]] - 1e-4);
+            }
+        }
+        if (ranked.length > 0) {
+            double last = scores[ranked[ranked.length - 1]];
+            for (int doc = 0; doc < scores.length; doc++) {
+                if (!returned.contains(doc)) {
+                    assertTrue(scores[doc] <= last + 1e-4);
+                }
+            }
+        }
+    }
+
+    private static double[] referenceScores(List<String> documents, String query) {
+        List<Map<String, Integer>> frequencies = new ArrayList<>();
+        Map<String, Integer> documentFrequencies = new HashMap<>();
+        double totalLength = 0;
+        for (String document : documents) {
+            Map<String, Integer> counts = new HashMap<>();
+            Bm25Index.forEachTerm(document, term -> counts.merge(term, 1, Integer::sum));
+            counts.keySet().forEach(term -> documentFrequencies.merge(term, 1, Integer::sum));
+            totalLength += counts.values().stream().mapToInt(Integer::intValue).sum();
+            frequencies.add(counts);
+        }
+        double averageLength = totalLength / documents.size();
+        Set<String> queryTerms = new LinkedHashSet<>();
+        Bm25Index.forEachTerm(query, queryTerms::add);
+
+        double[] scores = new double[documents.size()];
+        for (int doc = 0; doc < documents.size(); doc++) {
+            Map<String, Integer> counts = frequencies.get(doc);
+            int length = counts.values().stream().mapToInt(Integer::intValue).sum();
+            double norm = averageLength > 0 ? length / averageLength : 1;
+            for (String term : queryTerms) {
+                int tf = counts.getOrDefault(term, 0);
+                if (tf == 0) {
+                    continue;
+                }
+                int df = documentFrequencies.get(term);
+                double idf = Math.log(1 + (documents.size() - df + 0.5) / (df + 0.5));
+                scores[doc] += idf * tf * 2.2 / (tf + 1.2 * (1 - 0.75 + 0.75 * norm));
+            }
+        }
+        return scores;
+    }
+
+    private static String randomText(Random random, int words) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            text.append(i > 0 ? (random.nextInt(5) == 0 ? ", " : " ") : "").append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+}
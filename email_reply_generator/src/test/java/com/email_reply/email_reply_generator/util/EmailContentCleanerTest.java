@@ -0,0 +1,140 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the cleaner against the replaceAll chain it replaced, which is kept here as the reference.
+ * The header pattern is made multi-line: without the flag it only ever matched a single-line input.
+ */
+class EmailContentCleanerTest {
+
+    private static final String[] LINES = {
+            "From: John Smith <john@example.com>", "to: Jane", "SUBJECT: Budget", "Date: Monday", "Sent: today",
+            "Cc: team", "bcc:", "Fromage: not a header", " From: indented is kept",
+            "> quoted text", ">", ">> nested", "text > not quoted",
+            "Thanks for the update.", "  indented line  ", "", " ", "\t",
+            "----", "-----", "text ----", "---", "-- ", "a-b-c",
+            "---------- Forwarded message ---------", "See below ----Forwarded Message---- tail",
+            "--- Forwarded message ----", "---- forwarded message ---"
+    };
+
+    @Test
+    void cleansTheExampleEmailsLikeTheRegexChain() throws IOException {
+        for (EmailExamples.EmailExchange example : EmailExamples.getExampleExchanges()) {
+            assertSameCleaning(example.getOriginalEmail());
+            assertSameCleaning(example.getAppropriateReply());
+        }
+    }
+
+    @Test
+    void cleansRandomLineMixesLikeTheRegexChain() throws IOException {
+        Random random = new Random(5);
+        for (int run = 0; run < 50_000; run++) {
+            int lines = random.nextInt(8);
+            String separator = random.nextBoolean() ? "\n" : "\r\n";
+            StringBuilder email = new StringBuilder();
+            for (int i = 0; i < lines; i++) {
+                email.append(i > 0 ? separator : "").append(LINES[random.nextInt(LINES.length)]);
+            }
+            if (random.nextBoolean()) {
+                email.append(separator);
+            }
+            assertSameCleaning(email.toString());
+        }
+    }
+
+    @Test
+    void stopsAtTheSignature() {
+        String email = "Hello,\n\nSee you Monday.\n--\nNot a signature\nJane ----\nJane Doe\nHead of Sales\n";
+
+        assertEquals("Hello,\n\nSee you Monday.\n--\nNot a signature\nJane", EmailContentCleaner.clean(email));
+    }
+
+    @Test
+    void keepsTheTextBeforeAForwardedMarker() {
+        String email = "FYI ---------- Forwarded message ---------\nFrom: Bob\n> old\nOriginal text\n";
+
+        assertEquals("FYI Original text", EmailContentCleaner.clean(email));
+    }
+
+    @Test
+    void appendsToTheBuilderWithoutTouchingWhatIsAlreadyThere() throws IOException {
+        StringBuilder out = new StringBuilder("key: ");
+        EmailContentCleaner.clean("\nFrom: x\n  body  \n", out);
+        assertEquals("key: body", out.toString());
+
+        StringBuilder fromReader = new StringBuilder("key: ");
+        EmailContentCleaner.clean(new StringReader("\nFrom: x\n  body  \n"), fromReader);
+        assertEquals("key: body", fromReader.toString());
+    }
+
+    @Test
+    void readsNoMoreThanTheMaximumFromAReader() throws IOException {
+        // A single line that never ends
+        Reader endless = new Reader() {
+            @Override
+            public int read(char[] buffer, int offset, int length) {
+                Arrays.fill(buffer, offset, offset + length, 'x');
+                return length;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        StringBuilder out = new StringBuilder();
+        EmailContentCleaner.clean(endless, out);
+
+        assertEquals(EmailContentCleaner.MAX_INPUT_CHARS, out.length());
+    }
+
+    @Test
+    void treatsNullAsEmpty() {
+        assertEquals("", EmailContentCleaner.clean(null));
+        assertEquals("", EmailUtils.cleanEmailContent(null));
+    }
+
+    private static void assertSameCleaning(String email) throws IOException {
+        String expected = legacyClean(email);
+        assertEquals(expected, EmailContentCleaner.clean(email), () -> "Email: " + email);
+        assertEquals(expected, EmailUtils.cleanEmailContent(email), () -> "Email: " + email);
+
+        StringBuilder out = new StringBuilder();
+        EmailContentCleaner.clean(new StringReader(email), out);
+        assertEquals(expected, out.toString(), () -> "Reader, email: " + email);
+
+        // One character per read, so a \r\n is split across reads
+        StringBuilder slow = new StringBuilder();
+        EmailContentCleaner.clean(new OneCharReader(email), slow);
+        assertEquals(expected, slow.toString(), () -> "One-char reader, email: " + email);
+    }
+
+    private static String legacyClean(String emailContent) {
+        String cleaned = emailContent.replaceAll("(?im)^(?:From|To|Subject|Date|Sent|Cc|Bcc):.*$\\R", "");
+        cleaned = cleaned.replaceAll("(?m)^>.*$\\R?", "");
+        cleaned = cleaned.replaceAll("(?i)----+ ?Forwarded message ?----+.*?\\R", "");
+        cleaned = cleaned.replaceAll("(?i)----+\\R[\\s\\S]*", "");
+        return cleaned.trim();
+    }
+
+    private static final class OneCharReader extends StringReader {
+
+        private OneCharReader(String text) {
+            super(text);
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) throws IOException {
+            return super.read(buffer, offset, Math.min(length, 1));
+        }
+    }
+}
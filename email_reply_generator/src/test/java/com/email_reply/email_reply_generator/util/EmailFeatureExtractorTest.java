@@ -0,0 +1,268 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.jupiter.api.Test;
+
+import com.email_reply.email_reply_generator.service.EmailAnalyzerService;
+import com.email_reply.email_reply_generator.service.EmailAnalyzerService.EmailContext;
+
+/**
+ * Checks the feature extractor against the regular expressions it replaced, which are kept
+ * here verbatim as the reference, and covers the cases where it deliberately differs.
+ */
+class EmailFeatureExtractorTest {
+
+    private static final Pattern SUBJECT = Pattern.compile("Subject:\\s*([^\\r\\n]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern SIGNATURE = Pattern.compile("(?:[\\r\\n]|^)(?:(?:Regards|Sincerely|Thanks|Thank you|Yours|Cheers|Best|Warm regards|Kind regards|Respectfully),?[\\r\\n]+\\s*)([A-Za-z]+(?:\\s+[A-Za-z]+){0,3})\\s*$", Pattern.CASE_INSENSITIVE);
+    // The extractor also accepts "Best regards" as a sign-off, where the old pattern only knew "Best"
+    private static final Pattern SIGNATURE_WITH_BEST_REGARDS = Pattern.compile(SIGNATURE.pattern().replace("|Best|", "|Best regards|Best|"), Pattern.CASE_INSENSITIVE);
+    private static final Pattern FROM = Pattern.compile("From:\\s*\"?([^\"<]+)\"?\\s*(?:<[^>]+>)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern INTRO = Pattern.compile("(?:My name is|I am|This is)\\s+([A-Za-z]+(?:\\s+[A-Za-z]+){0,2})", Pattern.CASE_INSENSITIVE);
+    private static final Pattern RECIPIENT = Pattern.compile("(?:Dear|Hi|Hello|Hey)\\s+([A-Za-z]+(?:\\s+[A-Za-z]+)?)[,:]", Pattern.CASE_INSENSITIVE);
+    private static final Pattern TO = Pattern.compile("To:\\s*\"?([^\"<]+)\"?\\s*(?:<[^>]+>)?", Pattern.CASE_INSENSITIVE);
+    private static final Pattern UTILS_SIGNATURE = Pattern.compile("(?:Regards|Sincerely|Thanks|Thank you|Yours|Cheers|Best),?\\s*[\\r\\n]+\\s*([A-Za-z]+(?:\\s+[A-Za-z]+){0,2})\\s*$",
+            Pattern.CASE_INSENSITIVE);
+
+    // Body words that cannot form a header, greeting, introduction or sign-off by themselves
+    private static final String[] WORDS = {
+            "please", "review", "the", "attached", "report", "we", "need", "your", "input", "by",
+            "friday", "on", "budget", "numbers", "and", "project", "timeline", "Meeting", "NEXT", "week"
+    };
+    private static final String[] NAMES = {"John", "Jane", "Smith", "DOE", "al", "Maria", "Lopez", "Kim"};
+    private static final String[] GREETINGS = {"Dear", "Hi", "Hello", "Hey", "dear", "HELLO"};
+    private static final String[] INTRODUCTIONS = {"My name is", "I am", "This is", "my name is"};
+    private static final String[] SIGN_OFFS = {
+            "Regards", "Sincerely", "Thanks", "Thank you", "Yours", "Cheers", "Best",
+            "Warm regards", "Kind regards", "Respectfully", "THANKS", "kind regards"
+    };
+
+    private final EmailAnalyzerService analyzer = new EmailAnalyzerService();
+
+    @Test
+    void extractsTheExampleEmailsLikeTheOldPatterns() {
+        for (EmailExamples.EmailExchange example : EmailExamples.getExampleExchanges()) {
+            assertSameFields(example.getOriginalEmail());
+            assertSameFields(example.getAppropriateReply());
+        }
+    }
+
+    @Test
+    void extractsRandomEmailsLikeTheOldPatterns() {
+        Random random = new Random(11);
+        for (int run = 0; run < 20_000; run++) {
+            List<String> lines = new ArrayList<>();
+            randomEmail(random, lines);
+            String separator = random.nextBoolean() ? "\n" : "\r\n";
+            String email = String.join(separator, lines) + (random.nextBoolean() ? separator : "");
+            assertSameFields(email);
+        }
+    }
+
+    @Test
+    void returnsNoFieldsForEmptyInput() {
+        assertEquals(EmailFeatures.EMPTY, EmailFeatureExtractor.extract(null));
+        assertEquals(EmailFeatures.EMPTY, EmailFeatureExtractor.extract(""));
+    }
+
+    @Test
+    void readsHeadersOnlyAtTheStartOfALine() {
+        EmailFeatures features = EmailFeatureExtractor.extract(
+                "Please see the note below.\nThe old Subject: line was wrong\n  subject: Budget review\n");
+
+        assertEquals("Budget review", features.getSubject());
+    }
+
+    @Test
+    void stopsAnAddressNameAtTheEndOfTheLine() {
+        // The old pattern ran on into the body: "John Smith\n\nHello Jane, ..."
+        EmailFeatures features = EmailFeatureExtractor.extract("From: John Smith\nTo: \"Jane\" <jane@example.com>\n\nHello Jane,\n");
+
+        assertEquals("John Smith", features.getFromName());
+        assertEquals("Jane", features.getToName());
+        assertEquals("Hello", features.getSalutation());
+        assertEquals("Jane", features.getSalutationName());
+    }
+
+    @Test
+    void recognisesBestRegardsAsASignOff() {
+        String email = "Thanks for the update.\n\nBest regards,\nJane Doe\n";
+        EmailFeatures features = EmailFeatureExtractor.extract(email);
+
+        assertNull(firstGroup(SIGNATURE, email));
+        assertEquals("Best regards", features.getSignOff());
+        assertEquals("Jane Doe", features.getSignatureName());
+    }
+
+    @Test
+    void readsASignatureNameOverSeveralLines() {
+        EmailFeatures features = EmailFeatureExtractor.extract("See you then.\n\n  Kind regards,  \nJane\nHead of Sales\n");
+
+        assertEquals("Kind regards", features.getSignOff());
+        assertEquals("Jane\nHead of Sales", features.getSignatureName());
+    }
+
+    @Test
+    void ignoresASignOffFollowedByMoreThanFourNameWords() {
+        EmailFeatures features = EmailFeatureExtractor.extract("Regards,\nJane Doe\nHead of Sales Europe\n");
+
+        assertNull(features.getSignOff());
+        assertNull(features.getSignatureName());
+    }
+
+    @Test
+    void readsTheSignatureOfAnOversizedEmailFromItsTail() {
+        StringBuilder email = new StringBuilder("Subject: Long thread\nHi Jane,\n");
+        while (email.length() < EmailFeatureExtractor.MAX_INPUT_CHARS + 100_000) {
+            email.append("Regards,\n").append("Thanks\n").append("Best\n");
+        }
+        email.append("Done.\nCheers,\nJohn\n");
+
+        EmailFeatures features = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> EmailFeatureExtractor.extract(email));
+
+        assertEquals("Long thread", features.getSubject());
+        assertEquals("Jane", features.getSalutationName());
+        assertEquals("Cheers", features.getSignOff());
+        assertEquals("John", features.getSignatureName());
+    }
+
+    @Test
+    void scansManySignOffLinesInLinearTime() {
+        // Many candidate sign-offs made the old end-anchored pattern rescan the tail from each one
+        String email = "Regards\nJohn Smith Doe\n".repeat(40_000) + "Regards\nx.";
+
+        EmailFeatures features = assertTimeoutPreemptively(Duration.ofSeconds(5),
+                () -> EmailFeatureExtractor.extract(email));
+
+        assertNull(features.getSignatureName());
+    }
+
+    private void assertSameFields(String email) {
+        EmailContext context = analyzer.analyzeEmail(email, null);
+        assertEquals(nullToEmpty(legacySubject(email)), context.getSubject(), () -> "Email: " + email);
+        assertEquals(nullToEmpty(legacySenderName(email)), context.getSenderName(), () -> "Email: " + email);
+        assertEquals(nullToEmpty(legacyRecipientName(email)), context.getRecipientName(), () -> "Email: " + email);
+        assertEquals(legacySubject(email), EmailUtils.extractSubject(email), () -> "Email: " + email);
+        assertEquals(legacyUtilsSenderName(email), EmailUtils.extractSenderName(email), () -> "Email: " + email);
+    }
+
+    /**
+     * Builds a line-structured email within the shapes both implementations agree on.
+     */
+    private static void randomEmail(Random random, List<String> lines) {
+        if (random.nextInt(3) == 0) {
+            lines.add(random.nextBoolean() ? "Subject: " + words(random, 1 + random.nextInt(4)) : "SUBJECT:  " + words(random, 2) + " ");
+        }
+        if (random.nextInt(3) == 0) {
+            lines.add("From: " + address(random));
+        }
+        if (random.nextInt(3) == 0) {
+            lines.add("to: " + address(random));
+        }
+        if (!lines.isEmpty()) {
+            lines.add("");
+        }
+        if (random.nextBoolean()) {
+            lines.add(pick(random, GREETINGS) + " " + names(random, 1 + random.nextInt(2)) + (random.nextBoolean() ? "," : ":"));
+        }
+        int bodyLines = random.nextInt(4);
+        for (int i = 0; i < bodyLines; i++) {
+            StringBuilder line = new StringBuilder(words(random, 1 + random.nextInt(6)));
+            if (random.nextInt(4) == 0) {
+                line.append(". ").append(pick(random, INTRODUCTIONS)).append(' ').append(names(random, 1 + random.nextInt(4)));
+            }
+            lines.add(line.append('.').toString());
+        }
+        if (random.nextBoolean()) {
+            return;
+        }
+        String signOff = pick(random, SIGN_OFFS);
+        int nameWords = 1 + random.nextInt(4);
+        if (random.nextBoolean()) {
+            lines.add("");
+        }
+        lines.add(signOff + (random.nextBoolean() ? "," : ""));
+        if (nameWords > 1 && random.nextBoolean()) {
+            lines.add(names(random, 1));
+            lines.add(names(random, nameWords - 1));
+        } else {
+            lines.add(names(random, nameWords));
+        }
+    }
+
+    private static String address(Random random) {
+        String name = names(random, 1 + random.nextInt(2));
+        switch (random.nextInt(3)) {
+            case 0:
+                return "\"" + name + "\" <" + name.replace(' ', '.') + "@example.com>";
+            case 1:
+                return name + " <" + name.replace(' ', '.') + "@example.com>";
+            default:
+                return "\"" + name + "\"";
+        }
+    }
+
+    private static String words(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i > 0 ? " " : "").append(pick(random, WORDS));
+        }
+        return text.toString();
+    }
+
+    private static String names(Random random, int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            text.append(i > 0 ? " " : "").append(pick(random, NAMES));
+        }
+        return text.toString();
+    }
+
+    private static String pick(Random random, String[] values) {
+        return values[random.nextInt(values.length)];
+    }
+
+    private static String nullToEmpty(String value) {
+        return value != null ? value : "";
+    }
+
+    private static String firstGroup(Pattern pattern, String text) {
+        if (text == null || text.isEmpty()) {
+            return null;
+        }
+        Matcher matcher = pattern.matcher(text);
+        return matcher.find() ? matcher.group(1).trim() : null;
+    }
+
+    private static String legacySubject(String content) {
+        return firstGroup(SUBJECT, content);
+    }
+
+    private static String legacySenderName(String content) {
+        String name = firstGroup(SIGNATURE_WITH_BEST_REGARDS, content);
+        if (name == null) {
+            name = firstGroup(FROM, content);
+        }
+        return name != null ? name : firstGroup(INTRO, content);
+    }
+
+    private static String legacyRecipientName(String content) {
+        String name = firstGroup(RECIPIENT, content);
+        return name != null ? name : firstGroup(TO, content);
+    }
+
+    private static String legacyUtilsSenderName(String content) {
+        String name = firstGroup(FROM, content);
+        return name != null ? name : firstGroup(UTILS_SIGNATURE, content);
+    }
+}
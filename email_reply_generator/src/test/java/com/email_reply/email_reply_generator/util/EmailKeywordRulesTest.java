@@ -0,0 +1,143 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the keyword rules against the String.contains chains they replaced, which are kept
+ * here verbatim as the reference.
+ */
+class EmailKeywordRulesTest {
+
+    private static final String[] WORDS = {
+            "schedule", "meeting", "discuss", "availability", "time", "when", "week", "day",
+            "status", "update", "progress", "timeline", "project", "task", "initiative",
+            "interested in", "inquiry", "information", "details", "pricing",
+            "product", "service", "package", "offering",
+            "complaint", "issue", "problem", "disappointed", "unacceptable", "outage",
+            "application", "apply", "resume", "cv", "position", "job", "role", "vacancy",
+            "follow", "up", "following up", "from", "call",
+            "order", "delivery", "shipment", "delay", "due", "experiencing", "poor service",
+            "Hello", "thanks", "the", "we", "regards", "Schedule", "MEETING", "Follow-Up"
+    };
+
+    @Test
+    void classifiesTheExampleEmailsLikeTheContainsChain() {
+        for (EmailExamples.EmailExchange example : EmailExamples.getExampleExchanges()) {
+            assertSameClassification(example.getOriginalEmail(), example.getSubject());
+            assertSameClassification(example.getAppropriateReply(), null);
+        }
+    }
+
+    @Test
+    void classifiesRandomKeywordMixesLikeTheContainsChain() {
+        Random random = new Random(7);
+        for (int run = 0; run < 50_000; run++) {
+            String content = randomText(random);
+            String subject = random.nextInt(4) == 0 ? null : randomText(random);
+            assertSameClassification(content, subject);
+        }
+    }
+
+    @Test
+    void keywordsDoNotMatchAcrossContentAndSubject() {
+        // "follow" + " " + "up" only matches as two separate words, as with the old concatenation
+        assertEquals(EmailKeywordRules.FOLLOW_UP, EmailKeywordRules.classify("please follow", "up"));
+        assertEquals(EmailKeywordRules.GENERAL_CORRESPONDENCE, EmailKeywordRules.classify("we will foll", "ow"));
+    }
+
+    private static void assertSameClassification(String content, String subject) {
+        assertEquals(legacyEmailType(content, subject), EmailKeywordRules.classify(content, subject),
+                () -> "Content: " + content + ", subject: " + subject);
+        assertEquals(legacyIsJobApplication(content), EmailUtils.isJobApplication(content), () -> "Content: " + content);
+        assertEquals(legacyIsComplaint(content), EmailUtils.isComplaint(content), () -> "Content: " + content);
+    }
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder();
+        int words = random.nextInt(8);
+        for (int i = 0; i < words; i++) {
+            // Words are sometimes glued together, so keywords also occur inside other words
+            text.append(WORDS[random.nextInt(WORDS.length)]).append(random.nextInt(3) == 0 ? "" : " ");
+        }
+        return text.toString();
+    }
+
+    private static String legacyEmailType(String content, String subject) {
+        String combinedText = (content + " " + (subject != null ? subject : "")).toLowerCase();
+
+        if ((combinedText.contains("schedule") || combinedText.contains("meeting") ||
+             combinedText.contains("discuss") || combinedText.contains("availability")) &&
+            (combinedText.contains("time") || combinedText.contains("when") ||
+             combinedText.contains("week") || combinedText.contains("day"))) {
+            return "MEETING_REQUEST";
+        }
+        if ((combinedText.contains("status") || combinedText.contains("update") ||
+             combinedText.contains("progress") || combinedText.contains("timeline")) &&
+            (combinedText.contains("project") || combinedText.contains("task") ||
+             combinedText.contains("initiative"))) {
+            return "PROJECT_UPDATE";
+        }
+        if ((combinedText.contains("interested in") || combinedText.contains("inquiry") ||
+             combinedText.contains("information") || combinedText.contains("details") ||
+             combinedText.contains("pricing")) &&
+            (combinedText.contains("product") || combinedText.contains("service") ||
+             combinedText.contains("package") || combinedText.contains("offering"))) {
+            return "CUSTOMER_INQUIRY";
+        }
+        if ((combinedText.contains("complaint") || combinedText.contains("issue") ||
+             combinedText.contains("problem") || combinedText.contains("disappointed") ||
+             combinedText.contains("unacceptable") || combinedText.contains("outage") ||
+             combinedText.contains("disappointed"))) {
+            return "CUSTOMER_COMPLAINT";
+        }
+        if ((combinedText.contains("application") || combinedText.contains("apply") ||
+             combinedText.contains("resume") || combinedText.contains("cv")) &&
+            (combinedText.contains("position") || combinedText.contains("job") ||
+             combinedText.contains("role") || combinedText.contains("vacancy"))) {
+            return "JOB_APPLICATION";
+        }
+        if (combinedText.contains("follow") && combinedText.contains("up") ||
+            combinedText.contains("following up") ||
+            (combinedText.contains("discuss") && combinedText.contains("from") &&
+             (combinedText.contains("meeting") || combinedText.contains("call")))) {
+            return "FOLLOW_UP";
+        }
+        if ((combinedText.contains("order") || combinedText.contains("delivery") ||
+             combinedText.contains("shipment")) &&
+            (combinedText.contains("status") || combinedText.contains("update") ||
+             combinedText.contains("delay") || combinedText.contains("due"))) {
+            return "VENDOR_COMMUNICATION";
+        }
+        return "GENERAL_CORRESPONDENCE";
+    }
+
+    private static boolean legacyIsJobApplication(String emailContent) {
+        if (emailContent == null || emailContent.isEmpty()) {
+            return false;
+        }
+        String lowerCaseContent = emailContent.toLowerCase();
+        return lowerCaseContent.contains("apply") && lowerCaseContent.contains("position") ||
+               lowerCaseContent.contains("application") && lowerCaseContent.contains("job") ||
+               lowerCaseContent.contains("resume") && lowerCaseContent.contains("position") ||
+               lowerCaseContent.contains("cv") && lowerCaseContent.contains("vacancy") ||
+               (lowerCaseContent.contains("application") && lowerCaseContent.contains("role"));
+    }
+
+    private static boolean legacyIsComplaint(String emailContent) {
+        if (emailContent == null || emailContent.isEmpty()) {
+            return false;
+        }
+        String lowerCaseContent = emailContent.toLowerCase();
+        return lowerCaseContent.contains("complaint") ||
+               lowerCaseContent.contains("issue") && lowerCaseContent.contains("experiencing") ||
+               lowerCaseContent.contains("problem") && lowerCaseContent.contains("service") ||
+               lowerCaseContent.contains("disappointed") ||
+               lowerCaseContent.contains("unacceptable") ||
+               lowerCaseContent.contains("poor service");
+    }
+}
@@ -0,0 +1,140 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+class EmailThreadCompactorTest {
+
+    private static final String NEWEST = "Hi Bob,\n\nThursday at 10 works for me, I will book the small meeting room.\n\nJane\n\n";
+
+    private static final String AGENDA =
+            "The agenda is the quarterly figures, the hiring plan for the support team and the new office lease.";
+
+    @Test
+    void returnsAThreadWithinBudgetUnchanged() {
+        String thread = thread(3);
+
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(thread, TokenEstimator.estimate(thread));
+
+        assertEquals(thread, result.getText());
+        assertEquals(result.getOriginalTokens(), result.getTokens());
+        assertFalse(result.isCompacted());
+    }
+
+    @Test
+    void staysWithinTheBudgetAndKeepsTheNewestMessageIntact() {
+        String thread = thread(30);
+
+        for (int budget : new int[] {400, 200, 100}) {
+            EmailThreadCompactor.Result result = EmailThreadCompactor.compact(thread, budget);
+
+            assertTrue(result.getTokens() <= budget, () -> "Budget " + budget + ": " + result.getTokens());
+            assertEquals(TokenEstimator.estimate(result.getText()), result.getTokens());
+            assertTrue(result.getText().startsWith(NEWEST), result::getText);
+            assertTrue(result.isCompacted());
+        }
+    }
+
+    @Test
+    void keepsTheNewestMessageEvenIfItAloneIsOverBudget() {
+        String thread = thread(5);
+
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(thread, 5);
+
+        assertTrue(result.getText().startsWith(NEWEST), result::getText);
+        assertFalse(result.getText().contains("Could we move"));
+    }
+
+    @Test
+    void dropsParagraphsRepeatedFromANewerMessage() {
+        String thread = "Hi Bob,\n\n" + AGENDA + "\n\nJane\n\n"
+                + "On Mon, Mar 4, 2024 at 9:00 AM Bob Smith <bob@example.com> wrote:\n"
+                + "> Hi Jane,\n>\n> " + AGENDA + "\n>\n> Please add anything that is missing.\n";
+
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(thread, TokenEstimator.estimate(thread) - 1);
+
+        assertEquals(1, occurrences(result.getText(), AGENDA), result.getText());
+        assertTrue(result.getText().contains("> Please add anything that is missing."), result.getText());
+        assertFalse(result.getText().contains("omitted"));
+    }
+
+    @Test
+    void dropsSignaturesOfOlderMessagesBeforeTheirText() {
+        String thread = NEWEST
+                + "On Mon, Mar 4, 2024 at 9:00 AM Bob Smith <bob@example.com> wrote:\n"
+                + "> Could we move the review to Thursday?\n>\n"
+                + "> -- \n> Bob Smith | Head of Sales | Example Ltd\n> +44 20 7946 0000\n"
+                + "> Sent from my phone\n";
+
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(thread, TokenEstimator.estimate(thread) - 5);
+
+        assertTrue(result.getText().contains("> Could we move the review to Thursday?"), result.getText());
+        assertFalse(result.getText().contains("Head of Sales"));
+        assertFalse(result.getText().contains("Sent from my"));
+    }
+
+    @Test
+    void endsWithOneMarkerForAllOmittedMessages() {
+        String thread = thread(30);
+
+        String text = EmailThreadCompactor.compact(thread, 150).getText();
+
+        assertTrue(text.endsWith(" earlier messages omitted ...]\n"), text);
+        int omitted = Integer.parseInt(text.substring(text.lastIndexOf("[... ") + 5, text.lastIndexOf(" earlier")));
+        assertTrue(omitted > 0 && omitted < 30, text);
+        assertEquals(1, occurrences(text, "earlier messages omitted"));
+    }
+
+    @Test
+    void passesTextWithoutThreadStructureThroughUnchanged() {
+        StringBuilder email = new StringBuilder("Hi Bob,\n\n\n");
+        for (int i = 0; i < 40; i++) {
+            email.append("Paragraph ").append(i).append(" of a long message without any quoted replies.\n\n");
+        }
+        String text = email.toString();
+
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(text, 50);
+
+        assertEquals(text, result.getText());
+        assertFalse(result.isCompacted());
+    }
+
+    @Test
+    void treatsNullAsEmpty() {
+        EmailThreadCompactor.Result result = EmailThreadCompactor.compact(null, 10);
+
+        assertEquals("", result.getText());
+        assertEquals(0, result.getTokens());
+    }
+
+    /**
+     * The newest message, then older replies, each quoted one level deeper than the last
+     */
+    private static String thread(int olderMessages) {
+        StringBuilder thread = new StringBuilder(NEWEST);
+        for (int i = 0; i < olderMessages; i++) {
+            // The attribution belongs to the message that quotes this one
+            String attributionQuote = i == 0 ? "" : ">".repeat(i) + " ";
+            String quote = ">".repeat(i + 1);
+            thread.append(attributionQuote)
+                    .append("On Mon, Mar ").append(i + 1).append(", 2024 at 9:00 AM Sender ").append(i)
+                    .append(" <sender").append(i).append("@example.com> wrote:\n")
+                    .append(quote).append(" Could we move the review, message ").append(i)
+                    .append(", to a later date? The figures for region ").append(i).append(" are not ready yet.\n")
+                    .append(quote).append('\n')
+                    .append(quote).append(" Sender ").append(i).append('\n');
+        }
+        return thread.toString();
+    }
+
+    private static int occurrences(String text, String part) {
+        int count = 0;
+        for (int at = text.indexOf(part); at >= 0; at = text.indexOf(part, at + 1)) {
+            count++;
+        }
+        return count;
+    }
+}
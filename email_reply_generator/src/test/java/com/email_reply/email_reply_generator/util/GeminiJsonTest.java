@@ -0,0 +1,201 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.core.io.buffer.DefaultDataBufferFactory;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.ReactiveHttpOutputMessage;
+import org.springframework.http.codec.HttpMessageWriter;
+import org.springframework.http.server.reactive.ServerHttpRequest;
+import org.springframework.mock.http.client.reactive.MockClientHttpRequest;
+import org.springframework.web.reactive.function.BodyInserter;
+
+import com.email_reply.email_reply_generator.model.GeminiResponse;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+class GeminiJsonTest {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    @Test
+    void writesAGenerateRequest() throws IOException {
+        JsonNode request = MAPPER.readTree(write(generator ->
+                GeminiJson.writeGenerateRequest(generator, "Reply to \"this\"\nemail", null, 512)));
+
+        assertFalse(request.has("cachedContent"));
+        assertEquals("user", request.at("/contents/0/role").asText());
+        assertEquals("Reply to \"this\"\nemail", request.at("/contents/0/parts/0/text").asText());
+        assertEquals(1, request.get("contents").size());
+        assertEquals(512, request.at("/generationConfig/maxOutputTokens").asInt());
+        assertEquals(0.7, request.at("/generationConfig/temperature").asDouble());
+        assertEquals(40, request.at("/generationConfig/topK").asInt());
+        assertEquals(0.95, request.at("/generationConfig/topP").asDouble());
+    }
+
+    @Test
+    void writesAGenerateRequestThatContinuesCachedContent() throws IOException {
+        JsonNode request = MAPPER.readTree(write(generator ->
+                GeminiJson.writeGenerateRequest(generator, "The email", "cachedContents/abc123", 256)));
+
+        assertEquals("cachedContents/abc123", request.get("cachedContent").asText());
+        assertEquals("The email", request.at("/contents/0/parts/0/text").asText());
+    }
+
+    @Test
+    void writesACachedContentRequest() throws IOException {
+        JsonNode request = MAPPER.readTree(write(generator ->
+                GeminiJson.writeCachedContentRequest(generator, "models/gemini-1.5-flash", "Instructions", "3600s")));
+
+        assertEquals("models/gemini-1.5-flash", request.get("model").asText());
+        assertEquals("Instructions", request.at("/systemInstruction/parts/0/text").asText());
+        assertEquals("3600s", request.get("ttl").asText());
+    }
+
+    @Test
+    void generatesTheBodyIntoTheOutboundRequestOnEachSend() {
+        BodyInserter<Object, ReactiveHttpOutputMessage> body = GeminiJson.body(
+                MAPPER.getFactory(), 16, generator -> GeminiJson.writeGenerateRequest(generator, "x".repeat(100), null, 8));
+
+        for (int attempt = 0; attempt < 2; attempt++) {
+            MockClientHttpRequest request = new MockClientHttpRequest(HttpMethod.POST, "/models/m:generateContent");
+            body.insert(request, CONTEXT).block(Duration.ofSeconds(5));
+
+            String sent = request.getBodyAsString().block(Duration.ofSeconds(5));
+            assertEquals("x".repeat(100), readTree(sent).at("/contents/0/parts/0/text").asText());
+        }
+    }
+
+    @Test
+    void readsTextFinishReasonAndUsage() throws IOException {
+        GeminiResponse response = read("""
+                {"candidates":[{"content":{"parts":[{"text":"Dear Jane,"}],"role":"model"},"finishReason":"STOP",
+                  "index":0}],
+                 "usageMetadata":{"promptTokenCount":120,"cachedContentTokenCount":100,"candidatesTokenCount":30,
+                  "totalTokenCount":150},
+                 "modelVersion":"gemini-1.5-flash"}
+                """);
+
+        assertEquals("Dear Jane,", response.getText());
+        assertEquals("STOP", response.getFinishReason());
+        assertEquals(120, response.getPromptTokenCount());
+        assertEquals(100, response.getCachedContentTokenCount());
+        assertEquals(30, response.getCandidatesTokenCount());
+        assertEquals(150, response.getTotalTokenCount());
+    }
+
+    @Test
+    void joinsTheTextOfAllParts() throws IOException {
+        GeminiResponse response = read("""
+                {"candidates":[{"content":{"parts":[{"text":"Dear Jane,\\n\\n"},{"inlineData":{"mimeType":"x"}},
+                  {"text":"Thursday works."}]}}]}
+                """);
+
+        assertEquals("Dear Jane,\n\nThursday works.", response.getText());
+    }
+
+    @Test
+    void skipsUnknownAndNestedFieldsAndFurtherCandidates() throws IOException {
+        GeminiResponse response = read("""
+                {"promptFeedback":{"safetyRatings":[{"category":"HARM","probability":"NEGLIGIBLE"}]},
+                 "candidates":[
+                   {"safetyRatings":[{"category":"HARM","blocked":false,"nested":{"text":"not this"}}],
+                    "citationMetadata":{"citationSources":[{"startIndex":0,"uri":"https://example.com"}]},
+                    "content":{"role":"model","extra":[[1,2],{"text":"nor this"}],"parts":[{"text":"The reply"}]},
+                    "finishReason":"MAX_TOKENS"},
+                   {"content":{"parts":[{"text":"Second candidate"}]},"finishReason":"STOP"}],
+                 "usageMetadata":{"promptTokensDetails":[{"modality":"TEXT","tokenCount":7}],"totalTokenCount":9}}
+                """);
+
+        assertEquals("The reply", response.getText());
+        assertEquals("MAX_TOKENS", response.getFinishReason());
+        assertEquals(9, response.getTotalTokenCount());
+        assertEquals(0, response.getPromptTokenCount());
+    }
+
+    @Test
+    void readsAResponseWithoutCandidates() throws IOException {
+        GeminiResponse response = read("""
+                {"promptFeedback":{"blockReason":"SAFETY"},"usageMetadata":{"promptTokenCount":12,"totalTokenCount":12}}
+                """);
+
+        assertNull(response.getText());
+        assertNull(response.getFinishReason());
+        assertEquals(12, response.getTotalTokenCount());
+
+        assertNull(read("{\"candidates\":[]}").getText());
+        assertNull(read("{\"candidates\":[{\"finishReason\":\"SAFETY\"}]}").getText());
+    }
+
+    @Test
+    void readsAResponseBodyBuffer() throws IOException {
+        byte[] json = "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Grüße\"}]}}]}".getBytes(StandardCharsets.UTF_8);
+
+        GeminiResponse response = GeminiJson.readResponse(MAPPER.getFactory(), DefaultDataBufferFactory.sharedInstance.wrap(json));
+
+        assertEquals("Grüße", response.getText());
+    }
+
+    @Test
+    void rejectsTruncatedOrMalformedInput() {
+        for (String json : List.of(
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Dear",
+                "{\"candidates\":[{\"content\":{\"parts\":[{\"text\":\"Dear Jane\"}",
+                "{\"usageMetadata\":{\"totalTokenCount\":",
+                "[1, 2]",
+                "")) {
+            assertThrows(JsonParseException.class, () -> read(json), json);
+        }
+    }
+
+    private static GeminiResponse read(String json) throws IOException {
+        return GeminiJson.readResponse(MAPPER.getFactory(), json);
+    }
+
+    private static String write(GeminiJson.BodyWriter writer) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (JsonGenerator generator = MAPPER.getFactory().createGenerator(out)) {
+            writer.write(generator);
+        }
+        return out.toString(StandardCharsets.UTF_8);
+    }
+
+    private static JsonNode readTree(String json) {
+        try {
+            return MAPPER.readTree(json);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static final BodyInserter.Context CONTEXT = new BodyInserter.Context() {
+        @Override
+        public List<HttpMessageWriter<?>> messageWriters() {
+            return List.of();
+        }
+
+        @Override
+        public Optional<ServerHttpRequest> serverRequest() {
+            return Optional.empty();
+        }
+
+        @Override
+        public Map<String, Object> hints() {
+            return Map.of();
+        }
+    };
+}
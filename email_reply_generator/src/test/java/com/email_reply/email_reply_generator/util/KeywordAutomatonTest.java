@@ -0,0 +1,94 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+class KeywordAutomatonTest {
+
+    @Test
+    void findsOverlappingKeywords() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("he", "she", "his", "hers"));
+
+        assertEquals(bits(0, 1, 3), automaton.scan("ushers"));
+        assertEquals(bits(2), automaton.scan("this"));
+        assertEquals(bits(), automaton.scan("hs"));
+    }
+
+    @Test
+    void matchesCaseInsensitively() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("Meeting", "poor service"));
+
+        assertEquals(bits(0, 1), automaton.scan("MEETING about POOR Service"));
+    }
+
+    @Test
+    void scansSegmentsAsOneText() {
+        KeywordAutomaton automaton = new KeywordAutomaton(List.of("follow up"));
+
+        assertEquals(bits(0), automaton.scan("please foll", "ow", " up"));
+        assertEquals(bits(0), automaton.scan("follow", null, " up"));
+        assertEquals(bits(), automaton.scan("follow", "  up"));
+    }
+
+    @Test
+    void handlesMoreKeywordsThanFitInOneWord() {
+        List<String> keywords = new ArrayList<>();
+        for (int i = 0; i < 150; i++) {
+            keywords.add("k" + i + "x");
+        }
+        KeywordAutomaton automaton = new KeywordAutomaton(keywords);
+
+        assertEquals(bits(3, 70, 149), automaton.scan("k3x k70x k149x k150x"));
+    }
+
+    @Test
+    void rejectsEmptyKeywords() {
+        assertThrows(IllegalArgumentException.class, () -> new KeywordAutomaton(List.of("a", "")));
+    }
+
+    /**
+     * Random texts built from keyword fragments must give the same hits as lower-casing the text
+     * and calling contains for every keyword.
+     */
+    @Test
+    void agreesWithContainsOnRandomTexts() {
+        List<String> keywords = List.of("schedule", "meeting", "interested in", "cv", "follow", "up",
+                "following up", "poor service", "service", "day", "ay", "yes", "résumé", "a");
+        KeywordAutomaton automaton = new KeywordAutomaton(keywords);
+        String[] pieces = {"sche", "dule", "Meet", "ing", " ", "interested", " in", "CV", "fol", "low",
+                "UP", "ing", "poor", "SERVICE", "d", "ay", "y", "es", "RÉ", "sumé", "\n", "x", "ß", "é"};
+        Random random = new Random(42);
+
+        for (int run = 0; run < 20_000; run++) {
+            StringBuilder text = new StringBuilder();
+            int length = random.nextInt(12);
+            for (int i = 0; i < length; i++) {
+                text.append(pieces[random.nextInt(pieces.length)]);
+            }
+            String lower = text.toString().toLowerCase(Locale.ROOT);
+            BitSet expected = new BitSet();
+            for (int id = 0; id < keywords.size(); id++) {
+                if (lower.contains(keywords.get(id))) {
+                    expected.set(id);
+                }
+            }
+            assertEquals(expected, automaton.scan(text), () -> "Text: " + text);
+        }
+    }
+
+    private static BitSet bits(int... ids) {
+        BitSet bits = new BitSet();
+        for (int id : ids) {
+            bits.set(id);
+        }
+        return bits;
+    }
+}
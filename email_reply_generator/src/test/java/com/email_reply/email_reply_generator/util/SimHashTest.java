@@ -0,0 +1,91 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+class SimHashTest {
+
+    private static final String[] WORDS = {
+            "order", "shipment", "arrived", "damaged", "refund", "request", "invoice", "account", "billing",
+            "address", "update", "delivery", "tracking", "customer", "support", "product", "warranty",
+            "replacement", "package", "week", "monday", "status", "confirm", "payment", "card", "charged",
+            "twice", "cancel", "subscription", "number"
+    };
+
+    @Test
+    void countsTermsAndAdjacentPairs() {
+        SimHash empty = SimHash.of(null);
+        assertEquals(0, empty.value());
+        assertEquals(0, empty.features());
+        assertEquals(SimHash.of("").value(), SimHash.of("the and to").value());
+
+        // Stop words and single characters are not terms
+        assertEquals(3, SimHash.of("The order, a refund and the invoice").features());
+    }
+
+    @Test
+    void ignoresCaseStopWordsAndPunctuation() {
+        assertEquals(SimHash.of("Your order has shipped to the new address").value(),
+                SimHash.of("ORDER shipped... new ADDRESS!").value());
+    }
+
+    @Test
+    void treatsAllNumbersAsTheSameTerm() {
+        assertEquals(SimHash.of("Order 12345 shipped on 2024 06 01").value(),
+                SimHash.of("Order 987 shipped on 2025 12 31").value());
+        assertNotEquals(SimHash.of("Order 12345 shipped").value(), SimHash.of("Order q12345 shipped").value());
+    }
+
+    @Test
+    void leavesOutIgnoredTerms() {
+        assertEquals(SimHash.of("John Smith asked about the refund for his order", Set.of("john", "smith")).value(),
+                SimHash.of("Maria asked about the refund for his order", Set.of("maria")).value());
+    }
+
+    @Test
+    void dependsOnWordOrder() {
+        assertNotEquals(SimHash.of("refund order invoice payment delivery").value(),
+                SimHash.of("delivery payment invoice order refund").value());
+    }
+
+    @Test
+    void keepsSimilarTextsCloserThanUnrelatedOnes() {
+        Random random = new Random(1);
+        long oneWordChanged = 0;
+        long unrelated = 0;
+        int runs = 1000;
+        for (int run = 0; run < runs; run++) {
+            String[] words = randomWords(random, 40);
+            String[] changed = words.clone();
+            changed[random.nextInt(changed.length)] = "different";
+            long fingerprint = SimHash.of(String.join(" ", words)).value();
+            oneWordChanged += SimHash.distance(fingerprint, SimHash.of(String.join(" ", changed)).value());
+            unrelated += SimHash.distance(fingerprint, SimHash.of(String.join(" ", randomWords(random, 40))).value());
+        }
+        double similarDistance = (double) oneWordChanged / runs;
+        double unrelatedDistance = (double) unrelated / runs;
+        assertTrue(similarDistance < 8, () -> "One word changed: " + similarDistance);
+        assertTrue(unrelatedDistance > 16, () -> "Unrelated: " + unrelatedDistance);
+    }
+
+    @Test
+    void measuresDistanceInDifferingBits() {
+        assertEquals(0, SimHash.distance(0x5L, 0x5L));
+        assertEquals(2, SimHash.distance(0x5L, 0x0L));
+        assertEquals(64, SimHash.distance(0L, -1L));
+    }
+
+    private static String[] randomWords(Random random, int count) {
+        String[] words = new String[count];
+        for (int i = 0; i < count; i++) {
+            words[i] = WORDS[random.nextInt(WORDS.length)];
+        }
+        return words;
+    }
+}
@@ -0,0 +1,89 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+class TokenBucketTest {
+
+    private static final long SECOND = Duration.ofSeconds(1).toNanos();
+
+    @Test
+    void startsFullAndRefillsContinuouslyUpToTheCapacity() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        assertEquals(60, bucket.available(0), 1e-9);
+
+        bucket.take(30, 0);
+        assertEquals(30, bucket.available(0), 1e-9);
+        assertEquals(40, bucket.available(10 * SECOND), 1e-9);
+        assertEquals(60, bucket.available(100 * SECOND), 1e-9);
+    }
+
+    @Test
+    void goesIntoDebtAndIsPaidOffByRefills() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        bucket.take(90, 0);
+
+        assertEquals(-30, bucket.available(0), 1e-9);
+        assertEquals(0, bucket.available(30 * SECOND), 1e-9);
+    }
+
+    @Test
+    void givesTokensBackUpToTheCapacity() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        bucket.take(50, 0);
+        bucket.take(-20, 0);
+        assertEquals(30, bucket.available(0), 1e-9);
+
+        bucket.take(-100, 0);
+        assertEquals(60, bucket.available(0), 1e-9);
+    }
+
+    @Test
+    void tellsHowLongUntilAnAmountIsAvailable() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        assertEquals(0, bucket.nanosUntil(60, 0));
+
+        bucket.take(60, 0);
+        assertEquals(10 * SECOND, bucket.nanosUntil(10, 0), 1);
+        assertEquals(5 * SECOND, bucket.nanosUntil(10, 5 * SECOND), 1);
+        // More than the capacity never becomes available; waiting for a full bucket is the most it takes
+        assertEquals(60 * SECOND, bucket.nanosUntil(1000, 0), 1);
+    }
+
+    @Test
+    void drainsToEmptyButKeepsDebt() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        bucket.drain(0);
+        assertEquals(0, bucket.available(0), 1e-9);
+
+        bucket.take(30, 0);
+        bucket.drain(0);
+        assertEquals(-30, bucket.available(0), 1e-9);
+    }
+
+    @Test
+    void reportsUtilizationBetweenZeroAndOne() {
+        TokenBucket bucket = new TokenBucket(60, Duration.ofMinutes(1), 0);
+        assertEquals(0, bucket.utilization(0), 1e-9);
+        bucket.take(45, 0);
+        assertEquals(0.75, bucket.utilization(0), 1e-9);
+        bucket.take(100, 0);
+        assertEquals(1, bucket.utilization(0), 1e-9);
+    }
+
+    @Test
+    void isUnlimitedWithoutACapacity() {
+        TokenBucket bucket = new TokenBucket(0, Duration.ofMinutes(1), 0);
+        bucket.take(1_000_000, 0);
+        bucket.drain(0);
+
+        assertTrue(bucket.isUnlimited());
+        assertEquals(Double.POSITIVE_INFINITY, bucket.available(0));
+        assertEquals(0, bucket.nanosUntil(1_000_000, 0));
+        assertEquals(0, bucket.utilization(0), 1e-9);
+    }
+}
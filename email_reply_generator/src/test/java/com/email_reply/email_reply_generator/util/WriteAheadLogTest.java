@@ -0,0 +1,217 @@
+package com.email_reply.email_reply_generator.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.CRC32C;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class WriteAheadLogTest {
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsBackAppendedRecordsInOrder() throws Exception {
+        Path file = directory.resolve("nested/log.wal");
+        List<CompletableFuture<Void>> appends = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file, Long.MAX_VALUE, List::of)) {
+            for (int i = 0; i < 1000; i++) {
+                appends.add(log.append(record("record " + i)));
+            }
+            CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        List<byte[]> records = WriteAheadLog.read(file);
+        assertEquals(1000, records.size());
+        for (int i = 0; i < records.size(); i++) {
+            assertEquals("record " + i, text(records.get(i)));
+        }
+    }
+
+    @Test
+    void completesAppendsFromManyThreads() throws Exception {
+        Path file = directory.resolve("log.wal");
+        List<CompletableFuture<Void>> appends = new ArrayList<>();
+        try (WriteAheadLog log = new WriteAheadLog(file, Long.MAX_VALUE, List::of)) {
+            List<Thread> threads = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                int thread = t;
+                List<CompletableFuture<Void>> own = new ArrayList<>();
+                threads.add(new Thread(() -> {
+                    for (int i = 0; i < 200; i++) {
+                        own.add(log.append(record(thread + ":" + i)));
+                    }
+                    synchronized (appends) {
+                        appends.addAll(own);
+                    }
+                }));
+            }
+            threads.forEach(Thread::start);
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            CompletableFuture.allOf(appends.toArray(new CompletableFuture[0])).get(10, TimeUnit.SECONDS);
+        }
+
+        List<byte[]> records = WriteAheadLog.read(file);
+        assertEquals(1600, records.size());
+        // Each thread's records keep their order
+        int[] next = new int[8];
+        for (byte[] record : records) {
+            String[] parts = text(record).split(":");
+            int thread = Integer.parseInt(parts[0]);
+            assertEquals(next[thread]++, Integer.parseInt(parts[1]));
+        }
+    }
+
+    @Test
+    void cutsOffATornRecordAtTheEnd() throws Exception {
+        Path file = logWith("first", "second", "third");
+        long intact = Files.size(file);
+        Files.write(file, frame("fourth, cut short"), StandardOpenOption.APPEND);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(intact + 12);
+        }
+
+        assertEquals(List.of("first", "second", "third"), texts(WriteAheadLog.read(file)));
+        assertEquals(intact, Files.size(file));
+        // Once truncated, the file reads cleanly
+        assertEquals(List.of("first", "second", "third"), texts(WriteAheadLog.read(file)));
+    }
+
+    @Test
+    void cutsOffARecordWithABadChecksum() throws Exception {
+        Path file = logWith("first", "second", "third");
+        byte[] bytes = Files.readAllBytes(file);
+        // Flip a byte in the payload of the last record
+        bytes[bytes.length - 1] ^= 1;
+        Files.write(file, bytes);
+
+        assertEquals(List.of("first", "second"), texts(WriteAheadLog.read(file)));
+    }
+
+    @Test
+    void cutsOffAnImpossibleLength() throws Exception {
+        Path file = logWith("first");
+        long intact = Files.size(file);
+        Files.write(file, ByteBuffer.allocate(8).putInt(-5).putInt(0).array(), StandardOpenOption.APPEND);
+        Files.write(file, record("trailing"), StandardOpenOption.APPEND);
+
+        assertEquals(List.of("first"), texts(WriteAheadLog.read(file)));
+        assertEquals(intact, Files.size(file));
+    }
+
+    @Test
+    void streamsRecordsOfAnySizeOneAtATime() throws Exception {
+        String large = "x".repeat(200_000);
+        Path file = logWith("small", large, "after");
+
+        List<String> streamed = new ArrayList<>();
+        int count = WriteAheadLog.read(file, record -> streamed.add(text(record)));
+
+        assertEquals(3, count);
+        assertEquals(List.of("small", large, "after"), streamed);
+    }
+
+    @Test
+    void readsNothingFromAMissingFile() throws IOException {
+        assertTrue(WriteAheadLog.read(directory.resolve("missing.wal")).isEmpty());
+        assertEquals(0, WriteAheadLog.read(directory.resolve("missing.wal"), record -> { }));
+    }
+
+    @Test
+    void rewritesTheLogFromTheSnapshotWhenOpened() throws Exception {
+        Path file = logWith("old 1", "old 2", "old 3");
+
+        try (WriteAheadLog log = new WriteAheadLog(file, Long.MAX_VALUE, () -> List.of(record("kept")))) {
+            assertEquals(List.of("kept"), texts(WriteAheadLog.read(file)));
+            log.append(record("new")).get(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(List.of("kept", "new"), texts(WriteAheadLog.read(file)));
+        assertTrue(Files.notExists(file.resolveSibling("log.wal.compact")));
+    }
+
+    @Test
+    void compactsOnceTheFileOutgrowsTheThreshold() throws Exception {
+        Path file = directory.resolve("log.wal");
+        // Only the latest record is still needed
+        AtomicReference<byte[]> latest = new AtomicReference<>(record("none"));
+        long appended = 0;
+        try (WriteAheadLog log = new WriteAheadLog(file, 1024, () -> List.of(latest.get()))) {
+            for (int i = 0; i < 500; i++) {
+                byte[] record = record("value " + i);
+                latest.set(record);
+                appended += record.length + 8;
+                log.append(record).get(10, TimeUnit.SECONDS);
+            }
+        }
+
+        assertTrue(Files.size(file) <= 2048, () -> "Size: " + file.toFile().length());
+        assertTrue(appended > 4096);
+        List<String> records = texts(WriteAheadLog.read(file));
+        assertEquals("value 499", records.get(records.size() - 1));
+    }
+
+    @Test
+    void failsAppendsAfterClose() throws Exception {
+        Path file = directory.resolve("log.wal");
+        WriteAheadLog log = new WriteAheadLog(file, Long.MAX_VALUE, List::of);
+        log.append(record("before")).get(10, TimeUnit.SECONDS);
+        log.close();
+
+        ExecutionException error = assertThrows(ExecutionException.class,
+                () -> log.append(record("after")).get(10, TimeUnit.SECONDS));
+        assertTrue(error.getCause() instanceof IllegalStateException);
+        assertEquals(List.of("before"), texts(WriteAheadLog.read(file)));
+    }
+
+    private Path logWith(String... records) throws Exception {
+        Path file = directory.resolve("log.wal");
+        try (WriteAheadLog log = new WriteAheadLog(file, Long.MAX_VALUE, List::of)) {
+            for (String text : records) {
+                log.append(record(text)).get(10, TimeUnit.SECONDS);
+            }
+        }
+        return file;
+    }
+
+    /**
+     * The record framed as in the log: length, CRC32C, payload
+     */
+    private static byte[] frame(String text) {
+        byte[] record = record(text);
+        CRC32C crc = new CRC32C();
+        crc.update(record);
+        return ByteBuffer.allocate(8 + record.length).putInt(record.length).putInt((int) crc.getValue()).put(record).array();
+    }
+
+    private static byte[] record(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String text(byte[] record) {
+        return new String(record, StandardCharsets.UTF_8);
+    }
+
+    private static List<String> texts(List<byte[]> records) {
+        return records.stream().map(WriteAheadLogTest::text).toList();
+    }
+}
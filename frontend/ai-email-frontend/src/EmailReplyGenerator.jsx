@@ -1,6 +1,24 @@
 import React, { useState } from 'react';
 import axios from 'axios';
 import './EmailReplyGenerator.css';
+import { readReplyStream } from './replyStream';
+
+const API_BASE_URL = 'http://localhost:8080/api';
+
+// Requests a streamed reply from /generate-reply/stream, calling onText
+// with the reply accumulated so far after every delta
+const streamReply = async (body, onText) => {
+  const response = await fetch(`${API_BASE_URL}/generate-reply/stream`, {
+    method: 'POST',
+    headers: { 'Content-Type': 'application/json', 'Accept': 'text/event-stream' },
+    body: JSON.stringify(body)
+  });
+  if (!response.ok) {
+    throw new Error(`Request failed with status ${response.status}`);
+  }
+
+  return readReplyStream(response, onText);
+};
 
 const EmailReplyGenerator = () => {
   const [content, setContent] = useState('');
@@ -18,7 +36,7 @@ const EmailReplyGenerator = () => {
   const checkBackendConnection = async () => {
     try {
       // Using a HEAD request to check if server is reachable
-      await axios.head('http://localhost:8080/api');
+      await axios.head(API_BASE_URL);
       // setConnectionStatus('connected');
     } catch (error) {
       if (error.code === 'ERR_NETWORK') {
@@ -38,19 +56,20 @@ const EmailReplyGenerator = () => {
 
     setLoading(true);
     setError('');
+    setReply('');
     
     try {
-      const response = await axios.post('http://localhost:8080/api/generate-reply', { content, tone });
-      setReply(response.data.reply);
+      // Stream the reply so text renders as soon as the model produces it
+      await streamReply({ content, tone }, setReply);
       setError('');
       setConnectionStatus('connected');
     } catch (error) {
       console.error("Error generating reply", error);
-      if (error.code === 'ERR_NETWORK') {
+      if (error instanceof TypeError) {
         setError('Cannot connect to server. Please check if the backend is running.');
         setConnectionStatus('disconnected');
       } else {
-        setError(`Error: ${error.response?.data?.message || error.message}`);
+        setError(`Error: ${error.message}`);
       }
     } finally {
       setLoading(false);
@@ -0,0 +1,97 @@
+/**
+ * @jest-environment node
+ */
+import fs from 'fs';
+import path from 'path';
+import vm from 'vm';
+import { TextDecoder, TextEncoder } from 'util';
+import { readReplyStream } from './replyStream';
+
+// The extension's copy is a plain script; run it the way the popup page does
+const loadExtensionCopy = () => {
+  const file = path.resolve(__dirname, '../../../email-reply-extension/popup/reply-stream.js');
+  const context = vm.createContext({ TextDecoder });
+  vm.runInContext(fs.readFileSync(file, 'utf8'), context);
+  return context.readReplyStream;
+};
+
+// A fetch response whose body arrives in the given pieces
+const responseOf = (...chunks) => {
+  const encoder = new TextEncoder();
+  const pending = chunks.map((chunk) => encoder.encode(chunk));
+  return {
+    body: {
+      getReader: () => ({
+        read: async () => (pending.length > 0
+          ? { value: pending.shift(), done: false }
+          : { value: undefined, done: true })
+      })
+    }
+  };
+};
+
+describe.each([
+  ['frontend', readReplyStream],
+  ['extension', loadExtensionCopy()]
+])('readReplyStream (%s)', (name, read) => {
+  test('reports the accumulated text after each delta and resolves with the final reply', async () => {
+    const seen = [];
+    const reply = await read(responseOf(
+      'event:delta\ndata:{"text":"Hello "}\n\n',
+      'event:delta\ndata:{"text":"there"}\n\n',
+      'event:done\ndata:{"reply":"Hello there"}\n\n'
+    ), (text) => seen.push(text));
+
+    expect(seen).toEqual(['Hello ', 'Hello there', 'Hello there']);
+    expect(reply).toBe('Hello there');
+  });
+
+  test('handles events split across chunks and CRLF line endings', async () => {
+    const seen = [];
+    const reply = await read(responseOf(
+      'event:del',
+      'ta\r\ndata:{"text":"Hi"}\r',
+      '\n\r\nevent:done\r\ndata:{"reply":"Hi"}\r\n\r\n'
+    ), (text) => seen.push(text));
+
+    expect(seen).toEqual(['Hi', 'Hi']);
+    expect(reply).toBe('Hi');
+  });
+
+  test('skips heartbeat comments', async () => {
+    const seen = [];
+    const reply = await read(responseOf(
+      ':\n\n',
+      'event:delta\ndata:{"text":"a"}\n\n',
+      ': keep-alive\n\n',
+      'event:done\ndata:{"reply":"a"}\n\n'
+    ), (text) => seen.push(text));
+
+    expect(seen).toEqual(['a', 'a']);
+    expect(reply).toBe('a');
+  });
+
+  test('joins multi-line data', async () => {
+    const reply = await read(responseOf(
+      'event:done\ndata:{"reply":\ndata:"two lines"}\n\n'
+    ), () => {});
+
+    expect(reply).toBe('two lines');
+  });
+
+  test('rejects with the message of an error event', async () => {
+    await expect(read(responseOf(
+      'event:delta\ndata:{"text":"partial"}\n\n',
+      'event:error\ndata:{"reply":"Sorry, something went wrong"}\n\n'
+    ), () => {})).rejects.toThrow('Sorry, something went wrong');
+  });
+
+  test('resolves with the text so far if the stream ends without a done event', async () => {
+    const reply = await read(responseOf(
+      'event:delta\ndata:{"text":"cut "}\n\n',
+      'event:delta\ndata:{"text":"off"}\n\n'
+    ), () => {});
+
+    expect(reply).toBe('cut off');
+  });
+});